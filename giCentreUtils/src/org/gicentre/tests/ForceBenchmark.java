@@ -0,0 +1,134 @@
+package org.gicentre.tests;
+
+import java.util.Random;
+
+import org.gicentre.utils.network.traer.physics.Integrator;
+import org.gicentre.utils.network.traer.physics.Particle;
+import org.gicentre.utils.network.traer.physics.ParticleSystem;
+
+//  ****************************************************************************************
+/** Compares the throughput of springs and attractions applied individually with that of the
+ *  same forces applied in batches. Each configuration is warmed up before timing so that the
+ *  comparison reflects compiled rather than interpreted code.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class ForceBenchmark
+{
+	// ------------------------------ Class variables ------------------------------
+
+	private static final int NUM_PARTICLES   = 5000;
+	private static final int NUM_SPRINGS     = 15000;
+	private static final int NUM_ATTRACTIONS = 15000;
+	private static final int NUM_WARMUP      = 200;
+	private static final int NUM_TICKS       = 500;
+
+	// ------------------------------ Starter method -------------------------------
+
+	/** Runs the benchmark and reports the results to the console.
+	 *  @param args Command line arguments (ignored).
+	 */
+	public static void main(String[] args)
+	{
+		System.out.println("Benchmarking "+NUM_SPRINGS+" springs and "+NUM_ATTRACTIONS+" attractions between "+NUM_PARTICLES+" particles.");
+
+		// Run each configuration twice, reporting only the second, so both benefit from JIT compilation.
+		for (int run=0; run<2; run++)
+		{
+			double individual = benchmark(false);
+			double batched    = benchmark(true);
+
+			if (run == 1)
+			{
+				report("Individual", individual);
+				report("Batched", batched);
+				System.out.println(String.format("Speed-up: %.2fx", individual/batched));
+			}
+		}
+	}
+
+	// ------------------------------ Private methods ------------------------------
+
+	/** Times the ticks of a randomly connected particle system.
+	 *  @param isBatched Whether springs and attractions are to be applied in batches.
+	 *  @return Mean time per tick in nanoseconds.
+	 */
+	private static double benchmark(boolean isBatched)
+	{
+		ParticleSystem physics = createSystem().setBatchedForces(isBatched);
+		for (int i=0; i<NUM_WARMUP; i++)
+		{
+			physics.tick(0.1f);
+		}
+
+		long start = System.nanoTime();
+		for (int i=0; i<NUM_TICKS; i++)
+		{
+			physics.tick(0.1f);
+		}
+		return (System.nanoTime()-start)/(double)NUM_TICKS;
+	}
+
+	/** Reports the time per tick and number of forces applied per second.
+	 *  @param label Name of the configuration.
+	 *  @param nanosPerTick Mean time per tick in nanoseconds.
+	 */
+	private static void report(String label, double nanosPerTick)
+	{
+		double forcesPerSecond = (NUM_SPRINGS+NUM_ATTRACTIONS)*1e9/nanosPerTick;
+		System.out.println(String.format("%-10s %8.3f ms per tick, %6.1f million forces per second",
+		                                 label, nanosPerTick/1e6, forcesPerSecond/1e6));
+	}
+
+	/** Creates a particle system with randomly placed particles connected by random springs and
+	 *  attractions. The same system is created on each call. Euler integration is used so that
+	 *  force application dominates the cost of each tick.
+	 *  @return New particle system.
+	 */
+	private static ParticleSystem createSystem()
+	{
+		Random rand = new Random(1);
+		ParticleSystem physics = new ParticleSystem(0, 0.75f);
+		physics.setIntegrator(Integrator.METHOD.EULER);
+
+		for (int i=0; i<NUM_PARTICLES; i++)
+		{
+			physics.makeParticle(1, rand.nextFloat()*1000, rand.nextFloat()*1000, 0);
+		}
+		for (int i=0; i<NUM_SPRINGS; i++)
+		{
+			Particle p1 = physics.getParticle(rand.nextInt(NUM_PARTICLES));
+			Particle p2 = physics.getParticle(rand.nextInt(NUM_PARTICLES));
+			if (p1 != p2)
+			{
+				physics.makeSpring(p1, p2, 0.1f, 0.1f, 30);
+			}
+		}
+		for (int i=0; i<NUM_ATTRACTIONS; i++)
+		{
+			Particle p1 = physics.getParticle(rand.nextInt(NUM_PARTICLES));
+			Particle p2 = physics.getParticle(rand.nextInt(NUM_PARTICLES));
+			if (p1 != p2)
+			{
+				physics.makeAttraction(p1, p2, -100, 10);
+			}
+		}
+		return physics;
+	}
+}
@@ -0,0 +1,430 @@
+package org.gicentre.tests;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.gicentre.utils.network.CompactGraph;
+import org.gicentre.utils.network.Edge;
+import org.gicentre.utils.network.HeadlessLayout;
+import org.gicentre.utils.network.LayoutListener;
+import org.gicentre.utils.network.MultilevelLayout;
+import org.gicentre.utils.network.Node;
+import org.gicentre.utils.network.ParticleViewer;
+import org.gicentre.utils.network.traer.physics.Particle;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PVector;
+
+//  ****************************************************************************************
+/** Set of unit tests for the network graph and layout classes.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class NetworkTest extends TestCase
+{
+	// --------------------------------- Test methods -------------------------------
+
+	/** Checks that a compact graph reports the same adjacency as the equivalent node and edge objects
+	 *  and that attributes grow with the graph.
+	 */
+	public void testCompactGraph()
+	{
+		Random rand = new Random(99);
+		List<Node> nodes = new ArrayList<Node>();
+		for (int i=0; i<200; i++)
+		{
+			nodes.add(new Node(rand.nextFloat()*100, rand.nextFloat()*100));
+		}
+		List<Edge> edges = new ArrayList<Edge>();
+		for (int i=0; i<600; i++)
+		{
+			edges.add(new Edge(nodes.get(rand.nextInt(200)), nodes.get(rand.nextInt(200)), rand.nextBoolean()));
+		}
+
+		CompactGraph graph = CompactGraph.create(nodes, edges);
+		assertEquals(200, graph.getNumNodes());
+		assertEquals(600, graph.getNumEdges());
+		for (int n=0; n<graph.getNumNodes(); n++)
+		{
+			Node node = nodes.get(n);
+			assertEquals(node.getLocation().x, graph.getX(n), 0);
+			assertEquals(node.getOutEdges().size(), graph.getOutDegree(n));
+			assertEquals(node.getInEdges().size(), graph.getInDegree(n));
+			for (int i=0; i<graph.getOutDegree(n); i++)
+			{
+				assertTrue(node.getOutEdges().contains(edges.get(graph.getOutEdge(n, i))));
+			}
+			for (int i=0; i<graph.getInDegree(n); i++)
+			{
+				assertTrue(node.getInEdges().contains(edges.get(graph.getInEdge(n, i))));
+			}
+			int[] neighbours = graph.getOutNeighbours(n);
+			for (int i=0; i<neighbours.length; i++)
+			{
+				assertEquals(neighbours[i], graph.getOpposite(graph.getOutEdge(n, i), n));
+			}
+		}
+
+		// Attributes and adjacency are extended as the graph grows.
+		int weight = graph.addEdgeAttribute("weight");
+		int size = graph.addNodeAttribute("size");
+		assertEquals(weight, graph.getEdgeAttributeColumn("weight"));
+		assertEquals(-1, graph.getNodeAttributeColumn("weight"));
+		int first = graph.getNumNodes();
+		for (int i=0; i<100; i++)
+		{
+			graph.addNode(i, i);
+			graph.setNodeAttribute(size, first+i, i);
+			graph.setEdgeAttribute(weight, graph.addEdge(first, first+i), 2*i);
+		}
+		assertEquals(99, graph.getNodeAttribute(size, first+99), 0);
+		assertEquals(198, graph.getEdgeAttribute(weight, graph.getNumEdges()-1), 0);
+		assertEquals(100, graph.getOutDegree(first));		// Includes one self-loop.
+
+		List<Node> copies = graph.createNodes();
+		List<Edge> copiedEdges = graph.createEdges(copies);
+		assertEquals(graph.getNumEdges(), copiedEdges.size());
+		assertEquals(graph.getInDegree(first+50), copies.get(first+50).getInEdges().size());
+	}
+
+	/** Checks that a grid network laid out in several levels has edges close to the natural length
+	 *  of a force-directed layout, with no edges stretched across the layout.
+	 */
+	public void testMultilevelLayout()
+	{
+		Random rand = new Random(1);
+		int width = 15;
+		List<Node> nodes = new ArrayList<Node>();
+		List<Edge> edges = new ArrayList<Edge>();
+		for (int i=0; i<width*width; i++)
+		{
+			nodes.add(new Node(rand.nextFloat()*500, rand.nextFloat()*500));
+		}
+		for (int row=0; row<width; row++)
+		{
+			for (int col=0; col<width; col++)
+			{
+				if (col+1 < width)
+				{
+					edges.add(new Edge(nodes.get(row*width+col), nodes.get(row*width+col+1)));
+				}
+				if (row+1 < width)
+				{
+					edges.add(new Edge(nodes.get(row*width+col), nodes.get((row+1)*width+col)));
+				}
+			}
+		}
+
+		MultilevelLayout multilevel = new MultilevelLayout(20).setSeed(1);
+		Map<Node,PVector> layout = multilevel.layout(nodes, edges);
+		assertTrue(multilevel.getNumLevels() > 2);
+		assertEquals(nodes.size(), layout.size());
+
+		for (Edge edge : edges)
+		{
+			float length = PVector.dist(layout.get(edge.getNode1()), layout.get(edge.getNode2()));
+			assertTrue(length > 5);
+			assertTrue(length < 100);
+		}
+	}
+
+	/** Checks that a headless layout runs until it converges or reaches its tick limit, reports its
+	 *  progress and exports its positions.
+	 */
+	public void testHeadlessLayout() throws IOException
+	{
+		HeadlessLayout<Node,Edge> layout = new HeadlessLayout<Node,Edge>();
+		Node[] nodes = new Node[5];
+		for (int i=0; i<nodes.length; i++)
+		{
+			nodes[i] = new Node(i*10, (i%2)*10);
+			layout.addNode(nodes[i]);
+		}
+		for (int i=1; i<nodes.length; i++)
+		{
+			assertTrue(layout.addEdge(new Edge(nodes[i-1], nodes[i]), 30));
+		}
+		assertFalse(layout.addEdge(new Edge(nodes[0], new Node(0, 0))));
+
+		final int[] numReports = new int[1];
+		layout.addLayoutListener(new LayoutListener()
+		{
+			public void layoutProgress(int numTicks, float displacement, long elapsedMillis)
+			{
+				numReports[0]++;
+			}
+		});
+		layout.setProgressInterval(10).setMaxTicks(5);
+		assertFalse(layout.run());
+		assertEquals(5, layout.getNumTicks());
+		assertEquals(1, numReports[0]);
+
+		layout.setMaxTicks(HeadlessLayout.DEFAULT_MAX_TICKS);
+		assertTrue(layout.run());
+		assertTrue(layout.getDisplacement() <= HeadlessLayout.DEFAULT_CONVERGENCE);
+
+		float[] positions = layout.getPositions();
+		assertEquals(10, positions.length);
+		for (int i=1; i<nodes.length; i++)
+		{
+			float length = (float)Math.hypot(positions[2*i]-positions[2*i-2], positions[2*i+1]-positions[2*i-1]);
+			assertEquals(30, length, 0.5f);
+		}
+
+		StringWriter writer = new StringWriter();
+		layout.writePositions(writer);
+		String[] lines = writer.toString().split("\n");
+		assertEquals(6, lines.length);
+		assertEquals("4,"+positions[8]+","+positions[9], lines[5]);
+
+		// Convergence must hold for several consecutive ticks, not just the first slow tick from rest.
+		HeadlessLayout<Node,Edge> fromRest = new HeadlessLayout<Node,Edge>();
+		Node[] restNodes = {new Node(0, 0), new Node(10, 0)};
+		fromRest.addNode(restNodes[0]);
+		fromRest.addNode(restNodes[1]);
+		fromRest.addEdge(new Edge(restNodes[0], restNodes[1]), 30);
+		fromRest.setConvergence(1000, 1);
+		assertTrue(fromRest.run());
+		assertEquals(1, fromRest.getNumTicks());
+		fromRest.setConvergence(1000);
+		assertTrue(fromRest.run());
+		assertEquals(HeadlessLayout.DEFAULT_CONVERGENCE_TICKS, fromRest.getNumTicks());
+	}
+
+	/** Checks that only the nodes and edges in or near the visible part of a zoomed view are drawn when
+	 *  culling is on, whether positions come from the particles or from a settled background simulation,
+	 *  and that only one node is drawn in each cell when the level of detail is reduced.
+	 */
+	public void testViewportCulling() throws InterruptedException
+	{
+		List<Node> drawnNodes = new ArrayList<Node>();
+		List<Edge> drawnEdges = new ArrayList<Edge>();
+		ParticleViewer<Node,Edge> viewer = new ParticleViewer<Node,Edge>(createApplet(200,200), 200, 200);
+
+		// A 20x20 grid of nodes 10 units apart joined by horizontal edges.
+		Node[][] grid = new Node[20][20];
+		for (int row=0; row<20; row++)
+		{
+			for (int col=0; col<20; col++)
+			{
+				grid[row][col] = new RecordedNode(col*10, row*10, drawnNodes);
+				viewer.addNode(grid[row][col]);
+				viewer.getParticle(grid[row][col]).makeFixed();
+				if (col > 0)
+				{
+					viewer.addEdge(new RecordedEdge(grid[row][col-1], grid[row][col], drawnEdges));
+				}
+			}
+		}
+		// An edge that crosses the zoomed view with both ends outside it.
+		viewer.addEdge(new RecordedEdge(grid[1][6], grid[6][1], drawnEdges));
+
+		// Let the view settle on the whole network before zooming into its top-left corner, where
+		// nodes between 0 and 40 lie within the visible area and its margin.
+		for (int i=0; i<300; i++)
+		{
+			viewer.draw();
+		}
+		viewer.getZoomPan().setZoomScale(4);
+		viewer.getZoomPan().setPanOffset(300, 300);
+		viewer.setViewportCulling(true);
+
+		drawnNodes.clear();
+		drawnEdges.clear();
+		viewer.draw();
+		assertEquals(25, drawnNodes.size());
+		assertEquals(26, drawnEdges.size());
+		assertTrue(containsEdge(drawnEdges, grid[1][6], grid[6][1]));
+
+		// The same nodes and edges should be found from the spatial indices once the background layout settles.
+		viewer.startBackgroundUpdates(100);
+		for (int i=0; i<5; i++)
+		{
+			Thread.sleep(20);
+			viewer.draw();
+		}
+		drawnNodes.clear();
+		drawnEdges.clear();
+		viewer.draw();
+		viewer.stopBackgroundUpdates();
+		assertEquals(25, drawnNodes.size());
+		assertEquals(26, drawnEdges.size());
+		assertTrue(containsEdge(drawnEdges, grid[1][6], grid[6][1]));
+
+		viewer.setViewportCulling(false);
+		drawnNodes.clear();
+		viewer.draw();
+		assertEquals(400, drawnNodes.size());
+
+		// Zoomed out with 52 pixel cells, the network spans 4x4 cells so only one node in each is drawn.
+		viewer.resetView();
+		viewer.setViewportCulling(true);
+		viewer.setLevelOfDetail(52);
+		drawnNodes.clear();
+		viewer.draw();
+		assertEquals(16, drawnNodes.size());
+	}
+
+	/** Checks that spacing out the nodes of a viewer does not push a tethered node away from its stake.
+	 */
+	public void testTetheredRepulsion()
+	{
+		ParticleViewer<Node,Edge> viewer = new ParticleViewer<Node,Edge>(new PApplet(), 500, 500);
+		Node tethered = new Node(0, 0);
+		viewer.addNode(tethered);
+		viewer.addNode(new Node(500, 0));
+		viewer.tether(tethered, 0.5f);
+		viewer.spaceNodes();
+		for (int i=0; i<500; i++)
+		{
+			viewer.updateParticles();
+		}
+		Particle p = viewer.getParticle(tethered);
+		assertEquals(0, p.position().x(), 0.1f);
+		assertEquals(0, p.position().y(), 0.1f);
+	}
+
+	// -------------------------------- Private methods -------------------------------
+
+	/** Creates a sketch whose drawing surface ignores all drawing so that viewers can be drawn without a display.
+	 *  @param width Width of the sketch.
+	 *  @param height Height of the sketch.
+	 *  @return Sketch with a drawing surface that draws nothing.
+	 */
+	private static PApplet createApplet(int width, int height)
+	{
+		PApplet applet = new PApplet();
+		PGraphics graphics = new PGraphics()
+		{
+			@Override
+			public void pushMatrix()
+			{
+				// Nothing is drawn so there is no transformation to store.
+			}
+
+			@Override
+			public void popMatrix()
+			{
+				// Nothing is drawn so there is no transformation to restore.
+			}
+
+			@Override
+			public void translate(float x, float y)
+			{
+				// Nothing is drawn so there is no transformation to change.
+			}
+
+			@Override
+			public void scale(float s)
+			{
+				// Nothing is drawn so there is no transformation to change.
+			}
+
+			@Override
+			public void scale(float x, float y)
+			{
+				// Nothing is drawn so there is no transformation to change.
+			}
+
+			@Override
+			public void blendMode(int mode)
+			{
+				// Nothing is drawn so there is nothing to blend.
+			}
+
+			@Override
+			public void rect(float a, float b, float c, float d)
+			{
+				// Shaded cells are not drawn.
+			}
+		};
+		graphics.setParent(applet);
+		graphics.setPrimary(false);
+		graphics.setSize(width, height);
+		applet.g = graphics;
+		applet.width = width;
+		applet.height = height;
+		return applet;
+	}
+
+	/** Reports whether the given list holds an edge joining the given nodes.
+	 *  @param edges Edges to search.
+	 *  @param node1 First node of the edge.
+	 *  @param node2 Second node of the edge.
+	 *  @return True if one of the edges joins the first node to the second.
+	 */
+	private static boolean containsEdge(List<Edge> edges, Node node1, Node node2)
+	{
+		for (Edge edge : edges)
+		{
+			if ((edge.getNode1() == node1) && (edge.getNode2() == node2))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// -------------------------------- Nested classes --------------------------------
+
+	/** Node that records when it is drawn.
+	 */
+	private static class RecordedNode extends Node
+	{
+		private final List<Node> drawn;		// Nodes drawn so far.
+
+		RecordedNode(float x, float y, List<Node> drawn)
+		{
+			super(x, y);
+			this.drawn = drawn;
+		}
+
+		@Override
+		public void draw(PApplet applet, float px, float py)
+		{
+			drawn.add(this);
+		}
+	}
+
+	/** Edge that records when it is drawn.
+	 */
+	private static class RecordedEdge extends Edge
+	{
+		private final List<Edge> drawn;		// Edges drawn so far.
+
+		RecordedEdge(Node node1, Node node2, List<Edge> drawn)
+		{
+			super(node1, node2);
+			this.drawn = drawn;
+		}
+
+		@Override
+		public void draw(PApplet applet, float p1x, float p1y, float p2x, float p2y)
+		{
+			drawn.add(this);
+		}
+	}
+}
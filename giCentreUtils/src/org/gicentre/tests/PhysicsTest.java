@@ -0,0 +1,1242 @@
+package org.gicentre.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.gicentre.utils.network.traer.physics.*;
+
+//  ****************************************************************************************
+/** Set of unit tests for the particle physics engine.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class PhysicsTest extends TestCase
+{
+	// --------------------------------- Test methods -------------------------------
+
+	/** Checks that the array-based Runge-Kutta integrator produces identical results to the
+	 *  original map-based version.
+	 */
+	public void testFastRungeKutta()
+	{
+		ParticleSystem physics1 = createNetwork(Integrator.METHOD.RUNGEKUTTA);
+		ParticleSystem physics2 = createNetwork(Integrator.METHOD.FASTRUNGEKUTTA);
+
+		for (int i=0; i<200; i++)
+		{
+			physics1.tick(0.3f);
+			physics2.tick(0.3f);
+		}
+		assertSameState(physics1, physics2);
+	}
+
+	/** Checks that the particle store provides slot handles into its arrays and that changes made
+	 *  to the arrays can be written back to the particles.
+	 */
+	public void testParticleStore()
+	{
+		ParticleSystem physics = createNetwork(Integrator.METHOD.RUNGEKUTTA);
+		ParticleStore store = physics.getParticleStore();
+		assertEquals(physics.getNumParticles(), store.size());
+
+		Particle p = physics.getParticle(7);
+		int slot = store.getSlot(p);
+		assertEquals(7, slot);
+		assertSame(p, store.getParticle(slot));
+		assertEquals(p.position().x(), store.getX()[slot], 0);
+
+		store.getX()[slot] += 5;
+		store.save();
+		assertEquals(store.getX()[slot], p.position().x(), 0);
+		assertEquals(-1, store.getSlot(new Particle()));
+	}
+
+	/** Checks that the Barnes-Hut repulsion matches the equivalent pairwise attractions exactly when
+	 *  its opening angle is zero and approximately when larger.
+	 */
+	public void testBarnesHut()
+	{
+		ParticleSystem physics = new ParticleSystem();
+		Random rand = new Random(1234);
+		for (int i=0; i<200; i++)
+		{
+			physics.makeParticle(1+rand.nextFloat(), rand.nextFloat()*400, rand.nextFloat()*400, 0);
+		}
+
+		// Reference forces from pairwise attractions.
+		int n = physics.getNumParticles();
+		for (int i=0; i<n; i++)
+		{
+			for (int j=0; j<i; j++)
+			{
+				new Attraction(physics.getParticle(i), physics.getParticle(j), -1000, 0.1f).apply();
+			}
+		}
+		Vector3D[] expected = new Vector3D[n];
+		for (int i=0; i<n; i++)
+		{
+			expected[i] = physics.getParticle(i).getForce().copy();
+			physics.getParticle(i).clearForce();
+		}
+
+		BarnesHutRepulsion repulsion = new BarnesHutRepulsion(physics, 1000, 0.1f, 0);
+		repulsion.apply();
+		for (int i=0; i<n; i++)
+		{
+			Vector3D force = physics.getParticle(i).getForce();
+			assertEquals(0, force.distanceTo(expected[i]), expected[i].length()*1e-3f);
+			force.clear();
+		}
+
+		// Approximation errors for individual particles can be large where repulsions nearly cancel, so compare totals.
+		repulsion.setTheta(0.5f).apply();
+		float totalError=0, totalForce=0;
+		for (int i=0; i<n; i++)
+		{
+			totalError += physics.getParticle(i).getForce().distanceTo(expected[i]);
+			totalForce += expected[i].length();
+		}
+		assertTrue(totalError < totalForce*0.02f);
+	}
+
+	/** Checks that applying forces in parallel is deterministic for a given number of threads and
+	 *  closely matches sequential application.
+	 */
+	public void testParallelForces()
+	{
+		ParticleSystem sequential = createNetwork(Integrator.METHOD.RUNGEKUTTA);
+		ParticleSystem parallel1 = createNetwork(Integrator.METHOD.RUNGEKUTTA).setNumThreads(4);
+		ParticleSystem parallel2 = createNetwork(Integrator.METHOD.RUNGEKUTTA).setNumThreads(4);
+		assertEquals(4, parallel1.getNumThreads());
+
+		for (int i=0; i<200; i++)
+		{
+			sequential.tick(0.3f);
+			parallel1.tick(0.3f);
+			parallel2.tick(0.3f);
+		}
+		assertSameState(parallel1, parallel2);
+
+		for (int i=0; i<sequential.getNumParticles(); i++)
+		{
+			assertEquals(0, sequential.getParticle(i).position().distanceTo(parallel1.getParticle(i).position()), 1e-2f);
+		}
+
+
+		// Forces on particles outside a system are summed in the same order whichever thread finds them.
+		ParticleSystem[] systems = new ParticleSystem[] {sequential, parallel1, parallel2};
+		Particle[] outside = new Particle[systems.length];
+		for (int s=0; s<systems.length; s++)
+		{
+			outside[s] = new Particle(1);
+			outside[s].position().set(25, 25, 0);
+			for (int i=0; i<systems[s].getNumParticles(); i++)
+			{
+				systems[s].makeAttraction(systems[s].getParticle(i), outside[s], -100, 1);
+			}
+			systems[s].tick(0.3f);
+		}
+		assertEquals(outside[1].getForce(), outside[2].getForce());
+		assertEquals(0, outside[0].getForce().distanceTo(outside[1].getForce()), 1e-3f*outside[0].getForce().length());
+
+		parallel1.setNumThreads(1);
+		parallel2.setNumThreads(1);
+		assertEquals(1, parallel1.getNumThreads());
+	}
+
+	/** Checks that the background simulator publishes snapshots matching the state of the particles.
+	 *  @throws InterruptedException if the test is interrupted while waiting for the simulator.
+	 */
+	public void testSimulator() throws InterruptedException
+	{
+		ParticleSystem physics = createNetwork(Integrator.METHOD.RUNGEKUTTA);
+		ParticleSimulator simulator = new ParticleSimulator(physics).setTimeStep(0.3f);
+		assertEquals(0, simulator.getSnapshot().getTick());
+
+		for (int i=0; i<10; i++)
+		{
+			simulator.tick();
+		}
+		ParticleSnapshot snapshot = simulator.getSnapshot();
+		assertEquals(10, snapshot.getTick());
+		assertEquals(physics.getNumParticles(), snapshot.getNumParticles());
+		for (int i=0; i<physics.getNumParticles(); i++)
+		{
+			Particle p = physics.getParticle(i);
+			assertEquals(i, snapshot.indexOf(p));
+			assertEquals(p.position().x(), snapshot.getX(i), 0);
+			assertEquals(p.position().y(), snapshot.getY(i), 0);
+		}
+		assertSame(snapshot, simulator.getSnapshot());
+
+		simulator.setTicksPerSecond(0).start();
+		while (simulator.getSnapshot().getTick() < 50)
+		{
+			Thread.sleep(1);
+		}
+		simulator.stop();
+		assertFalse(simulator.isRunning());
+		assertTrue(simulator.getTickCount() >= 50);
+	}
+
+	/** Checks that particles at rest fall asleep and are woken when a connected particle is moved.
+	 */
+	public void testSleeping()
+	{
+		ParticleSystem physics = createChain(Integrator.METHOD.RUNGEKUTTA, 0.75f);
+		physics.setSleepThresholds(1e-4f, 1e-3f, 10);
+
+		int numTicks = 0;
+		while (!physics.isSettled() && (numTicks < 5000))
+		{
+			physics.tick(0.3f);
+			numTicks++;
+		}
+		assertTrue(physics.isSettled());
+		Particle neighbour = physics.getSpring(0).getTheOtherEnd();
+		assertTrue(neighbour.isAsleep());
+		assertFalse(neighbour.isFree());
+
+		// Moving a fixed particle should wake its neighbours.
+		Particle anchor = physics.getParticle(0);
+		anchor.position().add(20, 0, 0);
+		physics.tick(0.3f);
+		assertFalse(physics.isSettled());
+		assertFalse(neighbour.isAsleep());
+
+		physics.setSleepThresholds(0, 0);
+		for (int i=0; i<physics.getNumParticles(); i++)
+		{
+			assertFalse(physics.getParticle(i).isAsleep());
+		}
+	}
+
+	/** Checks that the single evaluation integrators do not add energy to an undamped oscillator
+	 *  and bring a damped chain of springs to the same rest state as the Runge-Kutta integrator.
+	 */
+	public void testSymplecticIntegrators()
+	{
+		Integrator.METHOD[] methods = new Integrator.METHOD[] {Integrator.METHOD.VERLET, Integrator.METHOD.SEMIEULER};
+		for (Integrator.METHOD method : methods)
+		{
+			ParticleSystem physics = new ParticleSystem(0, 0);
+			physics.setIntegrator(method);
+			Particle anchor = physics.makeParticle(1, 0, 0, 0).makeFixed();
+			Particle bob = physics.makeParticle(1, 20, 0, 0);
+			Spring spring = physics.makeSpring(anchor, bob, 0.5f, 0, 10);
+
+			// Energy of a symplectic integration oscillates slightly but should not grow.
+			float initialEnergy = getEnergy(spring);
+			float maxEnergy = initialEnergy;
+			for (int i=0; i<2000; i++)
+			{
+				physics.tick(0.3f);
+				maxEnergy = Math.max(maxEnergy, getEnergy(spring));
+			}
+			assertTrue(method.toString(), maxEnergy < initialEnergy*1.2f);
+
+			ParticleSystem reference = createChain(Integrator.METHOD.RUNGEKUTTA, 0.75f);
+			ParticleSystem chain = createChain(method, 0.75f);
+			for (int i=0; i<1000; i++)
+			{
+				reference.tick(0.3f);
+				chain.tick(0.3f);
+			}
+			for (int i=0; i<chain.getNumParticles(); i++)
+			{
+				assertEquals(method.toString(), 0, reference.getParticle(i).distanceTo(chain.getParticle(i)), 0.1f);
+			}
+		}
+	}
+
+	/** Checks that the Verlet integrator evaluates the forces afresh when the system is changed between
+	 *  ticks, so that it continues exactly as an integrator starting from the changed state would.
+	 */
+	public void testVerletChanges()
+	{
+		for (int change=0; change<11; change++)
+		{
+			ParticleSystem physics = createNetwork(Integrator.METHOD.VERLET);
+			ParticleSystem reference = createNetwork(Integrator.METHOD.VERLET);
+			for (int i=0; i<20; i++)
+			{
+				physics.tick(0.5f);
+				reference.tick(0.5f);
+			}
+			changeNetwork(physics, change);
+			changeNetwork(reference, change);
+			
+			// A new integrator has no accelerations from previous ticks.
+			reference.setIntegrator(Integrator.METHOD.VERLET);
+			for (int i=0; i<20; i++)
+			{
+				physics.tick(0.5f);
+				reference.tick(0.5f);
+			}
+			assertSameState(physics, reference);
+		}
+	}
+
+	/** Checks that the adaptive integrator matches a finely stepped Runge-Kutta integration using
+	 *  far fewer force evaluations, and records the sizes of the steps it takes.
+	 */
+	public void testAdaptiveRungeKutta()
+	{
+		ParticleSystem reference = createChain(Integrator.METHOD.RUNGEKUTTA, 0.75f);
+		for (int i=0; i<3000; i++)
+		{
+			reference.tick(0.01f);
+		}
+
+		ParticleSystem adaptive = createChain(Integrator.METHOD.RUNGEKUTTA, 0.75f);
+		AdaptiveRungeKuttaIntegrator integrator = new AdaptiveRungeKuttaIntegrator(adaptive);
+		integrator.setTolerance(1e-4f).setStepBounds(0.001f, 5);
+		adaptive.setIntegrator(integrator);
+		for (int i=0; i<100; i++)
+		{
+			adaptive.tick(0.3f);
+		}
+
+		for (int i=0; i<adaptive.getNumParticles(); i++)
+		{
+			assertEquals(0, reference.getParticle(i).distanceTo(adaptive.getParticle(i)), 0.05f);
+		}
+		assertTrue(integrator.getNumEvaluations() < 3000);
+
+		float[] steps = integrator.getStepHistory();
+		assertTrue(steps.length > 0);
+		for (float step : steps)
+		{
+			assertTrue((step > 0) && (step <= 0.3f+1e-6f));
+		}
+	}
+
+	/** Checks that particles and forces can be retrieved and removed by position.
+	 */
+	public void testIndexedAccess()
+	{
+		ParticleSystem physics = createChain(Integrator.METHOD.RUNGEKUTTA, 0.75f);
+		int numSprings = physics.getNumSprings();
+		Spring first = physics.getSpring(0);
+		Spring last = physics.getSpring(numSprings-1);
+		assertNull(physics.getSpring(numSprings));
+		assertNull(physics.getSpring(-1));
+
+		// Removing by position moves the last spring into the gap.
+		assertSame(first, physics.removeSpring(0));
+		assertSame(last, physics.getSpring(0));
+		assertEquals(numSprings-1, physics.getNumSprings());
+		assertFalse(physics.getSprings().contains(first));
+
+		// Every remaining spring should be visited when removing with an iterator.
+		int numVisited = 0;
+		Iterator<Spring> it = physics.getSprings().iterator();
+		while (it.hasNext())
+		{
+			it.next();
+			numVisited++;
+			if (numVisited%2 == 0)
+			{
+				it.remove();
+			}
+		}
+		assertEquals(numSprings-1, numVisited);
+		assertEquals((numSprings-1)-(numSprings-1)/2, physics.getNumSprings());
+
+		Particle p = physics.getParticle(3);
+		physics.removeParticle(p);
+		assertFalse(physics.getParticles().contains(p));
+		assertNull(physics.getParticle(physics.getNumParticles()));
+	}
+
+	/** Checks that the forces attached to each particle are indexed and removed along with the particle.
+	 */
+	public void testIncidence()
+	{
+		ParticleSystem physics = createNetwork(Integrator.METHOD.RUNGEKUTTA);
+		Particle corner = physics.getParticle(0);
+		Particle centre = physics.getParticle(14);
+		assertEquals(2, physics.getSprings(corner).size());
+		assertEquals(4, physics.getSprings(centre).size());
+		assertEquals(1, physics.getAttractions(corner).size());
+		assertTrue(physics.getAttractions(centre).isEmpty());
+
+		for (Spring spring : physics.getSprings(centre))
+		{
+			assertTrue((spring.getOneEnd() == centre) || (spring.getTheOtherEnd() == centre));
+		}
+
+		int numSprings = physics.getNumSprings();
+		physics.removeParticle(centre);
+		assertEquals(numSprings-4, physics.getNumSprings());
+		assertTrue(physics.getSprings(centre).isEmpty());
+		for (Spring spring : physics.getSprings())
+		{
+			assertTrue((spring.getOneEnd() != centre) && (spring.getTheOtherEnd() != centre));
+		}
+
+		physics.removeParticle(corner);
+		assertEquals(0, physics.getNumAttractions());
+		assertTrue(physics.getAttractions(physics.getParticle(physics.getNumParticles()-1)).isEmpty());
+
+		// Removing a spring directly from the collection should also update the index.
+		Spring spring = physics.getSpring(0);
+		Particle end = spring.getOneEnd();
+		int degree = physics.getSprings(end).size();
+		physics.getSprings().remove(spring);
+		assertEquals(degree-1, physics.getSprings(end).size());
+	}
+
+	/** Checks that springs and attractions calculated in place give the same forces as the
+	 *  original vector-based calculation made through a force pair.
+	 */
+	public void testInPlaceForces()
+	{
+		Random rand = new Random(7);
+		for (int i=0; i<100; i++)
+		{
+			Particle p1 = new Particle(1+rand.nextFloat());
+			Particle p2 = new Particle(1+rand.nextFloat());
+			p1.position().set(rand.nextFloat()*100, rand.nextFloat()*100, rand.nextFloat()*100);
+			p2.position().set(rand.nextFloat()*100, rand.nextFloat()*100, rand.nextFloat()*100);
+			p1.velocity().set(rand.nextFloat()-0.5f, rand.nextFloat()-0.5f, rand.nextFloat()-0.5f);
+			p2.velocity().set(rand.nextFloat()-0.5f, rand.nextFloat()-0.5f, rand.nextFloat()-0.5f);
+
+			new Spring(p1, p2, 0.2f, 0.1f, 40).apply();
+			new Attraction(p1, p2, -500, 20).apply();
+			Vector3D force1 = p1.getForce().copy();
+			Vector3D force2 = p2.getForce().copy();
+
+			p1.clearForce();
+			p2.clearForce();
+			new VectorForces(p1, p2, 0.2f, 0.1f, 40, -500, 20).apply();
+
+			assertEquals(0, force1.distanceTo(p1.getForce()), 1e-4f*(1+force1.length()));
+			assertEquals(0, force2.distanceTo(p2.getForce()), 1e-4f*(1+force2.length()));
+		}
+	}
+
+	/** Checks that applying springs and attractions in batches gives the same results as applying
+	 *  them individually, including forces that cannot be batched.
+	 */
+	public void testBatchedForces()
+	{
+		ParticleSystem individual = createNetwork(Integrator.METHOD.RUNGEKUTTA);
+		ParticleSystem batched = createNetwork(Integrator.METHOD.RUNGEKUTTA).setBatchedForces(true);
+		assertTrue(batched.isBatchedForces());
+
+		// A spring subclass should be applied individually.
+		ParticleSystem[] systems = new ParticleSystem[] {individual, batched};
+		for (ParticleSystem physics : systems)
+		{
+			physics.getSprings().add(new Spring(physics.getParticle(3), physics.getParticle(20), 0.2f, 0.1f, 30) {});
+		}
+
+		for (int i=0; i<200; i++)
+		{
+			individual.tick(0.3f);
+			batched.tick(0.3f);
+		}
+
+		for (int i=0; i<individual.getNumParticles(); i++)
+		{
+			assertEquals(0, individual.getParticle(i).position().distanceTo(batched.getParticle(i).position()), 1e-2f);
+		}
+
+		batched.setBatchedForces(false);
+		assertFalse(batched.isBatchedForces());
+	}
+
+	/** Checks that the grid finds the same neighbours as a search of every particle, and that the
+	 *  grid-based repulsion only acts between particles within the cutoff distance.
+	 */
+	public void testGridRepulsion()
+	{
+		Random rand = new Random(3);
+
+		// Compact and widely spread layouts, the latter causing grid cells to be folded together.
+		float[] extents = new float[] {200, 1e6f};
+		for (float extent : extents)
+		{
+			ParticleSystem physics = new ParticleSystem(0, 0);
+			for (int i=0; i<300; i++)
+			{
+				float spread = (i < 150) ? 200 : extent;
+				physics.makeParticle(1, rand.nextFloat()*spread, rand.nextFloat()*spread, 0);
+			}
+
+			ParticleGrid grid = new ParticleGrid(20).build(physics.getParticles());
+			assertEquals(300, grid.getNumParticles());
+			for (int i=0; i<20; i++)
+			{
+				Vector3D centre = physics.getParticle(i).position();
+				int numWithin = 0;
+				for (Particle p : physics.getParticles())
+				{
+					if (p.position().distanceTo(centre) <= 35)
+					{
+						numWithin++;
+					}
+				}
+				assertEquals(numWithin, grid.getParticlesWithin(centre.x(), centre.y(), centre.z(), 35).size());
+			}
+
+			GridRepulsion repulsion = new GridRepulsion(physics, 100, 1, 30);
+			repulsion.apply();
+			for (int i=0; i<physics.getNumParticles(); i++)
+			{
+				Particle p = physics.getParticle(i);
+				Vector3D expected = new Vector3D();
+				for (Particle other : physics.getParticles())
+				{
+					Vector3D separation = Vector3D.subtract(p.position(), other.position());
+					float dist = separation.length();
+					if ((other != p) && (dist > 0) && (dist < 30))
+					{
+						float d = Math.max(1, dist);
+						expected.add(separation.length(100*(1/(d*d) - 1/900f)));
+					}
+				}
+				assertEquals(0, expected.distanceTo(p.getForce()), 1e-4f);
+			}
+		}
+
+		// Overlapping particles should be pushed apart by a collision.
+		ParticleSystem physics = new ParticleSystem(0, 0.5f);
+		Particle p1 = physics.makeParticle(1, 0, 0, 0);
+		Particle p2 = physics.makeParticle(1, 4, 0, 0);
+		physics.addCustomForce(new GridRepulsion(physics, 0, 1, 2).setCollision(5, 1, 0.5f));
+		for (int i=0; i<200; i++)
+		{
+			physics.tick(0.3f);
+		}
+		assertTrue(p1.position().distanceTo(p2.position()) > 9.9f);
+
+		// Particles at the same position should also separate.
+		physics = new ParticleSystem(0, 0.5f);
+		for (int i=0; i<5; i++)
+		{
+			physics.makeParticle(1, 50, 50, 0);
+		}
+		physics.addCustomForce(new GridRepulsion(physics, 0, 1, 2).setCollision(5, 1, 0.5f));
+		for (int i=0; i<400; i++)
+		{
+			physics.tick(0.3f);
+		}
+		for (Particle p : physics.getParticles())
+		{
+			for (Particle other : physics.getParticles())
+			{
+				assertTrue((p == other) || (p.position().distanceTo(other.position()) > 9.5f));
+			}
+		}
+	}
+
+	/** Checks that a system is partitioned into its connected components, that ticking the components
+	 *  matches ticking the whole system, and that packing separates the components.
+	 */
+	public void testPartitionedSystem()
+	{
+		// Three chains of different lengths in a single system, all starting at the origin.
+		ParticleSystem[] systems = new ParticleSystem[2];
+		for (int s=0; s<systems.length; s++)
+		{
+			systems[s] = new ParticleSystem(0, 0.5f);
+			for (int c=1; c<=3; c++)
+			{
+				Particle previous = systems[s].makeParticle(1, 0, 0, 0);
+				for (int i=1; i<c*4; i++)
+				{
+					Particle p = systems[s].makeParticle(1, i*15, c+i%3, 0);
+					systems[s].makeSpring(previous, p, 0.5f, 0.1f, 10);
+					previous = p;
+				}
+			}
+		}
+		systems[1].makeParticle(1, 0, 0, 0);
+
+		PartitionedSystem partitioned = new PartitionedSystem(systems[0]).setNumThreads(2);
+		assertEquals(3, partitioned.getNumComponents());
+		assertEquals(12, partitioned.getComponent(0).getNumParticles());
+		assertEquals(11, partitioned.getComponent(0).getNumSprings());
+		assertEquals(4, PartitionedSystem.findComponents(systems[1]).size());
+		assertEquals(2, partitioned.getComponentIndex(systems[0].getParticle(0)));
+
+		for (int i=0; i<100; i++)
+		{
+			partitioned.tick(0.3f);
+			systems[1].tick(0.3f);
+		}
+		for (int i=0; i<systems[0].getNumParticles(); i++)
+		{
+			assertEquals(systems[1].getParticle(i).position(), systems[0].getParticle(i).position());
+		}
+
+		partitioned.pack(5);
+		float[][] bounds = new float[3][];
+		for (int c=0; c<3; c++)
+		{
+			bounds[c] = new float[] {Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+			for (Particle p : partitioned.getComponent(c).getParticles())
+			{
+				bounds[c][0] = Math.min(bounds[c][0], p.position().x());
+				bounds[c][1] = Math.min(bounds[c][1], p.position().y());
+				bounds[c][2] = Math.max(bounds[c][2], p.position().x());
+				bounds[c][3] = Math.max(bounds[c][3], p.position().y());
+			}
+		}
+		for (int c1=0; c1<3; c1++)
+		{
+			for (int c2=c1+1; c2<3; c2++)
+			{
+				boolean isSeparate = (bounds[c1][2]+5 <= bounds[c2][0]+1e-3f) || (bounds[c2][2]+5 <= bounds[c1][0]+1e-3f) ||
+				                     (bounds[c1][3]+5 <= bounds[c2][1]+1e-3f) || (bounds[c2][3]+5 <= bounds[c1][1]+1e-3f);
+				assertTrue(isSeparate);
+			}
+		}
+		partitioned.shutdown();
+	}
+
+	/** Checks that a particle system restored from an archive, whether read through a channel or
+	 *  memory-mapped, continues tick for tick as the saved system, including when the integrator carries
+	 *  state between steps and when particles are falling asleep.
+	 */
+	public void testArchive() throws IOException
+	{
+		File file = File.createTempFile("physics", ".bin");
+		file.deleteOnExit();
+		ByteArrayOutputStream bytes = null;
+
+		Integrator.METHOD[] methods = new Integrator.METHOD[] {Integrator.METHOD.MODEULER, Integrator.METHOD.VERLET,
+		                                                       Integrator.METHOD.RUNGEKUTTA};
+		for (Integrator.METHOD method : methods)
+		{
+			boolean isSleeping = (method == Integrator.METHOD.RUNGEKUTTA);
+			for (int mode=0; mode<3; mode++)
+			{
+				ParticleSystem physics = createArchiveSystem(method, isSleeping);
+				ParticleSystem restored;
+				if (mode == 0)
+				{
+					bytes = new ByteArrayOutputStream();
+					ParticleSystemArchive.save(physics, Channels.newChannel(bytes));
+					restored = ParticleSystemArchive.load(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+				}
+				else
+				{
+					ParticleSystemArchive.save(physics, file, mode == 2);
+					assertEquals(bytes.size(), file.length());
+					restored = ParticleSystemArchive.load(file, mode == 2);
+				}
+				assertEquals(method, restored.getIntegratorMethod());
+				assertEquals(physics.getDrag(), restored.getDrag(), 0);
+				assertEquals(physics.getNumSprings(), restored.getNumSprings());
+				assertEquals(physics.getNumAttractions(), restored.getNumAttractions());
+				assertTrue(restored.getParticle(0).isFixed());
+				assertTrue(restored.getAttraction(3).isOff());
+				assertEquals(physics.getParticle(7).age(), restored.getParticle(7).age(), 0);
+
+				int numAsleep = 0;
+				for (int i=0; i<30; i++)
+				{
+					physics.tick(0.3f);
+					restored.tick(0.3f);
+					assertSameState(physics, restored);
+					for (int j=0; j<physics.getNumParticles(); j++)
+					{
+						assertEquals(physics.getParticle(j).isAsleep(), restored.getParticle(j).isAsleep());
+						numAsleep += physics.getParticle(j).isAsleep() ? 1 : 0;
+					}
+				}
+				assertEquals(isSleeping, numAsleep > 0);
+			}
+		}
+
+		try
+		{
+			ParticleSystemArchive.load(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray(), 0, 100)));
+			fail("Truncated archive should not load.");
+		}
+		catch (IOException e)
+		{
+			// Expected.
+		}
+	}
+
+	/** Checks that recorded ticks are replayed exactly, including after the oldest ticks have been
+	 *  discarded, and that restoring a tick lets the simulation continue as it did originally.
+	 */
+	public void testTickRecorder()
+	{
+		ParticleSystem physics = new ParticleSystem(0, 0.2f);
+		for (int i=0; i<20; i++)
+		{
+			physics.makeParticle(1, i*10, (i*7)%13, 0);
+		}
+		physics.getParticle(0).makeFixed();
+		for (int i=1; i<20; i++)
+		{
+			physics.makeSpring(physics.getParticle(i-1), physics.getParticle(i), 0.5f, 0.1f, 5);
+		}
+		TickRecorder recorder = new TickRecorder(physics, 20000, 10);
+		physics.setTickRecorder(recorder);
+
+		List<float[]> history = new ArrayList<float[]>();
+		for (int t=0; t<200; t++)
+		{
+			physics.tick(0.3f);
+			float[] xyz = new float[60];
+			for (int i=0; i<20; i++)
+			{
+				xyz[3*i]   = physics.getParticle(i).position().x();
+				xyz[3*i+1] = physics.getParticle(i).position().y();
+				xyz[3*i+2] = physics.getParticle(i).position().z();
+			}
+			history.add(xyz);
+		}
+		assertEquals(199, recorder.getLastTick());
+		assertTrue(recorder.getFirstTick() > 0);
+		assertTrue(recorder.getSizeInBytes() <= recorder.getCapacity());
+		assertFalse(recorder.seek(recorder.getFirstTick()-1));
+
+		// Seek backwards, then step forwards through consecutive ticks.
+		float[] xyz = new float[60];
+		long first = recorder.getFirstTick();
+		for (long t : new long[] {199, first, first+13, first+14, first+15, 150})
+		{
+			assertTrue(recorder.seek(t));
+			assertTrue(Arrays.equals(history.get((int)t), recorder.getPositions(xyz)));
+		}
+
+		recorder.seek(150);
+		recorder.restore();
+		physics.setTickRecorder(null);
+		for (int t=151; t<200; t++)
+		{
+			physics.tick(0.3f);
+		}
+		assertEquals(history.get(199)[30], physics.getParticle(10).position().x(), 0);
+
+		// Frames of an empty system take no space but must still be limited in number.
+		ParticleSystem empty = new ParticleSystem();
+		TickRecorder emptyRecorder = new TickRecorder(empty, 64);
+		empty.setTickRecorder(emptyRecorder);
+		for (int t=0; t<1000; t++)
+		{
+			empty.tick(0.3f);
+		}
+		assertTrue((emptyRecorder.getNumFrames() > 0) && (emptyRecorder.getNumFrames() <= 64));
+		assertEquals(999, emptyRecorder.getLastTick());
+	}
+
+	/** Checks that tick listeners receive timings and energy measurements for each tick, that the
+	 *  accumulated metrics can be published with JMX and that measurement stops with the last listener.
+	 */
+	public void testTickMetrics() throws Exception
+	{
+		ParticleSystem physics = new ParticleSystem(0, 0.1f);
+		Particle fixed = physics.makeParticle(1, 0, 0, 0).makeFixed();
+		Particle free = physics.makeParticle(2, 20, 0, 0);
+		physics.makeSpring(fixed, free, 0.5f, 0.1f, 10);
+
+		final int[] numStages = new int[1];
+		TickListener stageCounter = new TickListener()
+		{
+			public void tickCompleted(TickMetrics metrics)
+			{
+				numStages[0] = metrics.getNumStages();
+				assertTrue(metrics.getForceNanos() <= metrics.getTickNanos());
+				assertTrue(metrics.getSpringNanos() >= 0);
+			}
+		};
+		PhysicsMetrics metrics = new PhysicsMetrics();
+		physics.addTickListener(stageCounter).addTickListener(metrics);
+
+		physics.tick(0.3f);
+		assertEquals(4, numStages[0]);
+		assertEquals(1, metrics.getNumTicks());
+		Vector3D v = free.velocity();
+		assertEquals(0.5f*2*v.dot(v), metrics.getKineticEnergy(), 1e-4f);
+		assertTrue(metrics.getMaxDisplacement() > 0);
+
+		physics.setIntegrator(Integrator.METHOD.EULER).tick(0.3f);
+		assertEquals(1, numStages[0]);
+
+		metrics.register("test");
+		ObjectName name = new ObjectName("org.gicentre.physics:type=ParticleSystem,name=\"test\"");
+		assertEquals(Long.valueOf(2), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "NumTicks"));
+		metrics.unregister();
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+		physics.removeTickListener(stageCounter);
+		assertTrue(physics.removeTickListener(metrics));
+		physics.tick(0.3f);
+		assertEquals(2, metrics.getNumTicks());
+	}
+
+	/** Checks that the position-based integrator keeps a chain of stiff springs stable at a time step
+	 *  at which force integration fails, and that pins and extra constraints are satisfied.
+	 */
+	public void testPositionBasedIntegrator()
+	{
+		ParticleSystem[] systems = new ParticleSystem[2];
+		for (int s=0; s<systems.length; s++)
+		{
+			systems[s] = new ParticleSystem(1, 0.1f);
+			Particle previous = systems[s].makeParticle(1, 0, 0, 0).makeFixed();
+			for (int i=1; i<=10; i++)
+			{
+				Particle p = systems[s].makeParticle(1, i*10, 0, 0);
+				systems[s].makeSpring(previous, p, 1000, 0.1f, 10);
+				previous = p;
+			}
+		}
+		systems[0].setIntegrator(Integrator.METHOD.SEMIEULER);
+		systems[1].setIntegrator(Integrator.METHOD.POSITIONBASED);
+		PositionBasedIntegrator integrator = new PositionBasedIntegrator(systems[1]).setIterations(20).setRigidSprings(true);
+		systems[1].setIntegrator(integrator);
+
+		for (int t=0; t<100; t++)
+		{
+			systems[0].tick(1);
+			systems[1].tick(1);
+		}
+		assertFalse(Math.abs(systems[0].getSpring(0).currentLength()-10) < 1);
+		for (Spring spring : systems[1].getSprings())
+		{
+			assertEquals(10, spring.currentLength(), 0.5f);
+		}
+		Particle end = systems[1].getParticle(10);
+		assertTrue(end.position().y() > 90);
+
+		// Pin the end of the chain level with its fixed start.
+		Particle middle = systems[1].getParticle(5);
+		integrator.addPin(end, 100, 0, 0, 0);
+		PositionBasedIntegrator.DistanceConstraint link = integrator.addDistanceConstraint(middle, systems[1].getParticle(0), 50, 0);
+		for (int t=0; t<200; t++)
+		{
+			systems[1].tick(1);
+		}
+		assertEquals(100, end.position().x(), 1);
+		assertEquals(0, end.position().y(), 1);
+		assertEquals(link.getRestLength(), middle.distanceTo(systems[1].getParticle(0)), 1);
+		assertTrue(integrator.removeConstraint(link));
+	}
+
+	/** Checks that implicit integration keeps a mesh of stiff springs stable at a large time step.
+	 */
+	public void testImplicitEulerIntegrator()
+	{
+		ParticleSystem[] systems = new ParticleSystem[2];
+		for (int s=0; s<systems.length; s++)
+		{
+			systems[s] = new ParticleSystem(1, 0.1f);
+			Particle[][] mesh = new Particle[5][5];
+			for (int row=0; row<mesh.length; row++)
+			{
+				for (int col=0; col<mesh[row].length; col++)
+				{
+					mesh[row][col] = systems[s].makeParticle(1, col*10, row*12, 0);
+					if (row == 0)
+					{
+						mesh[row][col].makeFixed();
+					}
+					if (col > 0)
+					{
+						systems[s].makeSpring(mesh[row][col-1], mesh[row][col], 1000, 1, 10);
+					}
+					if (row > 0)
+					{
+						systems[s].makeSpring(mesh[row-1][col], mesh[row][col], 1000, 1, 10);
+					}
+				}
+			}
+		}
+		systems[0].setIntegrator(Integrator.METHOD.SEMIEULER);
+		systems[1].setIntegrator(Integrator.METHOD.IMPLICITEULER);
+		ImplicitEulerIntegrator integrator = new ImplicitEulerIntegrator(systems[1]).setTolerance(1e-5f);
+		systems[1].setIntegrator(integrator);
+
+		for (int t=0; t<200; t++)
+		{
+			systems[0].tick(1);
+			systems[1].tick(1);
+		}
+		int lastSpring = systems[0].getNumSprings()-1;
+		assertFalse(Math.abs(systems[0].getSpring(lastSpring).currentLength()-10) < 1);
+		assertTrue(integrator.getLastIterations() > 0);
+		for (Spring spring : systems[1].getSprings())
+		{
+			assertEquals(10, spring.currentLength(), 0.5f);
+		}
+		for (Particle p : systems[1].getParticles())
+		{
+			assertTrue(p.velocity().length() < 0.1f);
+		}
+	}
+
+	/** Checks that nearest, rectangle and polygon queries of a particle grid match exhaustive searches.
+	 */
+	public void testGridPicking()
+	{
+		ParticleSystem physics = new ParticleSystem();
+		Random rand = new Random(4321);
+		for (int i=0; i<2000; i++)
+		{
+			physics.makeParticle(1, rand.nextFloat()*1000, rand.nextFloat()*500, 0);
+		}
+		ParticleGrid grid = new ParticleGrid(15).build(physics.getParticles());
+
+		for (int q=0; q<100; q++)
+		{
+			// Include locations outside the grid.
+			float x = rand.nextFloat()*1400-200;
+			float y = rand.nextFloat()*900-200;
+			Particle expected = null;
+			float nearestDist = Float.MAX_VALUE;
+			for (Particle p : physics.getParticles())
+			{
+				float dist = p.position().distanceTo(new Vector3D(x, y, 0));
+				if (dist < nearestDist)
+				{
+					nearestDist = dist;
+					expected = p;
+				}
+			}
+			Particle nearest = grid.getNearest(x, y, 0, -1);
+			assertEquals(nearestDist, nearest.position().distanceTo(new Vector3D(x, y, 0)), 1e-3f);
+			assertSame(expected, grid.getNearest(x, y, 0, nearestDist+1));
+			assertNull(grid.getNearest(x, y, 0, nearestDist*0.99f));
+		}
+
+		List<Particle> inRect = grid.getParticlesInRectangle(600, 100, 200, 300);
+		float[] xs = {200, 600, 200};
+		float[] ys = {100, 100, 300};
+		List<Particle> inTriangle = grid.getParticlesInPolygon(xs, ys);
+		int numInRect = 0, numInTriangle = 0;
+		for (Particle p : physics.getParticles())
+		{
+			float px = p.position().x();
+			float py = p.position().y();
+			if ((px >= 200) && (px <= 600) && (py >= 100) && (py <= 300))
+			{
+				numInRect++;
+				assertTrue(inRect.contains(p));
+				if ((py-100)/200 < (600-px)/400)
+				{
+					numInTriangle++;
+					assertTrue(inTriangle.contains(p));
+				}
+			}
+		}
+		assertEquals(numInRect, inRect.size());
+		assertEquals(numInTriangle, inTriangle.size());
+		assertTrue(numInTriangle > 0);
+
+		// A grid built from a snapshot ignores subsequent movement and any particles not in the snapshot.
+		ParticleSimulator simulator = new ParticleSimulator(physics);
+		simulator.tick();
+		ParticleSnapshot snapshot = simulator.getSnapshot();
+		Particle target = physics.getParticle(7);
+		float x = target.position().x();
+		float y = target.position().y();
+		for (Particle p : physics.getParticles())
+		{
+			p.position().add(5000, 5000, 0);
+		}
+		List<Particle> particles = new ArrayList<Particle>(physics.getParticles());
+		particles.add(new Particle(1));
+		grid.build(particles, snapshot);
+		assertEquals(physics.getNumParticles(), grid.getNumParticles());
+		assertSame(target, grid.getNearest(x, y, 0, 1));
+		assertTrue(grid.getParticlesInRectangle(4000, 4000, 7000, 7000).isEmpty());
+	}
+
+	/** Checks that rectangle queries of a spring grid match an exhaustive search of spring bounding boxes,
+	 *  and that snapshots keep their version while particles stay still.
+	 */
+	public void testSpringPicking()
+	{
+		ParticleSystem physics = new ParticleSystem();
+		Random rand = new Random(1234);
+		for (int i=0; i<1000; i++)
+		{
+			physics.makeParticle(1, rand.nextFloat()*1000, rand.nextFloat()*500, 0);
+		}
+		for (int i=0; i<1500; i++)
+		{
+			// Mostly short springs between neighbouring particles with some spanning the whole system.
+			int p1 = rand.nextInt(1000);
+			int p2 = (i%10 == 0) ? rand.nextInt(1000) : Math.min(999, p1+1+rand.nextInt(3));
+			physics.makeSpring(physics.getParticle(p1), physics.getParticle(p2), 0.1f, 0.1f, 10);
+		}
+		SpringGrid grid = new SpringGrid(5).build(physics.getSprings());
+		assertEquals(physics.getNumSprings(), grid.getNumSprings());
+
+		for (int q=0; q<100; q++)
+		{
+			// Include rectangles partly or wholly outside the system.
+			float x1 = rand.nextFloat()*1400-200;
+			float y1 = rand.nextFloat()*900-200;
+			float x2 = x1 + rand.nextFloat()*rand.nextFloat()*600;
+			float y2 = y1 + rand.nextFloat()*rand.nextFloat()*600;
+			List<Spring> found = grid.getSpringsInRectangle(x2, y2, x1, y1);
+			int numExpected = 0;
+			for (Spring spring : physics.getSprings())
+			{
+				Vector3D a = spring.getOneEnd().position();
+				Vector3D b = spring.getTheOtherEnd().position();
+				if ((Math.max(a.x(),b.x()) >= x1) && (Math.min(a.x(),b.x()) <= x2) &&
+					(Math.max(a.y(),b.y()) >= y1) && (Math.min(a.y(),b.y()) <= y2))
+				{
+					numExpected++;
+					assertTrue(found.contains(spring));
+				}
+			}
+			assertEquals(numExpected, found.size());
+		}
+
+		// A snapshot only takes a new version when particle positions change.
+		for (Particle p : physics.getParticles())
+		{
+			p.makeFixed();
+		}
+		ParticleSimulator simulator = new ParticleSimulator(physics);
+		simulator.tick();
+		long version = simulator.getSnapshot().getVersion();
+		simulator.tick();
+		simulator.tick();
+		assertEquals(version, simulator.getSnapshot().getVersion());
+		physics.getParticle(0).position().add(1, 0, 0);
+		simulator.tick();
+		assertTrue(simulator.getSnapshot().getVersion() != version);
+	}
+
+	// -------------------------------- Private methods -------------------------------
+
+	/** Reports the total kinetic and elastic energy of a spring connecting a fixed particle to a free one.
+	 *  @param spring Spring whose energy is to be calculated.
+	 *  @return Energy of the spring and its free particle.
+	 */
+	private static float getEnergy(Spring spring)
+	{
+		Particle p = spring.getTheOtherEnd();
+		float stretch = spring.currentLength() - spring.restLength();
+		return 0.5f*p.mass()*p.velocity().lengthSquared() + 0.5f*spring.strength()*stretch*stretch;
+	}
+
+	/** Creates a chain of springs anchored at one end and starting away from its rest length.
+	 *  @param method Integration method to use.
+	 *  @param drag Drag on each particle in the chain.
+	 *  @return Particle system containing the chain.
+	 */
+	private static ParticleSystem createChain(Integrator.METHOD method, float drag)
+	{
+		ParticleSystem physics = new ParticleSystem(0, drag);
+		physics.setIntegrator(method);
+		Particle previous = physics.makeParticle(1, 0, 0, 0).makeFixed();
+		for (int i=1; i<10; i++)
+		{
+			Particle p = physics.makeParticle(1, i*15, i%3, 0);
+			physics.makeSpring(previous, p, 0.5f, 0.1f, 10);
+			previous = p;
+		}
+		return physics;
+	}
+
+	/** Creates a small network of particles connected by springs and attractions using the
+	 *  given integration method. Networks created with the same method will always be identical.
+	 *  @param method Integration method to use.
+	 *  @return Particle system containing the network.
+	 */
+	private static ParticleSystem createNetwork(Integrator.METHOD method)
+	{
+		ParticleSystem physics = new ParticleSystem(0.1f, 0.75f);
+		physics.setIntegrator(method);
+
+		int gridSize = 6;
+		Particle[][] particles = new Particle[gridSize][gridSize];
+		for (int row=0; row<gridSize; row++)
+		{
+			for (int col=0; col<gridSize; col++)
+			{
+				// Offset positions so that the network starts away from its rest state.
+				particles[row][col] = physics.makeParticle(1, col*10 + (row*7)%5, row*10 + (col*3)%4, 0);
+				if (col > 0)
+				{
+					physics.makeSpring(particles[row][col-1], particles[row][col], 0.5f, 0.1f, 10);
+				}
+				if (row > 0)
+				{
+					physics.makeSpring(particles[row-1][col], particles[row][col], 0.5f, 0.1f, 10);
+				}
+			}
+		}
+		physics.makeAttraction(particles[0][0], particles[gridSize-1][gridSize-1], -100, 1);
+		particles[0][0].makeFixed();
+		return physics;
+	}
+
+	/** Makes one of a number of changes to a network created by {@link #createNetwork(Integrator.METHOD)}.
+	 *  @param physics Particle system containing the network.
+	 *  @param change Number identifying the change to make.
+	 */
+	private static void changeNetwork(ParticleSystem physics, int change)
+	{
+		switch (change)
+		{
+			case 0:
+				physics.makeSpring(physics.getParticle(1), physics.getParticle(30), 0.5f, 0.1f, 10);
+				break;
+			case 1:
+				physics.removeSpring(0);
+				break;
+			case 2:
+				physics.getSpring(3).setStrength(2);
+				break;
+			case 3:
+				physics.getSpring(5).turnOff();
+				break;
+			case 4:
+				physics.getAttraction(0).setStrength(-500);
+				break;
+			case 5:
+				physics.addCustomForce(new BarnesHutRepulsion(physics, 100, 1));
+				break;
+			case 6:
+				physics.getParticle(7).position().add(5, 0, 0);
+				break;
+			case 7:
+				physics.getParticle(0).makeFree();
+				break;
+			case 8:
+				physics.getParticle(10).makeFixed();
+				break;
+			case 9:
+				physics.getParticle(12).velocity().set(0, 0, 0);
+				break;
+			default:
+				physics.getParticle(12).setMass(3);
+				break;
+		}
+	}
+
+	/** Creates a network of particles connected by springs and attractions, some of which are switched off,
+	 *  and advances it until it has partly settled. Networks created with the same settings will always be identical.
+	 *  @param method Integration method to use.
+	 *  @param isSleeping Whether particles that come to rest are put to sleep.
+	 *  @return Particle system containing the network.
+	 */
+	private static ParticleSystem createArchiveSystem(Integrator.METHOD method, boolean isSleeping)
+	{
+		Random rand = new Random(1);
+		ParticleSystem physics = new ParticleSystem(0.1f, 0.2f).setIntegrator(method);
+		if (isSleeping)
+		{
+			physics.setSleepThresholds(0.5f, 0.5f, 3);
+		}
+		for (int i=0; i<50; i++)
+		{
+			physics.makeParticle(1+rand.nextFloat(), rand.nextFloat()*100, rand.nextFloat()*100, 0);
+		}
+		physics.getParticle(0).makeFixed();
+		for (int i=1; i<50; i++)
+		{
+			physics.makeSpring(physics.getParticle(i-1), physics.getParticle(i), 0.5f, 0.1f, 10);
+			physics.makeAttraction(physics.getParticle(i), physics.getParticle(rand.nextInt(50)), -50, 5);
+		}
+		physics.getAttraction(3).turnOff();
+
+		// Sleeping systems are advanced until particles have started to fall asleep.
+		int numTicks = isSleeping ? 110 : 20;
+		for (int i=0; i<numTicks; i++)
+		{
+			physics.tick(0.3f);
+		}
+		return physics;
+	}
+
+	/** Checks that the particles in the two given systems have identical positions and velocities.
+	 *  @param physics1 First particle system to compare.
+	 *  @param physics2 Second particle system to compare.
+	 */
+	private static void assertSameState(ParticleSystem physics1, ParticleSystem physics2)
+	{
+		assertEquals(physics1.getNumParticles(), physics2.getNumParticles());
+		for (int i=0; i<physics1.getNumParticles(); i++)
+		{
+			Particle p1 = physics1.getParticle(i);
+			Particle p2 = physics2.getParticle(i);
+			assertEquals(p1.position(), p2.position());
+			assertEquals(p1.velocity(), p2.velocity());
+		}
+	}
+
+	// -------------------------------- Nested classes --------------------------------
+
+	/** Spring and attraction between two particles calculated with vector operations and applied
+	 *  through a force pair, as forces were before they could be calculated in place.
+	 */
+	private static class VectorForces extends TwoBodyForce
+	{
+		private final float ks;				// Spring constant.
+		private final float d;				// Spring damping.
+		private final float l;				// Spring rest length.
+		private final float k;				// Attraction strength.
+		private final float distanceMin;	// Minimum attraction distance.
+
+		VectorForces(Particle oneEnd, Particle theOtherEnd, float ks, float d, float l, float k, float distanceMin)
+		{
+			super(oneEnd, theOtherEnd);
+			this.ks = ks;
+			this.d = d;
+			this.l = l;
+			this.k = k;
+			this.distanceMin = distanceMin;
+		}
+
+		@Override
+		protected ForcePair forcePair()
+		{
+			Vector3D springForce = Vector3D.subtract(getOneEnd().position(), getTheOtherEnd().position());
+			springForce.length(-(springForce.length()-l)).multiplyBy(ks);
+			Vector3D dampingForce = Vector3D.subtract(getOneEnd().velocity(), getTheOtherEnd().velocity())
+					.projectOnto(springForce).multiplyBy(-d);
+			springForce.add(dampingForce);
+
+			Vector3D attraction = Vector3D.subtract(getOneEnd().position(), getTheOtherEnd().position()).floor(distanceMin);
+			attraction.length(-k*getOneEnd().mass()*getTheOtherEnd().mass()/attraction.lengthSquared());
+
+			return specifyBoth(springForce.copy().add(attraction), springForce.add(attraction).multiplyBy(-1));
+		}
+	}
+}
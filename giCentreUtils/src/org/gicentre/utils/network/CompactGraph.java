@@ -0,0 +1,634 @@
+package org.gicentre.utils.network;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+// *****************************************************************************************
+/** Memory-efficient network graph in which nodes and edges are identified by integers rather
+ *  than represented by objects. Nodes are numbered from 0 in the order they are added, as are
+ *  edges. Node locations, edge end points and any attributes are held in primitive arrays, and
+ *  the edges leaving and arriving at each node are held in compressed sparse row form: a single
+ *  array lists the edges of every node, grouped by node, with a second array marking where each
+ *  node's group starts. A graph therefore needs a few tens of bytes per edge rather than the
+ *  hundreds used by <code>Node</code> and <code>Edge</code> objects, and visiting the neighbours
+ *  of a node reads consecutive array elements.
+ *  <br><br>
+ *  As with <code>Edge</code>, an undirected edge both leaves and arrives at each of its nodes,
+ *  although an edge joining a node to itself is only listed once.
+ *  The adjacency arrays are rebuilt, in time proportional to the size of the graph, the first
+ *  time they are queried after nodes or edges have been added, so graphs are most efficiently
+ *  built by adding all nodes and edges before traversing them. Graphs can be created from, and
+ *  converted into, collections of <code>Node</code> and <code>Edge</code> objects.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class CompactGraph
+{
+	// ----------------------------- Object variables ------------------------------
+
+	private int numNodes, numEdges;			// Number of nodes and edges in the graph.
+	private float[] x, y;					// Location of each node.
+	private int[] node1, node2;				// Nodes at each end of each edge.
+	private BitSet directed;				// Edges that run only from node1 to node2.
+	private ArrayList<String> nodeColumnNames;	// Names of the node attribute columns.
+	private ArrayList<float[]> nodeColumns;		// Node attribute values, one array per column.
+	private ArrayList<String> edgeColumnNames;	// Names of the edge attribute columns.
+	private ArrayList<float[]> edgeColumns;		// Edge attribute values, one array per column.
+
+	private boolean isIndexed;				// Whether the adjacency arrays reflect all nodes and edges.
+	private int[] outStart, outEdges;		// Edges leaving each node in compressed sparse row form.
+	private int[] inStart, inEdges;			// Edges arriving at each node, shared with outgoing if all are undirected.
+
+	// ------------------------------- Constructors --------------------------------
+
+	/** Creates an empty graph.
+	 */
+	public CompactGraph()
+	{
+		this(16, 16);
+	}
+
+	/** Creates an empty graph with space for the given numbers of nodes and edges. The graph grows
+	 *  as needed, but setting the expected size avoids copying arrays while it is built.
+	 *  @param nodeCapacity Expected number of nodes.
+	 *  @param edgeCapacity Expected number of edges.
+	 */
+	public CompactGraph(int nodeCapacity, int edgeCapacity)
+	{
+		nodeCapacity = Math.max(1, nodeCapacity);
+		edgeCapacity = Math.max(1, edgeCapacity);
+		numNodes = 0;
+		numEdges = 0;
+		x = new float[nodeCapacity];
+		y = new float[nodeCapacity];
+		node1 = new int[edgeCapacity];
+		node2 = new int[edgeCapacity];
+		directed = new BitSet();
+		nodeColumnNames = new ArrayList<String>();
+		nodeColumns = new ArrayList<float[]>();
+		edgeColumnNames = new ArrayList<String>();
+		edgeColumns = new ArrayList<float[]>();
+		isIndexed = false;
+	}
+
+	/** Creates a compact graph from the given nodes and edges. Nodes are numbered in the iteration
+	 *  order of the node collection and edges in the iteration order of the edge collection.
+	 *  @param nodes Nodes to add to the graph.
+	 *  @param edges Edges to add to the graph. Each must connect nodes in the node collection.
+	 *  @return New graph containing the given nodes and edges.
+	 *  @throws IllegalArgumentException if an edge connects a node not in the node collection.
+	 */
+	public static CompactGraph create(Collection<? extends Node> nodes, Collection<? extends Edge> edges) throws IllegalArgumentException
+	{
+		CompactGraph graph = new CompactGraph(nodes.size(), edges.size());
+		HashMap<Node, Integer> ids = new HashMap<Node, Integer>();
+		for (Node node : nodes)
+		{
+			ids.put(node, Integer.valueOf(graph.addNode(node.getLocation().x, node.getLocation().y)));
+		}
+		for (Edge edge : edges)
+		{
+			Integer id1 = ids.get(edge.getNode1());
+			Integer id2 = ids.get(edge.getNode2());
+			if ((id1 == null) || (id2 == null))
+			{
+				throw new IllegalArgumentException("Edge connects a node that is not in the collection of nodes.");
+			}
+			graph.addEdge(id1.intValue(), id2.intValue(), edge.isDirected());
+		}
+		return graph;
+	}
+
+	// ---------------------------------- Methods ----------------------------------
+
+	/** Adds a node at the given location to the graph.
+	 *  @param nx x-coordinate of the node's location.
+	 *  @param ny y-coordinate of the node's location.
+	 *  @return Identifier of the new node.
+	 */
+	public int addNode(float nx, float ny)
+	{
+		if (numNodes == x.length)
+		{
+			int capacity = grow(numNodes);
+			x = copyOf(x, capacity);
+			y = copyOf(y, capacity);
+			for (int c=0; c<nodeColumns.size(); c++)
+			{
+				nodeColumns.set(c, copyOf(nodeColumns.get(c), capacity));
+			}
+		}
+		x[numNodes] = nx;
+		y[numNodes] = ny;
+		isIndexed = false;
+		return numNodes++;
+	}
+
+	/** Adds an undirected edge between the given nodes.
+	 *  @param n1 Identifier of the first node in the edge.
+	 *  @param n2 Identifier of the second node in the edge.
+	 *  @return Identifier of the new edge.
+	 *  @throws IndexOutOfBoundsException if either node is not in the graph.
+	 */
+	public int addEdge(int n1, int n2) throws IndexOutOfBoundsException
+	{
+		return addEdge(n1, n2, false);
+	}
+
+	/** Adds a possibly directed edge between the given nodes.
+	 *  @param n1 Identifier of the first node in the edge.
+	 *  @param n2 Identifier of the second node in the edge.
+	 *  @param isDirected If true the edge runs from n1 to n2 but not the other way. If false,
+	 *                    the edge represents an undirected connection between the two nodes.
+	 *  @return Identifier of the new edge.
+	 *  @throws IndexOutOfBoundsException if either node is not in the graph.
+	 */
+	public int addEdge(int n1, int n2, boolean isDirected) throws IndexOutOfBoundsException
+	{
+		checkNode(n1);
+		checkNode(n2);
+		if (numEdges == node1.length)
+		{
+			int capacity = grow(numEdges);
+			node1 = copyOf(node1, capacity);
+			node2 = copyOf(node2, capacity);
+			for (int c=0; c<edgeColumns.size(); c++)
+			{
+				edgeColumns.set(c, copyOf(edgeColumns.get(c), capacity));
+			}
+		}
+		node1[numEdges] = n1;
+		node2[numEdges] = n2;
+		directed.set(numEdges, isDirected);
+		isIndexed = false;
+		return numEdges++;
+	}
+
+	/** Reports the number of nodes in the graph.
+	 *  @return Number of nodes.
+	 */
+	public int getNumNodes()
+	{
+		return numNodes;
+	}
+
+	/** Reports the number of edges in the graph.
+	 *  @return Number of edges.
+	 */
+	public int getNumEdges()
+	{
+		return numEdges;
+	}
+
+	/** Reports the x-coordinate of the given node's location.
+	 *  @param node Identifier of the node.
+	 *  @return x-coordinate of the node.
+	 *  @throws IndexOutOfBoundsException if the node is not in the graph.
+	 */
+	public float getX(int node) throws IndexOutOfBoundsException
+	{
+		checkNode(node);
+		return x[node];
+	}
+
+	/** Reports the y-coordinate of the given node's location.
+	 *  @param node Identifier of the node.
+	 *  @return y-coordinate of the node.
+	 *  @throws IndexOutOfBoundsException if the node is not in the graph.
+	 */
+	public float getY(int node) throws IndexOutOfBoundsException
+	{
+		checkNode(node);
+		return y[node];
+	}
+
+	/** Sets the location of the given node.
+	 *  @param node Identifier of the node.
+	 *  @param nx New x-coordinate of the node.
+	 *  @param ny New y-coordinate of the node.
+	 *  @throws IndexOutOfBoundsException if the node is not in the graph.
+	 */
+	public void setLocation(int node, float nx, float ny) throws IndexOutOfBoundsException
+	{
+		checkNode(node);
+		x[node] = nx;
+		y[node] = ny;
+	}
+
+	/** Reports the first node connected by the given edge.
+	 *  @param edge Identifier of the edge.
+	 *  @return Identifier of the first node of the edge.
+	 *  @throws IndexOutOfBoundsException if the edge is not in the graph.
+	 */
+	public int getNode1(int edge) throws IndexOutOfBoundsException
+	{
+		checkEdge(edge);
+		return node1[edge];
+	}
+
+	/** Reports the second node connected by the given edge.
+	 *  @param edge Identifier of the edge.
+	 *  @return Identifier of the second node of the edge.
+	 *  @throws IndexOutOfBoundsException if the edge is not in the graph.
+	 */
+	public int getNode2(int edge) throws IndexOutOfBoundsException
+	{
+		checkEdge(edge);
+		return node2[edge];
+	}
+
+	/** Reports the node at the other end of the given edge from the given node.
+	 *  @param edge Identifier of the edge.
+	 *  @param node Identifier of the node at one end of the edge.
+	 *  @return Identifier of the node at the other end of the edge.
+	 *  @throws IndexOutOfBoundsException if the edge is not in the graph.
+	 */
+	public int getOpposite(int edge, int node) throws IndexOutOfBoundsException
+	{
+		checkEdge(edge);
+		return (node1[edge] == node) ? node2[edge] : node1[edge];
+	}
+
+	/** Reports whether or not the given edge is directed.
+	 *  @param edge Identifier of the edge.
+	 *  @return True if the edge is directed (from node1 to node2).
+	 *  @throws IndexOutOfBoundsException if the edge is not in the graph.
+	 */
+	public boolean isDirected(int edge) throws IndexOutOfBoundsException
+	{
+		checkEdge(edge);
+		return directed.get(edge);
+	}
+
+	/** Reports the number of edges leaving the given node, including all undirected edges attached to it.
+	 *  @param node Identifier of the node.
+	 *  @return Number of outgoing edges.
+	 *  @throws IndexOutOfBoundsException if the node is not in the graph.
+	 */
+	public int getOutDegree(int node) throws IndexOutOfBoundsException
+	{
+		checkNode(node);
+		buildIndex();
+		return outStart[node+1]-outStart[node];
+	}
+
+	/** Reports one of the edges leaving the given node. Together with {@link #getOutDegree(int)} this
+	 *  allows the outgoing edges of a node to be visited without creating any objects.
+	 *  @param node Identifier of the node.
+	 *  @param i Position of the edge in the node's outgoing edges, between 0 and <code>getOutDegree(node)-1</code>.
+	 *  @return Identifier of the outgoing edge.
+	 *  @throws IndexOutOfBoundsException if the node is not in the graph or the position is out of range.
+	 */
+	public int getOutEdge(int node, int i) throws IndexOutOfBoundsException
+	{
+		int degree = getOutDegree(node);
+		if ((i < 0) || (i >= degree))
+		{
+			throw new IndexOutOfBoundsException("Edge "+i+" is outside the range of outgoing edges of node "+node+" (0-"+(degree-1)+").");
+		}
+		return outEdges[outStart[node]+i];
+	}
+
+	/** Reports the number of edges arriving at the given node, including all undirected edges attached to it.
+	 *  @param node Identifier of the node.
+	 *  @return Number of incoming edges.
+	 *  @throws IndexOutOfBoundsException if the node is not in the graph.
+	 */
+	public int getInDegree(int node) throws IndexOutOfBoundsException
+	{
+		checkNode(node);
+		buildIndex();
+		return inStart[node+1]-inStart[node];
+	}
+
+	/** Reports one of the edges arriving at the given node. Together with {@link #getInDegree(int)} this
+	 *  allows the incoming edges of a node to be visited without creating any objects.
+	 *  @param node Identifier of the node.
+	 *  @param i Position of the edge in the node's incoming edges, between 0 and <code>getInDegree(node)-1</code>.
+	 *  @return Identifier of the incoming edge.
+	 *  @throws IndexOutOfBoundsException if the node is not in the graph or the position is out of range.
+	 */
+	public int getInEdge(int node, int i) throws IndexOutOfBoundsException
+	{
+		int degree = getInDegree(node);
+		if ((i < 0) || (i >= degree))
+		{
+			throw new IndexOutOfBoundsException("Edge "+i+" is outside the range of incoming edges of node "+node+" (0-"+(degree-1)+").");
+		}
+		return inEdges[inStart[node]+i];
+	}
+
+	/** Provides the nodes that can be reached from the given node by following one outgoing edge.
+	 *  A neighbour is listed once for each edge leading to it.
+	 *  @param node Identifier of the node.
+	 *  @return New array of neighbouring node identifiers.
+	 *  @throws IndexOutOfBoundsException if the node is not in the graph.
+	 */
+	public int[] getOutNeighbours(int node) throws IndexOutOfBoundsException
+	{
+		int[] neighbours = new int[getOutDegree(node)];
+		int start = outStart[node];
+		for (int i=0; i<neighbours.length; i++)
+		{
+			int edge = outEdges[start+i];
+			neighbours[i] = (node1[edge] == node) ? node2[edge] : node1[edge];
+		}
+		return neighbours;
+	}
+
+	/** Adds a column of numeric node attributes to the graph. All nodes start with a value of 0.
+	 *  @param name Name of the attribute.
+	 *  @return Column identifier used to get and set the attribute values.
+	 *  @throws NullPointerException if the name is null.
+	 *  @throws IllegalArgumentException if the graph already has a node attribute with the given name.
+	 */
+	public int addNodeAttribute(String name) throws NullPointerException, IllegalArgumentException
+	{
+		return addColumn(name, nodeColumnNames, nodeColumns, x.length, "node");
+	}
+
+	/** Reports the column identifier of the node attribute with the given name.
+	 *  @param name Name of the attribute.
+	 *  @return Column identifier, or -1 if the graph has no node attribute with the given name.
+	 */
+	public int getNodeAttributeColumn(String name)
+	{
+		return nodeColumnNames.indexOf(name);
+	}
+
+	/** Reports the value of the given attribute of the given node.
+	 *  @param column Column identifier of the attribute.
+	 *  @param node Identifier of the node.
+	 *  @return Attribute value.
+	 *  @throws IndexOutOfBoundsException if the column or node is not in the graph.
+	 */
+	public float getNodeAttribute(int column, int node) throws IndexOutOfBoundsException
+	{
+		checkNode(node);
+		return nodeColumns.get(column)[node];
+	}
+
+	/** Sets the value of the given attribute of the given node.
+	 *  @param column Column identifier of the attribute.
+	 *  @param node Identifier of the node.
+	 *  @param value New attribute value.
+	 *  @throws IndexOutOfBoundsException if the column or node is not in the graph.
+	 */
+	public void setNodeAttribute(int column, int node, float value) throws IndexOutOfBoundsException
+	{
+		checkNode(node);
+		nodeColumns.get(column)[node] = value;
+	}
+
+	/** Adds a column of numeric edge attributes to the graph. All edges start with a value of 0.
+	 *  @param name Name of the attribute.
+	 *  @return Column identifier used to get and set the attribute values.
+	 *  @throws NullPointerException if the name is null.
+	 *  @throws IllegalArgumentException if the graph already has an edge attribute with the given name.
+	 */
+	public int addEdgeAttribute(String name) throws NullPointerException, IllegalArgumentException
+	{
+		return addColumn(name, edgeColumnNames, edgeColumns, node1.length, "edge");
+	}
+
+	/** Reports the column identifier of the edge attribute with the given name.
+	 *  @param name Name of the attribute.
+	 *  @return Column identifier, or -1 if the graph has no edge attribute with the given name.
+	 */
+	public int getEdgeAttributeColumn(String name)
+	{
+		return edgeColumnNames.indexOf(name);
+	}
+
+	/** Reports the value of the given attribute of the given edge.
+	 *  @param column Column identifier of the attribute.
+	 *  @param edge Identifier of the edge.
+	 *  @return Attribute value.
+	 *  @throws IndexOutOfBoundsException if the column or edge is not in the graph.
+	 */
+	public float getEdgeAttribute(int column, int edge) throws IndexOutOfBoundsException
+	{
+		checkEdge(edge);
+		return edgeColumns.get(column)[edge];
+	}
+
+	/** Sets the value of the given attribute of the given edge.
+	 *  @param column Column identifier of the attribute.
+	 *  @param edge Identifier of the edge.
+	 *  @param value New attribute value.
+	 *  @throws IndexOutOfBoundsException if the column or edge is not in the graph.
+	 */
+	public void setEdgeAttribute(int column, int edge, float value) throws IndexOutOfBoundsException
+	{
+		checkEdge(edge);
+		edgeColumns.get(column)[edge] = value;
+	}
+
+	/** Creates a <code>Node</code> object for each node in the graph, for example so that the graph can
+	 *  be displayed in a <code>ParticleViewer</code>.
+	 *  @return List of new nodes, in which the position of each node is its identifier.
+	 */
+	public List<Node> createNodes()
+	{
+		List<Node> nodes = new ArrayList<Node>(numNodes);
+		for (int i=0; i<numNodes; i++)
+		{
+			nodes.add(new Node(x[i], y[i]));
+		}
+		return nodes;
+	}
+
+	/** Creates an <code>Edge</code> object for each edge in the graph, connecting the given node objects.
+	 *  @param nodes Node objects in the order of their identifiers, as created by {@link #createNodes()}.
+	 *  @return List of new edges, in which the position of each edge is its identifier.
+	 *  @throws IllegalArgumentException if the number of nodes does not match the graph.
+	 */
+	public List<Edge> createEdges(List<? extends Node> nodes) throws IllegalArgumentException
+	{
+		if (nodes.size() != numNodes)
+		{
+			throw new IllegalArgumentException("Graph has "+numNodes+" nodes but "+nodes.size()+" were provided.");
+		}
+		List<Edge> edges = new ArrayList<Edge>(numEdges);
+		for (int i=0; i<numEdges; i++)
+		{
+			edges.add(new Edge(nodes.get(node1[i]), nodes.get(node2[i]), directed.get(i)));
+		}
+		return edges;
+	}
+
+	// ------------------------------ Private methods ------------------------------
+
+	/** Rebuilds the compressed sparse row arrays of incoming and outgoing edges if nodes or edges have
+	 *  been added since they were last built.
+	 */
+	private void buildIndex()
+	{
+		if (isIndexed)
+		{
+			return;
+		}
+		boolean hasDirected = !directed.isEmpty();
+
+		// Count the outgoing edges of each node, then convert counts into start positions.
+		outStart = new int[numNodes+1];
+		for (int e=0; e<numEdges; e++)
+		{
+			outStart[node1[e]+1]++;
+			if (!directed.get(e) && (node1[e] != node2[e]))
+			{
+				outStart[node2[e]+1]++;
+			}
+		}
+		for (int n=0; n<numNodes; n++)
+		{
+			outStart[n+1] += outStart[n];
+		}
+		outEdges = new int[outStart[numNodes]];
+		int[] cursor = new int[numNodes];
+		System.arraycopy(outStart, 0, cursor, 0, numNodes);
+		for (int e=0; e<numEdges; e++)
+		{
+			outEdges[cursor[node1[e]]++] = e;
+			if (!directed.get(e) && (node1[e] != node2[e]))
+			{
+				outEdges[cursor[node2[e]]++] = e;
+			}
+		}
+
+		if (!hasDirected)
+		{
+			// Incoming and outgoing edges are identical when no edges are directed.
+			inStart = outStart;
+			inEdges = outEdges;
+		}
+		else
+		{
+			inStart = new int[numNodes+1];
+			for (int e=0; e<numEdges; e++)
+			{
+				inStart[node2[e]+1]++;
+				if (!directed.get(e) && (node1[e] != node2[e]))
+				{
+					inStart[node1[e]+1]++;
+				}
+			}
+			for (int n=0; n<numNodes; n++)
+			{
+				inStart[n+1] += inStart[n];
+			}
+			inEdges = new int[inStart[numNodes]];
+			System.arraycopy(inStart, 0, cursor, 0, numNodes);
+			for (int e=0; e<numEdges; e++)
+			{
+				inEdges[cursor[node2[e]]++] = e;
+				if (!directed.get(e) && (node1[e] != node2[e]))
+				{
+					inEdges[cursor[node1[e]]++] = e;
+				}
+			}
+		}
+		isIndexed = true;
+	}
+
+	/** Adds a new attribute column to the given list of columns.
+	 *  @param name Name of the attribute.
+	 *  @param names Names of the existing columns.
+	 *  @param columns Existing columns.
+	 *  @param capacity Length of the new column.
+	 *  @param type Type of element described by the attribute, used in error messages.
+	 *  @return Identifier of the new column.
+	 *  @throws NullPointerException if the name is null.
+	 *  @throws IllegalArgumentException if a column with the given name already exists.
+	 */
+	private static int addColumn(String name, List<String> names, List<float[]> columns, int capacity, String type) throws NullPointerException, IllegalArgumentException
+	{
+		if (name == null)
+		{
+			throw new NullPointerException("Cannot add a "+type+" attribute with a null name.");
+		}
+		if (names.contains(name))
+		{
+			throw new IllegalArgumentException("Graph already has a "+type+" attribute called '"+name+"'.");
+		}
+		names.add(name);
+		columns.add(new float[capacity]);
+		return columns.size()-1;
+	}
+
+	/** Checks that the given node is in the graph.
+	 *  @param node Identifier of the node.
+	 *  @throws IndexOutOfBoundsException if the node is not in the graph.
+	 */
+	private void checkNode(int node) throws IndexOutOfBoundsException
+	{
+		if ((node < 0) || (node >= numNodes))
+		{
+			throw new IndexOutOfBoundsException("Node "+node+" is outside the range of the graph (0-"+(numNodes-1)+").");
+		}
+	}
+
+	/** Checks that the given edge is in the graph.
+	 *  @param edge Identifier of the edge.
+	 *  @throws IndexOutOfBoundsException if the edge is not in the graph.
+	 */
+	private void checkEdge(int edge) throws IndexOutOfBoundsException
+	{
+		if ((edge < 0) || (edge >= numEdges))
+		{
+			throw new IndexOutOfBoundsException("Edge "+edge+" is outside the range of the graph (0-"+(numEdges-1)+").");
+		}
+	}
+
+	/** Reports the capacity to which an array holding the given number of elements should grow.
+	 *  @param size Current number of elements.
+	 *  @return New capacity.
+	 */
+	private static int grow(int size)
+	{
+		return Math.max(16, size + (size >> 1));
+	}
+
+	/** Copies the given array into a new array of the given length.
+	 *  @param array Array to copy.
+	 *  @param length Length of the new array.
+	 *  @return New array.
+	 */
+	private static float[] copyOf(float[] array, int length)
+	{
+		float[] copy = new float[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	/** Copies the given array into a new array of the given length.
+	 *  @param array Array to copy.
+	 *  @param length Length of the new array.
+	 *  @return New array.
+	 */
+	private static int[] copyOf(int[] array, int length)
+	{
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+}
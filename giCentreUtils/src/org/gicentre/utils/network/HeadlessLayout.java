@@ -0,0 +1,454 @@
+package org.gicentre.utils.network;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Vector;
+
+import org.gicentre.utils.network.traer.physics.BarnesHutRepulsion;
+import org.gicentre.utils.network.traer.physics.Particle;
+import org.gicentre.utils.network.traer.physics.ParticleSystem;
+import org.gicentre.utils.network.traer.physics.Spring;
+
+import processing.core.PVector;
+
+// *****************************************************************************************
+/** Calculates force-directed network layouts without any display. Nodes and edges are modelled
+ *  with the same particles, springs and repulsion as the {@link ParticleViewer}, but rather than
+ *  advancing one tick per frame, {@link #run()} advances the layout until it converges, a tick
+ *  limit is reached or a time budget is exhausted. The final positions can be read as an array
+ *  or written to a file. No Processing sketch is needed, so layouts can be precomputed in batch
+ *  jobs; each layout has its own particle system, so several may be run in parallel threads.
+ *  @param <N> Type of node to be laid out.
+ *  @param <E> Type of edge to be laid out.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class HeadlessLayout<N extends Node, E extends Edge>
+{
+	// ----------------------------- Class variables ------------------------------
+
+	/** Default largest distance moved by any node in a tick for the layout to be considered converged. */
+	public static final float DEFAULT_CONVERGENCE = 0.01f;
+	/** Default number of consecutive ticks within the convergence threshold for the layout to be considered converged. */
+	public static final int DEFAULT_CONVERGENCE_TICKS = 10;
+	/** Default maximum number of ticks calculated by a single run. */
+	public static final int DEFAULT_MAX_TICKS = 10000;
+	/** Default number of ticks between progress reports. */
+	public static final int DEFAULT_PROGRESS_INTERVAL = 100;
+
+	private static final float TIME_STEP = 0.3f;	// Time step for each tick, as used by the particle viewer.
+
+	// ----------------------------- Object variables ------------------------------
+
+	private ParticleSystem physics;					// The environment for particle modelling.
+	private LinkedHashMap<N, Particle> nodes;		// Nodes to lay out, in the order they were added.
+	private LinkedHashMap<E, Spring> edges;			// Edges to lay out.
+	private BarnesHutRepulsion repulsion;			// Optional repulsion between all nodes.
+	private Vector<LayoutListener> listeners;		// Listeners informed of progress.
+	private float convergence;						// Displacement at or below which the layout has converged.
+	private int convergenceTicks;					// Consecutive ticks within the threshold needed for convergence.
+	private int maxTicks;							// Maximum number of ticks per run.
+	private long timeBudget;						// Maximum duration of each run in milliseconds, or 0 for no limit.
+	private int progressInterval;					// Ticks between progress reports.
+	private int numTicks;							// Ticks calculated by the most recent run.
+	private float displacement;						// Largest node movement in the most recent tick.
+	private volatile boolean isCancelled;			// Whether the current run should stop early.
+
+	// ------------------------------- Constructors --------------------------------
+
+	/** Creates an empty headless layout.
+	 */
+	public HeadlessLayout()
+	{
+		physics = new ParticleSystem(0, 0.75f);
+		nodes = new LinkedHashMap<N, Particle>();
+		edges = new LinkedHashMap<E, Spring>();
+		listeners = new Vector<LayoutListener>();
+		convergence = DEFAULT_CONVERGENCE;
+		convergenceTicks = DEFAULT_CONVERGENCE_TICKS;
+		maxTicks = DEFAULT_MAX_TICKS;
+		timeBudget = 0;
+		progressInterval = DEFAULT_PROGRESS_INTERVAL;
+		numTicks = 0;
+		displacement = 0;
+		isCancelled = false;
+	}
+
+	// ---------------------------------- Methods ----------------------------------
+
+	/** Adds a node to those to be laid out. The node's location is used as its initial position.
+	 *  @param node Node to add to the layout.
+	 */
+	public void addNode(N node)
+	{
+		if (!nodes.containsKey(node))
+		{
+			nodes.put(node, physics.makeParticle(1, node.getLocation().x, node.getLocation().y, 0));
+		}
+	}
+
+	/** Adds the given edge to those to be laid out. The edge must connect nodes that have already been
+	 *  added. The ideal length of the edge is the distance between the initial positions of its nodes.
+	 *  @param edge Edge to add to the layout.
+	 *  @return True if the edge was added successfully. False if the edge contains nodes that have not
+	 *          been added to the layout.
+	 */
+	public boolean addEdge(E edge)
+	{
+		Particle p1 = nodes.get(edge.getNode1());
+		Particle p2 = nodes.get(edge.getNode2());
+		if ((p1 == null) || (p2 == null))
+		{
+			return false;
+		}
+		return addEdge(edge, p1.position().distanceTo(p2.position()));
+	}
+
+	/** Adds the given edge to those to be laid out with the given ideal length. The edge must connect
+	 *  nodes that have already been added.
+	 *  @param edge Edge to add to the layout.
+	 *  @param distance Ideal distance of separation between the nodes.
+	 *  @return True if the edge was added successfully. False if the edge contains nodes that have not
+	 *          been added to the layout.
+	 */
+	public boolean addEdge(E edge, float distance)
+	{
+		Particle p1 = nodes.get(edge.getNode1());
+		Particle p2 = nodes.get(edge.getNode2());
+		if ((p1 == null) || (p2 == null))
+		{
+			return false;
+		}
+		if (!edges.containsKey(edge))
+		{
+			edges.put(edge, physics.makeSpring(p1, p2, ParticleViewer.EDGE_STRENGTH, ParticleViewer.DAMPING, distance));
+		}
+		return true;
+	}
+
+	/** Adds a repulsive force between all nodes, approximated with the Barnes-Hut algorithm, as used by
+	 *  {@link ParticleViewer#spaceNodes()}. Calling this method more than once has no further effect.
+	 */
+	public void spaceNodes()
+	{
+		if (repulsion == null)
+		{
+			repulsion = new BarnesHutRepulsion(nodes.values(), 1000, 0.1f);
+			physics.addCustomForce(repulsion);
+		}
+	}
+
+	/** Moves the nodes to a layout calculated with a {@link MultilevelLayout}. This is much quicker than
+	 *  running a large layout from the initial positions, and a subsequent {@link #run()} then only needs
+	 *  to refine the result.
+	 *  @param edgeLength Ideal length of each edge in the layout.
+	 */
+	public void layoutMultilevel(float edgeLength)
+	{
+		new MultilevelLayout(edgeLength).apply(nodes, edges.keySet());
+	}
+
+	/** Sets the largest distance any node may move in a single tick for the layout to be considered
+	 *  converged. A value of 0 means the layout only stops when a tick or time limit is reached or every
+	 *  node has fallen asleep. The threshold must be met for {@link #DEFAULT_CONVERGENCE_TICKS} consecutive
+	 *  ticks.
+	 *  @param displacement Convergence threshold.
+	 *  @return This layout.
+	 *  @throws IllegalArgumentException if the threshold is negative.
+	 */
+	public HeadlessLayout<N,E> setConvergence(float displacement) throws IllegalArgumentException
+	{
+		return setConvergence(displacement, DEFAULT_CONVERGENCE_TICKS);
+	}
+
+	/** Sets the largest distance any node may move in a tick, and the number of consecutive ticks for
+	 *  which no node may move further, for the layout to be considered converged. Requiring several
+	 *  ticks prevents a run stopping on the first tick after the nodes start from rest, or at the turning
+	 *  point of an oscillation, when nodes momentarily move very little.
+	 *  @param displacement Convergence threshold.
+	 *  @param numTicks Number of consecutive ticks within the threshold.
+	 *  @return This layout.
+	 *  @throws IllegalArgumentException if the threshold is negative or the number of ticks is less than 1.
+	 */
+	public HeadlessLayout<N,E> setConvergence(float displacement, int numTicks) throws IllegalArgumentException
+	{
+		if (!(displacement >= 0))
+		{
+			throw new IllegalArgumentException("Convergence threshold is "+displacement+"; must not be negative.");
+		}
+		if (numTicks < 1)
+		{
+			throw new IllegalArgumentException("Number of convergence ticks is "+numTicks+"; must be at least 1.");
+		}
+		convergence = displacement;
+		convergenceTicks = numTicks;
+		return this;
+	}
+
+	/** Sets the maximum number of ticks calculated by each call to {@link #run()}.
+	 *  @param maxTicks Maximum number of ticks.
+	 *  @return This layout.
+	 *  @throws IllegalArgumentException if the number of ticks is less than 1.
+	 */
+	public HeadlessLayout<N,E> setMaxTicks(int maxTicks) throws IllegalArgumentException
+	{
+		if (maxTicks < 1)
+		{
+			throw new IllegalArgumentException("Maximum number of ticks is "+maxTicks+"; must be at least 1.");
+		}
+		this.maxTicks = maxTicks;
+		return this;
+	}
+
+	/** Sets the maximum time taken by each call to {@link #run()}. The run stops after the first tick
+	 *  that ends beyond the budget.
+	 *  @param millis Time budget in milliseconds, or 0 for no time limit.
+	 *  @return This layout.
+	 *  @throws IllegalArgumentException if the time budget is negative.
+	 */
+	public HeadlessLayout<N,E> setTimeBudget(long millis) throws IllegalArgumentException
+	{
+		if (millis < 0)
+		{
+			throw new IllegalArgumentException("Time budget is "+millis+"ms; must not be negative.");
+		}
+		timeBudget = millis;
+		return this;
+	}
+
+	/** Sets the number of ticks between reports to any layout listeners. A final report is always made
+	 *  when a run stops.
+	 *  @param numTicks Number of ticks between progress reports.
+	 *  @return This layout.
+	 *  @throws IllegalArgumentException if the interval is less than 1.
+	 */
+	public HeadlessLayout<N,E> setProgressInterval(int numTicks) throws IllegalArgumentException
+	{
+		if (numTicks < 1)
+		{
+			throw new IllegalArgumentException("Progress interval is "+numTicks+"; must be at least 1.");
+		}
+		progressInterval = numTicks;
+		return this;
+	}
+
+	/** Adds the given listener to those that will be informed of the progress of each run.
+	 *  @param listener Listener to add.
+	 */
+	public void addLayoutListener(LayoutListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	/** Removes the given listener from those that will be informed of the progress of each run.
+	 *  @param listener Listener to remove.
+	 *  @return True if the given listener was present and then removed.
+	 */
+	public boolean removeLayoutListener(LayoutListener listener)
+	{
+		return listeners.remove(listener);
+	}
+
+	/** Advances the layout until it converges, the maximum number of ticks has been calculated, the time
+	 *  budget is exhausted or the run is cancelled. The layout has converged when no node moves further
+	 *  than the convergence threshold in each of several consecutive ticks (see
+	 *  {@link #setConvergence(float, int)}), or when every node is fixed or asleep. Calling this
+	 *  method again continues from the current positions.
+	 *  @return True if the layout converged, false if it stopped for any other reason.
+	 */
+	public boolean run()
+	{
+		long start = System.currentTimeMillis();
+		int n = nodes.size();
+		Particle[] particles = nodes.values().toArray(new Particle[n]);
+		float[] previous = new float[3*n];
+
+		isCancelled = false;
+		numTicks = 0;
+		boolean isConverged = false;
+		int numCalmTicks = 0;
+		while (!isConverged && (numTicks < maxTicks) && !isCancelled)
+		{
+			for (int i=0; i<n; i++)
+			{
+				previous[3*i]   = particles[i].position().x();
+				previous[3*i+1] = particles[i].position().y();
+				previous[3*i+2] = particles[i].position().z();
+			}
+			physics.tick(TIME_STEP);
+			numTicks++;
+
+			float maxDistSq = 0;
+			for (int i=0; i<n; i++)
+			{
+				float dx = particles[i].position().x()-previous[3*i];
+				float dy = particles[i].position().y()-previous[3*i+1];
+				float dz = particles[i].position().z()-previous[3*i+2];
+				maxDistSq = Math.max(maxDistSq, dx*dx + dy*dy + dz*dz);
+			}
+			displacement = (float)Math.sqrt(maxDistSq);
+			numCalmTicks = (displacement <= convergence) ? numCalmTicks+1 : 0;
+			isConverged = (numCalmTicks >= convergenceTicks) || physics.isSettled();
+
+			long elapsed = System.currentTimeMillis()-start;
+			boolean isOutOfTime = (timeBudget > 0) && (elapsed >= timeBudget);
+			if (isConverged || isOutOfTime || (numTicks == maxTicks) || isCancelled || (numTicks % progressInterval == 0))
+			{
+				for (LayoutListener listener : listeners)
+				{
+					listener.layoutProgress(numTicks, displacement, elapsed);
+				}
+			}
+			if (isOutOfTime)
+			{
+				break;
+			}
+		}
+		return isConverged;
+	}
+
+	/** Requests that the current run stops after its current tick. This may be called from any thread,
+	 *  including from a layout listener.
+	 */
+	public void cancel()
+	{
+		isCancelled = true;
+	}
+
+	/** Reports the number of ticks calculated by the most recent run.
+	 *  @return Number of ticks.
+	 */
+	public int getNumTicks()
+	{
+		return numTicks;
+	}
+
+	/** Reports the largest distance moved by any node in the last tick of the most recent run.
+	 *  @return Largest displacement.
+	 */
+	public float getDisplacement()
+	{
+		return displacement;
+	}
+
+	/** Provides the particle system used to calculate the layout. This can be used to change settings
+	 *  such as the integrator, drag or number of threads.
+	 *  @return The particle system.
+	 */
+	public ParticleSystem getParticleSystem()
+	{
+		return physics;
+	}
+
+	/** Provides the nodes in the layout in the order in which they were added. This is the order in
+	 *  which positions are reported by {@link #getPositions()}.
+	 *  @return List of nodes.
+	 */
+	public List<N> getNodes()
+	{
+		return new ArrayList<N>(nodes.keySet());
+	}
+
+	/** Reports the current position of the given node.
+	 *  @param node Node whose position is required.
+	 *  @return Position of the node, or null if the node is not in the layout.
+	 */
+	public PVector getPosition(N node)
+	{
+		Particle p = nodes.get(node);
+		if (p == null)
+		{
+			return null;
+		}
+		return new PVector(p.position().x(), p.position().y());
+	}
+
+	/** Provides the current position of each node as an array of interleaved x and y coordinates,
+	 *  in the order given by {@link #getNodes()}.
+	 *  @return New array of <code>2*n</code> coordinates for <code>n</code> nodes.
+	 */
+	public float[] getPositions()
+	{
+		return getPositions(new float[2*nodes.size()]);
+	}
+
+	/** Copies the current position of each node into the given array as interleaved x and y
+	 *  coordinates, in the order given by {@link #getNodes()}.
+	 *  @param positions Array of at least <code>2*n</code> elements for <code>n</code> nodes.
+	 *  @return The given array.
+	 *  @throws IllegalArgumentException if the array is too small.
+	 */
+	public float[] getPositions(float[] positions) throws IllegalArgumentException
+	{
+		if (positions.length < 2*nodes.size())
+		{
+			throw new IllegalArgumentException("Position array has "+positions.length+" elements; needs at least "+2*nodes.size()+".");
+		}
+		int i = 0;
+		for (Particle p : nodes.values())
+		{
+			positions[i++] = p.position().x();
+			positions[i++] = p.position().y();
+		}
+		return positions;
+	}
+
+	/** Writes the current position of each node to the given file as comma separated values. Each line
+	 *  after the header holds the index of a node in {@link #getNodes()} and its x and y coordinates.
+	 *  @param file File to write.
+	 *  @throws IOException if the file cannot be written.
+	 */
+	public void writePositions(File file) throws IOException
+	{
+		Writer writer = new BufferedWriter(new FileWriter(file));
+		try
+		{
+			writePositions(writer);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/** Writes the current position of each node to the given writer as comma separated values. Each line
+	 *  after the header holds the index of a node in {@link #getNodes()} and its x and y coordinates.
+	 *  Positions are written one at a time, so large layouts need not be held as text in memory. The
+	 *  writer is flushed but not closed.
+	 *  @param writer Writer to receive the positions.
+	 *  @throws IOException if the positions cannot be written.
+	 */
+	public void writePositions(Writer writer) throws IOException
+	{
+		writer.write("node,x,y\n");
+		int i = 0;
+		for (Particle p : nodes.values())
+		{
+			writer.write(i+","+p.position().x()+","+p.position().y()+"\n");
+			i++;
+		}
+		writer.flush();
+	}
+}
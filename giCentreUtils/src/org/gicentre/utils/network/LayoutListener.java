@@ -0,0 +1,33 @@
+package org.gicentre.utils.network;
+
+// *****************************************************************************************
+/** Interface for any class that wishes to be informed of the progress of a layout calculated
+ *  by a {@link HeadlessLayout}.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public interface LayoutListener
+{
+	/** Should respond to the layout having advanced by a number of ticks.
+	 *  @param numTicks Number of ticks calculated so far.
+	 *  @param displacement Largest distance moved by any node in the most recent tick.
+	 *  @param elapsedMillis Time in milliseconds since the layout started.
+	 */
+	public abstract void layoutProgress(int numTicks, float displacement, long elapsedMillis);
+}
@@ -0,0 +1,533 @@
+package org.gicentre.utils.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.gicentre.utils.network.traer.physics.BarnesHutRepulsion;
+import org.gicentre.utils.network.traer.physics.Particle;
+import org.gicentre.utils.network.traer.physics.ParticleSystem;
+
+import processing.core.PVector;
+
+// *****************************************************************************************
+/** Calculates force-directed layouts of large networks using a multilevel scheme. Rather than
+ *  simulating every node from its initial location until the layout is stable, the network is
+ *  repeatedly coarsened by merging pairs of connected nodes until only a small network remains.
+ *  This is laid out with a {@link ParticleSystem} of springs and Barnes-Hut repulsion, and the
+ *  positions are then passed back down the hierarchy: each node starts close to the position of
+ *  the coarse node it was merged into, so only a short simulation is needed at each finer level.
+ *  Because the global shape of the network is settled while it is small, the total time to a
+ *  stable layout is typically orders of magnitude less than simulating the full network directly.
+ *  <br><br>
+ *  Coarsening uses heavy-edge matching, preferring to merge nodes joined by many edges and
+ *  representing few original nodes, so that coarse nodes stay of similar size.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class MultilevelLayout
+{
+	// ----------------------------- Class variables ------------------------------
+
+	/** Default number of nodes below which the network is not coarsened further. */
+	public static final int DEFAULT_COARSEST_SIZE = 50;
+	/** Default number of ticks used to lay out the coarsest network. */
+	public static final int DEFAULT_COARSEST_TICKS = 300;
+	/** Default number of ticks used to refine the layout at each finer level. */
+	public static final int DEFAULT_LEVEL_TICKS = 200;
+
+	private static final float MIN_REDUCTION = 0.9f;	// Coarsening stops if a level retains more than this proportion of nodes.
+	private static final float TIME_STEP = 0.3f;		// Time step of each simulation tick.
+	private static final float DRAG = 0.75f;			// Drag on each particle, as used by the particle viewer.
+
+	// ----------------------------- Object variables ------------------------------
+
+	private float edgeLength;		// Ideal length of each edge in the final layout.
+	private float repulsion;		// Strength of the repulsion between nodes.
+	private float springStrength;	// Strength of the spring representing each edge.
+	private int coarsestSize;		// Number of nodes below which coarsening stops.
+	private int coarsestTicks;		// Ticks used to lay out the coarsest network.
+	private int levelTicks;			// Ticks used to refine each finer level.
+	private Random rand;			// For ordering matches and separating merged nodes.
+	private int numLevels;			// Number of levels in the most recently calculated hierarchy.
+
+	// ------------------------------- Constructors --------------------------------
+
+	/** Creates a multilevel layout engine that will lay out networks with the given ideal edge length.
+	 *  @param edgeLength Ideal length of each edge in the final layout.
+	 *  @throws IllegalArgumentException if the edge length is not positive.
+	 */
+	public MultilevelLayout(float edgeLength) throws IllegalArgumentException
+	{
+		setEdgeLength(edgeLength);
+		repulsion = 1000;
+		springStrength = ParticleViewer.EDGE_STRENGTH;
+		coarsestSize = DEFAULT_COARSEST_SIZE;
+		coarsestTicks = DEFAULT_COARSEST_TICKS;
+		levelTicks = DEFAULT_LEVEL_TICKS;
+		rand = new Random(0);
+		numLevels = 0;
+	}
+
+	// ---------------------------------- Methods ----------------------------------
+
+	/** Sets the ideal length of each edge in the final layout.
+	 *  @param edgeLength New edge length.
+	 *  @return This layout engine.
+	 *  @throws IllegalArgumentException if the edge length is not positive.
+	 */
+	public MultilevelLayout setEdgeLength(float edgeLength) throws IllegalArgumentException
+	{
+		if (!(edgeLength > 0))
+		{
+			throw new IllegalArgumentException("Edge length is "+edgeLength+"; must be greater than 0.");
+		}
+		this.edgeLength = edgeLength;
+		return this;
+	}
+
+	/** Sets the strength of the repulsion between nodes, which spreads apart nodes that are not connected.
+	 *  @param repulsion Strength of the repulsion. Larger values give more widely spaced layouts.
+	 *  @return This layout engine.
+	 */
+	public MultilevelLayout setRepulsion(float repulsion)
+	{
+		this.repulsion = repulsion;
+		return this;
+	}
+
+	/** Sets the number of nodes below which the network is not coarsened further.
+	 *  @param coarsestSize Size of the coarsest network.
+	 *  @return This layout engine.
+	 *  @throws IllegalArgumentException if the size is less than 2.
+	 */
+	public MultilevelLayout setCoarsestSize(int coarsestSize) throws IllegalArgumentException
+	{
+		if (coarsestSize < 2)
+		{
+			throw new IllegalArgumentException("Coarsest network size is "+coarsestSize+"; must be at least 2.");
+		}
+		this.coarsestSize = coarsestSize;
+		return this;
+	}
+
+	/** Sets the number of simulation ticks used at each level of the hierarchy.
+	 *  @param coarsestTicks Ticks used to lay out the coarsest network.
+	 *  @param levelTicks Ticks used to refine the layout at each finer level.
+	 *  @return This layout engine.
+	 *  @throws IllegalArgumentException if either number of ticks is negative.
+	 */
+	public MultilevelLayout setTicks(int coarsestTicks, int levelTicks) throws IllegalArgumentException
+	{
+		if ((coarsestTicks < 0) || (levelTicks < 0))
+		{
+			throw new IllegalArgumentException("Numbers of ticks are "+coarsestTicks+" and "+levelTicks+"; must not be negative.");
+		}
+		this.coarsestTicks = coarsestTicks;
+		this.levelTicks = levelTicks;
+		return this;
+	}
+
+	/** Sets the seed used to order the merging of nodes and to separate merged nodes when passing
+	 *  positions to a finer level. The same network and seed always give the same layout.
+	 *  @param seed Seed for the random number generator.
+	 *  @return This layout engine.
+	 */
+	public MultilevelLayout setSeed(long seed)
+	{
+		rand = new Random(seed);
+		return this;
+	}
+
+	/** Reports the number of levels in the hierarchy used by the most recent layout, including the
+	 *  original network.
+	 *  @return Number of levels, or 0 if no layout has been calculated.
+	 */
+	public int getNumLevels()
+	{
+		return numLevels;
+	}
+
+	/** Calculates a layout of the given network. The initial locations of the nodes are used to
+	 *  position the coarsest network, so a meaningful arrangement is preserved at the largest scale. The
+	 *  nodes themselves are not moved.
+	 *  @param nodes Nodes to lay out.
+	 *  @param edges Edges connecting the nodes. Edges connecting nodes not in the collection of nodes are ignored.
+	 *  @return Position of each node in the layout.
+	 */
+	public Map<Node,PVector> layout(Collection<? extends Node> nodes, Collection<? extends Edge> edges)
+	{
+		// Number the nodes and edges of the original network.
+		List<Node> nodeList = new ArrayList<Node>(nodes);
+		Map<Node,Integer> ids = new HashMap<Node,Integer>();
+		for (int i=0; i<nodeList.size(); i++)
+		{
+			ids.put(nodeList.get(i), Integer.valueOf(i));
+		}
+
+		int[] from = new int[edges.size()];
+		int[] to = new int[edges.size()];
+		int numEdges = 0;
+		for (Edge edge : edges)
+		{
+			Integer id1 = ids.get(edge.getNode1());
+			Integer id2 = ids.get(edge.getNode2());
+			if ((id1 != null) && (id2 != null))
+			{
+				from[numEdges] = id1.intValue();
+				to[numEdges] = id2.intValue();
+				numEdges++;
+			}
+		}
+		float[] unitWeights = new float[Math.max(numEdges, nodeList.size())];
+		Arrays.fill(unitWeights, 1);
+
+		Level finest = new Level(nodeList.size(), unitWeights, from, to, unitWeights, numEdges);
+		for (int i=0; i<nodeList.size(); i++)
+		{
+			finest.x[i] = nodeList.get(i).getLocation().x;
+			finest.y[i] = nodeList.get(i).getLocation().y;
+		}
+
+		float[][] positions = layout(finest);
+		Map<Node,PVector> layout = new HashMap<Node,PVector>();
+		for (int i=0; i<nodeList.size(); i++)
+		{
+			layout.put(nodeList.get(i), new PVector(positions[0][i], positions[1][i]));
+		}
+		return layout;
+	}
+
+	/** Calculates a layout of the network formed by the given particles' nodes and the given edges, and
+	 *  moves each particle to the position of its node in the layout. The particles are brought to rest
+	 *  and woken so that any subsequent simulation continues smoothly from the new positions.
+	 *  @param particles Particle representing each node to lay out.
+	 *  @param edges Edges connecting the nodes. Edges connecting nodes not in the map are ignored.
+	 */
+	public void apply(Map<? extends Node,Particle> particles, Collection<? extends Edge> edges)
+	{
+		Map<Node,PVector> positions = layout(particles.keySet(), edges);
+		for (Map.Entry<? extends Node,Particle> row : particles.entrySet())
+		{
+			PVector location = positions.get(row.getKey());
+			Particle p = row.getValue();
+			p.position().set(location.x, location.y, 0);
+			p.velocity().clear();
+			p.wake();
+		}
+	}
+
+	// ------------------------------ Private methods ------------------------------
+
+	/** Lays out the given network by coarsening it, laying out the coarsest level and refining the
+	 *  layout level by level.
+	 *  @param finest Original network with the initial location of each node.
+	 *  @return Arrays of the x and y coordinates of each node in the original network.
+	 */
+	private float[][] layout(Level finest)
+	{
+		List<Level> levels = new ArrayList<Level>();
+		levels.add(finest);
+		Level level = finest;
+		while (level.n > coarsestSize)
+		{
+			Level coarser = level.coarsen(rand);
+			if (coarser.n > level.n*MIN_REDUCTION)
+			{
+				break;
+			}
+			levels.add(coarser);
+			level = coarser;
+		}
+		numLevels = levels.size();
+
+		// Coarse nodes start at the mean initial location of the original nodes they represent.
+		for (int l=1; l<levels.size(); l++)
+		{
+			levels.get(l).restrict(levels.get(l-1));
+		}
+
+		simulate(level, coarsestTicks);
+		for (int l=levels.size()-2; l>=0; l--)
+		{
+			levels.get(l).prolong(levels.get(l+1), edgeLength, rand);
+			simulate(levels.get(l), levelTicks);
+		}
+		return new float[][] {finest.x, finest.y};
+	}
+
+	/** Runs a force-directed simulation of the given level starting from its current positions,
+	 *  which are updated with the result.
+	 *  @param level Level to simulate.
+	 *  @param numTicks Number of simulation ticks.
+	 */
+	private void simulate(Level level, int numTicks)
+	{
+		ParticleSystem physics = new ParticleSystem(0, DRAG);
+		Particle[] particles = new Particle[level.n];
+		for (int i=0; i<level.n; i++)
+		{
+			particles[i] = physics.makeParticle(1, level.x[i], level.y[i], 0);
+		}
+
+		// Coarse nodes represent clusters whose diameter grows with the square root of their size.
+		for (int i=0; i<level.n; i++)
+		{
+			for (int k=level.adjStart[i]; k<level.adjStart[i+1]; k++)
+			{
+				int j = level.adjNode[k];
+				if (i < j)
+				{
+					float length = edgeLength*(float)(Math.sqrt(level.weight[i])+Math.sqrt(level.weight[j]))/2;
+					physics.makeSpring(particles[i], particles[j], springStrength, ParticleViewer.DAMPING, length);
+				}
+			}
+		}
+		physics.addCustomForce(new BarnesHutRepulsion(physics, repulsion, 0.1f));
+
+		for (int t=0; t<numTicks; t++)
+		{
+			physics.tick(TIME_STEP);
+		}
+		for (int i=0; i<level.n; i++)
+		{
+			level.x[i] = particles[i].position().x();
+			level.y[i] = particles[i].position().y();
+		}
+	}
+
+	// ------------------------------ Nested classes -------------------------------
+
+	/** One level of the network hierarchy, stored as weighted adjacency lists in compressed form.
+	 */
+	private static class Level
+	{
+		final int n;				// Number of nodes.
+		final float[] weight;		// Number of original nodes represented by each node.
+		final int[] adjStart;		// Position in adjNode of the first neighbour of each node, plus an end marker.
+		final int[] adjNode;		// Neighbours of each node.
+		final float[] adjWeight;	// Number of original edges joining each node to each neighbour.
+		final float[] x, y;			// Position of each node.
+		int[] coarse;				// Node in the next coarser level into which each node is merged.
+
+		/** Creates a level from a list of weighted edges. Parallel edges are combined and loops ignored.
+		 *  @param n Number of nodes.
+		 *  @param nodeWeight Number of original nodes represented by each node.
+		 *  @param from First node of each edge.
+		 *  @param to Second node of each edge.
+		 *  @param edgeWeight Number of original edges represented by each edge.
+		 *  @param numEdges Number of edges.
+		 */
+		Level(int n, float[] nodeWeight, int[] from, int[] to, float[] edgeWeight, int numEdges)
+		{
+			this.n = n;
+			weight = Arrays.copyOf(nodeWeight, n);
+			x = new float[n];
+			y = new float[n];
+
+			// Count each edge in both directions, then fill in the neighbours.
+			int[] start = new int[n+1];
+			for (int e=0; e<numEdges; e++)
+			{
+				if (from[e] != to[e])
+				{
+					start[from[e]+1]++;
+					start[to[e]+1]++;
+				}
+			}
+			for (int i=0; i<n; i++)
+			{
+				start[i+1] += start[i];
+			}
+			int[] cursor = Arrays.copyOf(start, n);
+			int[] nbr = new int[start[n]];
+			float[] nbrWeight = new float[start[n]];
+			for (int e=0; e<numEdges; e++)
+			{
+				if (from[e] != to[e])
+				{
+					nbr[cursor[from[e]]] = to[e];
+					nbrWeight[cursor[from[e]]++] = edgeWeight[e];
+					nbr[cursor[to[e]]] = from[e];
+					nbrWeight[cursor[to[e]]++] = edgeWeight[e];
+				}
+			}
+
+			// Combine parallel edges, remembering where each neighbour was first seen.
+			adjStart = new int[n+1];
+			int[] seenAt = new int[n];
+			Arrays.fill(seenAt, -1);
+			int m = 0;
+			for (int i=0; i<n; i++)
+			{
+				adjStart[i] = m;
+				for (int k=start[i]; k<start[i+1]; k++)
+				{
+					int j = nbr[k];
+					if ((seenAt[j] >= adjStart[i]) && (nbr[seenAt[j]] == j))
+					{
+						nbrWeight[seenAt[j]] += nbrWeight[k];
+					}
+					else
+					{
+						seenAt[j] = m;
+						nbr[m] = j;
+						nbrWeight[m] = nbrWeight[k];
+						m++;
+					}
+				}
+			}
+			adjStart[n] = m;
+			adjNode = Arrays.copyOf(nbr, m);
+			adjWeight = Arrays.copyOf(nbrWeight, m);
+		}
+
+		/** Creates the next coarser level by merging pairs of neighbouring nodes. Nodes are visited in
+		 *  random order, and each unmatched node is merged with the unmatched neighbour to which it has
+		 *  the heaviest connection relative to the sizes of the two nodes.
+		 *  @param rand Random number generator for ordering the nodes.
+		 *  @return Coarser level.
+		 */
+		Level coarsen(Random rand)
+		{
+			int[] order = new int[n];
+			for (int i=0; i<n; i++)
+			{
+				order[i] = i;
+			}
+			for (int i=n-1; i>0; i--)
+			{
+				int j = rand.nextInt(i+1);
+				int tmp = order[i];
+				order[i] = order[j];
+				order[j] = tmp;
+			}
+
+			int[] match = new int[n];
+			Arrays.fill(match, -1);
+			for (int i : order)
+			{
+				if (match[i] >= 0)
+				{
+					continue;
+				}
+				int best = i;
+				float bestScore = 0;
+				for (int k=adjStart[i]; k<adjStart[i+1]; k++)
+				{
+					int j = adjNode[k];
+					float score = adjWeight[k]/(weight[i]*weight[j]);
+					if ((match[j] < 0) && (score > bestScore))
+					{
+						best = j;
+						bestScore = score;
+					}
+				}
+				match[i] = best;
+				match[best] = i;
+			}
+
+			// Number the merged nodes and combine their weights.
+			coarse = new int[n];
+			Arrays.fill(coarse, -1);
+			float[] coarseWeight = new float[n];
+			int numCoarse = 0;
+			for (int i=0; i<n; i++)
+			{
+				if (coarse[i] < 0)
+				{
+					coarse[i] = numCoarse;
+					coarse[match[i]] = numCoarse;
+					coarseWeight[numCoarse] = weight[i] + ((match[i] != i) ? weight[match[i]] : 0);
+					numCoarse++;
+				}
+			}
+
+			// Edges between merged nodes, each listed once.
+			int[] from = new int[adjNode.length];
+			int[] to = new int[adjNode.length];
+			float[] edgeWeight = new float[adjNode.length];
+			int numEdges = 0;
+			for (int i=0; i<n; i++)
+			{
+				for (int k=adjStart[i]; k<adjStart[i+1]; k++)
+				{
+					if (i < adjNode[k])
+					{
+						from[numEdges] = coarse[i];
+						to[numEdges] = coarse[adjNode[k]];
+						edgeWeight[numEdges++] = adjWeight[k];
+					}
+				}
+			}
+			return new Level(numCoarse, coarseWeight, from, to, edgeWeight, numEdges);
+		}
+
+		/** Sets the position of each node in this level to the weighted mean position of the nodes
+		 *  merged into it from the given finer level.
+		 *  @param finer Next finer level, whose nodes have been merged to form this one.
+		 */
+		void restrict(Level finer)
+		{
+			Arrays.fill(x, 0);
+			Arrays.fill(y, 0);
+			for (int i=0; i<finer.n; i++)
+			{
+				int c = finer.coarse[i];
+				x[c] += finer.x[i]*finer.weight[i];
+				y[c] += finer.y[i]*finer.weight[i];
+			}
+			for (int c=0; c<n; c++)
+			{
+				x[c] /= weight[c];
+				y[c] /= weight[c];
+			}
+		}
+
+		/** Positions each node in this level close to the node into which it was merged in the given
+		 *  coarser level, with merged pairs placed on opposite sides of it.
+		 *  @param coarser Next coarser level, which has been laid out.
+		 *  @param edgeLength Ideal length of each edge in the final layout.
+		 *  @param rand Random number generator for choosing the direction in which nodes are separated.
+		 */
+		void prolong(Level coarser, float edgeLength, Random rand)
+		{
+			float[] angle = new float[coarser.n];
+			for (int c=0; c<coarser.n; c++)
+			{
+				angle[c] = rand.nextFloat()*(float)(2*Math.PI);
+			}
+
+			boolean[] isPlaced = new boolean[coarser.n];
+			for (int i=0; i<n; i++)
+			{
+				int c = coarse[i];
+				float offset = (coarser.weight[c] > weight[i]) ? edgeLength*(float)Math.sqrt(weight[i])/2 : 0;
+				float sign = isPlaced[c] ? -1 : 1;
+				x[i] = coarser.x[c] + sign*offset*(float)Math.cos(angle[c]);
+				y[i] = coarser.y[c] + sign*offset*(float)Math.sin(angle[c]);
+				isPlaced[c] = true;
+			}
+		}
+	}
+}
@@ -2,6 +2,7 @@ package org.gicentre.utils.network;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.gicentre.utils.move.ZoomPan;
@@ -11,6 +12,8 @@ import org.gicentre.utils.network.traer.animation.*;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
+import processing.core.PShape;
+import processing.core.PVector;
 
 // *****************************************************************************************
 /** Allows particles to be viewed and animated. Suitable for spring embedded / force directed
@@ -54,6 +57,39 @@ public class ParticleViewer<N extends Node, E extends Edge>
 	private HashMap<Particle, Spring> tethers; // Tethers between a node and its location.
 	private ZoomPan zoomer;           		   // For interactive zooming and panning.
 	private N selectedNode;		 		   	   // Optionally selected node for query or interaction.
+	private BarnesHutRepulsion repulsion;	   // Optional repulsion between all nodes.
+	private ParticleSimulator simulator;	   // Optional background thread for advancing the physics.
+	private ParticleSnapshot frameSnapshot;	   // Snapshot of particle positions most recently drawn.
+	private HashMap<Particle, N> particleNodes;// Node represented by each particle.
+	private HashMap<Spring, E> springEdges;	   // Edge represented by each spring.
+	private ParticleGrid index;				   // Spatial index of node positions for picking and culling nodes.
+	private boolean isIndexStale;			   // Whether nodes have moved since the index was built.
+	private long indexVersion;				   // Version of the snapshot from which the index was built.
+	private SpringGrid edgeIndex;			   // Spatial index of edge positions for culling edges.
+	private boolean isEdgeIndexStale;		   // Whether nodes or edges have changed since the edge index was built.
+	private long frameVersion;				   // Version of the snapshot drawn in the previous frame.
+	private long centroidVersion;			   // Version of the snapshot on which the view was last centred.
+	private boolean isCulling;				   // Whether nodes and edges outside the visible area are skipped.
+	private float cullMargin;				   // Screen distance beyond the visible area within which elements are drawn.
+	private float viewMinX, viewMinY;		   // Minimum particle coordinates of the visible area.
+	private float viewMaxX, viewMaxY;		   // Maximum particle coordinates of the visible area.
+	private float lodPixels;				   // Screen size of level-of-detail cells, or 0 if detail is not reduced.
+	private float lodCellSize;				   // Size of level-of-detail cells in particle coordinates.
+	private int lodCols, lodRows;			   // Number of level-of-detail cells across the visible area.
+	private int[] lodStamps;				   // Frame in which each cell last had a node drawn in it.
+	private int lodFrame;					   // Number of frames drawn with reduced detail.
+	private int[] edgeDensity;				   // Number of short edges in each cell.
+	private int[] denseCells;				   // Cells containing at least one short edge.
+	private int numDenseCells;				   // Number of cells containing short edges.
+	private long[] cellPairs;				   // Hash table of pairs of cells already joined by a drawn edge.
+	private int[] cellPairStamps;			   // Frame in which each entry in the table of cell pairs was added.
+	private int numCellPairs;				   // Number of pairs of cells joined in the current frame.
+	private boolean isRetained;				   // Whether nodes and edges are drawn from retained shapes.
+	private boolean isShapeStale;			   // Whether nodes or edges have been added since the shapes were built.
+	private PShape edgeShape, nodeShape;	   // Retained geometry of the edges and nodes.
+	private ArrayList<Spring> shapeSprings;	   // Springs in the order of their vertices in the edge shape.
+	private ArrayList<Particle> shapeParticles;// Particles in the order of their vertices in the node shape.
+	private float shapeStrokeWeight;		   // Stroke weight of the edge shape.
 
 								/** Default strength for all edges. */
 	public static final float EDGE_STRENGTH   = 1;
@@ -61,6 +97,9 @@ public class ParticleViewer<N extends Node, E extends Edge>
 	public static final float SPRING_STRENGTH = 0.5f;
 							    /** Default damping for all particle movements. */
 	public static final float DAMPING         = 0.1f;
+	
+	private static final float TIME_STEP      = 0.3f;	// Time step for each update of the physics.
+	private static final float CULL_MARGIN    = 20;		// Default screen distance beyond the visible area within which elements are drawn.
 
 	// ------------------------------- Constructors --------------------------------
 
@@ -84,6 +123,31 @@ public class ParticleViewer<N extends Node, E extends Edge>
 		this.height = height;
 		isPaused = false;
 		selectedNode = null;
+		repulsion = null;
+		simulator = null;
+		frameSnapshot = null;
+		particleNodes = new HashMap<Particle, N>();
+		springEdges = new HashMap<Spring, E>();
+		index = new ParticleGrid(1);
+		isIndexStale = true;
+		indexVersion = -1;
+		edgeIndex = new SpringGrid(1);
+		isEdgeIndexStale = true;
+		frameVersion = -1;
+		centroidVersion = -1;
+		isCulling = false;
+		cullMargin = CULL_MARGIN;
+		lodPixels = 0;
+		lodStamps = new int[0];
+		edgeDensity = new int[0];
+		denseCells = new int[0];
+		cellPairs = new long[64];
+		cellPairStamps = new int[64];
+		numCellPairs = 0;
+		isRetained = false;
+		isShapeStale = true;
+		shapeSprings = new ArrayList<Spring>();
+		shapeParticles = new ArrayList<Particle>();
 	}
 
 	// ---------------------------------- Methods ----------------------------------
@@ -91,21 +155,25 @@ public class ParticleViewer<N extends Node, E extends Edge>
 	/** Updates the particle view. This should be called on each draw cycle in order
 	 *  to update the positions of all nodes and edges in the viewer. If you need to update
 	 *  the positions of particles without drawing it (e.g. to speed up movement, call 
-	 *  updateParticles() instead.
+	 *  updateParticles() instead. If the particles are being updated in a background thread, 
+	 *  the most recently calculated positions are drawn.
 	 */
 	public void draw()
 	{
+		ParticleSnapshot snapshot = (simulator == null) ? null : simulator.getSnapshot();
+		frameSnapshot = snapshot;
+
 		parent.pushStyle();
 		parent.pushMatrix();
 		zoomer.transform();
-		updateCentroid();
+		updateCentroid(snapshot);
 		centroid.tick();
 
 		parent.translate(width/2, height/2);
 		parent.scale(centroid.getZ());
 		parent.translate(-centroid.getX(), -centroid.getY());
 
-		if (!isPaused)
+		if ((!isPaused) && (simulator == null))
 		{
 			updateParticles();
 		}
@@ -114,37 +182,38 @@ public class ParticleViewer<N extends Node, E extends Edge>
 		if (selectedNode != null)
 		{
 			Particle p = nodes.get(selectedNode);
-			p.makeFixed();
 			float mX = (zoomer.getMouseCoord().x -(width/2))/centroid.getZ() + centroid.getX();
 			float mY = (zoomer.getMouseCoord().y -(height/2))/centroid.getZ() + centroid.getY();
-			p.position().set(mX,mY,0); 
+			synchronized (physics)
+			{
+				p.makeFixed();
+				p.position().set(mX,mY,0); 
+				isIndexStale = true;
+			}
 		}
 
-		// Draw edges if we have positive stroke weight.
-		if (parent.g.strokeWeight > 0)
+		if (isRetained)
+		{
+			drawRetained(snapshot);
+		}
+		else
 		{
-			parent.stroke(0,180);
-			parent.noFill();
+			findVisibleArea();
 
-			for (Map.Entry<E,Spring> row: edges.entrySet() )
+			// Draw edges if we have positive stroke weight.
+			if (parent.g.strokeWeight > 0)
 			{
-				Spring spring = row.getValue();
-				Vector3D p1 = spring.getOneEnd().position();
-				Vector3D p2 = spring.getTheOtherEnd().position();
-				row.getKey().draw(parent, p1.x(),p1.y(),p2.x(),p2.y());
+				parent.stroke(0,180);
+				parent.noFill();
+				drawEdges(snapshot);
 			}
-		}
-
 
-		// Draw nodes.
-		parent.noStroke();
-		parent.fill(120,50,50,180);
-
-		for (Map.Entry<N,Particle> row: nodes.entrySet() )
-		{
-			Vector3D pos = row.getValue().position();
-			row.getKey().draw(parent, pos.x(),pos.y());
+			// Draw nodes.
+			parent.noStroke();
+			parent.fill(120,50,50,180);
+			drawNodes(snapshot);
 		}
+		frameVersion = (snapshot == null) ? -1 : snapshot.getVersion();
 
 		parent.popMatrix();
 		parent.popStyle();
@@ -157,7 +226,155 @@ public class ParticleViewer<N extends Node, E extends Edge>
 	 */
 	public void updateParticles()
 	{
-		physics.tick(0.3f);         // Advance time in the physics engine.
+		synchronized (physics)
+		{
+			boolean wasSettled = physics.isSettled();
+			physics.tick(TIME_STEP);	// Advance time in the physics engine.
+			if (!wasSettled || !physics.isSettled())
+			{
+				isIndexStale = true;
+			}
+		}
+	}
+	
+	/** Starts updating the positions of nodes and edges in a background thread rather than on each
+	 *  draw cycle. This allows large networks to be drawn smoothly since drawing no longer waits for
+	 *  the physics calculations to complete. Each call to <code>draw()</code> will display the most
+	 *  recently calculated positions.
+	 *  @param ticksPerSecond Number of times per second the positions are updated. If zero, they are
+	 *                        updated as often as possible.
+	 */
+	public void startBackgroundUpdates(float ticksPerSecond)
+	{
+		if (simulator == null)
+		{
+			simulator = new ParticleSimulator(physics).setTimeStep(TIME_STEP);
+		}
+		simulator.setTicksPerSecond(ticksPerSecond).start();
+	}
+	
+	/** Stops updating the positions of nodes and edges in a background thread so that they are
+	 *  once again updated on each draw cycle. Has no effect if background updates have not been started.
+	 */
+	public void stopBackgroundUpdates()
+	{
+		if (simulator != null)
+		{
+			simulator.stop();
+			simulator = null;
+			frameSnapshot = null;
+			isIndexStale = true;
+			indexVersion = -1;
+			frameVersion = -1;
+			centroidVersion = -1;
+		}
+	}
+	
+	/** Reports whether the positions of nodes and edges are being updated in a background thread.
+	 *  @return True if background updates are running.
+	 */
+	public boolean isUpdatingInBackground()
+	{
+		return simulator != null;
+	}
+
+	/** Determines whether nodes and edges that lie outside the visible part of the viewer are skipped
+	 *  when drawing. Culling is off by default. Turning it on allows a small part of a large network to be
+	 *  zoomed into smoothly, since only the visible nodes and edges are drawn. Nodes are drawn if they lie
+	 *  within the culling margin of the visible area (20 pixels by default), so the margin should be
+	 *  increased with {@link #setCullingMargin(float)} if nodes are drawn with large symbols or labels
+	 *  that could otherwise disappear at the edge of the viewer.
+	 *  @param isCulling Nodes and edges outside the visible area are not drawn if true.
+	 */
+	public void setViewportCulling(boolean isCulling)
+	{
+		this.isCulling = isCulling;
+	}
+
+	/** Reports whether nodes and edges outside the visible part of the viewer are skipped when drawing.
+	 *  @return True if elements outside the visible area are not drawn.
+	 */
+	public boolean isViewportCulling()
+	{
+		return isCulling;
+	}
+
+	/** Sets the distance beyond the edge of the viewer within which nodes are still drawn when viewport
+	 *  culling is on. This should be at least as large as the distance a node's symbol or label extends
+	 *  from its position so that nodes just outside the viewer do not vanish while still partly visible.
+	 *  @param margin Distance in screen pixels beyond the visible area within which nodes are drawn.
+	 *  @throws IllegalArgumentException if the margin is negative.
+	 */
+	public void setCullingMargin(float margin) throws IllegalArgumentException
+	{
+		if (!(margin >= 0))
+		{
+			throw new IllegalArgumentException("Culling margin is "+margin+"; must be 0 or greater.");
+		}
+		cullMargin = margin;
+	}
+
+	/** Reports the distance beyond the edge of the viewer within which nodes are still drawn when
+	 *  viewport culling is on.
+	 *  @return Distance in screen pixels beyond the visible area within which nodes are drawn.
+	 */
+	public float getCullingMargin()
+	{
+		return cullMargin;
+	}
+
+	/** Sets the level of detail with which the network is drawn. When zoomed out of a large network
+	 *  many nodes occupy the same pixels and many short edges are drawn on top of one another. With
+	 *  reduced detail, the visible area is divided into square cells of the given screen size. Only one
+	 *  node is drawn in each cell and only one edge is drawn between any pair of cells. Edges shorter
+	 *  than a cell are not drawn individually but instead shade the cell containing them, darker
+	 *  where there are more edges. The time taken to draw the network then depends on the number of
+	 *  cells on the screen rather than the size of the network.
+	 *  @param cellPixels Size of each cell in screen pixels, or 0 to draw every node and edge (the default).
+	 *  @throws IllegalArgumentException if the cell size is negative.
+	 */
+	public void setLevelOfDetail(float cellPixels) throws IllegalArgumentException
+	{
+		if (!(cellPixels >= 0))
+		{
+			throw new IllegalArgumentException("Level of detail cell size is "+cellPixels+"; must be 0 or greater.");
+		}
+		lodPixels = cellPixels;
+	}
+
+	/** Reports the screen size of the cells used to reduce the level of detail of the drawn network.
+	 *  @return Size of each cell in screen pixels, or 0 if every node and edge is drawn.
+	 */
+	public float getLevelOfDetail()
+	{
+		return lodPixels;
+	}
+
+	/** Determines whether the network is drawn from retained geometry rather than by drawing each node
+	 *  and edge in turn. In retained mode the viewer builds a single shape holding a line for every
+	 *  edge and another holding a point for every node, and moves their vertices to the current particle
+	 *  positions on each draw cycle. The whole network is then drawn with two calls to <code>shape()</code>,
+	 *  which allows very large networks to be drawn quickly, especially when the sketch uses the
+	 *  <code>P2D</code> or <code>P3D</code> renderer where the geometry is kept on the graphics card.
+	 *  <br><br>
+	 *  In retained mode edges are drawn as plain lines and nodes as round points, so any custom
+	 *  <code>draw()</code> methods of the nodes and edges are not used. Viewport culling and level of
+	 *  detail are also ignored since the graphics card discards invisible geometry more quickly. Edges
+	 *  are drawn with the stroke weight current when <code>draw()</code> is called.
+	 *  @param isRetained Network is drawn from retained geometry if true, or node by node and edge by edge if false.
+	 */
+	public void setRetainedRendering(boolean isRetained)
+	{
+		this.isRetained = isRetained;
+		isShapeStale = true;
+	}
+
+	/** Reports whether the network is drawn from retained geometry.
+	 *  @return True if retained rendering is used.
+	 */
+	public boolean isRetainedRendering()
+	{
+		return isRetained;
 	}
 
 	/** Sets the drag on all particles in the system. By default drag is set to 0.75 which 
@@ -166,7 +383,10 @@ public class ParticleViewer<N extends Node, E extends Edge>
 	 */
 	public void setDrag(float drag)
 	{
-		physics.setDrag(drag);
+		synchronized (physics)
+		{
+			physics.setDrag(drag);
+		}
 	}
 
 	/** Creates a attractive or repulsive force between the two given nodes. If the two nodes
@@ -204,19 +424,21 @@ public class ParticleViewer<N extends Node, E extends Edge>
 			return false;
 		}
 
-		// We may have to remove existing force if it exists between these two nodes.
-		for (int i=0; i<physics.getNumAttractions(); i++)
+		synchronized (physics)
 		{
-			Attraction a = physics.getAttraction(i);
-			if (((a.getOneEnd() == p1) && (a.getTheOtherEnd() == p2)) ||
-				((a.getOneEnd() == p2) && (a.getTheOtherEnd() == p1)))
+			// We may have to remove existing force if it exists between these two nodes.
+			for (Attraction a : physics.getAttractions(p1))
 			{
-				physics.removeAttraction(a);
-				break;
+				if (((a.getOneEnd() == p1) && (a.getTheOtherEnd() == p2)) ||
+					((a.getOneEnd() == p2) && (a.getTheOtherEnd() == p1)))
+				{
+					physics.removeAttraction(a);
+					break;
+				}
 			}
+			// Add the new force.
+			physics.makeAttraction(p1,p2, force, minDistance);
 		}
-		// Add the new force.
-		physics.makeAttraction(p1,p2, force, minDistance);
 		return false;
 	}
 
@@ -255,21 +477,23 @@ public class ParticleViewer<N extends Node, E extends Edge>
 			return false;
 		}
 
-		// We may have to remove existing spring if it exists between these two nodes.
-		for (int i=0; i<physics.getNumSprings(); i++)
+		synchronized (physics)
 		{
-			Spring spring = physics.getSpring(i);
-			if ((((spring.getOneEnd() == p1) && (spring.getTheOtherEnd() == p2)) ||
-				((spring.getOneEnd() == p2) && (spring.getTheOtherEnd() == p1))) &&
-				(spring.strength() != EDGE_STRENGTH))
+			// We may have to remove existing spring if it exists between these two nodes.
+			for (Spring spring : physics.getSprings(p1))
 			{
-				physics.removeSpring(spring);
-				break;
+				if ((((spring.getOneEnd() == p1) && (spring.getTheOtherEnd() == p2)) ||
+					((spring.getOneEnd() == p2) && (spring.getTheOtherEnd() == p1))) &&
+					(spring.strength() != EDGE_STRENGTH))
+				{
+					physics.removeSpring(spring);
+					break;
+				}
 			}
-		}
 
-		// Add the new force.
-		physics.makeSpring(p1,p2, strength, DAMPING,length);
+			// Add the new force.
+			physics.makeSpring(p1,p2, strength, DAMPING,length);
+		}
 		return false;
 	}
 	
@@ -281,32 +505,35 @@ public class ParticleViewer<N extends Node, E extends Edge>
 	public boolean tether(N node, float strength)
 	{
 		Particle p1 = nodes.get(node);
-    	if (p1 == null)
-    	{
-    		return false;
-    	}
-    	
-    	// Grab the tethering stake if it has already been created, otherwise create a new one.
-    	Particle stake = stakes.get(node);
-    	if (stake == null)
-    	{
-    		stake = physics.makeParticle(1, node.getLocation().x, node.getLocation().y, 0);
-    		stake.makeFixed();
-    		stakes.put(node,stake);
-    	}
-    	
-    	// Grab the tether if it has already been created, otherwise create a new one.
-    	Spring tether = tethers.get(stake);
-    	if (tether == null)
-    	{
-    		tether = physics.makeSpring(stake, p1, strength, DAMPING, Float.MIN_VALUE);
-    		tethers.put(stake,tether);
-    	}
-    	else
-    	{
-    		tether.setStrength(strength);
-    	}
-    	return true;
+		if (p1 == null)
+		{
+			return false;
+		}
+		
+		synchronized (physics)
+		{
+			// Grab the tethering stake if it has already been created, otherwise create a new one.
+			Particle stake = stakes.get(node);
+			if (stake == null)
+			{
+				stake = physics.makeParticle(1, node.getLocation().x, node.getLocation().y, 0);
+				stake.makeFixed();
+				stakes.put(node,stake);
+			}
+		
+			// Grab the tether if it has already been created, otherwise create a new one.
+			Spring tether = tethers.get(stake);
+			if (tether == null)
+			{
+				tether = physics.makeSpring(stake, p1, strength, DAMPING, Float.MIN_VALUE);
+				tethers.put(stake,tether);
+			}
+			else
+			{
+				tether.setStrength(strength);
+			}
+		}
+		return true;
 	}
 	
 	/* * Sets the mass of the given node. The larger the mass, the stronger the attractive
@@ -368,27 +595,52 @@ public class ParticleViewer<N extends Node, E extends Edge>
 	 */
 	public N getNearest(float x, float y, float radius)
 	{
-		float mX = (x - width/2)/centroid.getZ() + centroid.getX();
-		float mY = (y - height/2)/centroid.getZ() + centroid.getY();
-
-		float nearestDSq = radius*radius;
-		N nearestNode = null;
+		synchronized (physics)
+		{
+			refreshIndex();
+			Particle p = index.getNearest(toWorldX(x), toWorldY(y), 0, radius);
+			return (p == null) ? null : particleNodes.get(p);
+		}
+	}
 
-		for (Map.Entry<N,Particle> row: nodes.entrySet())
+	/** Reports the nodes that lie within the given rectangle of screen coordinates. This can be used to
+	 *  select a group of nodes by dragging out a rectangle with the mouse.
+	 *  @param x1 x screen coordinate of one corner of the rectangle.
+	 *  @param y1 y screen coordinate of one corner of the rectangle.
+	 *  @param x2 x screen coordinate of the opposite corner of the rectangle.
+	 *  @param y2 y screen coordinate of the opposite corner of the rectangle.
+	 *  @return List of nodes inside the rectangle, which may be empty.
+	 */
+	public List<N> getNodesInRectangle(float x1, float y1, float x2, float y2)
+	{
+		synchronized (physics)
 		{
-			N node = row.getKey();
-			Particle p = row.getValue();
+			refreshIndex();
+			return toNodes(index.getParticlesInRectangle(toWorldX(x1), toWorldY(y1), toWorldX(x2), toWorldY(y2)));
+		}
+	}
 
-			float px = p.position().x();
-			float py = p.position().y();
-			float dSq = (px-mX)*(px-mX) + (py-mY)*(py-mY);
-			if (dSq < nearestDSq)
-			{
-				nearestDSq = dSq;
-				nearestNode = node;
-			}
+	/** Reports the nodes that lie inside the given polygon of screen coordinates. This can be used to
+	 *  select a group of nodes by drawing a lasso around them with the mouse. The polygon is closed
+	 *  automatically.
+	 *  @param lasso Screen coordinates of the vertices of the polygon, in order.
+	 *  @return List of nodes inside the polygon, which may be empty.
+	 */
+	public List<N> getNodesInLasso(List<PVector> lasso)
+	{
+		float[] xs = new float[lasso.size()];
+		float[] ys = new float[lasso.size()];
+		for (int i=0; i<xs.length; i++)
+		{
+			PVector vertex = lasso.get(i);
+			xs[i] = toWorldX(vertex.x);
+			ys[i] = toWorldY(vertex.y);
+		}
+		synchronized (physics)
+		{
+			refreshIndex();
+			return toNodes(index.getParticlesInPolygon(xs, ys));
 		}
-		return nearestNode;
 	}
 
 	/** Adds a node to those to be displayed in the viewer.
@@ -396,8 +648,18 @@ public class ParticleViewer<N extends Node, E extends Edge>
 	 */
 	public void addNode(N node)
 	{
-		Particle p = physics.makeParticle(1, node.getLocation().x, node.getLocation().y, 0);
-		nodes.put(node,p);
+		synchronized (physics)
+		{
+			Particle p = physics.makeParticle(1, node.getLocation().x, node.getLocation().y, 0);
+			Particle oldParticle = nodes.put(node,p);
+			if (oldParticle != null)
+			{
+				particleNodes.remove(oldParticle);
+			}
+			particleNodes.put(p, node);
+			isIndexStale = true;
+			isShapeStale = true;
+		}
 	}
 
 	/** Adds the given edge to those to be displayed in the viewer. Note that the edge must connect
@@ -425,13 +687,19 @@ public class ParticleViewer<N extends Node, E extends Edge>
 		// Only add edge if it does not already exist in the collection
 		if (!edges.containsKey(edge))
 		{
-			float x1 = p1.position().x();
-			float y1 = p1.position().y();
-			float x2 = p2.position().x();
-			float y2 = p2.position().y();
-			// Strength, damping, reset length
-			edges.put(edge, physics.makeSpring(p1, p2, 
-					  EDGE_STRENGTH, DAMPING, (float)Math.sqrt((x1-x2)*(x1-x2) + (y1-y2)*(y1-y2))));
+			synchronized (physics)
+			{
+				float x1 = p1.position().x();
+				float y1 = p1.position().y();
+				float x2 = p2.position().x();
+				float y2 = p2.position().y();
+				// Strength, damping, reset length
+				Spring spring = physics.makeSpring(p1, p2, EDGE_STRENGTH, DAMPING, (float)Math.sqrt((x1-x2)*(x1-x2) + (y1-y2)*(y1-y2)));
+				edges.put(edge, spring);
+				springEdges.put(spring, edge);
+				isEdgeIndexStale = true;
+				isShapeStale = true;
+			}
 		}
 		return true;
 	}
@@ -462,75 +730,75 @@ public class ParticleViewer<N extends Node, E extends Edge>
 		// Only add edge if it does not already exist in the collection
 		if (!edges.containsKey(edge))
 		{
-			// Strength, damping, reset length
-			edges.put(edge, physics.makeSpring(p1, p2, EDGE_STRENGTH, DAMPING, distance));
+			synchronized (physics)
+			{
+				// Strength, damping, reset length
+				Spring spring = physics.makeSpring(p1, p2, EDGE_STRENGTH, DAMPING, distance);
+				edges.put(edge, spring);
+				springEdges.put(spring, edge);
+				isEdgeIndexStale = true;
+				isShapeStale = true;
+			}
 		}
 		return true;
 	}
 
-	/** Attempts to space out non-connected nodes from one another. This is achieved by adding a strong repulsive force
-	 *  between non-connected nodes. Note that this produces n-squared forces so can be slow for large networks where
-	 *  many nodes are not connected to each other. 
+	/** Attempts to space out nodes from one another. This is achieved by adding a strong repulsive force
+	 *  between all nodes that is approximated using the Barnes-Hut algorithm, so it remains fast even for
+	 *  large networks. Only nodes repel one another, so any stakes created by {@link #tether(Node, float)}
+	 *  continue to hold their nodes in place. Calling this method more than once has no further effect.
 	 */
 	public void spaceNodes()
 	{
-		ArrayList<Particle> pList = new ArrayList<Particle>(nodes.values());
-		for (int i=0; i<pList.size(); i++)
+		if (repulsion == null)
 		{
-			for (int j=0; j<pList.size();j++)
+			repulsion = new BarnesHutRepulsion(nodes.values(), 1000, 0.1f);
+			synchronized (physics)
 			{
-				if (i>j)
-				{
-					Particle p1 = pList.get(i);
-					Particle p2 = pList.get(j);
-					
-					// See if we have a connection between nodes
-					for (Spring spring : edges.values())
-					{
-						if (((spring.getOneEnd() == p1) && (spring.getTheOtherEnd() == p2)) ||
-							((spring.getOneEnd() ==p2) && (spring.getTheOtherEnd()== p1)))
-						{
-							// Do nothing as we already have an edge connecting these two particles
-						}
-						else
-						{
-							// Add a small repulsive force
-							physics.makeAttraction(p1,p2, -1000, 0.1f);
-						}
-					}
-				}
+				physics.addCustomForce(repulsion);
 			}
 		}
 	}
 
-	/** Allows a node to be selected with the mouse.
+	/** Moves the nodes to a force-directed layout calculated by coarsening the network into a hierarchy
+	 *  of progressively smaller networks, laying out the smallest and refining the layout back up the
+	 *  hierarchy (see {@link MultilevelLayout}). This reaches a stable layout of a large network far more
+	 *  quickly than animating the particles from their initial locations. The smallest network starts from
+	 *  the mean locations of the nodes it represents, so the layout keeps the broad arrangement of the
+	 *  initial locations. Any subsequent animation continues from the new positions.
+	 *  @param edgeLength Ideal length of each edge in the layout.
 	 */
-	public void selectNearestWithMouse()
+	public void layoutMultilevel(float edgeLength)
 	{
-		if (!zoomer.isMouseCaptured())
+		synchronized (physics)
 		{
-			float mX = (zoomer.getMouseCoord().x -(width/2))/centroid.getZ() + centroid.getX();
-			float mY = (zoomer.getMouseCoord().y -(height/2))/centroid.getZ() + centroid.getY();
-
-			if (selectedNode == null)
-			{
-				float nearestDSq = Float.MAX_VALUE;
+			new MultilevelLayout(edgeLength).apply(nodes, edges.keySet());
+			isIndexStale = true;
+		}
+	}
 
-				for (Map.Entry<N,Particle> row: nodes.entrySet())
-				{
-					N node = row.getKey();
-					Particle p = row.getValue();
+	/** Moves each disconnected part of the network so that the parts no longer overlap one another. The
+	 *  parts are arranged in rows centred on the current layout, each part keeping its own shape. This
+	 *  can be useful for networks with many disconnected parts, which otherwise tend to drift into one
+	 *  another or, if {@link #spaceNodes()} has been called, to be pushed far apart.
+	 *  @param padding Minimum gap between the bounding rectangles of neighbouring parts of the network.
+	 */
+	public void packComponents(float padding)
+	{
+		synchronized (physics)
+		{
+			new PartitionedSystem(physics).pack(padding);
+			isIndexStale = true;
+		}
+	}
 
-					float px = p.position().x();
-					float py = p.position().y();
-					float dSq = (px-mX)*(px-mX) + (py-mY)*(py-mY);
-					if (dSq < nearestDSq)
-					{
-						nearestDSq = dSq;
-						selectedNode = node;
-					}
-				}
-			}
+	/** Allows a node to be selected with the mouse.
+	 */
+	public void selectNearestWithMouse()
+	{
+		if ((!zoomer.isMouseCaptured()) && (selectedNode == null))
+		{
+			selectedNode = getNearest(zoomer.getMouseCoord().x, zoomer.getMouseCoord().y, -1);
 		}
 	}
 
@@ -542,7 +810,10 @@ public class ParticleViewer<N extends Node, E extends Edge>
 		{            
 			if (selectedNode != null)
 			{
-				nodes.get(selectedNode).makeFree();
+				synchronized (physics)
+				{
+					nodes.get(selectedNode).makeFree();
+				}
 				selectedNode = null;
 			}
 		}
@@ -555,24 +826,562 @@ public class ParticleViewer<N extends Node, E extends Edge>
 		zoomer.reset();
 	}
 
+	/** Provides the zoomer that controls the zooming and panning of the view. This allows the view to be
+	 *  zoomed and panned programmatically as well as with the mouse.
+	 *  @return Zoomer used by this viewer.
+	 */
+	public ZoomPan getZoomPan()
+	{
+		return zoomer;
+	}
+
 	// ------------------------------ Private methods ------------------------------
 
+	/** Draws the network from retained shapes, building them if nodes or edges have been added and
+	 *  otherwise moving their vertices to the current particle positions.
+	 *  @param snapshot Snapshot of particle positions to use, or null if taken directly from the particles.
+	 */
+	private void drawRetained(ParticleSnapshot snapshot)
+	{
+		float strokeWeight = parent.g.strokeWeight;
+		if (isShapeStale)
+		{
+			buildShapes(strokeWeight);
+		}
+		else
+		{
+			float[] pos1 = new float[2];
+			float[] pos2 = new float[2];
+			for (int i=0; i<shapeSprings.size(); i++)
+			{
+				Spring spring = shapeSprings.get(i);
+				if (getPosition(spring.getOneEnd(), snapshot, pos1) && getPosition(spring.getTheOtherEnd(), snapshot, pos2))
+				{
+					edgeShape.setVertex(2*i, pos1[0], pos1[1]);
+					edgeShape.setVertex(2*i+1, pos2[0], pos2[1]);
+				}
+			}
+			for (int i=0; i<shapeParticles.size(); i++)
+			{
+				if (getPosition(shapeParticles.get(i), snapshot, pos1))
+				{
+					nodeShape.setVertex(i, pos1[0], pos1[1]);
+				}
+			}
+			if ((strokeWeight > 0) && (strokeWeight != shapeStrokeWeight))
+			{
+				edgeShape.setStrokeWeight(strokeWeight);
+				shapeStrokeWeight = strokeWeight;
+			}
+		}
+
+		if ((strokeWeight > 0) && (shapeSprings.size() > 0))
+		{
+			parent.shape(edgeShape);
+		}
+		if (shapeParticles.size() > 0)
+		{
+			parent.shape(nodeShape);
+		}
+	}
+
+	/** Builds the retained shapes holding a line for each edge and a point for each node at the current
+	 *  particle positions. These are taken directly from the particles as nodes that have just been
+	 *  added may not yet be in any snapshot.
+	 *  @param strokeWeight Stroke weight with which to draw the edges.
+	 */
+	private void buildShapes(float strokeWeight)
+	{
+		float[] pos1 = new float[2];
+		float[] pos2 = new float[2];
+
+		shapeSprings.clear();
+		edgeShape = parent.createShape();
+		edgeShape.beginShape(PConstants.LINES);
+		edgeShape.noFill();
+		edgeShape.stroke(0,180);
+		edgeShape.strokeWeight(strokeWeight > 0 ? strokeWeight : 1);
+		synchronized (physics)
+		{
+			for (Spring spring : edges.values())
+			{
+				getPosition(spring.getOneEnd(), null, pos1);
+				getPosition(spring.getTheOtherEnd(), null, pos2);
+				edgeShape.vertex(pos1[0], pos1[1]);
+				edgeShape.vertex(pos2[0], pos2[1]);
+				shapeSprings.add(spring);
+			}
+		}
+		edgeShape.endShape();
+		shapeStrokeWeight = strokeWeight;
+
+		shapeParticles.clear();
+		nodeShape = parent.createShape();
+		nodeShape.beginShape(PConstants.POINTS);
+		nodeShape.stroke(120,50,50,180);
+		nodeShape.strokeWeight(12);
+		nodeShape.strokeCap(PConstants.ROUND);
+		synchronized (physics)
+		{
+			for (Particle p : nodes.values())
+			{
+				getPosition(p, null, pos1);
+				nodeShape.vertex(pos1[0], pos1[1]);
+				shapeParticles.add(p);
+			}
+		}
+		nodeShape.endShape();
+		isShapeStale = false;
+	}
+
+	/** Finds the part of the particle coordinate space that is visible in the viewer, allowing for the
+	 *  current zoom, pan and centring. Also prepares the level-of-detail cells covering that area.
+	 */
+	private void findVisibleArea()
+	{
+		PVector corner1 = zoomer.getDispToCoord(new PVector(0,0));
+		PVector corner2 = zoomer.getDispToCoord(new PVector(width,height));
+		float scale = (float)zoomer.getZoomScale()*centroid.getZ();
+		float margin = cullMargin/scale;
+
+		viewMinX = toWorldX(Math.min(corner1.x, corner2.x)) - margin;
+		viewMinY = toWorldY(Math.min(corner1.y, corner2.y)) - margin;
+		viewMaxX = toWorldX(Math.max(corner1.x, corner2.x)) + margin;
+		viewMaxY = toWorldY(Math.max(corner1.y, corner2.y)) + margin;
+
+		if (lodPixels > 0)
+		{
+			lodCellSize = lodPixels/scale;
+			lodCols = Math.max(1, (int)Math.ceil((viewMaxX-viewMinX)/lodCellSize));
+			lodRows = Math.max(1, (int)Math.ceil((viewMaxY-viewMinY)/lodCellSize));
+			int numCells = lodCols*lodRows;
+			if (lodStamps.length < numCells)
+			{
+				lodStamps = new int[numCells];
+				edgeDensity = new int[numCells];
+				denseCells = new int[numCells];
+			}
+			lodFrame++;
+			numDenseCells = 0;
+			numCellPairs = 0;
+		}
+	}
+
+	/** Draws the edges of the network, skipping those outside the visible area and combining short
+	 *  edges if the level of detail has been reduced. Once the positions drawn from a background
+	 *  simulation stop changing, only the edges found by the spatial index of edges are considered.
+	 *  @param snapshot Snapshot of particle positions to use, or null if taken directly from the particles.
+	 */
+	private void drawEdges(ParticleSnapshot snapshot)
+	{
+		float[] pos1 = new float[2];
+		float[] pos2 = new float[2];
+
+		if (isCulling && isLayoutStill(snapshot))
+		{
+			List<Spring> visibleSprings;
+			synchronized (physics)
+			{
+				refreshIndex();
+				refreshEdgeIndex();
+				visibleSprings = edgeIndex.getSpringsInRectangle(viewMinX, viewMinY, viewMaxX, viewMaxY);
+			}
+			for (Spring spring : visibleSprings)
+			{
+				drawEdge(springEdges.get(spring), spring, snapshot, pos1, pos2);
+			}
+		}
+		else
+		{
+			for (Map.Entry<E,Spring> row: edges.entrySet() )
+			{
+				drawEdge(row.getKey(), row.getValue(), snapshot, pos1, pos2);
+			}
+		}
+
+		if ((lodPixels > 0) && (numDenseCells > 0))
+		{
+			parent.pushStyle();
+			parent.noStroke();
+			for (int i=0; i<numDenseCells; i++)
+			{
+				int cell = denseCells[i];
+				float alpha = Math.min(180, 30*(1+(float)(Math.log(edgeDensity[cell])/Math.log(2))));
+				parent.fill(0, alpha);
+				parent.rect(viewMinX + (cell%lodCols)*lodCellSize, viewMinY + (cell/lodCols)*lodCellSize, lodCellSize, lodCellSize);
+				edgeDensity[cell] = 0;
+			}
+			parent.popStyle();
+		}
+	}
+
+	/** Draws the given edge unless it lies outside the visible area or, if the level of detail has been
+	 *  reduced, it is short enough to shade a cell or joins a pair of cells already joined by another edge.
+	 *  @param edge Edge to draw.
+	 *  @param spring Spring representing the edge.
+	 *  @param snapshot Snapshot of particle positions to use, or null if taken directly from the particles.
+	 *  @param pos1 Array reused to hold the position of one end of the edge.
+	 *  @param pos2 Array reused to hold the position of the other end of the edge.
+	 */
+	private void drawEdge(E edge, Spring spring, ParticleSnapshot snapshot, float[] pos1, float[] pos2)
+	{
+		if (!getPosition(spring.getOneEnd(), snapshot, pos1) || !getPosition(spring.getTheOtherEnd(), snapshot, pos2))
+		{
+			return;
+		}
+		float x1 = pos1[0], y1 = pos1[1], x2 = pos2[0], y2 = pos2[1];
+		if (isCulling && ((Math.max(x1,x2) < viewMinX) || (Math.min(x1,x2) > viewMaxX) ||
+						  (Math.max(y1,y2) < viewMinY) || (Math.min(y1,y2) > viewMaxY)))
+		{
+			return;
+		}
+		if (lodPixels > 0)
+		{
+			int cell1 = lodCell(x1, y1);
+			int cell2 = lodCell(x2, y2);
+			float dx = x2-x1, dy = y2-y1;
+			if ((dx*dx + dy*dy < lodCellSize*lodCellSize) || ((cell1 == cell2) && (cell1 >= 0)))
+			{
+				// Short edges shade the cell containing their midpoint rather than being drawn.
+				int cell = lodCell(0.5f*(x1+x2), 0.5f*(y1+y2));
+				if (cell >= 0)
+				{
+					if (edgeDensity[cell] == 0)
+					{
+						denseCells[numDenseCells++] = cell;
+					}
+					edgeDensity[cell]++;
+				}
+				return;
+			}
+			if ((cell1 >= 0) && (cell2 >= 0))
+			{
+				// Only draw one edge between each pair of cells.
+				long numCells = (long)lodCols*lodRows;
+				if (!addCellPair(Math.min(cell1,cell2)*numCells + Math.max(cell1,cell2)))
+				{
+					return;
+				}
+			}
+		}
+		edge.draw(parent, x1,y1,x2,y2);
+	}
+
+	/** Draws the nodes of the network, skipping those outside the visible area and drawing only one
+	 *  node in each cell if the level of detail has been reduced. Once the positions drawn from a
+	 *  background simulation stop changing, only the nodes found by the spatial index are considered.
+	 *  @param snapshot Snapshot of particle positions to use, or null if taken directly from the particles.
+	 */
+	private void drawNodes(ParticleSnapshot snapshot)
+	{
+		if (isCulling && isLayoutStill(snapshot))
+		{
+			List<Particle> visibleParticles;
+			synchronized (physics)
+			{
+				refreshIndex();
+				visibleParticles = index.getParticlesInRectangle(viewMinX, viewMinY, viewMaxX, viewMaxY);
+			}
+			float[] pos = new float[2];
+			for (Particle p : visibleParticles)
+			{
+				if (getPosition(p, snapshot, pos))
+				{
+					drawNode(particleNodes.get(p), pos[0], pos[1]);
+				}
+			}
+		}
+		else if (snapshot == null)
+		{
+			for (Map.Entry<N,Particle> row : nodes.entrySet())
+			{
+				Vector3D pos = row.getValue().position();
+				if (isVisible(pos.x(), pos.y()))
+				{
+					drawNode(row.getKey(), pos.x(), pos.y());
+				}
+			}
+		}
+		else
+		{
+			// Positions are tested before nodes are looked up so that hidden nodes cost little.
+			for (int i=0; i<snapshot.getNumParticles(); i++)
+			{
+				float x = snapshot.getX(i);
+				float y = snapshot.getY(i);
+				if (isVisible(x, y))
+				{
+					N node = particleNodes.get(snapshot.getParticle(i));
+					if (node != null)
+					{
+						drawNode(node, x, y);
+					}
+				}
+			}
+		}
+	}
+
+	/** Draws the given node at the given location unless the level of detail has been reduced and
+	 *  a node has already been drawn in the same cell.
+	 *  @param node Node to draw.
+	 *  @param x x coordinate of the node.
+	 *  @param y y coordinate of the node.
+	 */
+	private void drawNode(N node, float x, float y)
+	{
+		if (lodPixels > 0)
+		{
+			int cell = lodCell(x, y);
+			if (cell >= 0)
+			{
+				if (lodStamps[cell] == lodFrame)
+				{
+					// A node has already been drawn in this cell.
+					return;
+				}
+				lodStamps[cell] = lodFrame;
+			}
+		}
+		node.draw(parent, x, y);
+	}
+
+	/** Reports whether the nodes are drawn at the same positions as in the previous frame, in which case
+	 *  the visible nodes and edges can be found from the spatial indices without these being rebuilt
+	 *  every frame. Only the positions in snapshots from a background simulation are compared since
+	 *  each frame already advances every particle when there is no background simulation.
+	 *  @param snapshot Snapshot of particle positions being drawn, or null if taken directly from the particles.
+	 *  @return True if the snapshot holds the same positions as the one drawn in the previous frame.
+	 */
+	private boolean isLayoutStill(ParticleSnapshot snapshot)
+	{
+		return (snapshot != null) && (snapshot.getVersion() == frameVersion);
+	}
+
+	/** Reports whether the given location is to be drawn, which is the case if it lies within the
+	 *  visible area or if culling is turned off.
+	 *  @param x x coordinate of the location.
+	 *  @param y y coordinate of the location.
+	 *  @return True if the location is to be drawn.
+	 */
+	private boolean isVisible(float x, float y)
+	{
+		return !isCulling || ((x >= viewMinX) && (x <= viewMaxX) && (y >= viewMinY) && (y <= viewMaxY));
+	}
+
+	/** Finds the position of the given particle either directly or from the given snapshot.
+	 *  @param p Particle whose position is required.
+	 *  @param snapshot Snapshot of particle positions to use, or null if taken directly from the particles.
+	 *  @param pos Two element array to hold the x and y coordinates of the particle.
+	 *  @return True if the position was found, or false if the particle is not in the snapshot.
+	 */
+	private static boolean getPosition(Particle p, ParticleSnapshot snapshot, float[] pos)
+	{
+		if (snapshot == null)
+		{
+			pos[0] = p.position().x();
+			pos[1] = p.position().y();
+			return true;
+		}
+		int i = snapshot.indexOf(p);
+		if (i < 0)
+		{
+			return false;
+		}
+		pos[0] = snapshot.getX(i);
+		pos[1] = snapshot.getY(i);
+		return true;
+	}
+
+	/** Reports the level-of-detail cell containing the given location.
+	 *  @param x x coordinate of the location.
+	 *  @param y y coordinate of the location.
+	 *  @return Cell identifier, or -1 if the location is outside the visible area.
+	 */
+	private int lodCell(float x, float y)
+	{
+		int col = (int)Math.floor((x-viewMinX)/lodCellSize);
+		int row = (int)Math.floor((y-viewMinY)/lodCellSize);
+		if ((col < 0) || (col >= lodCols) || (row < 0) || (row >= lodRows))
+		{
+			return -1;
+		}
+		return row*lodCols + col;
+	}
+
+	/** Records that an edge has been drawn between the given pair of level-of-detail cells in the current
+	 *  frame. Pairs are held in an open-addressed hash table whose entries are marked with the frame in
+	 *  which they were added, so the table does not need to be cleared between frames.
+	 *  @param pair Identifier of the pair of cells.
+	 *  @return True if no edge had yet been drawn between the pair of cells in this frame.
+	 */
+	private boolean addCellPair(long pair)
+	{
+		if (2*(numCellPairs+1) > cellPairs.length)
+		{
+			// Keep the table no more than half full, moving across the pairs added in this frame.
+			long[] oldPairs = cellPairs;
+			int[] oldStamps = cellPairStamps;
+			cellPairs = new long[oldPairs.length*2];
+			cellPairStamps = new int[oldPairs.length*2];
+			numCellPairs = 0;
+			for (int i=0; i<oldPairs.length; i++)
+			{
+				if (oldStamps[i] == lodFrame)
+				{
+					addCellPair(oldPairs[i]);
+				}
+			}
+		}
+
+		int mask = cellPairs.length-1;
+		int i = (int)((pair*0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while (cellPairStamps[i] == lodFrame)
+		{
+			if (cellPairs[i] == pair)
+			{
+				return false;
+			}
+			i = (i+1) & mask;
+		}
+		cellPairs[i] = pair;
+		cellPairStamps[i] = lodFrame;
+		numCellPairs++;
+		return true;
+	}
+
+	/** Rebuilds the spatial index of node positions if any nodes have moved since it was last built.
+	 *  The index is only rebuilt when it is queried, and then at most once for each set of positions.
+	 *  If the particles are being updated in a background thread, nodes are indexed at the positions
+	 *  in the snapshot most recently drawn so that queries match what is seen in the viewer.
+	 *  This should only be called while synchronized on the particle system.
+	 */
+	private void refreshIndex()
+	{
+		ParticleSnapshot snapshot = frameSnapshot;
+		if ((snapshot != null) && (snapshot.getVersion() != indexVersion))
+		{
+			indexVersion = snapshot.getVersion();
+			isIndexStale = true;
+		}
+		if (!isIndexStale)
+		{
+			return;
+		}
+
+		// Size cells so that there is roughly one node per cell.
+		float xMin = Float.MAX_VALUE, yMin = Float.MAX_VALUE;
+		float xMax = -Float.MAX_VALUE, yMax = -Float.MAX_VALUE;
+		float[] pos = new float[2];
+		for (Particle p : nodes.values())
+		{
+			if (getPosition(p, snapshot, pos))
+			{
+				xMin = Math.min(xMin, pos[0]);
+				yMin = Math.min(yMin, pos[1]);
+				xMax = Math.max(xMax, pos[0]);
+				yMax = Math.max(yMax, pos[1]);
+			}
+		}
+		float extent = Math.max(xMax-xMin, yMax-yMin);
+		float cellSize = extent/(float)Math.ceil(Math.sqrt(nodes.size()));
+		index.setCellSize((cellSize > 0) && (cellSize < Float.POSITIVE_INFINITY) ? cellSize : 1);
+		if (snapshot == null)
+		{
+			index.build(nodes.values());
+		}
+		else
+		{
+			index.build(nodes.values(), snapshot);
+		}
+		isIndexStale = false;
+		isEdgeIndexStale = true;
+	}
+
+	/** Rebuilds the spatial index of edge positions if any nodes have moved or edges have been added
+	 *  since it was last built. Edges are indexed at the positions used by {@link #refreshIndex()}, which
+	 *  should be called first. This should only be called while synchronized on the particle system.
+	 */
+	private void refreshEdgeIndex()
+	{
+		if (isEdgeIndexStale)
+		{
+			edgeIndex.setCellSize(index.getCellSize());
+			edgeIndex.build(edges.values(), frameSnapshot);
+			isEdgeIndexStale = false;
+		}
+	}
+
+	/** Provides the nodes represented by the given particles.
+	 *  @param particles Particles representing nodes.
+	 *  @return List of nodes in the same order as the particles.
+	 */
+	private List<N> toNodes(List<Particle> particles)
+	{
+		List<N> found = new ArrayList<N>(particles.size());
+		for (Particle p : particles)
+		{
+			found.add(particleNodes.get(p));
+		}
+		return found;
+	}
+
+	/** Converts the given screen x coordinate into the coordinate system of the particles.
+	 *  @param x x screen coordinate.
+	 *  @return Corresponding x coordinate of the particles.
+	 */
+	private float toWorldX(float x)
+	{
+		return (x - width/2)/centroid.getZ() + centroid.getX();
+	}
+
+	/** Converts the given screen y coordinate into the coordinate system of the particles.
+	 *  @param y y screen coordinate.
+	 *  @return Corresponding y coordinate of the particles.
+	 */
+	private float toWorldY(float y)
+	{
+		return (y - height/2)/centroid.getZ() + centroid.getY();
+	}
+
 	/** Centres the particle view on the currently visible nodes.
+	 *  @param snapshot Snapshot of particle positions to use, or null if taken directly from the particles.
 	 */
-	private void updateCentroid()
+	private void updateCentroid(ParticleSnapshot snapshot)
 	{
+		if (snapshot != null)
+		{
+			if (snapshot.getVersion() == centroidVersion)
+			{
+				// Particles have not moved since the view was last centred.
+				return;
+			}
+			centroidVersion = snapshot.getVersion();
+		}
+
 		float xMax = Float.NEGATIVE_INFINITY, 
 		xMin = Float.POSITIVE_INFINITY, 
 		yMin = Float.POSITIVE_INFINITY, 
 		yMax = Float.NEGATIVE_INFINITY;
 
-		for (int i=0; i<physics.getNumParticles(); ++i)
+		if (snapshot == null)
 		{
-			Particle p = physics.getParticle(i);
-			xMax = Math.max(xMax, p.position().x());
-			xMin = Math.min(xMin, p.position().x());
-			yMin = Math.min(yMin, p.position().y());
-			yMax = Math.max(yMax, p.position().y());
+			for (Particle p : physics.getParticles())
+			{
+				xMax = Math.max(xMax, p.position().x());
+				xMin = Math.min(xMin, p.position().x());
+				yMin = Math.min(yMin, p.position().y());
+				yMax = Math.max(yMax, p.position().y());
+			}
+		}
+		else
+		{
+			for (int i=0; i<snapshot.getNumParticles(); ++i)
+			{
+				xMax = Math.max(xMax, snapshot.getX(i));
+				xMin = Math.min(xMin, snapshot.getX(i));
+				yMin = Math.min(yMin, snapshot.getY(i));
+				yMax = Math.max(yMax, snapshot.getY(i));
+			}
 		}
 
 		float xRange = xMax-xMin;
@@ -25,6 +25,7 @@ public abstract class AbstractForce implements Force
 	// the sub-classes should use the methods in this class (e.g., {@link #turnOn()}), hence this field is private and cannot be accessed directly.
 
 	private boolean isOn;
+	private int modCount;		// Number of changes made to the state of this force.
 	
 	// ------------------------------- Constructors --------------------------------
 	
@@ -68,7 +69,11 @@ public abstract class AbstractForce implements Force
 	 */
 	public AbstractForce turnOn(boolean isOn) 
 	{
-		this.isOn = isOn;
+		if (this.isOn != isOn)
+		{
+			this.isOn = isOn;
+			modified();
+		}
 		return this; 
 	}
 
@@ -87,4 +92,21 @@ public abstract class AbstractForce implements Force
 	{ 
 		return !isOn(); 
 	}
+
+	/** Records that a property affecting the force applied has changed. Integrators that carry the
+	 *  forces of one time step into the next use this to know when the forces must be evaluated
+	 *  afresh, so sub-classes should call it whenever such a property is changed.
+	 */
+	protected final void modified()
+	{
+		modCount++;
+	}
+
+	/** Reports the number of changes that have been made to the state of this force.
+	 *  @return Number of changes made to this force, which increases with each change.
+	 */
+	final int getModCount()
+	{
+		return modCount;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,428 @@
+package org.gicentre.utils.network.traer.physics;
+
+// *****************************************************************************************
+/** Adaptive Runge-Kutta integrator using the embedded fifth and fourth order Dormand-Prince
+ *  method. Each call to {@link #step(float)} advances the particle system over the full time
+ *  interval requested, but does so in as many sub-steps as are needed to keep the estimated local
+ *  error within a given tolerance. The sub-step size grows while the system is changing slowly and
+ *  shrinks when it changes quickly, for example when stiff springs are added, so layouts are both
+ *  stable and converge in fewer force evaluations than with a small fixed time step.
+ *  <br><br>
+ *  The error of each sub-step is estimated from the difference between the fifth and fourth order
+ *  solutions and compared with the tolerance scaled by the magnitude of each position and velocity
+ *  component. Sub-steps with too large an error are rejected and retried with a smaller step unless
+ *  the step is already at its minimum size. The sizes of recent accepted sub-steps are recorded so
+ *  that the behaviour of the integrator can be monitored.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class AdaptiveRungeKuttaIntegrator extends Integrator
+{
+	// --------------------------- Object and class variables ----------------------------
+
+									/** Default error tolerance (0.001). */
+	public static final float DEFAULT_TOLERANCE = 0.001f;
+									/** Default minimum sub-step size (0.0001). */
+	public static final float DEFAULT_MIN_STEP = 0.0001f;
+									/** Default number of accepted sub-step sizes to record (256). */
+	public static final int DEFAULT_HISTORY_SIZE = 256;
+
+	private static final int NUM_STAGES = 7;
+
+	// Dormand-Prince coefficients. The last row of A gives the fifth order solution.
+	private static final float[][] A = new float[][] {
+		{},
+		{1/5f},
+		{3/40f, 9/40f},
+		{44/45f, -56/15f, 32/9f},
+		{19372/6561f, -25360/2187f, 64448/6561f, -212/729f},
+		{9017/3168f, -355/33f, 46732/5247f, 49/176f, -5103/18656f},
+		{35/384f, 0, 500/1113f, 125/192f, -2187/6784f, 11/84f}};
+
+	// Difference between the fifth and fourth order weights used to estimate the error.
+	private static final float[] E = new float[] {71/57600f, 0, -71/16695f, 71/1920f, -17253/339200f, 22/525f, -1/40f};
+
+	private float tolerance;					// Maximum scaled local error of an accepted sub-step.
+	private float minStep, maxStep;				// Bounds on the sub-step size.
+	private float nextStep;						// Size of the next sub-step to attempt, or 0 if not yet known.
+	private long numEvaluations;				// Number of times forces have been evaluated.
+	private long numRejected;					// Number of rejected sub-steps.
+	private float[] history;					// Ring buffer of accepted sub-step sizes.
+	private int historyStart, historySize;		// Position of oldest entry and number of entries in history.
+
+	private ParticleStore store;				// Particles being integrated.
+	private int capacity;						// Number of particles the buffers can hold.
+	private float[] pos0, vel0;					// State at the start of the sub-step (x,y,z triples).
+	private float[] pos, vel;					// State at the current stage (x,y,z triples).
+	private float[][] kPos, kVel;				// Derivatives of position and velocity at each stage.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Sets up the integrator to be used by the given particle system with default tolerance and step bounds.
+	 *  @param s Particle system upon which to perform the integration.
+	 */
+	public AdaptiveRungeKuttaIntegrator(ParticleSystem s)
+	{
+		super(s);
+		tolerance = DEFAULT_TOLERANCE;
+		minStep = DEFAULT_MIN_STEP;
+		maxStep = Float.MAX_VALUE;
+		nextStep = 0;
+		numEvaluations = 0;
+		numRejected = 0;
+		history = new float[DEFAULT_HISTORY_SIZE];
+		historyStart = 0;
+		historySize = 0;
+		store = new ParticleStore();
+		capacity = 0;
+		kPos = new float[NUM_STAGES][];
+		kVel = new float[NUM_STAGES][];
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Advances the particle system over the given time interval using as many sub-steps as are
+	 *  required to keep the local error within tolerance.
+	 *  @param deltaT Time interval over which to advance the particles.
+	 *  @return The integrator that updates the system.
+	 */
+	public AdaptiveRungeKuttaIntegrator step(float deltaT)
+	{
+		int numParticles = store.load(s.getParticles());
+		ensureCapacity(numParticles);
+
+		for (int slot=0; slot<numParticles; slot++)
+		{
+			int i = slot*3;
+			pos0[i]   = store.x[slot];
+			pos0[i+1] = store.y[slot];
+			pos0[i+2] = store.z[slot];
+			vel0[i]   = store.vx[slot];
+			vel0[i+1] = store.vy[slot];
+			vel0[i+2] = store.vz[slot];
+		}
+
+		float h = (nextStep > 0) ? nextStep : deltaT;
+		float t = 0;
+		evaluate(0);
+
+		while (t < deltaT)
+		{
+			h = Math.max(minStep, Math.min(h, maxStep));
+			float remaining = deltaT-t;
+			boolean isLast = (h >= remaining) || (t+h >= deltaT);
+			float stepSize = isLast ? remaining : h;
+
+			for (int stage=1; stage<NUM_STAGES; stage++)
+			{
+				setStageState(stage, stepSize);
+				evaluate(stage);
+			}
+
+			float error = estimateError(stepSize);
+			float scale = (error == 0) ? 5 : (float)Math.max(0.2, Math.min(5, 0.9*Math.pow(error, -0.2)));
+
+			if ((error <= 1) || (stepSize <= minStep))
+			{
+				// Accept the fifth order solution, whose final derivatives start the next sub-step.
+				t = isLast ? deltaT : t+stepSize;
+				float[] swap = pos0;
+				pos0 = pos;
+				pos = swap;
+				swap = vel0;
+				vel0 = vel;
+				vel = swap;
+				swap = kPos[0];
+				kPos[0] = kPos[NUM_STAGES-1];
+				kPos[NUM_STAGES-1] = swap;
+				swap = kVel[0];
+				kVel[0] = kVel[NUM_STAGES-1];
+				kVel[NUM_STAGES-1] = swap;
+				record(stepSize);
+
+				// A sub-step truncated to fit the interval should not limit the size of the next one.
+				h = (isLast && (stepSize < h)) ? Math.max(h, stepSize*scale) : stepSize*scale;
+			}
+			else
+			{
+				numRejected++;
+				h = stepSize*scale;
+			}
+		}
+		nextStep = Math.max(minStep, Math.min(h, maxStep));
+
+		// Particles hold the last evaluated state, which is that of the final accepted sub-step.
+		for (int slot=0; slot<numParticles; slot++)
+		{
+			if (!store.fixed[slot])
+			{
+				store.particles[slot].age += deltaT;
+			}
+		}
+		return this;
+	}
+
+	/** Sets the tolerance of the local error in each sub-step. Errors are scaled by the magnitude of
+	 *  each position and velocity component, so the tolerance acts as both an absolute and a relative bound.
+	 *  @param tolerance Error tolerance, which must be greater than 0.
+	 *  @return This integrator.
+	 *  @throws IllegalArgumentException if the tolerance is not positive.
+	 */
+	public AdaptiveRungeKuttaIntegrator setTolerance(float tolerance) throws IllegalArgumentException
+	{
+		if (tolerance <= 0)
+		{
+			throw new IllegalArgumentException("Tolerance is "+tolerance+"; must be greater than 0.");
+		}
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	/** Reports the tolerance of the local error in each sub-step.
+	 *  @return Error tolerance.
+	 */
+	public float getTolerance()
+	{
+		return tolerance;
+	}
+
+	/** Sets the bounds on the size of each sub-step. Sub-steps at the minimum size are always accepted
+	 *  regardless of their error. Sub-steps are also limited by the time interval passed to <code>step()</code>.
+	 *  @param minStep Minimum sub-step size, which must be greater than 0.
+	 *  @param maxStep Maximum sub-step size, which must be no smaller than the minimum.
+	 *  @return This integrator.
+	 *  @throws IllegalArgumentException if the minimum is not positive or the maximum is smaller than the minimum.
+	 */
+	public AdaptiveRungeKuttaIntegrator setStepBounds(float minStep, float maxStep) throws IllegalArgumentException
+	{
+		if (minStep <= 0)
+		{
+			throw new IllegalArgumentException("Minimum step is "+minStep+"; must be greater than 0.");
+		}
+		if (maxStep < minStep)
+		{
+			throw new IllegalArgumentException("Maximum step is "+maxStep+"; must be no smaller than minimum step of "+minStep+".");
+		}
+		this.minStep = minStep;
+		this.maxStep = maxStep;
+		return this;
+	}
+
+	/** Reports the minimum size of each sub-step.
+	 *  @return Minimum sub-step size.
+	 */
+	public float getMinStep()
+	{
+		return minStep;
+	}
+
+	/** Reports the maximum size of each sub-step.
+	 *  @return Maximum sub-step size.
+	 */
+	public float getMaxStep()
+	{
+		return maxStep;
+	}
+
+	/** Reports the size of the next sub-step to be attempted.
+	 *  @return Size of the next sub-step or 0 if no steps have yet been made.
+	 */
+	public float getNextStep()
+	{
+		return nextStep;
+	}
+
+	/** Reports the number of times forces have been evaluated by this integrator.
+	 *  @return Number of force evaluations.
+	 */
+	public long getNumEvaluations()
+	{
+		return numEvaluations;
+	}
+
+	/** Reports the number of sub-steps that have been rejected because their error was too large.
+	 *  @return Number of rejected sub-steps.
+	 */
+	public long getNumRejected()
+	{
+		return numRejected;
+	}
+
+	/** Sets the number of recent accepted sub-step sizes that are recorded. Any existing history is cleared.
+	 *  @param size Number of sub-step sizes to record.
+	 *  @return This integrator.
+	 *  @throws IllegalArgumentException if the size is less than 1.
+	 */
+	public AdaptiveRungeKuttaIntegrator setHistorySize(int size) throws IllegalArgumentException
+	{
+		if (size < 1)
+		{
+			throw new IllegalArgumentException("History size is "+size+"; must be at least 1.");
+		}
+		history = new float[size];
+		historyStart = 0;
+		historySize = 0;
+		return this;
+	}
+
+	/** Provides the sizes of the most recently accepted sub-steps, oldest first.
+	 *  @return Copy of the recorded sub-step sizes.
+	 */
+	public float[] getStepHistory()
+	{
+		float[] steps = new float[historySize];
+		for (int i=0; i<historySize; i++)
+		{
+			steps[i] = history[(historyStart+i)%history.length];
+		}
+		return steps;
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Sets the particles to the state at the given stage of a sub-step.
+	 *  @param stage Stage, between 1 and 6.
+	 *  @param h Size of the sub-step.
+	 */
+	private void setStageState(int stage, float h)
+	{
+		float[] a = A[stage];
+		for (int slot=0; slot<store.size(); slot++)
+		{
+			if (store.fixed[slot])
+			{
+				continue;
+			}
+			for (int i=slot*3; i<slot*3+3; i++)
+			{
+				float dPos=0, dVel=0;
+				for (int j=0; j<stage; j++)
+				{
+					dPos += a[j]*kPos[j][i];
+					dVel += a[j]*kVel[j][i];
+				}
+				pos[i] = pos0[i] + h*dPos;
+				vel[i] = vel0[i] + h*dVel;
+			}
+			int i = slot*3;
+			Particle p = store.particles[slot];
+			p.position().set(pos[i], pos[i+1], pos[i+2]);
+			p.velocity().set(vel[i], vel[i+1], vel[i+2]);
+		}
+	}
+
+	/** Evaluates the forces on the particles in their current state and stores the resulting
+	 *  derivatives for the given stage.
+	 *  @param stage Stage, between 0 and 6.
+	 */
+	private void evaluate(int stage)
+	{
+		s.clearForces();
+		s.applyForces();
+		numEvaluations++;
+
+		float[] dPos = kPos[stage];
+		float[] dVel = kVel[stage];
+		for (int slot=0; slot<store.size(); slot++)
+		{
+			if (!store.fixed[slot])
+			{
+				Particle p = store.particles[slot];
+				Vector3D v = p.velocity();
+				Vector3D f = p.getForce();
+				float scale = 1/p.mass();
+				int i = slot*3;
+				dPos[i]   = v.x();
+				dPos[i+1] = v.y();
+				dPos[i+2] = v.z();
+				dVel[i]   = f.x()*scale;
+				dVel[i+1] = f.y()*scale;
+				dVel[i+2] = f.z()*scale;
+			}
+		}
+	}
+
+	/** Estimates the local error of the sub-step just calculated, scaled by the tolerance.
+	 *  @param h Size of the sub-step.
+	 *  @return Largest scaled error of any position or velocity component. Values above 1 exceed the tolerance.
+	 */
+	private float estimateError(float h)
+	{
+		float maxError = 0;
+		for (int slot=0; slot<store.size(); slot++)
+		{
+			if (store.fixed[slot])
+			{
+				continue;
+			}
+			for (int i=slot*3; i<slot*3+3; i++)
+			{
+				float ePos=0, eVel=0;
+				for (int j=0; j<NUM_STAGES; j++)
+				{
+					ePos += E[j]*kPos[j][i];
+					eVel += E[j]*kVel[j][i];
+				}
+				float posScale = tolerance*(1 + Math.max(Math.abs(pos0[i]), Math.abs(pos[i])));
+				float velScale = tolerance*(1 + Math.max(Math.abs(vel0[i]), Math.abs(vel[i])));
+				maxError = Math.max(maxError, Math.max(Math.abs(h*ePos)/posScale, Math.abs(h*eVel)/velScale));
+			}
+		}
+		return maxError;
+	}
+
+	/** Adds the given sub-step size to the history, replacing the oldest entry if full.
+	 *  @param h Size of the accepted sub-step.
+	 */
+	private void record(float h)
+	{
+		if (historySize < history.length)
+		{
+			history[(historyStart+historySize)%history.length] = h;
+			historySize++;
+		}
+		else
+		{
+			history[historyStart] = h;
+			historyStart = (historyStart+1)%history.length;
+		}
+	}
+
+	/** Ensures the integration buffers are large enough to hold the given number of particles.
+	 *  @param numParticles Number of particles to be integrated.
+	 */
+	private void ensureCapacity(int numParticles)
+	{
+		if (numParticles <= capacity)
+		{
+			return;
+		}
+
+		capacity = Math.max(numParticles, capacity*2);
+		pos0 = new float[capacity*3];
+		vel0 = new float[capacity*3];
+		pos = new float[capacity*3];
+		vel = new float[capacity*3];
+		for (int stage=0; stage<NUM_STAGES; stage++)
+		{
+			kPos[stage] = new float[capacity*3];
+			kVel[stage] = new float[capacity*3];
+		}
+	}
+}
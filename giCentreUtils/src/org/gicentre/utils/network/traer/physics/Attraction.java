@@ -67,6 +67,7 @@ public class Attraction extends TwoBodyForce
 			throw new IllegalArgumentException("Argument d is "+d+"; cannot specify a minimum distance <=0.");
 		}
 		distanceMin = d;
+		modified();
 		return this;
 	}
 
@@ -77,6 +78,7 @@ public class Attraction extends TwoBodyForce
 	public final Attraction	setStrength(float k)
 	{ 
 		this.k = k; 
+		modified();
 		return this; 
 	}
 	
@@ -94,8 +96,44 @@ public class Attraction extends TwoBodyForce
 	@Override 
 	protected ForcePair forcePair() 
 	{
-		Vector3D fromTheOtherEndtoOneEnd = Vector3D.subtract(getOneEnd().position(), getTheOtherEnd().position()).floor(distanceMin);
-		fromTheOtherEndtoOneEnd.length(-k*getOneEnd().mass()*getTheOtherEnd().mass()/fromTheOtherEndtoOneEnd.lengthSquared());
-		return equalAndOpposite(fromTheOtherEndtoOneEnd);
+		return equalAndOpposite(attraction(new Vector3D()));
 	}
-}
\ No newline at end of file
+
+	/** Calculates the attractive forces on the two particles without creating any new objects.
+	 *  @param forceOnOneEnd Vector to hold the force on oneEnd.
+	 *  @param forceOnTheOtherEnd Vector to hold the equal and opposite force on theOtherEnd.
+	 */
+	@Override
+	protected void calculateForces(Vector3D forceOnOneEnd, Vector3D forceOnTheOtherEnd)
+	{
+		attraction(forceOnOneEnd);
+		forceOnTheOtherEnd.set(-forceOnOneEnd.x(), -forceOnOneEnd.y(), -forceOnOneEnd.z());
+	}
+
+	// -------------------------------- Private methods -----------------------------------
+
+	/** Calculates the attractive force on oneEnd, which is proportional to the product of the particle
+	 *  masses and inversely proportional to the square of the distance between them, with the distance
+	 *  no smaller than the minimum distance.
+	 *  @param target Vector to hold the force.
+	 *  @return The target vector containing the force.
+	 */
+	private Vector3D attraction(Vector3D target)
+	{
+		Particle oneEnd = getOneEnd();
+		Particle theOtherEnd = getTheOtherEnd();
+		float dx = oneEnd.position().x()-theOtherEnd.position().x();
+		float dy = oneEnd.position().y()-theOtherEnd.position().y();
+		float dz = oneEnd.position().z()-theOtherEnd.position().z();
+		float length = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (length == 0)
+		{
+			// No direction in which to apply the force.
+			return target.set(0,0,0);
+		}
+		
+		float distance = Math.max(length, distanceMin);
+		float f = -k*oneEnd.mass()*theOtherEnd.mass()/(distance*distance*length);
+		return target.set(dx*f, dy*f, dz*f);
+	}
+}
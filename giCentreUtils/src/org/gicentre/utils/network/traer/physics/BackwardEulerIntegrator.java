@@ -2,7 +2,9 @@ package org.gicentre.utils.network.traer.physics;
 
 // *****************************************************************************************
 /** Class capable of performing backward Euler integration. Compared to the Runge-Kutta
- *  integrator, this one is faster, but can be less stable.
+ *  integrator, this one is faster, but can be less stable. Despite its name, forces are
+ *  evaluated at the start of each step, so stiff springs still need small time steps; see
+ *  {@link ImplicitEulerIntegrator} for a fully implicit alternative.
  *  @author Carl Pearson, Jeffrey Traer Bernstein and minor modifications by Jo Wood.
  *  @version 3.4, 5th February, 2016.
  */
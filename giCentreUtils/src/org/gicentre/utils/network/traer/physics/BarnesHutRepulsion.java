@@ -0,0 +1,551 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.Collection;
+
+// *****************************************************************************************
+/** Inverse-square repulsion between every pair of particles in a particle system, or in a chosen
+ *  collection of its particles, approximated with the Barnes-Hut algorithm. Rather than creating an {@link Attraction} between each pair of
+ *  particles, which requires n-squared objects and n-squared calculations on every tick, this
+ *  force builds an octree over the particle positions each time it is applied and treats distant
+ *  groups of particles as a single mass at their centre of mass. This reduces the cost of the
+ *  repulsion to approximately n log(n). Only the chosen particles repel one another, so particles such
+ *  as fixed anchors used to tether others to a location can be left out of the repulsion.
+ *  <br><br>
+ *  The accuracy of the approximation is controlled by the opening angle <i>theta</i>. A group of
+ *  particles is treated as a single mass if the width of its octree cell divided by its distance
+ *  from the particle being repelled is less than theta. A theta of 0 is equivalent to computing
+ *  every pairwise repulsion, while larger values are faster but less accurate.
+ *  <br><br>
+ *  The force law matches that of an {@link Attraction} with a negative strength, so a particle of
+ *  mass <i>m1</i> is repelled from a mass <i>m2</i> at distance <i>d</i> with a force of
+ *  <code>strength*m1*m2/d^2</code>, where <i>d</i> is never allowed to be less than the minimum
+ *  distance. The force should be added to a particle system with
+ *  {@link ParticleSystem#addCustomForce(AbstractForce)}.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class BarnesHutRepulsion extends AbstractForce
+{
+	// --------------------------- Class and object variables -----------------------------
+
+								/** Default opening angle used to decide when a cell can be approximated. */
+	public static final float DEFAULT_THETA = 0.8f;
+
+	private static final int MAX_DEPTH = 32;	// Depth beyond which coincident particles share a cell.
+	private static final int EMPTY    = -1;		// Indicates a leaf cell containing no particles.
+	private static final int INTERNAL = -2;		// Indicates a cell that has been subdivided.
+
+	private Collection<Particle> particles;		// Particles that repel one another.
+	private float strength;						// Strength of the repulsion.
+	private float minDistance;					// Minimum separation used when calculating the force.
+	private float theta;						// Opening angle for the Barnes-Hut approximation.
+	private ParticleStore store;				// Positions and masses of particles when the tree was built.
+
+	// Octree cells, stored in parallel arrays. Children of a cell are stored in 8 consecutive cells.
+	private int numCells;						// Number of cells currently in the tree.
+	private int[] body;							// Slot of particle in a leaf, EMPTY or INTERNAL.
+	private int[] firstChild;					// Index of the first of the 8 children of an internal cell.
+	private float[] centreX, centreY, centreZ;	// Geometric centre of each cell.
+	private float[] halfWidth;					// Half the width of each cell.
+	private float[] cellMass;					// Total mass of particles in each cell.
+	private float[] massX, massY, massZ;		// Mass-weighted position sums, then centres of mass.
+	private int[] stack;						// Reusable stack for traversing the tree.
+
+	// ---------------------------------- Constructors ------------------------------------
+
+	/** Creates a Barnes-Hut repulsion between all particles in the given system with the default
+	 *  opening angle.
+	 *  @param physics Particle system whose particles will repel each other.
+	 *  @param strength Strength of the repulsion. Positive values repel, negative values attract.
+	 *  @param minDistance Minimum distance used when calculating the force between particles.
+	 *  @throws NullPointerException if the particle system is null.
+	 *  @throws IllegalArgumentException if the minimum distance is &lt;=0.
+	 */
+	public BarnesHutRepulsion(ParticleSystem physics, float strength, float minDistance)
+												throws NullPointerException, IllegalArgumentException
+	{
+		this(physics, strength, minDistance, DEFAULT_THETA);
+	}
+
+	/** Creates a Barnes-Hut repulsion between all particles in the given system.
+	 *  @param physics Particle system whose particles will repel each other.
+	 *  @param strength Strength of the repulsion. Positive values repel, negative values attract.
+	 *  @param minDistance Minimum distance used when calculating the force between particles.
+	 *  @param theta Opening angle controlling the accuracy of the approximation.
+	 *  @throws NullPointerException if the particle system is null.
+	 *  @throws IllegalArgumentException if the minimum distance is &lt;=0 or theta is negative.
+	 */
+	public BarnesHutRepulsion(ParticleSystem physics, float strength, float minDistance, float theta)
+												throws NullPointerException, IllegalArgumentException
+	{
+		this(getParticles(physics), strength, minDistance, theta);
+	}
+
+	/** Creates a Barnes-Hut repulsion between the given particles with the default opening angle.
+	 *  The collection may be a live view, such as the values of a map, in which case particles
+	 *  subsequently added to it will also be repelled.
+	 *  @param particles Particles that will repel each other.
+	 *  @param strength Strength of the repulsion. Positive values repel, negative values attract.
+	 *  @param minDistance Minimum distance used when calculating the force between particles.
+	 *  @throws NullPointerException if the collection of particles is null.
+	 *  @throws IllegalArgumentException if the minimum distance is &lt;=0.
+	 */
+	public BarnesHutRepulsion(Collection<Particle> particles, float strength, float minDistance)
+												throws NullPointerException, IllegalArgumentException
+	{
+		this(particles, strength, minDistance, DEFAULT_THETA);
+	}
+
+	/** Creates a Barnes-Hut repulsion between the given particles. The collection may be a live view,
+	 *  such as the values of a map, in which case particles subsequently added to it will also be repelled.
+	 *  @param particles Particles that will repel each other.
+	 *  @param strength Strength of the repulsion. Positive values repel, negative values attract.
+	 *  @param minDistance Minimum distance used when calculating the force between particles.
+	 *  @param theta Opening angle controlling the accuracy of the approximation.
+	 *  @throws NullPointerException if the collection of particles is null.
+	 *  @throws IllegalArgumentException if the minimum distance is &lt;=0 or theta is negative.
+	 */
+	public BarnesHutRepulsion(Collection<Particle> particles, float strength, float minDistance, float theta)
+												throws NullPointerException, IllegalArgumentException
+	{
+		super();
+		if (particles == null)
+		{
+			throw new NullPointerException("Particle collection is null when creating Barnes-Hut repulsion.");
+		}
+		this.particles = particles;
+		setStrength(strength);
+		setMinimumDistance(minDistance);
+		setTheta(theta);
+		store = new ParticleStore();
+		numCells = 0;
+		ensureCapacity(64);
+		stack = new int[8*MAX_DEPTH+8];
+	}
+
+	// ------------------------------------ Methods ---------------------------------------
+
+	/** Sets the strength of the repulsion. Positive values push particles apart, negative values
+	 *  pull them together.
+	 *  @param strength New strength of the repulsion.
+	 *  @return This force with its new strength.
+	 */
+	public final BarnesHutRepulsion setStrength(float strength)
+	{
+		this.strength = strength;
+		modified();
+		return this;
+	}
+
+	/** Reports the strength of the repulsion.
+	 *  @return Strength of the repulsion; positive for repulsive forces, negative for attractive ones.
+	 */
+	public final float getStrength()
+	{
+		return strength;
+	}
+
+	/** Sets the minimum separation distance used when calculating the repulsion.
+	 *  @param d The new minimum distance.
+	 *  @return This force with its new minimum distance.
+	 *  @throws IllegalArgumentException if d&lt;=0
+	 */
+	public final BarnesHutRepulsion setMinimumDistance(float d) throws IllegalArgumentException
+	{
+		if (d<=0)
+		{
+			throw new IllegalArgumentException("Argument d is "+d+"; cannot specify a minimum distance <=0.");
+		}
+		minDistance = d;
+		modified();
+		return this;
+	}
+
+	/** Reports the minimum separation distance used when calculating the repulsion.
+	 *  @return The minimum separation distance.
+	 */
+	public final float getMinimumDistance()
+	{
+		return minDistance;
+	}
+
+	/** Sets the opening angle that controls the accuracy of the Barnes-Hut approximation. 0 will
+	 *  calculate the repulsion between every pair of particles exactly. Typical values are between
+	 *  0.5 and 1.
+	 *  @param theta New opening angle.
+	 *  @return This force with its new opening angle.
+	 *  @throws IllegalArgumentException if theta is negative.
+	 */
+	public final BarnesHutRepulsion setTheta(float theta) throws IllegalArgumentException
+	{
+		if (theta < 0)
+		{
+			throw new IllegalArgumentException("Argument theta is "+theta+"; the opening angle cannot be negative.");
+		}
+		this.theta = theta;
+		modified();
+		return this;
+	}
+
+	/** Reports the opening angle that controls the accuracy of the Barnes-Hut approximation.
+	 *  @return Opening angle.
+	 */
+	public final float getTheta()
+	{
+		return theta;
+	}
+
+	/** Builds an octree over the current positions of the repelling particles and applies the
+	 *  repulsion to those that are free.
+	 *  @return This force.
+	 */
+	public BarnesHutRepulsion apply()
+	{
+		if (isOff())
+		{
+			return this;
+		}
+
+		buildTree();
+		for (int slot=0; slot<store.size(); slot++)
+		{
+			if (!store.fixed[slot])
+			{
+				addForce(store.particles[slot], slot);
+			}
+		}
+		return this;
+	}
+
+	/** Applies the repulsion to the given particle using the octree built by the most recent call to
+	 *  {@link #apply()}. If the tree has not yet been built, it will be built before the force is applied.
+	 *  @param p Particle to be repelled from all the repelling particles.
+	 *  @return The particle after the force has been applied.
+	 *  @throws NullPointerException if the particle is null.
+	 */
+	public Particle apply(Particle p) throws NullPointerException
+	{
+		if (p == null)
+		{
+			throw new NullPointerException("Cannot apply Barnes-Hut repulsion to a null particle.");
+		}
+		if (isOn() && p.isFree())
+		{
+			if (numCells == 0)
+			{
+				buildTree();
+			}
+			addForce(p, store.getSlot(p));
+		}
+		return p;
+	}
+
+	// -------------------------------- Private methods -----------------------------------
+
+	/** Provides the particles of the given particle system.
+	 *  @param physics Particle system whose particles are required.
+	 *  @return Live collection of the particles in the system.
+	 *  @throws NullPointerException if the particle system is null.
+	 */
+	private static Collection<Particle> getParticles(ParticleSystem physics) throws NullPointerException
+	{
+		if (physics == null)
+		{
+			throw new NullPointerException("Particle system is null when creating Barnes-Hut repulsion.");
+		}
+		return physics.getParticles();
+	}
+
+	/** Adds the approximate repulsion from all other particles to the given particle.
+	 *  @param p Particle to be repelled.
+	 *  @param slot Slot of the particle in the tree, or -1 if it was not part of the tree when built.
+	 */
+	private void addForce(Particle p, int slot)
+	{
+		if (numCells == 0)
+		{
+			return;
+		}
+
+		float px = p.position().x();
+		float py = p.position().y();
+		float pz = p.position().z();
+		float minDSq = minDistance*minDistance;
+		float thetaSq = theta*theta;
+		float fx=0, fy=0, fz=0;
+
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+
+		while (stackSize > 0)
+		{
+			int cell = stack[--stackSize];
+			if ((body[cell] == EMPTY) || (body[cell] == slot))
+			{
+				// Nothing to repel from, or a leaf containing only the particle itself.
+				continue;
+			}
+
+			float dx = px - massX[cell];
+			float dy = py - massY[cell];
+			float dz = pz - massZ[cell];
+			float dSq = dx*dx + dy*dy + dz*dz;
+			float width = 2*halfWidth[cell];
+
+			if ((body[cell] == INTERNAL) && ((width*width >= thetaSq*dSq) || contains(cell, px, py, pz)))
+			{
+				// Cell is too close to be approximated or contains the particle itself, so open it.
+				int child = firstChild[cell];
+				for (int i=0; i<8; i++)
+				{
+					stack[stackSize++] = child+i;
+				}
+				continue;
+			}
+
+			if (dSq == 0)
+			{
+				// Coincident with centre of mass so no direction of repulsion can be defined.
+				continue;
+			}
+
+			// Repulsion from the cell's centre of mass, with distance floored as with an Attraction.
+			float d = (float)Math.sqrt(dSq);
+			float scale = strength*p.mass()*cellMass[cell]/(Math.max(dSq, minDSq)*d);
+			fx += dx*scale;
+			fy += dy*scale;
+			fz += dz*scale;
+		}
+		p.getForce().add(fx, fy, fz);
+	}
+
+	/** Builds the octree from the current positions of all the repelling particles.
+	 */
+	private void buildTree()
+	{
+		int numParticles = store.load(particles);
+		numCells = 0;
+		if (numParticles == 0)
+		{
+			return;
+		}
+
+		// Find the bounding cube of all particles.
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for (int slot=0; slot<numParticles; slot++)
+		{
+			minX = Math.min(minX, store.x[slot]);
+			minY = Math.min(minY, store.y[slot]);
+			minZ = Math.min(minZ, store.z[slot]);
+			maxX = Math.max(maxX, store.x[slot]);
+			maxY = Math.max(maxY, store.y[slot]);
+			maxZ = Math.max(maxZ, store.z[slot]);
+		}
+		float half = 0.5f*Math.max(maxX-minX, Math.max(maxY-minY, maxZ-minZ));
+		half = Math.max(half*1.0001f, minDistance);
+		newCell(0.5f*(minX+maxX), 0.5f*(minY+maxY), 0.5f*(minZ+maxZ), half);
+
+		for (int slot=0; slot<numParticles; slot++)
+		{
+			insert(slot);
+		}
+
+		// Convert mass-weighted position sums into centres of mass.
+		for (int cell=0; cell<numCells; cell++)
+		{
+			if (cellMass[cell] > 0)
+			{
+				massX[cell] /= cellMass[cell];
+				massY[cell] /= cellMass[cell];
+				massZ[cell] /= cellMass[cell];
+			}
+		}
+	}
+
+	/** Inserts the particle in the given slot of the store into the tree.
+	 *  @param slot Slot of the particle to insert.
+	 */
+	private void insert(int slot)
+	{
+		float x = store.x[slot];
+		float y = store.y[slot];
+		float z = store.z[slot];
+		float m = store.mass[slot];
+		int cell = 0;
+		int depth = 0;
+
+		while (true)
+		{
+			if (body[cell] == EMPTY)
+			{
+				body[cell] = slot;
+				addMass(cell, x, y, z, m);
+				return;
+			}
+
+			if (body[cell] >= 0)
+			{
+				if (depth >= MAX_DEPTH)
+				{
+					// Particles are effectively coincident, so let them share this cell.
+					addMass(cell, x, y, z, m);
+					return;
+				}
+
+				// Subdivide the leaf and move its existing particle down into one of the children.
+				int existing = body[cell];
+				int child = numCells;
+				float h = 0.5f*halfWidth[cell];
+				for (int i=0; i<8; i++)
+				{
+					newCell(centreX[cell] + (((i&1) == 0) ? -h : h),
+							centreY[cell] + (((i&2) == 0) ? -h : h),
+							centreZ[cell] + (((i&4) == 0) ? -h : h), h);
+				}
+				firstChild[cell] = child;
+				body[cell] = INTERNAL;
+
+				int existingChild = child + octant(cell, store.x[existing], store.y[existing], store.z[existing]);
+				body[existingChild] = existing;
+				addMass(existingChild, store.x[existing], store.y[existing], store.z[existing], store.mass[existing]);
+			}
+
+			// Cell is internal so add the new particle's mass and descend.
+			addMass(cell, x, y, z, m);
+			cell = firstChild[cell] + octant(cell, x, y, z);
+			depth++;
+		}
+	}
+
+	/** Reports which of the 8 children of the given cell contains the given location.
+	 *  @param cell Cell to query.
+	 *  @param x x coordinate of the location.
+	 *  @param y y coordinate of the location.
+	 *  @param z z coordinate of the location.
+	 *  @return Index between 0 and 7 of the child containing the location.
+	 */
+	private int octant(int cell, float x, float y, float z)
+	{
+		return (x >= centreX[cell] ? 1 : 0) | (y >= centreY[cell] ? 2 : 0) | (z >= centreZ[cell] ? 4 : 0);
+	}
+
+	/** Reports whether the given location lies within the bounds of the given cell.
+	 *  @param cell Cell to query.
+	 *  @param x x coordinate of the location.
+	 *  @param y y coordinate of the location.
+	 *  @param z z coordinate of the location.
+	 *  @return True if the location is inside the cell.
+	 */
+	private boolean contains(int cell, float x, float y, float z)
+	{
+		float h = halfWidth[cell];
+		return (Math.abs(x-centreX[cell]) <= h) && (Math.abs(y-centreY[cell]) <= h) && (Math.abs(z-centreZ[cell]) <= h);
+	}
+
+	/** Adds the given mass at the given location to the totals stored in a cell.
+	 *  @param cell Cell to update.
+	 *  @param x x coordinate of the mass.
+	 *  @param y y coordinate of the mass.
+	 *  @param z z coordinate of the mass.
+	 *  @param m Mass to add.
+	 */
+	private void addMass(int cell, float x, float y, float z, float m)
+	{
+		cellMass[cell] += m;
+		massX[cell] += m*x;
+		massY[cell] += m*y;
+		massZ[cell] += m*z;
+	}
+
+	/** Adds a new empty cell to the tree.
+	 *  @param x x coordinate of the centre of the cell.
+	 *  @param y y coordinate of the centre of the cell.
+	 *  @param z z coordinate of the centre of the cell.
+	 *  @param h Half the width of the cell.
+	 */
+	private void newCell(float x, float y, float z, float h)
+	{
+		ensureCapacity(numCells+1);
+		body[numCells] = EMPTY;
+		firstChild[numCells] = -1;
+		centreX[numCells] = x;
+		centreY[numCells] = y;
+		centreZ[numCells] = z;
+		halfWidth[numCells] = h;
+		cellMass[numCells] = 0;
+		massX[numCells] = 0;
+		massY[numCells] = 0;
+		massZ[numCells] = 0;
+		numCells++;
+	}
+
+	/** Ensures the cell arrays can hold at least the given number of cells. Arrays are only ever
+	 *  grown so once the tree has reached a stable size no further allocation takes place.
+	 *  @param size Number of cells required.
+	 */
+	private void ensureCapacity(int size)
+	{
+		if ((body != null) && (size <= body.length))
+		{
+			return;
+		}
+		int capacity = Math.max(size, (body == null) ? 0 : body.length*2);
+		body       = grow(body, capacity);
+		firstChild = grow(firstChild, capacity);
+		centreX    = grow(centreX, capacity);
+		centreY    = grow(centreY, capacity);
+		centreZ    = grow(centreZ, capacity);
+		halfWidth  = grow(halfWidth, capacity);
+		cellMass   = grow(cellMass, capacity);
+		massX      = grow(massX, capacity);
+		massY      = grow(massY, capacity);
+		massZ      = grow(massZ, capacity);
+	}
+
+	/** Provides a copy of the given array extended to the given length.
+	 *  @param array Array to copy, or null if a new array is to be created.
+	 *  @param length Length of the new array.
+	 *  @return New array containing the contents of the old one.
+	 */
+	private static float[] grow(float[] array, int length)
+	{
+		float[] newArray = new float[length];
+		if (array != null)
+		{
+			System.arraycopy(array, 0, newArray, 0, array.length);
+		}
+		return newArray;
+	}
+
+	/** Provides a copy of the given array extended to the given length.
+	 *  @param array Array to copy, or null if a new array is to be created.
+	 *  @param length Length of the new array.
+	 *  @return New array containing the contents of the old one.
+	 */
+	private static int[] grow(int[] array, int length)
+	{
+		int[] newArray = new int[length];
+		if (array != null)
+		{
+			System.arraycopy(array, 0, newArray, 0, array.length);
+		}
+		return newArray;
+	}
+}
@@ -0,0 +1,276 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// *****************************************************************************************
+/** Applies the springs and attractions of a particle system as batches rather than one force
+ *  at a time. The end points and parameters of every spring and attraction are packed into
+ *  parallel arrays, the forces are calculated by tight loops over those arrays, and the results
+ *  are scattered back into the force on each particle. The calculation loops contain only
+ *  arithmetic on consecutive array elements, so the JIT compiler is free to unroll and vectorise
+ *  them, and they make no method calls or allocations.
+ *  <br><br>
+ *  Only forces of the {@link Spring} and {@link Attraction} classes themselves are batched.
+ *  Subclasses, which may override the force calculation, and forces attached to particles
+ *  outside the system are applied individually in the usual way.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+class BatchedForceKernel
+{
+	// ------------------------------- Object variables --------------------------------
+
+	private final ParticleStore store;			// Slot-ordered particle state.
+	private final List<TwoBodyForce> unbatched;	// Forces to apply individually in the current pass.
+
+	private int capacity;						// Number of forces the packed arrays can hold.
+	private int[] oneEnd, theOtherEnd;			// Slots of the particles at each end of each force.
+	private float[] p1, p2, p3;					// Packed force parameters.
+	private float[] dx, dy, dz;					// Separation of each pair of end points.
+	private float[] dvx, dvy, dvz;				// Difference in velocity of each pair of end points.
+	private float[] fx, fy, fz;					// Force on one end of each force.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates a kernel with empty packed arrays.
+	 */
+	BatchedForceKernel()
+	{
+		store = new ParticleStore();
+		unbatched = new ArrayList<TwoBodyForce>();
+		capacity = 0;
+		ensureCapacity(16);
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Applies the given springs and attractions to the given particles.
+	 *  @param particles All particles that may be subject to the forces.
+	 *  @param springs Springs to apply.
+	 *  @param attractions Attractions to apply.
+	 */
+	void apply(Collection<Particle> particles, Collection<Spring> springs, Collection<Attraction> attractions)
+	{
+		store.load(particles);
+		unbatched.clear();
+		ensureCapacity(Math.max(springs.size(), attractions.size()));
+
+		// Springs: parameters are strength, damping and rest length.
+		int n = 0;
+		for (Spring spring : springs)
+		{
+			if (pack(spring, n, Spring.class))
+			{
+				p1[n] = spring.strength();
+				p2[n] = spring.damping();
+				p3[n] = spring.restLength();
+				n++;
+			}
+		}
+		gather(n, true);
+		calculateSprings(n);
+		scatter(n);
+
+		// Attractions: parameters are strength, minimum distance and product of masses.
+		n = 0;
+		float[] mass = store.getMass();
+		for (Attraction attraction : attractions)
+		{
+			if (pack(attraction, n, Attraction.class))
+			{
+				p1[n] = attraction.getStrength();
+				p2[n] = attraction.getMinimumDistance();
+				p3[n] = mass[oneEnd[n]]*mass[theOtherEnd[n]];
+				n++;
+			}
+		}
+		gather(n, false);
+		calculateAttractions(n);
+		scatter(n);
+
+		store.saveForces();
+
+		for (TwoBodyForce force : unbatched)
+		{
+			force.apply();
+		}
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Stores the slots of the end points of the given force at the given position in the packed
+	 *  arrays if it can be batched. Forces that cannot be batched are queued for individual application.
+	 *  @param force Force to pack.
+	 *  @param i Position in the packed arrays.
+	 *  @param batchedClass Class of force that can be batched.
+	 *  @return True if the force should be calculated as part of the batch.
+	 */
+	private boolean pack(TwoBodyForce force, int i, Class<?> batchedClass)
+	{
+		if (!force.isOn())
+		{
+			return false;
+		}
+		int slot1 = store.getSlot(force.getOneEnd());
+		int slot2 = store.getSlot(force.getTheOtherEnd());
+		if ((force.getClass() != batchedClass) || (slot1 < 0) || (slot2 < 0))
+		{
+			unbatched.add(force);
+			return false;
+		}
+
+		boolean[] fixed = store.getFixed();
+		if (fixed[slot1] && fixed[slot2])
+		{
+			return false;
+		}
+		oneEnd[i] = slot1;
+		theOtherEnd[i] = slot2;
+		return true;
+	}
+
+	/** Copies the separation, and optionally the difference in velocity, of the end points of
+	 *  each packed force into consecutive array elements.
+	 *  @param n Number of packed forces.
+	 *  @param withVelocity Whether differences in velocity are needed as well as separation.
+	 */
+	private void gather(int n, boolean withVelocity)
+	{
+		float[] x = store.getX();
+		float[] y = store.getY();
+		float[] z = store.getZ();
+		for (int i=0; i<n; i++)
+		{
+			int a = oneEnd[i];
+			int b = theOtherEnd[i];
+			dx[i] = x[a]-x[b];
+			dy[i] = y[a]-y[b];
+			dz[i] = z[a]-z[b];
+		}
+
+		if (withVelocity)
+		{
+			float[] vx = store.getVX();
+			float[] vy = store.getVY();
+			float[] vz = store.getVZ();
+			for (int i=0; i<n; i++)
+			{
+				int a = oneEnd[i];
+				int b = theOtherEnd[i];
+				dvx[i] = vx[a]-vx[b];
+				dvy[i] = vy[a]-vy[b];
+				dvz[i] = vz[a]-vz[b];
+			}
+		}
+	}
+
+	/** Calculates the force on one end of each packed spring. This matches the calculation made by
+	 *  {@link Spring#calculateForces(Vector3D, Vector3D)}.
+	 *  @param n Number of packed springs.
+	 */
+	private void calculateSprings(int n)
+	{
+		for (int i=0; i<n; i++)
+		{
+			float length = (float)Math.sqrt(dx[i]*dx[i] + dy[i]*dy[i] + dz[i]*dz[i]);
+			float invLength = (length > 0) ? 1/length : 0;
+			float ux = dx[i]*invLength;
+			float uy = dy[i]*invLength;
+			float uz = dz[i]*invLength;
+			float f = -(length-p3[i])*p1[i] - p2[i]*(ux*dvx[i] + uy*dvy[i] + uz*dvz[i]);
+			fx[i] = ux*f;
+			fy[i] = uy*f;
+			fz[i] = uz*f;
+		}
+	}
+
+	/** Calculates the force on one end of each packed attraction. This matches the calculation made by
+	 *  {@link Attraction#calculateForces(Vector3D, Vector3D)}.
+	 *  @param n Number of packed attractions.
+	 */
+	private void calculateAttractions(int n)
+	{
+		for (int i=0; i<n; i++)
+		{
+			float length = (float)Math.sqrt(dx[i]*dx[i] + dy[i]*dy[i] + dz[i]*dz[i]);
+			float distance = Math.max(length, p2[i]);
+			float f = (length > 0) ? -p1[i]*p3[i]/(distance*distance*length) : 0;
+			fx[i] = dx[i]*f;
+			fy[i] = dy[i]*f;
+			fz[i] = dz[i]*f;
+		}
+	}
+
+	/** Adds the calculated force on one end of each packed force, and its opposite on the other end,
+	 *  to the particles that are free to move.
+	 *  @param n Number of packed forces.
+	 */
+	private void scatter(int n)
+	{
+		float[] sfx = store.getFX();
+		float[] sfy = store.getFY();
+		float[] sfz = store.getFZ();
+		boolean[] fixed = store.getFixed();
+		for (int i=0; i<n; i++)
+		{
+			int a = oneEnd[i];
+			int b = theOtherEnd[i];
+			if (!fixed[a])
+			{
+				sfx[a] += fx[i];
+				sfy[a] += fy[i];
+				sfz[a] += fz[i];
+			}
+			if (!fixed[b])
+			{
+				sfx[b] -= fx[i];
+				sfy[b] -= fy[i];
+				sfz[b] -= fz[i];
+			}
+		}
+	}
+
+	/** Ensures the packed arrays are large enough to hold the given number of forces.
+	 *  @param numForces Number of forces to be packed.
+	 */
+	private void ensureCapacity(int numForces)
+	{
+		if (numForces <= capacity)
+		{
+			return;
+		}
+		capacity = Math.max(numForces, capacity*2);
+		oneEnd = new int[capacity];
+		theOtherEnd = new int[capacity];
+		p1  = new float[capacity];
+		p2  = new float[capacity];
+		p3  = new float[capacity];
+		dx  = new float[capacity];
+		dy  = new float[capacity];
+		dz  = new float[capacity];
+		dvx = new float[capacity];
+		dvy = new float[capacity];
+		dvz = new float[capacity];
+		fx  = new float[capacity];
+		fy  = new float[capacity];
+		fz  = new float[capacity];
+	}
+}
@@ -0,0 +1,382 @@
+package org.gicentre.utils.network.traer.physics;
+
+// *****************************************************************************************
+/** Short-range repulsion between every pair of particles in a particle system that lie within
+ *  a cutoff distance of each other. Particles are binned into a {@link ParticleGrid} whose cells
+ *  are the size of the cutoff distance each time the force is applied, so only particles in the
+ *  same or adjacent cells need to be compared. For layouts in which the number of particles
+ *  within the cutoff distance of any one particle is bounded, the cost of applying the force
+ *  grows linearly with the number of particles, unlike the quadratic cost of an
+ *  {@link Attraction} between every pair.
+ *  <br><br>
+ *  The repulsion between two particles is inverse-square, proportional to the product of their
+ *  masses, and reduced so that it falls smoothly to zero at the cutoff distance. Optionally, a
+ *  collision radius can be given, in which case overlapping particles are also pushed apart by
+ *  a stiff, damped contact force that approximates a hard-sphere collision. Particles at exactly
+ *  the same position are separated along a direction chosen from their order in the system, so
+ *  that nodes added at a single location spread apart deterministically.
+ *  <br><br>
+ *  The grid is binned on the (x,y) coordinates of each particle, so this force is best suited to
+ *  layouts in the plane. It gives correct results for 3D systems, but with less benefit.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class GridRepulsion extends AbstractForce
+{
+	// --------------------------- Class and object variables -----------------------------
+
+	private static final double GOLDEN_ANGLE = Math.PI*(3-Math.sqrt(5));	// Spreads separation directions evenly.
+	private static final float COINCIDENT_OFFSET = 1e-3f;	// Nominal separation of coincident particles, as a proportion of the collision radius.
+
+	private ParticleSystem physics;				// Particle system whose particles are repelled.
+	private float strength;						// Strength of the repulsion.
+	private float minDistance;					// Minimum separation used when calculating the force.
+	private float cutoff;						// Distance beyond which particles do not interact.
+	private float collisionRadius;				// Radius of each particle for collisions, or 0 for none.
+	private float collisionStiffness;			// Force per unit of overlap between colliding particles.
+	private float collisionDamping;				// Damping of the approach speed of colliding particles.
+	private final ParticleGrid grid;			// Grid used to find neighbouring particles.
+
+	// ---------------------------------- Constructors ------------------------------------
+
+	/** Creates a short-range repulsion between all particles in the given system without collisions.
+	 *  @param physics Particle system whose particles will repel each other.
+	 *  @param strength Strength of the repulsion. Positive values repel, negative values attract.
+	 *  @param minDistance Minimum distance used when calculating the force between particles.
+	 *  @param cutoff Distance beyond which particles do not repel each other.
+	 *  @throws NullPointerException if the particle system is null.
+	 *  @throws IllegalArgumentException if the minimum distance is &lt;=0 or the cutoff distance is
+	 *                                   not greater than the minimum distance.
+	 */
+	public GridRepulsion(ParticleSystem physics, float strength, float minDistance, float cutoff)
+												throws NullPointerException, IllegalArgumentException
+	{
+		super();
+		if (physics == null)
+		{
+			throw new NullPointerException("Particle system is null when creating grid repulsion.");
+		}
+		if (minDistance <= 0)
+		{
+			throw new IllegalArgumentException("Argument minDistance is "+minDistance+"; cannot specify a minimum distance <=0.");
+		}
+		this.physics = physics;
+		this.minDistance = minDistance;
+		grid = new ParticleGrid(cutoff > 0 ? cutoff : 1);
+		setStrength(strength);
+		setCutoff(cutoff);
+		collisionRadius = 0;
+	}
+
+	// ------------------------------------ Methods ---------------------------------------
+
+	/** Sets the strength of the repulsion. Positive values push particles apart, negative values
+	 *  pull them together.
+	 *  @param strength New strength of the repulsion.
+	 *  @return This force with its new strength.
+	 */
+	public final GridRepulsion setStrength(float strength)
+	{
+		this.strength = strength;
+		modified();
+		return this;
+	}
+
+	/** Reports the strength of the repulsion.
+	 *  @return Strength of the repulsion; positive for repulsive forces, negative for attractive ones.
+	 */
+	public final float getStrength()
+	{
+		return strength;
+	}
+
+	/** Sets the minimum separation distance used when calculating the repulsion.
+	 *  @param d The new minimum distance.
+	 *  @return This force with its new minimum distance.
+	 *  @throws IllegalArgumentException if d&lt;=0 or is not less than the cutoff distance.
+	 */
+	public final GridRepulsion setMinimumDistance(float d) throws IllegalArgumentException
+	{
+		if ((d <= 0) || (d >= cutoff))
+		{
+			throw new IllegalArgumentException("Argument d is "+d+"; minimum distance must be >0 and less than the cutoff distance of "+cutoff+".");
+		}
+		minDistance = d;
+		modified();
+		return this;
+	}
+
+	/** Reports the minimum separation distance used when calculating the repulsion.
+	 *  @return The minimum separation distance.
+	 */
+	public final float getMinimumDistance()
+	{
+		return minDistance;
+	}
+
+	/** Sets the distance beyond which particles do not repel each other. Smaller distances make the
+	 *  force quicker to apply.
+	 *  @param cutoff The new cutoff distance.
+	 *  @return This force with its new cutoff distance.
+	 *  @throws IllegalArgumentException if the cutoff is not greater than the minimum distance.
+	 */
+	public final GridRepulsion setCutoff(float cutoff) throws IllegalArgumentException
+	{
+		if (!(cutoff > minDistance))
+		{
+			throw new IllegalArgumentException("Cutoff distance is "+cutoff+"; must be greater than the minimum distance of "+minDistance+".");
+		}
+		this.cutoff = cutoff;
+		modified();
+		updateCellSize();
+		return this;
+	}
+
+	/** Reports the distance beyond which particles do not repel each other.
+	 *  @return The cutoff distance.
+	 */
+	public final float getCutoff()
+	{
+		return cutoff;
+	}
+
+	/** Sets the collision response between particles. Each particle is treated as a sphere of the given
+	 *  radius, and when two spheres overlap they are pushed apart by a force proportional to the overlap
+	 *  along with a damping force opposing their speed of approach. The stiffness should be large
+	 *  compared with the other forces in the system if particles are not to overlap noticeably, but
+	 *  very stiff collisions may need a smaller time step to remain stable.
+	 *  @param radius Radius of each particle, or 0 to turn collisions off.
+	 *  @param stiffness Force per unit of overlap between colliding particles.
+	 *  @param damping Damping of the speed of approach of colliding particles.
+	 *  @return This force with its new collision response.
+	 *  @throws IllegalArgumentException if any of the arguments are negative.
+	 */
+	public final GridRepulsion setCollision(float radius, float stiffness, float damping) throws IllegalArgumentException
+	{
+		if ((radius < 0) || (stiffness < 0) || (damping < 0))
+		{
+			throw new IllegalArgumentException("Collision radius, stiffness and damping must not be negative (given "+
+		                                       radius+", "+stiffness+" and "+damping+").");
+		}
+		collisionRadius = radius;
+		collisionStiffness = stiffness;
+		collisionDamping = damping;
+		modified();
+		updateCellSize();
+		return this;
+	}
+
+	/** Reports the radius of each particle when detecting collisions.
+	 *  @return Collision radius, or 0 if collisions are not detected.
+	 */
+	public final float getCollisionRadius()
+	{
+		return collisionRadius;
+	}
+
+	/** Bins the particles in the system into a grid at their current positions and applies the
+	 *  repulsion, and any collision response, to all free particles.
+	 *  @return This force.
+	 */
+	public GridRepulsion apply()
+	{
+		if (isOff())
+		{
+			return this;
+		}
+
+		grid.build(physics.getParticles());
+		ParticleStore store = grid.store;
+		float[] x = store.x;
+		float[] y = store.y;
+		float[] z = store.z;
+		int[] sorted = grid.sortedSlots();
+
+		float reachSq = reachSq();
+
+		for (int i=0; i<store.size(); i++)
+		{
+			int[] cells = grid.neighbours(i);
+			for (int c=0; c<grid.numNeighbours; c++)
+			{
+				for (int k=grid.cellStart(cells[c]); k<grid.cellEnd(cells[c]); k++)
+				{
+					// Consider each pair only once, from the particle in the lower slot.
+					int j = sorted[k];
+					if ((j <= i) || (store.fixed[i] && store.fixed[j]))
+					{
+						continue;
+					}
+
+					float dx = x[i]-x[j];
+					float dy = y[i]-y[j];
+					float dz = z[i]-z[j];
+					float distSq = dx*dx + dy*dy + dz*dz;
+					if ((distSq == 0) && (collisionRadius > 0))
+					{
+						// Coincident particles are treated as slightly apart along a direction set by their slots.
+						double angle = separationAngle(i, j);
+						dx = (float)Math.cos(angle)*collisionRadius*COINCIDENT_OFFSET;
+						dy = (float)Math.sin(angle)*collisionRadius*COINCIDENT_OFFSET;
+						distSq = dx*dx + dy*dy;
+					}
+					if ((distSq >= reachSq) || (distSq == 0))
+					{
+						continue;
+					}
+
+					float f = scaledForce(dx, dy, dz, distSq, store.mass[i]*store.mass[j],
+					                      store.vx[i]-store.vx[j], store.vy[i]-store.vy[j], store.vz[i]-store.vz[j]);
+					addForce(store, i, dx*f, dy*f, dz*f);
+					addForce(store, j, -dx*f, -dy*f, -dz*f);
+				}
+			}
+		}
+		store.saveForces();
+		return this;
+	}
+
+	/** Applies the repulsion, and any collision response, to the given particle from all other
+	 *  particles within range of it when the grid was built by the most recent call to {@link #apply()}.
+	 *  If the grid has not yet been built, it will be built before the force is applied.
+	 *  @param p Particle to be repelled from its neighbours.
+	 *  @return The particle after the force has been applied.
+	 *  @throws NullPointerException if the particle is null.
+	 */
+	public Particle apply(Particle p) throws NullPointerException
+	{
+		if (p == null)
+		{
+			throw new NullPointerException("Cannot apply grid repulsion to a null particle.");
+		}
+		if (isOn() && p.isFree())
+		{
+			if (grid.getNumParticles() == 0)
+			{
+				grid.build(physics.getParticles());
+			}
+			Vector3D pos = p.position();
+			Vector3D vel = p.velocity();
+			float reachSq = reachSq();
+			for (Particle other : grid.getParticlesWithin(pos.x(), pos.y(), pos.z(), grid.getCellSize()))
+			{
+				float dx = pos.x()-other.position().x();
+				float dy = pos.y()-other.position().y();
+				float dz = pos.z()-other.position().z();
+				float distSq = dx*dx + dy*dy + dz*dz;
+				if ((other != p) && (distSq == 0) && (collisionRadius > 0))
+				{
+					// Separate in the same direction as apply(), which pushes the particle in the lower slot forwards.
+					int slot = grid.store.getSlot(p);
+					int otherSlot = grid.store.getSlot(other);
+					double angle = separationAngle(Math.min(slot, otherSlot), Math.max(slot, otherSlot));
+					float offset = ((slot < otherSlot) ? 1 : -1)*collisionRadius*COINCIDENT_OFFSET;
+					dx = (float)Math.cos(angle)*offset;
+					dy = (float)Math.sin(angle)*offset;
+					distSq = dx*dx + dy*dy;
+				}
+				if ((other != p) && (distSq < reachSq) && (distSq > 0))
+				{
+					float f = scaledForce(dx, dy, dz, distSq, p.mass()*other.mass(), vel.x()-other.velocity().x(),
+					                      vel.y()-other.velocity().y(), vel.z()-other.velocity().z());
+					p.addForce(dx*f, dy*f, dz*f);
+				}
+			}
+		}
+		return p;
+	}
+
+	// -------------------------------- Private methods -----------------------------------
+
+	/** Calculates the force between two particles divided by their separation, so that multiplying it
+	 *  by the separation vector gives the force on the first particle.
+	 *  @param dx x component of the separation of the first particle from the second.
+	 *  @param dy y component of the separation of the first particle from the second.
+	 *  @param dz z component of the separation of the first particle from the second.
+	 *  @param distSq Squared distance between the particles; must be greater than 0.
+	 *  @param massProduct Product of the masses of the two particles.
+	 *  @param dvx x component of the velocity of the first particle relative to the second.
+	 *  @param dvy y component of the velocity of the first particle relative to the second.
+	 *  @param dvz z component of the velocity of the first particle relative to the second.
+	 *  @return Magnitude of the force divided by the distance between the particles.
+	 */
+	private float scaledForce(float dx, float dy, float dz, float distSq, float massProduct, float dvx, float dvy, float dvz)
+	{
+		float dist = (float)Math.sqrt(distSq);
+		float f = 0;
+		if (dist < cutoff)
+		{
+			float d = Math.max(dist, minDistance);
+			f = strength*massProduct*(1/(d*d) - 1/(cutoff*cutoff));
+		}
+		if (dist < 2*collisionRadius)
+		{
+			float approach = (dvx*dx + dvy*dy + dvz*dz)/dist;
+			f += collisionStiffness*(2*collisionRadius-dist) - collisionDamping*approach;
+		}
+		return f/dist;
+	}
+
+	/** Reports the direction in the (x,y) plane along which two coincident particles are separated.
+	 *  Different pairs are given well spread directions so that a group of coincident particles
+	 *  moves apart rather than along a single line.
+	 *  @param lowSlot Lower of the two particles' slots.
+	 *  @param highSlot Higher of the two particles' slots.
+	 *  @return Angle in radians of the direction in which the particle in the lower slot is pushed.
+	 */
+	private static double separationAngle(int lowSlot, int highSlot)
+	{
+		return GOLDEN_ANGLE*((long)lowSlot*31 + highSlot);
+	}
+
+	/** Reports the squared distance within which particles may interact.
+	 *  @return Square of the larger of the cutoff distance and the collision diameter.
+	 */
+	private float reachSq()
+	{
+		float reach = Math.max(cutoff, 2*collisionRadius);
+		return reach*reach;
+	}
+
+
+	/** Adds the given force to the particle in the given slot if it is free to move.
+	 *  @param store Store holding the forces on each particle.
+	 *  @param slot Slot of the particle.
+	 *  @param fx x component of the force.
+	 *  @param fy y component of the force.
+	 *  @param fz z component of the force.
+	 */
+	private static void addForce(ParticleStore store, int slot, float fx, float fy, float fz)
+	{
+		if (!store.fixed[slot])
+		{
+			store.fx[slot] += fx;
+			store.fy[slot] += fy;
+			store.fz[slot] += fz;
+		}
+	}
+
+	/** Sizes the grid cells so that every pair of particles that may interact lies in the same or
+	 *  adjacent cells.
+	 */
+	private void updateCellSize()
+	{
+		grid.setCellSize(Math.max(cutoff, 2*collisionRadius));
+	}
+}
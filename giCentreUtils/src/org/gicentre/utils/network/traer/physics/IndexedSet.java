@@ -0,0 +1,250 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// *****************************************************************************************
+/** Set whose elements are stored in a dense array so that they can be retrieved and removed by
+ *  position in constant time. A map from each element to its position allows membership tests
+ *  and removal of a given element in constant time too. Elements are iterated in the order in
+ *  which they were added, except that removing an element moves the last element into the gap it
+ *  leaves, so removal does not require the remaining elements to be shifted.
+ *  @param <E> Type of element stored in the set.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+class IndexedSet<E> extends AbstractSet<E>
+{
+	// ------------------------------- Object variables --------------------------------
+
+	private final ArrayList<E> elements;		// Elements in positional order.
+	private final Map<E,Integer> indices;		// Position of each element.
+	private int modCount;						// Number of structural changes, for detecting concurrent modification.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates an empty indexed set.
+	 */
+	IndexedSet()
+	{
+		elements = new ArrayList<E>();
+		indices = new HashMap<E,Integer>();
+		modCount = 0;
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Adds the given element to the end of the set if it is not already present.
+	 *  @param element Element to add.
+	 *  @return True if the element was added, false if it was already in the set.
+	 */
+	@Override
+	public boolean add(E element)
+	{
+		if (indices.containsKey(element))
+		{
+			return false;
+		}
+		indices.put(element, Integer.valueOf(elements.size()));
+		elements.add(element);
+		modCount++;
+		elementAdded(element);
+		return true;
+	}
+
+	/** Removes the given element from the set if present.
+	 *  @param o Element to remove.
+	 *  @return True if the element was removed, false if it was not in the set.
+	 */
+	@Override
+	public boolean remove(Object o)
+	{
+		Integer index = indices.get(o);
+		if (index == null)
+		{
+			return false;
+		}
+		removeAt(index.intValue());
+		return true;
+	}
+
+	/** Reports whether the given element is in the set.
+	 *  @param o Element to search for.
+	 *  @return True if the element is in the set.
+	 */
+	@Override
+	public boolean contains(Object o)
+	{
+		return indices.containsKey(o);
+	}
+
+	/** Reports the number of elements in the set.
+	 *  @return Number of elements.
+	 */
+	@Override
+	public int size()
+	{
+		return elements.size();
+	}
+
+	/** Removes all elements from the set.
+	 */
+	@Override
+	public void clear()
+	{
+		ArrayList<E> removed = new ArrayList<E>(elements);
+		elements.clear();
+		indices.clear();
+		modCount++;
+		for (E element : removed)
+		{
+			elementRemoved(element);
+		}
+	}
+
+	/** Provides the element at the given position in the set.
+	 *  @param i Position of the element.
+	 *  @return Element at the given position or null if the position is out of bounds.
+	 */
+	E get(int i)
+	{
+		if ((i < 0) || (i >= elements.size()))
+		{
+			return null;
+		}
+		return elements.get(i);
+	}
+
+	/** Reports the position of the given element in the set.
+	 *  @param o Element to search for.
+	 *  @return Position of the element or -1 if it is not in the set.
+	 */
+	int indexOf(Object o)
+	{
+		Integer index = indices.get(o);
+		return (index == null) ? -1 : index.intValue();
+	}
+
+	/** Removes the element at the given position, moving the last element into its place.
+	 *  @param i Position of the element to remove.
+	 *  @return The element removed or null if the position is out of bounds.
+	 */
+	E removeAt(int i)
+	{
+		int last = elements.size()-1;
+		if ((i < 0) || (i > last))
+		{
+			return null;
+		}
+
+		E removed = elements.get(i);
+		indices.remove(removed);
+		if (i < last)
+		{
+			E moved = elements.get(last);
+			elements.set(i, moved);
+			indices.put(moved, Integer.valueOf(i));
+		}
+		elements.remove(last);
+		modCount++;
+		elementRemoved(removed);
+		return removed;
+	}
+
+	/** Called after an element has been added to the set. Does nothing by default, but can be
+	 *  overridden to maintain other structures that depend on the set's contents.
+	 *  @param element Element that has been added.
+	 */
+	void elementAdded(E element)
+	{
+		// Do nothing by default.
+	}
+
+	/** Called after an element has been removed from the set, whether directly, by position,
+	 *  through an iterator or by clearing the set. Does nothing by default, but can be overridden
+	 *  to maintain other structures that depend on the set's contents.
+	 *  @param element Element that has been removed.
+	 */
+	void elementRemoved(E element)
+	{
+		// Do nothing by default.
+	}
+
+	/** Provides an iterator over the elements in positional order. Elements may be removed
+	 *  with the iterator's <code>remove()</code> method.
+	 *  @return Iterator over the set's elements.
+	 */
+	@Override
+	public Iterator<E> iterator()
+	{
+		return new Iterator<E>()
+		{
+			private int cursor = 0;						// Position of the next element to return.
+			private int lastReturned = -1;				// Position of the last element returned or -1 if none.
+			private int expectedModCount = modCount;	// For detecting changes not made by this iterator.
+
+			public boolean hasNext()
+			{
+				return cursor < elements.size();
+			}
+
+			@SuppressWarnings("synthetic-access")
+			public E next()
+			{
+				checkForComodification();
+				if (cursor >= elements.size())
+				{
+					throw new NoSuchElementException();
+				}
+				lastReturned = cursor++;
+				return elements.get(lastReturned);
+			}
+
+			@SuppressWarnings("synthetic-access")
+			public void remove()
+			{
+				if (lastReturned < 0)
+				{
+					throw new IllegalStateException("remove() can only be called once after each call to next().");
+				}
+				checkForComodification();
+				removeAt(lastReturned);
+
+				// The last element has moved into the removed position so it must be visited next.
+				cursor = lastReturned;
+				lastReturned = -1;
+				expectedModCount = modCount;
+			}
+
+			@SuppressWarnings("synthetic-access")
+			private void checkForComodification()
+			{
+				if (modCount != expectedModCount)
+				{
+					throw new ConcurrentModificationException();
+				}
+			}
+		};
+	}
+}
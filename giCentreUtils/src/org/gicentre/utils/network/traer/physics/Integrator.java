@@ -58,9 +58,63 @@ public abstract class Integrator
 		{
 			@Override public Integrator factory(ParticleSystem physics) 
 			{ 
-				return new SettlingRungeKuttaIntegrator(physics); 
+				return new SettlingRungeKuttaIntegrator(physics);
 			}
-		}; 
+		},
+
+		/** Indicates a Runge-Kutta integration that uses reusable primitive buffers rather than maps. */
+		FASTRUNGEKUTTA
+		{
+			@Override public Integrator factory(ParticleSystem physics)
+			{
+				return new FastRungeKuttaIntegrator(physics);
+			}
+		},
+
+		/** Indicates a velocity Verlet integration. */
+		VERLET
+		{
+			@Override public Integrator factory(ParticleSystem physics)
+			{
+				return new VelocityVerletIntegrator(physics);
+			}
+		},
+
+		/** Indicates a semi-implicit Euler integration. */
+		SEMIEULER
+		{
+			@Override public Integrator factory(ParticleSystem physics)
+			{
+				return new SemiImplicitEulerIntegrator(physics);
+			}
+		},
+
+		/** Indicates an adaptive Runge-Kutta integration with error control. */
+		ADAPTIVERUNGEKUTTA
+		{
+			@Override public Integrator factory(ParticleSystem physics)
+			{
+				return new AdaptiveRungeKuttaIntegrator(physics);
+			}
+		},
+
+		/** Indicates a position-based integration that treats springs as distance constraints. */
+		POSITIONBASED
+		{
+			@Override public Integrator factory(ParticleSystem physics)
+			{
+				return new PositionBasedIntegrator(physics);
+			}
+		},
+
+		/** Indicates an implicit Euler integration suitable for stiff springs. */
+		IMPLICITEULER
+		{
+			@Override public Integrator factory(ParticleSystem physics)
+			{
+				return new ImplicitEulerIntegrator(physics);
+			}
+		};
 	
 		/** Factory capable of generating integrators.
 		 * @param physics Particle system within which to apply the integrators.
@@ -0,0 +1,288 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// *****************************************************************************************
+/** Applies the two-body forces of a particle system in parallel. Forces are partitioned into
+ *  contiguous blocks, one per thread, and each thread accumulates the forces it calculates into
+ *  its own buffer indexed by particle slot. The buffers are then reduced in block order and added
+ *  to the particles. Forces on particles that are not part of the system are collected by each block
+ *  and added once all blocks are complete, again in block order. Because the partitioning and order of summation depend only on the number of
+ *  threads, results are deterministic for a given thread count, although they may differ from
+ *  sequential application in the last few bits because floating point addition is not associative.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+class ParallelForceAccumulator
+{
+	// ------------------------------- Object variables --------------------------------
+
+	private final int numThreads;				// Number of blocks into which forces are partitioned.
+	private final ForkJoinPool pool;			// Pool of threads that calculate forces.
+	private final ParticleStore store;			// Provides a slot for each particle.
+	private IndexedSet<? extends TwoBodyForce> springs;		// Springs to apply in the current pass, or null.
+	private IndexedSet<? extends TwoBodyForce> attractions;	// Attractions to apply in the current pass.
+	private int numSprings;						// Number of springs to apply in the current pass.
+	private int numForces;						// Number of springs and attractions to apply in the current pass.
+	private final List<Accumulator> accumulators;		// Tasks that calculate each block of forces.
+	private final List<Callable<Object>> reducers;		// Tasks that sum each block of particles.
+	private float[][] buffers;					// Per-thread force buffers of x,y,z triples.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates an accumulator that will divide forces between the given number of threads.
+	 *  @param numThreads Number of threads to use; must be greater than 1.
+	 */
+	ParallelForceAccumulator(int numThreads)
+	{
+		this.numThreads = numThreads;
+		pool = new ForkJoinPool(numThreads);
+		store = new ParticleStore();
+		buffers = new float[numThreads][0];
+		accumulators = new ArrayList<Accumulator>(numThreads);
+		reducers = new ArrayList<Callable<Object>>(numThreads);
+
+		for (int i=0; i<numThreads; i++)
+		{
+			accumulators.add(new Accumulator(i));
+			reducers.add(new Reducer(i));
+		}
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Reports the number of threads used by this accumulator.
+	 *  @return Number of threads.
+	 */
+	int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/** Applies the given two-body forces to the given particles. Forces are read by position in
+	 *  their sets, so they are not copied on each pass.
+	 *  @param particles All particles that may be subject to the forces.
+	 *  @param springs Springs to apply, or null if springs are not to be applied.
+	 *  @param attractions Attractions to apply.
+	 */
+	void apply(Collection<Particle> particles, IndexedSet<? extends TwoBodyForce> springs, IndexedSet<? extends TwoBodyForce> attractions)
+	{
+		int numParticles = store.load(particles);
+		this.springs = springs;
+		this.attractions = attractions;
+		numSprings = (springs == null) ? 0 : springs.size();
+		numForces = numSprings + attractions.size();
+
+		if (buffers[0].length < numParticles*3)
+		{
+			buffers = new float[numThreads][numParticles*3];
+		}
+
+		invoke(accumulators);
+		invoke(reducers);
+
+		// Forces on particles outside the system are added in block order so that their sums are repeatable.
+		for (Accumulator accumulator : accumulators)
+		{
+			accumulator.addOutsideForces();
+		}
+		this.springs = null;
+		this.attractions = null;
+	}
+
+	/** Stops the threads used by this accumulator.
+	 */
+	void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Runs the given tasks in the thread pool and waits for them all to complete.
+	 *  @param tasks Tasks to run.
+	 *  @throws RuntimeException if any of the tasks throws an exception.
+	 */
+	private void invoke(List<? extends Callable<Object>> tasks)
+	{
+		try
+		{
+			for (Future<Object> future : pool.invokeAll(tasks))
+			{
+				future.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while applying forces in parallel.", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("Problem applying forces in parallel: "+e.getCause(), e.getCause());
+		}
+	}
+
+	// -------------------------------- Nested classes ---------------------------------
+
+	/** Calculates the forces in one block and accumulates them into that block's buffer.
+	 */
+	private class Accumulator implements Callable<Object>
+	{
+		private final int block;					// Index of the block of forces handled by this task.
+		private final Vector3D forceOnOneEnd;		// Reusable force on one end of each two-body force.
+		private final Vector3D forceOnTheOtherEnd;	// Reusable force on the other end of each two-body force.
+		private final List<Particle> outside;		// Particles outside the system subject to forces in this block.
+		private float[] outsideForces;				// Force on each particle outside the system (x,y,z triples).
+
+		/** Creates a task that handles the given block of forces.
+		 *  @param block Block index between 0 and numThreads-1.
+		 */
+		Accumulator(int block)
+		{
+			this.block = block;
+			forceOnOneEnd = new Vector3D();
+			forceOnTheOtherEnd = new Vector3D();
+			outside = new ArrayList<Particle>();
+			outsideForces = new float[0];
+		}
+
+		/** Calculates the forces in this task's block.
+		 *  @return Null.
+		 */
+		public Object call()
+		{
+			float[] buffer = buffers[block];
+			Arrays.fill(buffer, 0, store.size()*3, 0);
+			outside.clear();
+
+			int start = (int)((long)numForces*block/numThreads);
+			int end   = (int)((long)numForces*(block+1)/numThreads);
+
+			for (int i=start; i<end; i++)
+			{
+				TwoBodyForce force = (i < numSprings) ? springs.get(i) : attractions.get(i-numSprings);
+				Particle oneEnd = force.getOneEnd();
+				Particle theOtherEnd = force.getTheOtherEnd();
+
+				if (force.isOn() && (oneEnd.isFree() || theOtherEnd.isFree()))
+				{
+					force.calculateForces(forceOnOneEnd, forceOnTheOtherEnd);
+					if (oneEnd.isFree())
+					{
+						add(buffer, oneEnd, forceOnOneEnd);
+					}
+					if (theOtherEnd.isFree())
+					{
+						add(buffer, theOtherEnd, forceOnTheOtherEnd);
+					}
+				}
+			}
+			return null;
+		}
+
+		/** Adds the forces on particles outside the system that were found by this block to those particles.
+		 *  This should only be called once all blocks have been calculated.
+		 */
+		void addOutsideForces()
+		{
+			for (int i=0; i<outside.size(); i++)
+			{
+				outside.get(i).addForce(outsideForces[i*3], outsideForces[i*3+1], outsideForces[i*3+2]);
+			}
+			outside.clear();
+		}
+
+		/** Adds the given force vector to this block's buffer at the slot of the given particle.
+		 *  @param buffer Buffer of x,y,z triples.
+		 *  @param p Particle receiving the force.
+		 *  @param force Force to add.
+		 */
+		private void add(float[] buffer, Particle p, Vector3D force)
+		{
+			int i = store.getSlot(p);
+			if (i < 0)
+			{
+				// Particle is not part of this system so hold the force until all blocks are complete.
+				int j = outside.size()*3;
+				if (outsideForces.length < j+3)
+				{
+					outsideForces = Arrays.copyOf(outsideForces, Math.max(j+3, outsideForces.length*2));
+				}
+				outside.add(p);
+				outsideForces[j]   = force.x();
+				outsideForces[j+1] = force.y();
+				outsideForces[j+2] = force.z();
+				return;
+			}
+			i *= 3;
+			buffer[i]   += force.x();
+			buffer[i+1] += force.y();
+			buffer[i+2] += force.z();
+		}
+	}
+
+	/** Sums the per-thread buffers for one block of particles and adds the result to each particle.
+	 */
+	private class Reducer implements Callable<Object>
+	{
+		private final int block;		// Index of the block of particles handled by this task.
+
+		/** Creates a task that handles the given block of particles.
+		 *  @param block Block index between 0 and numThreads-1.
+		 */
+		Reducer(int block)
+		{
+			this.block = block;
+		}
+
+		/** Sums the forces on each particle in this task's block.
+		 *  @return Null.
+		 */
+		public Object call()
+		{
+			int start = (int)((long)store.size()*block/numThreads);
+			int end   = (int)((long)store.size()*(block+1)/numThreads);
+
+			for (int slot=start; slot<end; slot++)
+			{
+				int i = slot*3;
+				float fx=0, fy=0, fz=0;
+				for (int b=0; b<numThreads; b++)
+				{
+					fx += buffers[b][i];
+					fy += buffers[b][i+1];
+					fz += buffers[b][i+2];
+				}
+				if ((fx != 0) || (fy != 0) || (fz != 0))
+				{
+					store.particles[slot].getForce().add(fx, fy, fz);
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -35,6 +35,9 @@ public class Particle implements Locatable
 	protected float age;
 											/** Whether or not this particle is dead (not attached to any forces or springs). */
 	protected boolean isDead;
+	int slot;								// Handle into the arrays of a ParticleStore holding this particle's state.
+	int restingTicks;						// Number of consecutive ticks over which the particle has been at rest.
+	private boolean isAsleep;				// Whether the particle has come to rest and is excluded from integration.
 	private float mass;						// The Particle mass.
 	private Vector3D force; 				// The force associated with this particle. It is automatically allocated to 0,0,0 on creation.
 	
@@ -59,6 +62,9 @@ public class Particle implements Locatable
 		age = 0;
 		isFixed = false;
 		isDead  = false;
+		slot = -1;
+		restingTicks = 0;
+		isAsleep = false;
 		setMass(m);
 	}
 
@@ -105,7 +111,7 @@ public class Particle implements Locatable
 		{
 			velocity.clear();
 		}
-		return this;
+		return wake();
 	}
 	
 	/** Reports whether or not this particle is fixed. 
@@ -116,13 +122,44 @@ public class Particle implements Locatable
 		return isFixed; 
 	}
 	
-	/** Reports whether or not this particle is free. This cqn be seen as a convenience method since it 
-	 *  always returns !isFixed(). 
+	/** Reports whether or not this particle is free to move in response to forces. A particle is free
+	 *  if it is neither fixed nor asleep. 
 	 *  @return the free/fixed state of the particle.
 	 */ 
 	public final boolean isFree() 
 	{ 
-		return !isFixed(); 
+		return !isFixed && !isAsleep; 
+	}
+	
+	/** Reports whether or not this particle is asleep. A sleeping particle has come to rest and is treated
+	 *  as if it were fixed until it is woken, either explicitly or by the movement of a particle it is
+	 *  connected to. Particles only fall asleep if sleeping has been enabled in their particle system with
+	 *  {@link ParticleSystem#setSleepThresholds(float, float)}.
+	 *  @return True if the particle is asleep.
+	 */
+	public final boolean isAsleep()
+	{
+		return isAsleep;
+	}
+	
+	/** Wakes this particle so that it is once again free to move in response to forces. Has no effect
+	 *  if the particle is not asleep other than to restart the period over which it must be at rest
+	 *  before it can fall asleep.
+	 *  @return this particle in its woken state.
+	 */
+	public final Particle wake()
+	{
+		isAsleep = false;
+		restingTicks = 0;
+		return this;
+	}
+	
+	/** Puts this particle to sleep, stopping its movement until it is woken.
+	 */
+	final void sleep()
+	{
+		isAsleep = true;
+		velocity.clear();
 	}
 
 	/** Reports the position of the particle.
@@ -202,6 +239,19 @@ public class Particle implements Locatable
 		return this; 
 	}
 	
+	/** Updates the force on this particle by adding the given force components. Unlike 
+	 *  {@link #addForce(Vector3D)} this does not require a vector to hold the added force.
+	 *  @param fx The x component of the force to add.
+	 *  @param fy The y component of the force to add.
+	 *  @param fz The z component of the force to add.
+	 *  @return this Particle with its new combined force.
+	 */
+	public final Particle addForce(float fx, float fy, float fz)
+	{ 
+		force.add(fx, fy, fz); 
+		return this; 
+	}
+	
 	/** Clears the force on this particle.
 	 *  @return this particle with its new 0 force.
 	 */
@@ -226,6 +276,7 @@ public class Particle implements Locatable
 	{
 		age = 0;
 		isDead = false;
+		wake();
 		position.clear();
 		velocity.clear();
 		force.clear();
@@ -0,0 +1,584 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// *****************************************************************************************
+/** Uniform grid of square cells used to find particles close to a given location without
+ *  searching every particle. As with {@link org.gicentre.utils.geom.HashGrid}, particles are
+ *  binned by their (x,y) location into columns and rows, and a cell is identified by
+ *  <code>row*numCols + col</code>. Unlike a hash grid, the grid is rebuilt in one pass from the
+ *  current particle positions by counting the particles in each cell and then sorting them by
+ *  cell, so that all the particles in a cell occupy consecutive positions in a single array.
+ *  Building the grid therefore takes time proportional to the number of particles and makes no
+ *  allocations once the grid has grown to accommodate them.
+ *  <br><br>
+ *  The grid covers the bounding rectangle of the particles when it was built. If that rectangle
+ *  would need many more cells than there are particles, cells are shared by folding the cell
+ *  identifiers into a smaller table. Queries always test the distance to each candidate particle
+ *  so results are unaffected. The z coordinate is ignored when binning but is included when
+ *  measuring distances.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class ParticleGrid
+{
+	// ------------------------------- Object variables --------------------------------
+
+	final ParticleStore store;			// Positions of the particles when the grid was built.
+	private float cellSize;				// Width and height of each cell.
+	private float minX, minY;			// Bottom-left corner of the grid.
+	private int numCols, numRows;		// Dimensions of the grid.
+	private int numCells;				// Number of cells in the table, which may be fewer than numCols*numRows.
+	private int[] cellStart;			// Position in sorted of the first particle in each cell, plus an end marker.
+	private int[] sorted;				// Particle slots ordered by cell.
+	private int[] cellOfSlot;			// Cell containing each particle slot.
+	private final int[] neighbours;		// Reusable list of distinct cells around a location.
+	int numNeighbours;					// Number of cells found by the last call to neighbours().
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates an empty grid with the given cell size. The grid must be built with
+	 *  {@link #build(Collection)} before it can be queried.
+	 *  @param cellSize Width and height of each grid cell. Queries are most efficient when this is
+	 *                  close to the typical search radius.
+	 *  @throws IllegalArgumentException if the cell size is not positive.
+	 */
+	public ParticleGrid(float cellSize) throws IllegalArgumentException
+	{
+		setCellSize(cellSize);
+		store = new ParticleStore();
+		numCols = 0;
+		numRows = 0;
+		numCells = 0;
+		cellStart = new int[1];
+		sorted = new int[0];
+		cellOfSlot = new int[0];
+		neighbours = new int[9];
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Sets the width and height of each grid cell. This takes effect the next time the grid is built.
+	 *  @param cellSize New cell size.
+	 *  @return This grid.
+	 *  @throws IllegalArgumentException if the cell size is not positive.
+	 */
+	public ParticleGrid setCellSize(float cellSize) throws IllegalArgumentException
+	{
+		if (!(cellSize > 0))
+		{
+			throw new IllegalArgumentException("Cell size is "+cellSize+"; must be greater than 0.");
+		}
+		this.cellSize = cellSize;
+		return this;
+	}
+
+	/** Reports the width and height of each grid cell.
+	 *  @return Cell size.
+	 */
+	public float getCellSize()
+	{
+		return cellSize;
+	}
+
+	/** Reports the number of particles in the grid when it was last built.
+	 *  @return Number of particles in the grid.
+	 */
+	public int getNumParticles()
+	{
+		return store.size();
+	}
+
+	/** Bins the given particles into the grid at their current positions. Any particles previously
+	 *  in the grid are discarded.
+	 *  @param particles Particles to place in the grid.
+	 *  @return This grid.
+	 */
+	public ParticleGrid build(Collection<Particle> particles)
+	{
+		return bin(store.load(particles));
+	}
+
+	/** Bins the given particles into the grid at their positions in the given snapshot rather than
+	 *  their current positions. This allows a grid to match what has been drawn from a snapshot while
+	 *  a {@link ParticleSimulator} continues to move the particles. Particles that are not in the
+	 *  snapshot are left out and any particles previously in the grid are discarded.
+	 *  @param particles Particles to place in the grid.
+	 *  @param snapshot Snapshot holding the positions at which the particles are placed.
+	 *  @return This grid.
+	 */
+	public ParticleGrid build(Collection<Particle> particles, ParticleSnapshot snapshot)
+	{
+		return bin(store.loadPositions(particles, snapshot));
+	}
+
+	/** Provides the particles in the grid that lie within the given distance of the given location.
+	 *  @param x x coordinate of the location to search around.
+	 *  @param y y coordinate of the location to search around.
+	 *  @param z z coordinate of the location to search around.
+	 *  @param radius Search radius.
+	 *  @return List of particles within the search radius, which may be empty.
+	 */
+	public List<Particle> getParticlesWithin(float x, float y, float z, float radius)
+	{
+		List<Particle> found = new ArrayList<Particle>();
+		float radiusSq = radius*radius;
+		int reach = (int)Math.ceil(radius/cellSize);
+		int col = colOf(x);
+		int row = rowOf(y);
+
+		int colMin = clamp(col-reach, numCols);
+		int colMax = clamp(col+reach, numCols);
+		int rowMin = clamp(row-reach, numRows);
+		int rowMax = clamp(row+reach, numRows);
+		boolean isFolded = isFolded();
+
+		for (int r=rowMin; r<=rowMax; r++)
+		{
+			for (int c=colMin; c<=colMax; c++)
+			{
+				int cell = cellId(c, r);
+				for (int k=cellStart[cell]; k<cellStart[cell+1]; k++)
+				{
+					int slot = sorted[k];
+					if (isFolded && ((colOf(store.x[slot]) != c) || (rowOf(store.y[slot]) != r)))
+					{
+						// Particle belongs to a different cell sharing this table entry.
+						continue;
+					}
+					float dx = store.x[slot]-x;
+					float dy = store.y[slot]-y;
+					float dz = store.z[slot]-z;
+					if (dx*dx + dy*dy + dz*dz <= radiusSq)
+					{
+						found.add(store.particles[slot]);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/** Finds the particle in the grid closest to the given location. Cells are searched in rings of
+	 *  increasing distance from the location, stopping once no unsearched cell can hold a closer particle,
+	 *  so only the cells around the nearest particle are normally visited.
+	 *  @param x x coordinate of the location to search around.
+	 *  @param y y coordinate of the location to search around.
+	 *  @param z z coordinate of the location to search around.
+	 *  @param radius Maximum distance of the particle from the location. If negative, the distance is unlimited.
+	 *  @return Nearest particle, or null if there are no particles within the search radius.
+	 */
+	public Particle getNearest(float x, float y, float z, float radius)
+	{
+		int n = store.size();
+		if (n == 0)
+		{
+			return null;
+		}
+		double nearestDSq = (radius < 0) ? Double.POSITIVE_INFINITY : (double)radius*radius;
+		int nearest = -1;
+
+		// Column and row of the location, which may lie outside the grid.
+		long col = (long)Math.floor((x-minX)/cellSize);
+		long row = (long)Math.floor((y-minY)/cellSize);
+
+		// First ring that overlaps the grid and the last ring needed to cover it.
+		long firstRing = Math.max(Math.max(-col, col-(numCols-1)), Math.max(-row, row-(numRows-1)));
+		firstRing = Math.max(0, firstRing);
+		long lastRing = Math.max(Math.max(col, numCols-1-col), Math.max(row, numRows-1-row));
+
+		for (long ring=firstRing; ring<=lastRing; ring++)
+		{
+			// Particles in cells beyond this ring are at least ring*cellSize from the location.
+			double ringDist = Math.max(0, ring-1)*(double)cellSize;
+			if (ringDist*ringDist > nearestDSq)
+			{
+				break;
+			}
+			int rowMin = (int)Math.max(0, row-ring);
+			int rowMax = (int)Math.min(numRows-1, row+ring);
+			for (int r=rowMin; r<=rowMax; r++)
+			{
+				// Only the two ends of the ring are searched except on its top and bottom rows.
+				boolean isEdgeRow = (Math.abs(r-row) == ring);
+				long step = isEdgeRow ? 1 : Math.max(1, 2*ring);
+				for (long c=col-ring; c<=col+ring; c+=step)
+				{
+					if ((c < 0) || (c >= numCols))
+					{
+						continue;
+					}
+					int cell = cellId((int)c, r);
+					for (int k=cellStart[cell]; k<cellStart[cell+1]; k++)
+					{
+						int slot = sorted[k];
+						double dSq = distanceSq(slot, x, y, z);
+						if (dSq <= nearestDSq)
+						{
+							nearestDSq = dSq;
+							nearest = slot;
+						}
+					}
+				}
+			}
+		}
+		return (nearest < 0) ? null : store.particles[nearest];
+	}
+
+	/** Provides the particles in the grid whose (x,y) location lies within the given rectangle.
+	 *  @param x1 x coordinate of one corner of the rectangle.
+	 *  @param y1 y coordinate of one corner of the rectangle.
+	 *  @param x2 x coordinate of the opposite corner of the rectangle.
+	 *  @param y2 y coordinate of the opposite corner of the rectangle.
+	 *  @return List of particles inside the rectangle or on its boundary, which may be empty.
+	 */
+	public List<Particle> getParticlesInRectangle(float x1, float y1, float x2, float y2)
+	{
+		List<Particle> found = new ArrayList<Particle>();
+		float xMin = Math.min(x1, x2);
+		float xMax = Math.max(x1, x2);
+		float yMin = Math.min(y1, y2);
+		float yMax = Math.max(y1, y2);
+		int n = store.size();
+		if ((n == 0) || (xMax < minX) || (yMax < minY))
+		{
+			return found;
+		}
+
+		int colMin = colOf(xMin);
+		int colMax = colOf(xMax);
+		int rowMin = rowOf(yMin);
+		int rowMax = rowOf(yMax);
+		boolean isFolded = isFolded();
+
+		// Searching more cells than the table holds would be slower than testing every particle.
+		if (isFolded && ((long)(colMax-colMin+1)*(rowMax-rowMin+1) > numCells))
+		{
+			for (int slot=0; slot<n; slot++)
+			{
+				if (isInRectangle(slot, xMin, yMin, xMax, yMax))
+				{
+					found.add(store.particles[slot]);
+				}
+			}
+			return found;
+		}
+
+		for (int r=rowMin; r<=rowMax; r++)
+		{
+			for (int c=colMin; c<=colMax; c++)
+			{
+				int cell = cellId(c, r);
+				for (int k=cellStart[cell]; k<cellStart[cell+1]; k++)
+				{
+					int slot = sorted[k];
+					if (isFolded && ((colOf(store.x[slot]) != c) || (rowOf(store.y[slot]) != r)))
+					{
+						// Particle belongs to a different cell sharing this table entry.
+						continue;
+					}
+					if (isInRectangle(slot, xMin, yMin, xMax, yMax))
+					{
+						found.add(store.particles[slot]);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/** Provides the particles in the grid whose (x,y) location lies inside the given polygon. This can
+	 *  be used for lasso selection. The polygon is closed automatically and may cross itself, in which
+	 *  case points are inside if they are enclosed an odd number of times.
+	 *  @param xs x coordinates of the polygon vertices.
+	 *  @param ys y coordinates of the polygon vertices.
+	 *  @return List of particles inside the polygon, which may be empty.
+	 *  @throws IllegalArgumentException if the coordinate arrays are of different lengths.
+	 */
+	public List<Particle> getParticlesInPolygon(float[] xs, float[] ys) throws IllegalArgumentException
+	{
+		if (xs.length != ys.length)
+		{
+			throw new IllegalArgumentException("Polygon has "+xs.length+" x coordinates but "+ys.length+" y coordinates.");
+		}
+		List<Particle> found = new ArrayList<Particle>();
+		if (xs.length < 3)
+		{
+			return found;
+		}
+		float xMin = Float.MAX_VALUE, yMin = Float.MAX_VALUE;
+		float xMax = -Float.MAX_VALUE, yMax = -Float.MAX_VALUE;
+		for (int i=0; i<xs.length; i++)
+		{
+			xMin = Math.min(xMin, xs[i]);
+			yMin = Math.min(yMin, ys[i]);
+			xMax = Math.max(xMax, xs[i]);
+			yMax = Math.max(yMax, ys[i]);
+		}
+		for (Particle p : getParticlesInRectangle(xMin, yMin, xMax, yMax))
+		{
+			if (isInPolygon(p.position().x(), p.position().y(), xs, ys))
+			{
+				found.add(p);
+			}
+		}
+		return found;
+	}
+
+	// ---------------------------- Package-wide methods -------------------------------
+
+	/** Finds the distinct cells in the 3x3 block of cells around the given particle slot. Cells that
+	 *  have been folded together are only listed once.
+	 *  @param slot Slot of the particle whose neighbourhood is to be found.
+	 *  @return Array whose first {@link #numNeighbours} elements are the cell identifiers. The array is
+	 *          reused by the next call.
+	 */
+	int[] neighbours(int slot)
+	{
+		int col = colOf(store.x[slot]);
+		int row = rowOf(store.y[slot]);
+		numNeighbours = 0;
+		for (int r=Math.max(0, row-1); r<=Math.min(numRows-1, row+1); r++)
+		{
+			for (int c=Math.max(0, col-1); c<=Math.min(numCols-1, col+1); c++)
+			{
+				int cell = cellId(c, r);
+				boolean isNew = true;
+				for (int i=0; i<numNeighbours; i++)
+				{
+					if (neighbours[i] == cell)
+					{
+						isNew = false;
+						break;
+					}
+				}
+				if (isNew)
+				{
+					neighbours[numNeighbours++] = cell;
+				}
+			}
+		}
+		return neighbours;
+	}
+
+	/** Reports the position in {@link #sortedSlots()} of the first particle in the given cell.
+	 *  @param cell Cell identifier.
+	 *  @return Position of the first particle in the cell.
+	 */
+	int cellStart(int cell)
+	{
+		return cellStart[cell];
+	}
+
+	/** Reports the position in {@link #sortedSlots()} after the last particle in the given cell.
+	 *  @param cell Cell identifier.
+	 *  @return Position after the last particle in the cell.
+	 */
+	int cellEnd(int cell)
+	{
+		return cellStart[cell+1];
+	}
+
+	/** Provides the particle slots in cell order.
+	 *  @return Array of particle slots, grouped by cell.
+	 */
+	int[] sortedSlots()
+	{
+		return sorted;
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Bins the particles loaded into the store into the grid, covering their bounding rectangle.
+	 *  @param n Number of particles in the store.
+	 *  @return This grid.
+	 */
+	private ParticleGrid bin(int n)
+	{
+		float[] x = store.x;
+		float[] y = store.y;
+
+		minX = Float.MAX_VALUE;
+		minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		for (int i=0; i<n; i++)
+		{
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		if (n == 0)
+		{
+			minX = minY = maxX = maxY = 0;
+		}
+
+		// Fold cells into a table of at most twice the number of particles if the grid is sparse.
+		numCols = (int)Math.min(Math.floor((maxX-minX)/cellSize)+1, Integer.MAX_VALUE);
+		numRows = (int)Math.min(Math.floor((maxY-minY)/cellSize)+1, Integer.MAX_VALUE);
+		numCells = (int)Math.min((double)numCols*numRows, Math.max(16, 2.0*n));
+
+		if (cellStart.length < numCells+1)
+		{
+			cellStart = new int[Math.max(numCells+1, cellStart.length*2)];
+		}
+		if (sorted.length < n)
+		{
+			sorted = new int[Math.max(n, sorted.length*2)];
+			cellOfSlot = new int[sorted.length];
+		}
+
+		// Count the particles in each cell, then convert counts into start positions.
+		for (int c=0; c<=numCells; c++)
+		{
+			cellStart[c] = 0;
+		}
+		for (int i=0; i<n; i++)
+		{
+			int cell = cellAt(x[i], y[i]);
+			cellOfSlot[i] = cell;
+			cellStart[cell+1]++;
+		}
+		for (int c=0; c<numCells; c++)
+		{
+			cellStart[c+1] += cellStart[c];
+		}
+
+		// Place each particle in its cell using the start of each cell as a cursor, then restore the starts.
+		for (int i=0; i<n; i++)
+		{
+			sorted[cellStart[cellOfSlot[i]]++] = i;
+		}
+		for (int c=numCells; c>0; c--)
+		{
+			cellStart[c] = cellStart[c-1];
+		}
+		cellStart[0] = 0;
+		return this;
+	}
+
+	/** Reports whether cells have been folded together because the grid is sparse.
+	 *  @return True if some cells share a table entry.
+	 */
+	private boolean isFolded()
+	{
+		return (long)numCols*numRows > numCells;
+	}
+
+	/** Reports the table entry of the cell containing the given location.
+	 *  @param x x coordinate of the location.
+	 *  @param y y coordinate of the location.
+	 *  @return Cell identifier.
+	 */
+	private int cellAt(float x, float y)
+	{
+		return cellId(colOf(x), rowOf(y));
+	}
+
+	/** Reports the grid column containing the given x coordinate.
+	 *  @param x x coordinate.
+	 *  @return Column, limited to the extent of the grid.
+	 */
+	private int colOf(float x)
+	{
+		return clamp((int)Math.floor((x-minX)/cellSize), numCols);
+	}
+
+	/** Reports the grid row containing the given y coordinate.
+	 *  @param y y coordinate.
+	 *  @return Row, limited to the extent of the grid.
+	 */
+	private int rowOf(float y)
+	{
+		return clamp((int)Math.floor((y-minY)/cellSize), numRows);
+	}
+
+	/** Reports the table entry of the cell at the given column and row.
+	 *  @param col Column of the cell.
+	 *  @param row Row of the cell.
+	 *  @return Cell identifier.
+	 */
+	private int cellId(int col, int row)
+	{
+		return (int)(((long)row*numCols + col) % numCells);
+	}
+
+	/** Reports the squared distance between the particle in the given slot and the given location.
+	 *  @param slot Slot of the particle.
+	 *  @param x x coordinate of the location.
+	 *  @param y y coordinate of the location.
+	 *  @param z z coordinate of the location.
+	 *  @return Squared distance.
+	 */
+	private double distanceSq(int slot, float x, float y, float z)
+	{
+		double dx = store.x[slot]-x;
+		double dy = store.y[slot]-y;
+		double dz = store.z[slot]-z;
+		return dx*dx + dy*dy + dz*dz;
+	}
+
+	/** Reports whether the particle in the given slot lies within the given rectangle.
+	 *  @param slot Slot of the particle.
+	 *  @param xMin Minimum x coordinate of the rectangle.
+	 *  @param yMin Minimum y coordinate of the rectangle.
+	 *  @param xMax Maximum x coordinate of the rectangle.
+	 *  @param yMax Maximum y coordinate of the rectangle.
+	 *  @return True if the particle is inside the rectangle or on its boundary.
+	 */
+	private boolean isInRectangle(int slot, float xMin, float yMin, float xMax, float yMax)
+	{
+		float x = store.x[slot];
+		float y = store.y[slot];
+		return (x >= xMin) && (x <= xMax) && (y >= yMin) && (y <= yMax);
+	}
+
+	/** Reports whether the given location is inside the given polygon using the even-odd rule.
+	 *  @param x x coordinate of the location.
+	 *  @param y y coordinate of the location.
+	 *  @param xs x coordinates of the polygon vertices.
+	 *  @param ys y coordinates of the polygon vertices.
+	 *  @return True if the location is inside the polygon.
+	 */
+	private static boolean isInPolygon(float x, float y, float[] xs, float[] ys)
+	{
+		boolean isInside = false;
+		for (int i=0, j=xs.length-1; i<xs.length; j=i++)
+		{
+			if (((ys[i] > y) != (ys[j] > y)) && (x < (xs[j]-xs[i])*(y-ys[i])/(ys[j]-ys[i]) + xs[i]))
+			{
+				isInside = !isInside;
+			}
+		}
+		return isInside;
+	}
+
+	/** Limits the given column or row to the extent of the grid.
+	 *  @param i Column or row.
+	 *  @param n Number of columns or rows.
+	 *  @return Column or row between 0 and n-1.
+	 */
+	private static int clamp(int i, int n)
+	{
+		return Math.max(0, Math.min(n-1, i));
+	}
+}
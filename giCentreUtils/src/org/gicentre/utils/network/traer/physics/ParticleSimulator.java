@@ -0,0 +1,310 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+// *****************************************************************************************
+/** Advances a particle system in its own thread at a fixed rate, independently of the rate at
+ *  which the particles are drawn. After each tick the positions of all particles are copied into
+ *  a {@link ParticleSnapshot} that can be read by the drawing thread without locking.
+ *  <br><br>
+ *  Snapshots are passed between the two threads using three buffers: one being written by the
+ *  simulation thread, one being read by the drawing thread and one holding the most recently
+ *  completed snapshot. The buffers are exchanged atomically so neither thread ever waits for the
+ *  other, and the snapshot held by the drawing thread never changes while it is being read.
+ *  <br><br>
+ *  Each tick is made while holding the lock on the particle system, so any structural changes to
+ *  the system made while the simulator is running, such as adding particles or springs, should be
+ *  made inside a block synchronized on the particle system.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class ParticleSimulator
+{
+	// ------------------------------- Object variables --------------------------------
+
+	private final ParticleSystem physics;		// The system to advance.
+	private volatile float ticksPerSecond;		// Target tick rate, or 0 to tick as fast as possible.
+	private volatile float timeStep;			// Time step passed to each tick.
+	private volatile boolean isPaused;			// Whether ticking is temporarily suspended.
+	private volatile Thread thread;				// Simulation thread or null if not running.
+	private volatile long tickCount;			// Number of ticks made by the simulator.
+
+	private ParticleSnapshot backSnapshot;		// Snapshot being written by the simulation thread.
+	private ParticleSnapshot frontSnapshot;		// Snapshot being read by the drawing thread.
+	private final AtomicReference<ParticleSnapshot> latestSnapshot;	// Most recently completed snapshot.
+	private ParticleSnapshot publishedSnapshot;	// Most recently published snapshot, with which the next is compared.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates a simulator that will advance the given particle system 60 times a second using the
+	 *  system's own time step. The simulator is not started until {@link #start()} is called.
+	 *  @param physics Particle system to advance.
+	 *  @throws NullPointerException if the particle system is null.
+	 */
+	public ParticleSimulator(ParticleSystem physics) throws NullPointerException
+	{
+		if (physics == null)
+		{
+			throw new NullPointerException("Cannot create a simulator with a null particle system.");
+		}
+		this.physics = physics;
+		ticksPerSecond = 60;
+		timeStep = physics.getDeltaT();
+		isPaused = false;
+		thread = null;
+		tickCount = 0;
+
+		backSnapshot = new ParticleSnapshot();
+		frontSnapshot = new ParticleSnapshot();
+		ParticleSnapshot initial = new ParticleSnapshot();
+		synchronized (physics)
+		{
+			initial.copy(physics.getParticles(), 0, null);
+		}
+		initial.isFresh = true;
+		publishedSnapshot = initial;
+		latestSnapshot = new AtomicReference<ParticleSnapshot>(initial);
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Starts advancing the particle system in a new background thread. Has no effect if the
+	 *  simulator is already running.
+	 *  @return This simulator.
+	 */
+	public synchronized ParticleSimulator start()
+	{
+		if (thread == null)
+		{
+			thread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					simulate();
+				}
+			}, "ParticleSimulator");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return this;
+	}
+
+	/** Stops the background thread, waiting for any tick in progress to complete. Has no effect
+	 *  if the simulator is not running.
+	 *  @return This simulator.
+	 */
+	public synchronized ParticleSimulator stop()
+	{
+		Thread oldThread = thread;
+		thread = null;
+		if ((oldThread != null) && (oldThread != Thread.currentThread()))
+		{
+			oldThread.interrupt();
+			try
+			{
+				oldThread.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		return this;
+	}
+
+	/** Reports whether the simulator's background thread is running.
+	 *  @return True if the simulator is running.
+	 */
+	public boolean isRunning()
+	{
+		return thread != null;
+	}
+
+	/** Temporarily suspends or resumes ticking of the particle system without stopping the thread.
+	 *  @param isPaused True if ticking is to be suspended, false if it is to be resumed.
+	 *  @return This simulator.
+	 */
+	public ParticleSimulator setPaused(boolean isPaused)
+	{
+		this.isPaused = isPaused;
+		return this;
+	}
+
+	/** Reports whether ticking of the particle system is currently suspended.
+	 *  @return True if the simulator is paused.
+	 */
+	public boolean isPaused()
+	{
+		return isPaused;
+	}
+
+	/** Sets the number of times per second the particle system is advanced. This is independent
+	 *  of the rate at which snapshots are drawn.
+	 *  @param ticksPerSecond Target tick rate. If zero, the system is advanced as fast as possible.
+	 *  @return This simulator.
+	 *  @throws IllegalArgumentException if the tick rate is negative.
+	 */
+	public ParticleSimulator setTicksPerSecond(float ticksPerSecond) throws IllegalArgumentException
+	{
+		if (ticksPerSecond < 0)
+		{
+			throw new IllegalArgumentException("Ticks per second is "+ticksPerSecond+"; must not be negative.");
+		}
+		this.ticksPerSecond = ticksPerSecond;
+		return this;
+	}
+
+	/** Reports the number of times per second the particle system is advanced.
+	 *  @return Target tick rate, or 0 if the system is advanced as fast as possible.
+	 */
+	public float getTicksPerSecond()
+	{
+		return ticksPerSecond;
+	}
+
+	/** Sets the time step by which the particle system is advanced on each tick.
+	 *  @param timeStep Time step for each tick.
+	 *  @return This simulator.
+	 *  @throws IllegalArgumentException if the time step is not positive.
+	 */
+	public ParticleSimulator setTimeStep(float timeStep) throws IllegalArgumentException
+	{
+		if (timeStep <= 0)
+		{
+			throw new IllegalArgumentException("Time step is "+timeStep+"; must be greater than 0.");
+		}
+		this.timeStep = timeStep;
+		return this;
+	}
+
+	/** Reports the time step by which the particle system is advanced on each tick.
+	 *  @return Time step for each tick.
+	 */
+	public float getTimeStep()
+	{
+		return timeStep;
+	}
+
+	/** Reports the number of ticks made by this simulator since it was created.
+	 *  @return Number of ticks.
+	 */
+	public long getTickCount()
+	{
+		return tickCount;
+	}
+
+	/** Provides the most recently completed snapshot of particle positions. The snapshot returned
+	 *  will not be modified until the next call to this method, so it can safely be read while the
+	 *  simulation continues. This method should only be called from a single (drawing) thread.
+	 *  @return Latest snapshot of particle positions.
+	 */
+	public ParticleSnapshot getSnapshot()
+	{
+		if (latestSnapshot.get().isFresh)
+		{
+			// Only this thread marks the latest snapshot as stale, so once seen as fresh it remains so.
+			frontSnapshot.isFresh = false;
+			frontSnapshot = latestSnapshot.getAndSet(frontSnapshot);
+		}
+		return frontSnapshot;
+	}
+
+	/** Advances the particle system by a single tick and publishes a new snapshot. This is normally
+	 *  called by the background thread, but may be called directly when the simulator is not running.
+	 */
+	public void tick()
+	{
+		synchronized (physics)
+		{
+			physics.tick(timeStep);
+			tickCount++;
+			backSnapshot.copy(physics.getParticles(), tickCount, publishedSnapshot);
+		}
+		publish();
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Repeatedly advances the particle system at the target rate until the simulator is stopped.
+	 */
+	private void simulate()
+	{
+		Thread thisThread = Thread.currentThread();
+		long nextTick = System.nanoTime();
+
+		while (thread == thisThread)
+		{
+			if (isPaused)
+			{
+				// Keep the snapshot up to date with any changes made to particles while paused.
+				synchronized (physics)
+				{
+					backSnapshot.copy(physics.getParticles(), tickCount, publishedSnapshot);
+				}
+				publish();
+			}
+			else
+			{
+				tick();
+			}
+
+			float rate = isPaused ? Math.min(ticksPerSecond, 30) : ticksPerSecond;
+			if (rate <= 0)
+			{
+				rate = isPaused ? 30 : 0;
+			}
+
+			if (rate == 0)
+			{
+				Thread.yield();
+				nextTick = System.nanoTime();
+			}
+			else
+			{
+				nextTick += (long)(1e9/rate);
+				long wait = nextTick - System.nanoTime();
+				if (wait > 0)
+				{
+					try
+					{
+						Thread.sleep(wait/1000000, (int)(wait%1000000));
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+				else
+				{
+					// Running behind so don't try to catch up.
+					nextTick = System.nanoTime();
+				}
+			}
+		}
+	}
+
+	/** Makes the snapshot just written by the simulation thread available to the drawing thread.
+	 */
+	private void publish()
+	{
+		backSnapshot.isFresh = true;
+		publishedSnapshot = backSnapshot;
+		backSnapshot = latestSnapshot.getAndSet(backSnapshot);
+	}
+}
@@ -0,0 +1,222 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// *****************************************************************************************
+/** Copy of the positions of all particles in a particle system at a particular moment. Snapshots
+ *  are published by a {@link ParticleSimulator} so that particles can be drawn in one thread while
+ *  the system is being advanced in another. A snapshot obtained from the simulator will not change
+ *  until the next call to {@link ParticleSimulator#getSnapshot()} from the same thread.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class ParticleSnapshot
+{
+	// ------------------------------- Object variables --------------------------------
+
+	private int size;							// Number of particles in the snapshot.
+	private long tick;							// Number of ticks made when the snapshot was taken.
+	private long version;						// Changes only when the particles or their positions change.
+	private Particle[] particles;				// Particles in the order they were copied.
+	private float[] x,y,z;						// Particle positions.
+	private Map<Particle,Integer> indices;		// Index of each particle in the snapshot.
+	boolean isFresh;							// True if not yet seen by the reading thread.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates an empty snapshot.
+	 */
+	ParticleSnapshot()
+	{
+		size = 0;
+		tick = 0;
+		version = 0;
+		particles = new Particle[0];
+		x = new float[0];
+		y = new float[0];
+		z = new float[0];
+		indices = new IdentityHashMap<Particle,Integer>();
+		isFresh = false;
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Reports the number of particles in the snapshot.
+	 *  @return Number of particles.
+	 */
+	public int getNumParticles()
+	{
+		return size;
+	}
+
+	/** Reports the number of ticks that had been made by the simulator when this snapshot was taken.
+	 *  @return Tick count of the snapshot, or 0 if no ticks had been made.
+	 */
+	public long getTick()
+	{
+		return tick;
+	}
+
+	/** Reports a number identifying the particles and positions held in this snapshot. Two snapshots
+	 *  from the same simulator with the same version hold the same particles at the same positions,
+	 *  whereas their tick counts differ even if nothing has moved. This allows work that depends only
+	 *  on the positions, such as building a spatial index, to be skipped once a system has settled.
+	 *  @return Version of the particle positions in this snapshot.
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/** Reports the particle at the given index in the snapshot.
+	 *  @param i Index of the particle, between 0 and <code>getNumParticles()-1</code>.
+	 *  @return Particle at the given index.
+	 *  @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public Particle getParticle(int i)
+	{
+		checkIndex(i);
+		return particles[i];
+	}
+
+	/** Reports the index of the given particle in the snapshot.
+	 *  @param p Particle to search for.
+	 *  @return Index of the particle or -1 if it was not part of the system when the snapshot was taken.
+	 */
+	public int indexOf(Particle p)
+	{
+		Integer index = indices.get(p);
+		return (index == null) ? -1 : index.intValue();
+	}
+
+	/** Reports the x coordinate of the particle at the given index.
+	 *  @param i Index of the particle, between 0 and <code>getNumParticles()-1</code>.
+	 *  @return x coordinate of the particle when the snapshot was taken.
+	 *  @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public float getX(int i)
+	{
+		checkIndex(i);
+		return x[i];
+	}
+
+	/** Reports the y coordinate of the particle at the given index.
+	 *  @param i Index of the particle, between 0 and <code>getNumParticles()-1</code>.
+	 *  @return y coordinate of the particle when the snapshot was taken.
+	 *  @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public float getY(int i)
+	{
+		checkIndex(i);
+		return y[i];
+	}
+
+	/** Reports the z coordinate of the particle at the given index.
+	 *  @param i Index of the particle, between 0 and <code>getNumParticles()-1</code>.
+	 *  @return z coordinate of the particle when the snapshot was taken.
+	 *  @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	public float getZ(int i)
+	{
+		checkIndex(i);
+		return z[i];
+	}
+
+	// ------------------------------- Package methods ---------------------------------
+
+	/** Copies the positions of the given particles into this snapshot. The particle index is only
+	 *  rebuilt if the particles differ from those previously copied into this snapshot, so repeatedly
+	 *  copying a structurally stable system does not allocate any memory. The snapshot takes the
+	 *  version of the given previous snapshot if it holds the same particles at the same positions,
+	 *  or the next version otherwise.
+	 *  @param source Particles to copy.
+	 *  @param tickCount Number of ticks made by the simulator.
+	 *  @param previous Snapshot published before this one, or null if this is the first.
+	 */
+	void copy(Collection<Particle> source, long tickCount, ParticleSnapshot previous)
+	{
+		int n = source.size();
+		if (particles.length < n)
+		{
+			int capacity = Math.max(n, particles.length*2);
+			Particle[] newParticles = new Particle[capacity];
+			System.arraycopy(particles, 0, newParticles, 0, size);
+			particles = newParticles;
+			x = new float[capacity];
+			y = new float[capacity];
+			z = new float[capacity];
+		}
+
+		boolean isChanged = (n != size);
+		boolean isMoved = (previous == null) || (n != previous.size);
+		int i = 0;
+		for (Particle p : source)
+		{
+			if (particles[i] != p)
+			{
+				particles[i] = p;
+				isChanged = true;
+			}
+			Vector3D pos = p.position();
+			x[i] = pos.x();
+			y[i] = pos.y();
+			z[i] = pos.z();
+			if (!isMoved)
+			{
+				isMoved = (previous.particles[i] != p) || (previous.x[i] != x[i]) || (previous.y[i] != y[i]) || (previous.z[i] != z[i]);
+			}
+			i++;
+		}
+		for (int j=n; j<size; j++)
+		{
+			particles[j] = null;
+		}
+		size = n;
+		tick = tickCount;
+		if (previous != null)
+		{
+			version = isMoved ? previous.version+1 : previous.version;
+		}
+
+		if (isChanged)
+		{
+			indices.clear();
+			for (int j=0; j<size; j++)
+			{
+				indices.put(particles[j], Integer.valueOf(j));
+			}
+		}
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Checks that the given index is within the range of this snapshot.
+	 *  @param i Index to check.
+	 *  @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	private void checkIndex(int i)
+	{
+		if ((i < 0) || (i >= size))
+		{
+			throw new IndexOutOfBoundsException("Index "+i+" is outside the range of the snapshot (0-"+(size-1)+").");
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.Collection;
+
+// *****************************************************************************************
+/** Structure-of-arrays store holding the state of a collection of particles in contiguous
+ *  primitive arrays. Each particle loaded into the store is given a <i>slot</i> that acts as
+ *  a lightweight handle into the arrays, so that the x-coordinates of all particles, for
+ *  example, can be streamed through linearly without visiting each particle object in turn.
+ *  <br><br>
+ *  Particles remain the authoritative source of state since their position, velocity and force
+ *  vectors may be modified directly by user code. The store is therefore synchronised with the
+ *  particles by calling {@link #load(Collection)}, and any changes made to the arrays can be
+ *  written back to the particles with {@link #save()}. Slots remain valid until the next call
+ *  to <code>load()</code>.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class ParticleStore
+{
+	// ------------------------------- Object variables --------------------------------
+
+	private int size;							// Number of particles currently held in the store.
+	private int capacity;						// Number of particles the arrays can hold.
+	Particle[] particles;						// Particle handle associated with each slot.
+	float[] x,y,z;								// Particle positions.
+	float[] vx,vy,vz;							// Particle velocities.
+	float[] fx,fy,fz;							// Forces on each particle.
+	float[] mass;								// Particle masses.
+	float[] age;								// Particle ages.
+	boolean[] fixed;							// Whether each particle is fixed or asleep.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates an empty particle store.
+	 */
+	public ParticleStore()
+	{
+		size = 0;
+		capacity = 0;
+		ensureCapacity(16);
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Loads the state of the given particles into the store, assigning each a slot that
+	 *  corresponds to its position in the collection's iteration order. Arrays are only ever
+	 *  grown, so repeatedly loading a collection of stable size does not allocate any memory.
+	 *  @param source Particles to load into the store.
+	 *  @return Number of particles loaded.
+	 */
+	public int load(Collection<Particle> source)
+	{
+		ensureCapacity(source.size());
+		int slot = 0;
+		for (Particle p : source)
+		{
+			p.slot = slot;
+			particles[slot] = p;
+			Vector3D pos = p.position();
+			Vector3D vel = p.velocity();
+			Vector3D force = p.getForce();
+			x[slot]  = pos.x();
+			y[slot]  = pos.y();
+			z[slot]  = pos.z();
+			vx[slot] = vel.x();
+			vy[slot] = vel.y();
+			vz[slot] = vel.z();
+			fx[slot] = force.x();
+			fy[slot] = force.y();
+			fz[slot] = force.z();
+			mass[slot]  = p.mass();
+			age[slot]   = p.age;
+			fixed[slot] = !p.isFree();
+			slot++;
+		}
+
+		// Release references to any particles no longer in the store.
+		for (int i=slot; i<size; i++)
+		{
+			particles[i] = null;
+		}
+		size = slot;
+		return size;
+	}
+
+	/** Copies the forces currently acting on each particle into the force arrays of the store.
+	 */
+	public void loadForces()
+	{
+		for (int slot=0; slot<size; slot++)
+		{
+			Vector3D force = particles[slot].getForce();
+			fx[slot] = force.x();
+			fy[slot] = force.y();
+			fz[slot] = force.z();
+		}
+	}
+
+	/** Writes the forces held in the store back to each particle.
+	 */
+	public void saveForces()
+	{
+		for (int slot=0; slot<size; slot++)
+		{
+			particles[slot].getForce().set(fx[slot], fy[slot], fz[slot]);
+		}
+	}
+
+	/** Writes the positions, velocities and ages held in the store back to each particle that is neither
+	 *  fixed nor asleep.
+	 */
+	public void save()
+	{
+		for (int slot=0; slot<size; slot++)
+		{
+			if (!fixed[slot])
+			{
+				Particle p = particles[slot];
+				p.position().set(x[slot], y[slot], z[slot]);
+				p.velocity().set(vx[slot], vy[slot], vz[slot]);
+				p.age = age[slot];
+			}
+		}
+	}
+
+	/** Reports the number of particles currently held in the store.
+	 *  @return Number of particles in the store.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/** Reports the particle occupying the given slot in the store.
+	 *  @param slot Slot to query.
+	 *  @return Particle associated with the given slot.
+	 *  @throws IndexOutOfBoundsException if the slot is not between 0 and <code>size()-1</code>.
+	 */
+	public Particle getParticle(int slot)
+	{
+		if ((slot < 0) || (slot >= size))
+		{
+			throw new IndexOutOfBoundsException("Slot "+slot+" is outside the range of the particle store (0-"+(size-1)+").");
+		}
+		return particles[slot];
+	}
+
+	/** Reports the slot occupied by the given particle or -1 if it is not in the store.
+	 *  @param p Particle to search for.
+	 *  @return Slot occupied by the particle, or -1 if the particle has not been loaded into the store.
+	 */
+	public int getSlot(Particle p)
+	{
+		if ((p.slot >= 0) && (p.slot < size) && (particles[p.slot] == p))
+		{
+			return p.slot;
+		}
+		return -1;
+	}
+
+	/** Provides direct access to the array of x-coordinates of each particle in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of x coordinates.
+	 */
+	public float[] getX()
+	{
+		return x;
+	}
+
+	/** Provides direct access to the array of y-coordinates of each particle in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of y coordinates.
+	 */
+	public float[] getY()
+	{
+		return y;
+	}
+
+	/** Provides direct access to the array of z-coordinates of each particle in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of z coordinates.
+	 */
+	public float[] getZ()
+	{
+		return z;
+	}
+
+	/** Provides direct access to the array of x-velocities of each particle in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of x velocity components.
+	 */
+	public float[] getVX()
+	{
+		return vx;
+	}
+
+	/** Provides direct access to the array of y-velocities of each particle in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of y velocity components.
+	 */
+	public float[] getVY()
+	{
+		return vy;
+	}
+
+	/** Provides direct access to the array of z-velocities of each particle in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of z velocity components.
+	 */
+	public float[] getVZ()
+	{
+		return vz;
+	}
+
+	/** Provides direct access to the array of x force components on each particle in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of x force components.
+	 */
+	public float[] getFX()
+	{
+		return fx;
+	}
+
+	/** Provides direct access to the array of y force components on each particle in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of y force components.
+	 */
+	public float[] getFY()
+	{
+		return fy;
+	}
+
+	/** Provides direct access to the array of z force components on each particle in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of z force components.
+	 */
+	public float[] getFZ()
+	{
+		return fz;
+	}
+
+	/** Provides direct access to the array of particle masses in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of particle masses.
+	 */
+	public float[] getMass()
+	{
+		return mass;
+	}
+
+	/** Provides direct access to the array of particle ages in slot order.
+	 *  The array may be longer than the number of particles in the store.
+	 *  @return Array of particle ages.
+	 */
+	public float[] getAge()
+	{
+		return age;
+	}
+
+	/** Provides direct access to the array of fixed states of each particle in slot order. Sleeping
+	 *  particles are treated as fixed. The array may be longer than the number of particles in the store.
+	 *  @return Array of fixed states, true where a particle is fixed or asleep.
+	 */
+	public boolean[] getFixed()
+	{
+		return fixed;
+	}
+
+	// ------------------------------- Package methods ---------------------------------
+
+	/** Loads the given particles into the store at their positions in the given snapshot. Only the
+	 *  particle and position arrays are filled, and particles are not assigned slots, so the particle
+	 *  system need not be locked while the snapshot is read. Particles that are not in the snapshot
+	 *  are left out.
+	 *  @param source Particles to load into the store.
+	 *  @param snapshot Snapshot holding the positions of the particles.
+	 *  @return Number of particles loaded.
+	 */
+	int loadPositions(Collection<Particle> source, ParticleSnapshot snapshot)
+	{
+		ensureCapacity(source.size());
+		int slot = 0;
+		for (Particle p : source)
+		{
+			int i = snapshot.indexOf(p);
+			if (i >= 0)
+			{
+				particles[slot] = p;
+				x[slot] = snapshot.getX(i);
+				y[slot] = snapshot.getY(i);
+				z[slot] = snapshot.getZ(i);
+				slot++;
+			}
+		}
+
+		// Release references to any particles no longer in the store.
+		for (int i=slot; i<size; i++)
+		{
+			particles[i] = null;
+		}
+		size = slot;
+		return size;
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Ensures the arrays are large enough to hold the given number of particles, preserving
+	 *  any existing content.
+	 *  @param numParticles Number of particles to be stored.
+	 */
+	private void ensureCapacity(int numParticles)
+	{
+		if (numParticles <= capacity)
+		{
+			return;
+		}
+
+		int newCapacity = Math.max(numParticles, capacity*2);
+		particles = grow(particles, newCapacity);
+		x  = grow(x,  newCapacity);
+		y  = grow(y,  newCapacity);
+		z  = grow(z,  newCapacity);
+		vx = grow(vx, newCapacity);
+		vy = grow(vy, newCapacity);
+		vz = grow(vz, newCapacity);
+		fx = grow(fx, newCapacity);
+		fy = grow(fy, newCapacity);
+		fz = grow(fz, newCapacity);
+		mass  = grow(mass,  newCapacity);
+		age   = grow(age,   newCapacity);
+		fixed = grow(fixed, newCapacity);
+		capacity = newCapacity;
+	}
+
+	/** Provides a copy of the given array extended to the given length.
+	 *  @param array Array to copy, or null if a new array is to be created.
+	 *  @param length Length of the new array.
+	 *  @return New array containing the contents of the old one.
+	 */
+	private static float[] grow(float[] array, int length)
+	{
+		float[] newArray = new float[length];
+		if (array != null)
+		{
+			System.arraycopy(array, 0, newArray, 0, array.length);
+		}
+		return newArray;
+	}
+
+	/** Provides a copy of the given array extended to the given length.
+	 *  @param array Array to copy, or null if a new array is to be created.
+	 *  @param length Length of the new array.
+	 *  @return New array containing the contents of the old one.
+	 */
+	private static boolean[] grow(boolean[] array, int length)
+	{
+		boolean[] newArray = new boolean[length];
+		if (array != null)
+		{
+			System.arraycopy(array, 0, newArray, 0, array.length);
+		}
+		return newArray;
+	}
+
+	/** Provides a copy of the given array extended to the given length.
+	 *  @param array Array to copy, or null if a new array is to be created.
+	 *  @param length Length of the new array.
+	 *  @return New array containing the contents of the old one.
+	 */
+	private static Particle[] grow(Particle[] array, int length)
+	{
+		Particle[] newArray = new Particle[length];
+		if (array != null)
+		{
+			System.arraycopy(array, 0, newArray, 0, array.length);
+		}
+		return newArray;
+	}
+}
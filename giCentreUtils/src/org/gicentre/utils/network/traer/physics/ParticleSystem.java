@@ -1,9 +1,11 @@
 package org.gicentre.utils.network.traer.physics;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 // *****************************************************************************************
 /** Represents an entire particle system containing particles and forces between them.
@@ -38,17 +40,77 @@ public class ParticleSystem
 	protected static final float DEFAULT_DRAG = 0.001f;  
 				/** The default magnitude for the y-component of gravity. */
 	protected static final float DEFAULT_GRAVITY = 0;
+				/** Default number of ticks a particle must be at rest before falling asleep (50). */
+	public static final int DEFAULT_SLEEP_AGE = 50;
 
-	private Set<Particle> particles = new LinkedHashSet<Particle>();
-	private Set<Spring> springs = new LinkedHashSet<Spring>();
-	private Set<Attraction> attractions = new LinkedHashSet<Attraction>();
-	private Set<AbstractForce> customForces = new LinkedHashSet<AbstractForce>();
+	private Map<Particle,IndexedSet<Spring>> springsByParticle = new HashMap<Particle,IndexedSet<Spring>>();
+	private Map<Particle,IndexedSet<Attraction>> attractionsByParticle = new HashMap<Particle,IndexedSet<Attraction>>();
+	private IndexedSet<Particle> particles = new IndexedSet<Particle>();
+	private IndexedSet<Spring> springs = new IndexedSet<Spring>()
+	{
+		@SuppressWarnings("synthetic-access")
+		@Override void elementAdded(Spring spring)
+		{
+			connect(springsByParticle, spring);
+			modCount++;
+		}
+		
+		@SuppressWarnings("synthetic-access")
+		@Override void elementRemoved(Spring spring)
+		{
+			disconnect(springsByParticle, spring);
+			forceRemoved(spring);
+		}
+	};
+	private IndexedSet<Attraction> attractions = new IndexedSet<Attraction>()
+	{
+		@SuppressWarnings("synthetic-access")
+		@Override void elementAdded(Attraction attraction)
+		{
+			connect(attractionsByParticle, attraction);
+			modCount++;
+		}
+		
+		@SuppressWarnings("synthetic-access")
+		@Override void elementRemoved(Attraction attraction)
+		{
+			disconnect(attractionsByParticle, attraction);
+			forceRemoved(attraction);
+		}
+	};
+	private IndexedSet<AbstractForce> customForces = new IndexedSet<AbstractForce>()
+	{
+		@SuppressWarnings("synthetic-access")
+		@Override void elementAdded(AbstractForce force)
+		{
+			modCount++;
+		}
+		
+		@SuppressWarnings("synthetic-access")
+		@Override void elementRemoved(AbstractForce force)
+		{
+			forceRemoved(force);
+		}
+	};
+	private ParticleStore store = new ParticleStore();
+	private ParticleStore restStore = new ParticleStore();	// State at the start of each tick for detecting particles at rest.
 	//private Map<String,UniversalForce> uForces = new HashMap<String,UniversalForce>();
 	
 	private float deltaT = 1f; 			// The time step to use with {@link #tick()}; set to 1 by default.
 	private Integrator integrator;		// The integrator that modifies particles on each time step.
+	private Integrator.METHOD integratorMethod;	// Method used to create the integrator, or null if supplied directly.
 	private Vector3D gravity;			// The gravity vector for this ParticleSystem.
 	private float drag;					// The drag magnitude for this ParticleSystem.
+	private ParallelForceAccumulator parallelForces;	// Applies two-body forces in parallel, or null if sequential.
+	private BatchedForceKernel batchedForces;			// Applies springs and attractions in batches, or null if individually.
+	private boolean isSleepEnabled;		// Whether particles at rest are put to sleep.
+	private float sleepEnergy;			// Kinetic energy below which a particle is considered at rest.
+	private float sleepForce;			// Net force below which a particle is considered at rest.
+	private int sleepAge;				// Number of ticks a particle must be at rest before falling asleep.
+	private TickRecorder recorder;		// Optional recorder of the state after each tick, or null if not recording.
+	private List<TickListener> tickListeners = new ArrayList<TickListener>();
+	private TickMetrics metrics;		// Measurements of the current tick, or null if there are no tick listeners.
+	private int modCount;				// Number of changes to the forces and sleeping particles in this system.
 	
 	// ---------------------------------- Constructors ------------------------------------
 	
@@ -85,6 +147,8 @@ public class ParticleSystem
 		setIntegrator(Integrator.METHOD.RUNGEKUTTA);
 		gravity = new Vector3D(gx, gy, gz);
 		setDrag(drag);
+		isSleepEnabled = false;
+		sleepAge = DEFAULT_SLEEP_AGE;
 	}
 	
 	// ------------------------------------ Methods --------------------------------------- 
@@ -132,7 +196,219 @@ public class ParticleSystem
 		{
 			throw new IllegalArgumentException("Argument t is "+t+"; t must be >=0.");
 		}
-		integrator.step(t);
+		
+		if (metrics != null)
+		{
+			metrics.startTick(particles);
+		}
+		
+		if (isSleepEnabled)
+		{
+			wakeDisturbedParticles();
+			if (!isSettled())
+			{
+				restStore.load(particles);
+				integrator.step(t);
+				updateSleepingParticles(t);
+			}
+		}
+		else
+		{
+			integrator.step(t);
+		}
+		
+		if (recorder != null)
+		{
+			recorder.record();
+		}
+		if (metrics != null)
+		{
+			metrics.endTick(particles);
+			for (TickListener listener : tickListeners)
+			{
+				listener.tickCompleted(metrics);
+			}
+		}
+		return this;
+	}
+	
+	/** Enables particles that have come to rest to fall asleep using the default sleep age. A particle is
+	 *  considered to be at rest if both its kinetic energy and the net force acting on it are no greater
+	 *  than the given thresholds. Once at rest for {@link #DEFAULT_SLEEP_AGE} consecutive ticks it falls
+	 *  asleep and is skipped by the integrator, as are any springs and attractions between two sleeping
+	 *  particles. A sleeping particle is woken when a particle connected to it by a spring or attraction
+	 *  moves, when it is moved by the user or when {@link #wake(Particle)} is called.
+	 *  @param kineticEnergy Kinetic energy (<code>mv&sup2;/2</code>) at or below which a particle may sleep.
+	 *  @param force Magnitude of the net force at or below which a particle may sleep.
+	 *  @return This particle system.
+	 *  @throws IllegalArgumentException if either threshold is negative.
+	 */
+	public final ParticleSystem setSleepThresholds(float kineticEnergy, float force) throws IllegalArgumentException
+	{
+		return setSleepThresholds(kineticEnergy, force, DEFAULT_SLEEP_AGE);
+	}
+	
+	/** Enables particles that have come to rest to fall asleep. A particle is considered to be at rest if
+	 *  both its kinetic energy and the net force acting on it are no greater than the given thresholds. Once
+	 *  at rest for the given number of consecutive ticks it falls asleep and is skipped by the integrator, as
+	 *  are any springs and attractions between two sleeping particles. A sleeping particle is woken when a
+	 *  particle connected to it by a spring or attraction moves, when it is moved by the user or when 
+	 *  {@link #wake(Particle)} is called. If both thresholds are zero, sleeping is disabled and all particles
+	 *  are woken.
+	 *  @param kineticEnergy Kinetic energy (<code>mv&sup2;/2</code>) at or below which a particle may sleep.
+	 *  @param force Magnitude of the net force at or below which a particle may sleep.
+	 *  @param sleepAge Number of consecutive ticks a particle must be at rest before falling asleep.
+	 *  @return This particle system.
+	 *  @throws IllegalArgumentException if either threshold is negative or the sleep age is less than 1.
+	 */
+	public final ParticleSystem setSleepThresholds(float kineticEnergy, float force, int sleepAge) throws IllegalArgumentException
+	{
+		if ((kineticEnergy < 0) || (force < 0))
+		{
+			illegalArgThrower("Sleep thresholds are "+kineticEnergy+" and "+force+"; must not be negative.");
+		}
+		if (sleepAge < 1)
+		{
+			illegalArgThrower("Sleep age is "+sleepAge+"; must be at least 1.");
+		}
+		
+		sleepEnergy = kineticEnergy;
+		sleepForce = force;
+		this.sleepAge = sleepAge;
+		isSleepEnabled = (kineticEnergy > 0) || (force > 0);
+		if (!isSleepEnabled)
+		{
+			wakeAll();
+		}
+		return this;
+	}
+
+	/** Reports the kinetic energy at or below which a particle is considered to be at rest.
+	 *  @return Kinetic energy sleep threshold, or 0 if sleeping is disabled.
+	 */
+	public final float getSleepEnergy()
+	{
+		return sleepEnergy;
+	}
+	
+	/** Reports the net force at or below which a particle is considered to be at rest.
+	 *  @return Force sleep threshold, or 0 if sleeping is disabled.
+	 */
+	public final float getSleepForce()
+	{
+		return sleepForce;
+	}
+	
+	/** Reports the number of consecutive ticks a particle must be at rest before falling asleep.
+	 *  @return Sleep age in ticks.
+	 */
+	public final int getSleepAge()
+	{
+		return sleepAge;
+	}
+	
+	/** Sets the recorder that captures the state of the particles at the end of every tick. Recording
+	 *  allows any recent tick to be replayed without re-running the simulation.
+	 *  @param recorder Recorder to capture each tick, or null to stop recording.
+	 *  @return This particle system.
+	 *  @throws IllegalArgumentException if the recorder was created for a different particle system.
+	 */
+	public final ParticleSystem setTickRecorder(TickRecorder recorder) throws IllegalArgumentException
+	{
+		if ((recorder != null) && (recorder.getParticleSystem() != this))
+		{
+			illegalArgThrower("Tick recorder belongs to a different particle system.");
+		}
+		this.recorder = recorder;
+		return this;
+	}
+	
+	/** Reports the recorder that captures the state of the particles at the end of every tick.
+	 *  @return Tick recorder, or null if ticks are not being recorded.
+	 */
+	public final TickRecorder getTickRecorder()
+	{
+		return recorder;
+	}
+	
+	/** Adds a listener to be informed of the time taken by, and the effect of, each tick. Measurements
+	 *  are only taken while at least one listener is present, so there is no cost to unmonitored systems.
+	 *  @param listener Listener to add.
+	 *  @return This particle system.
+	 *  @throws NullPointerException if the listener is null.
+	 */
+	public final ParticleSystem addTickListener(TickListener listener) throws NullPointerException
+	{
+		nullThrower(listener, "Argument listener is null in addTickListener(listener) call.");
+		tickListeners.add(listener);
+		if (metrics == null)
+		{
+			metrics = new TickMetrics();
+		}
+		return this;
+	}
+	
+	/** Removes a listener from those informed of each tick. Measurements stop once no listeners remain.
+	 *  @param listener Listener to remove.
+	 *  @return True if the listener was present and then removed.
+	 */
+	public final boolean removeTickListener(TickListener listener)
+	{
+		boolean isRemoved = tickListeners.remove(listener);
+		if (tickListeners.isEmpty())
+		{
+			metrics = null;
+		}
+		return isRemoved;
+	}
+	
+	/** Reports whether every particle in this system is either fixed or asleep. This can be used to stop
+	 *  a layout once it has settled. Ticking a settled system has no effect other than to detect particles
+	 *  that have been moved or woken since the last tick.
+	 *  @return True if no particle in the system is free to move.
+	 */
+	public final boolean isSettled()
+	{
+		for (Particle p : particles)
+		{
+			if (p.isFree())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** Wakes the given particle so that it is once again free to move. Any particles it disturbs as a
+	 *  result will be woken in turn.
+	 *  @param p Particle to wake.
+	 *  @return This particle system.
+	 *  @throws NullPointerException if the particle is null.
+	 */
+	public final ParticleSystem wake(Particle p) throws NullPointerException
+	{
+		nullThrower(p, "Argument p is null in wake(p) call.");
+		if (p.isAsleep())
+		{
+			modCount++;
+		}
+		p.wake();
+		return this;
+	}
+	
+	/** Wakes all particles in this system.
+	 *  @return This particle system.
+	 */
+	public final ParticleSystem wakeAll()
+	{
+		for (Particle p : particles)
+		{
+			if (p.isAsleep())
+			{
+				modCount++;
+			}
+			p.wake();
+		}
 		return this;
 	}
 	
@@ -160,7 +436,9 @@ public class ParticleSystem
 	 */
 	public final ParticleSystem	setIntegrator(Integrator.METHOD integrator)
 	{ 
-		return setIntegrator(integrator.factory(this)); 
+		setIntegrator(integrator.factory(this));
+		integratorMethod = integrator;
+		return this;
 	}
 	
 	/** Sets the integrator for this particle system based on the specified integrator.
@@ -172,9 +450,38 @@ public class ParticleSystem
 	{
 		nullThrower(integrator, "Argument integrator is null in setIntegrator(integrator) call.");
 		this.integrator = integrator;
+		integratorMethod = null;
 		return this;
 	}
 
+	/** Reports the integration method used by this particle system.
+	 *  @return Integration method, or null if the integrator was supplied directly with
+	 *          {@link #setIntegrator(Integrator)}.
+	 */
+	public final Integrator.METHOD getIntegratorMethod()
+	{
+		return integratorMethod;
+	}
+
+	/** Gives this particle system the same time step, gravity, drag, integration method, sleep thresholds
+	 *  and force batching as the given system. An integrator that was supplied directly rather than by
+	 *  method cannot be shared between systems, so is replaced by Runge-Kutta integration.
+	 *  @param other Particle system whose settings are to be copied.
+	 *  @return This particle system.
+	 */
+	final ParticleSystem copySettings(ParticleSystem other)
+	{
+		deltaT = other.deltaT;
+		gravity.set(other.gravity);
+		drag = other.drag;
+		setIntegrator(other.integratorMethod == null ? Integrator.METHOD.RUNGEKUTTA : other.integratorMethod);
+		sleepEnergy = other.sleepEnergy;
+		sleepForce = other.sleepForce;
+		sleepAge = other.sleepAge;
+		isSleepEnabled = other.isSleepEnabled;
+		return setBatchedForces(other.isBatchedForces());
+	}
+
 	/** Sets the x, y, z components of the gravity vector.
 	 * @param x the x component of the gravity vector.
 	 * @param y the y component of the gravity vector.
@@ -184,7 +491,8 @@ public class ParticleSystem
 	public final ParticleSystem	setGravity(float x, float y, float z)
 	{ 
 		gravity.set( x, y, z );
-		return this;
+		modCount++;
+		return wakeAll();
 	}
 	
 	/** Sets the gravity with 0,g,0 components.
@@ -196,6 +504,14 @@ public class ParticleSystem
 		return setGravity(0, g, 0);
 	}
 
+	/** Reports the gravity vector acting on the particles in this system.
+	 *  @return Copy of the gravity vector.
+	 */
+	public final Vector3D getGravity()
+	{
+		return new Vector3D(gravity);
+	}
+
 	/** Sets the drag component that affects the particles in this system.
 	 *  @param d the drag factor. A positive value corresponds to physical drag.
 	 *  @return this ParticleSystem with its updated drag value.
@@ -203,8 +519,82 @@ public class ParticleSystem
 	public final ParticleSystem setDrag(float d) 
 	{ 
 		drag = d; 
+		modCount++;
+		return this;
+	}
+
+	/** Reports the drag component that affects the particles in this system.
+	 *  @return Drag magnitude.
+	 */
+	public final float getDrag()
+	{
+		return drag;
+	}
+	
+	/** Sets the number of threads used to apply springs and attractions to the particles in this
+	 *  system. By default forces are applied sequentially in the calling thread. When more than one
+	 *  thread is used, the springs and attractions are partitioned into equal blocks that are applied
+	 *  concurrently, with the forces from each block accumulated separately and then summed. Results
+	 *  are deterministic for a given number of threads but may differ very slightly from those of
+	 *  sequential application because of the different order in which forces are summed. Custom forces
+	 *  are always applied sequentially. Springs and attractions must not share mutable state if they
+	 *  are to be applied in parallel.
+	 *  @param numThreads Number of threads to use. A value of 1 applies forces sequentially.
+	 *  @return This particle system.
+	 *  @throws IllegalArgumentException if the number of threads is less than 1.
+	 */
+	public final ParticleSystem setNumThreads(int numThreads) throws IllegalArgumentException
+	{
+		if (numThreads < 1)
+		{
+			illegalArgThrower("Number of threads is "+numThreads+"; must be at least 1.");
+		}
+		if (numThreads == getNumThreads())
+		{
+			return this;
+		}
+		if (parallelForces != null)
+		{
+			parallelForces.shutdown();
+		}
+		parallelForces = (numThreads == 1) ? null : new ParallelForceAccumulator(numThreads);
 		return this;
 	}
+	
+	/** Reports the number of threads used to apply springs and attractions to the particles in this system.
+	 *  @return Number of threads, which will be 1 if forces are applied sequentially.
+	 */
+	public final int getNumThreads()
+	{
+		return (parallelForces == null) ? 1 : parallelForces.getNumThreads();
+	}
+
+	/** Determines whether springs and attractions are applied in batches. When batched, the end points
+	 *  and parameters of all springs and attractions are packed into arrays on each tick and their forces
+	 *  calculated in tight loops over those arrays, which is considerably faster for systems with many
+	 *  forces. Results may differ very slightly from individual application because of the different
+	 *  order in which forces are summed. Subclasses of {@link Spring} and {@link Attraction} are still
+	 *  applied individually. Batching is only used when forces are applied sequentially (see
+	 *  {@link #setNumThreads(int)}).
+	 *  @param isBatched True if springs and attractions are to be applied in batches.
+	 *  @return This particle system.
+	 */
+	public final ParticleSystem setBatchedForces(boolean isBatched)
+	{
+		if (isBatched != isBatchedForces())
+		{
+			batchedForces = isBatched ? new BatchedForceKernel() : null;
+		}
+		return this;
+	}
+	
+	/** Reports whether springs and attractions are applied in batches.
+	 *  @return True if springs and attractions are applied in batches.
+	 */
+	public final boolean isBatchedForces()
+	{
+		return batchedForces != null;
+	}
 
 	/** Creates a particle in the ParticleSystem, and returns that Particle
 	 * @param mass the new Particle mass
@@ -264,6 +654,8 @@ public class ParticleSystem
 		}
 		Spring s = new Spring(a, b, strength, damping, restLength);
 		springs.add(s);
+		a.wake();
+		b.wake();
 		return s;
 	}
 	
@@ -285,6 +677,8 @@ public class ParticleSystem
 		}
 		Attraction m = new Attraction(a, b, strength, minDistance);
 		attractions.add(m);
+		a.wake();
+		b.wake();
 		return m;
 	}
 	
@@ -309,6 +703,16 @@ public class ParticleSystem
 	{ 
 		return springs; 
 	}
+	
+	/** Reports the springs attached to the given particle. This takes constant time regardless of the
+	 *  number of springs in the system.
+	 *  @param p Particle whose springs are to be retrieved.
+	 *  @return Unmodifiable collection of springs with the given particle at one of their ends. 
+	 */
+	public final Collection<Spring> getSprings(Particle p)
+	{
+		return incident(springsByParticle, p);
+	}
 
 	/** Reports the number of springs in this particle system.
 	 *  @return Number of springs in the system.
@@ -329,48 +733,28 @@ public class ParticleSystem
 	}
 	
 	/** Provides the spring at the given position in the collection of springs stored in this particle system.
-	 *  @param i List index (the ith spring in the collection). While the springs are stored in a fixed 
-	 *  insert-order, this is a non-repeating set, and future reliance on set order is not encouraged.
-	 *  @return The spring requested.
+	 *  @param i List index (the ith spring in the collection). The springs are stored in 
+	 *  insert-order, except that removing one moves the last into its position. Access by position takes constant time.
+	 *  @return The spring requested or null if the given position is out of bounds.
 	 */
 	public final Spring getSpring(int i) 
 	{ 
-		int counter = 0;
-		Spring spring = null;
-		Iterator<Spring> it = springs.iterator();
-		while (it.hasNext())
-		{
-			spring = it.next();
-			if (counter == i)
-			{
-				break;
-			}
-			counter++;
-		}
-		return spring;
+		return springs.get(i);
 	}
 	
 	/** Removes the spring at the given position in the collection of springs stored in this particle system.
-	 *  @param i List index (the ith spring in the collection). While the springs are stored in a fixed 
-	 *  insert-order, this is a non-repeating set, and future reliance on set order is not encouraged.
+	 *  @param i List index (the ith spring in the collection). The springs are stored in 
+	 *  insert-order, except that removing one moves the last into its position. Access by position takes constant time.
 	 *  @return The spring removed or null if the given position is out of bounds.
 	 */
 	public final Spring removeSpring(int i)
 	{ 
-		int counter = 0;
-		Spring spring = null;
-		Iterator<Spring> it = springs.iterator();
-		while (it.hasNext())
+		Spring spring = springs.removeAt(i);
+		if (spring != null)
 		{
-			spring = it.next();
-			if (counter == i)
-			{
-				it.remove();
-				return spring;
-			}
-			counter++;
+			wakeEnds(spring);
 		}
-		return null;
+		return spring;
 	}
 	
 	/** Removes the given spring from the collection of springs stored in this particle system if it exists.
@@ -379,7 +763,10 @@ public class ParticleSystem
 	 */
 	public final ParticleSystem removeSpring(Spring spring)
 	{
-		springs.remove(spring);
+		if (springs.remove(spring))
+		{
+			wakeEnds(spring);
+		}
 		return this; 
 	}
 	
@@ -405,6 +792,16 @@ public class ParticleSystem
 		return attractions; 
 	}
 	
+	/** Reports the attractions acting on the given particle. This takes constant time regardless of the
+	 *  number of attractions in the system.
+	 *  @param p Particle whose attractions are to be retrieved.
+	 *  @return Unmodifiable collection of attractions with the given particle at one of their ends.
+	 */
+	public final Collection<Attraction> getAttractions(Particle p)
+	{
+		return incident(attractionsByParticle, p);
+	}
+	
 	/** Reports the number of attractions in this particle system.
 	 *  @return Number of attractions in the system.
 	 *  @deprecated Replace in favour of the more consistently named getNumAttractions().
@@ -424,48 +821,28 @@ public class ParticleSystem
 	} 
 		
 	/** Provides the attraction at the given position in the collection of attractions stored in this particle system.
-	 *  @param i List index (the ith attraction in the collection). While the attractions are stored in a fixed 
-	 *  insert-order, this is a non-repeating set, and future reliance on set order is not encouraged.
-	 *  @return The attraction requested.
+	 *  @param i List index (the ith attraction in the collection). The attractions are stored in 
+	 *  insert-order, except that removing one moves the last into its position. Access by position takes constant time.
+	 *  @return The attraction requested or null if the given position is out of bounds.
 	 */
 	public final Attraction getAttraction(int i) 
 	{ 
-		int counter = 0;
-		Attraction attraction = null;
-		Iterator<Attraction> it = attractions.iterator();
-		while (it.hasNext())
-		{
-			attraction = it.next();
-			if (counter == i)
-			{
-				break;
-			}
-			counter++;
-		}
-		return attraction;
+		return attractions.get(i);
 	}
 		
 	/** Removes the attraction at the given position in the collection of attractions stored in this particle system.
-	 *  @param i List index (the ith attraction in the collection). While the attractions are stored in a fixed 
-	 *  insert-order, this is a non-repeating set, and future reliance on set order is not encouraged.
+	 *  @param i List index (the ith attraction in the collection). The attractions are stored in 
+	 *  insert-order, except that removing one moves the last into its position. Access by position takes constant time.
 	 *  @return The attraction removed or null if the given position is out of bounds.
 	 */
 	public final Attraction removeAttraction(int i)
 	{ 
-		int counter = 0;
-		Attraction attraction = null;
-		Iterator<Attraction> it = attractions.iterator();
-		while (it.hasNext())
+		Attraction attraction = attractions.removeAt(i);
+		if (attraction != null)
 		{
-			attraction = it.next();
-			if (counter == i)
-			{
-				it.remove();
-				return attraction;
-			}
-			counter++;
+			wakeEnds(attraction);
 		}
-		return null;
+		return attraction;
 	}
 	
 	/** Removes the given attraction from the collection of attractions stored in this particle system if it exists.
@@ -474,7 +851,10 @@ public class ParticleSystem
 	 */
 	public final ParticleSystem removeAttraction(Attraction attraction)
 	{ 
-		attractions.remove(attraction);
+		if (attractions.remove(attraction))
+		{
+			wakeEnds(attraction);
+		}
 		return this;
 	}
 	
@@ -509,6 +889,7 @@ public class ParticleSystem
 		if (customForce != null)
 		{
 			customForces.add(customForce);
+			wakeAll();
 		}
 		return this;
 			
@@ -533,48 +914,28 @@ public class ParticleSystem
 	}
 		
 	/** Provides the custom force at the given position in the collection of custom forces stored in this particle system.
-	 *  @param i List index (the ith attraction in the collection). While the custom forces are stored in a fixed 
-	 *  insert-order, this is a non-repeating set, and future reliance on set order is not encouraged.
-	 *  @return The custom force requested.
+	 *  @param i List index (the ith attraction in the collection). The custom forces are stored in 
+	 *  insert-order, except that removing one moves the last into its position. Access by position takes constant time.
+	 *  @return The custom force requested or null if the given position is out of bounds.
 	 */
 	public final AbstractForce getCustomForce(int i) 
 	{ 
-		int counter = 0;
-		AbstractForce force = null;
-		Iterator<AbstractForce> it = customForces.iterator();
-		while (it.hasNext())
-		{
-			force = it.next();
-			if (counter == i)
-			{
-				break;
-			}
-			counter++;
-		}
-		return force;
+		return customForces.get(i);
 	}
 		
 	/** Removes the custom force at the given position in the collection of custom forces stored in this particle system.
-	 *  @param i List index (the ith attraction in the collection). While the custom forces are stored in a fixed 
-	 *  insert-order, this is a non-repeating set, and future reliance on set order is not encouraged.
+	 *  @param i List index (the ith attraction in the collection). The custom forces are stored in 
+	 *  insert-order, except that removing one moves the last into its position. Access by position takes constant time.
 	 *  @return The custom force removed or null if the given position is out of bounds.
 	 */
 	public final AbstractForce removeCustomForce(int i)
 	{ 
-		int counter = 0;
-		AbstractForce force = null;
-		Iterator<AbstractForce> it = customForces.iterator();
-		while (it.hasNext())
+		AbstractForce force = customForces.removeAt(i);
+		if (force != null)
 		{
-			force = it.next();
-			if (counter == i)
-			{
-				it.remove();
-				return force;
-			}
-			counter++;
+			wakeAll();
 		}
-		return null;
+		return force;
 	}
 	
 	/** Removes the given custom force from the collection of custom forces stored in this particle system if it exists.
@@ -583,7 +944,10 @@ public class ParticleSystem
 	 */
 	public final ParticleSystem removeCustomForce(AbstractForce customForce)
 	{ 
-		customForces.remove(customForce);
+		if (customForces.remove(customForce))
+		{
+			wakeAll();
+		}
 		return this; 
 	}
 	
@@ -605,6 +969,19 @@ public class ParticleSystem
 		return particles; 
 	}
 	
+	/** Provides a structure-of-arrays view of the state of all the particles in this system. The
+	 *  store is synchronised with the current state of the particles each time this method is called
+	 *  and each particle's slot in the store corresponds to its position in the collection returned
+	 *  by {@link #getParticles()}. Changes made to the store's arrays can be written back to the 
+	 *  particles with {@link ParticleStore#save()}.
+	 *  @return Store holding the positions, velocities, forces and masses of all particles.
+	 */
+	public final ParticleStore getParticleStore()
+	{
+		store.load(particles);
+		return store;
+	}
+
 	/** Reports the number of particles in this particle system.
 	 *  @return Number of particles in the system.
 	 *  @deprecated Replace in favour of the more consistently named getParticles().
@@ -624,34 +1001,36 @@ public class ParticleSystem
 	}
 	
 	/** Provides the particle at the given position in the collection of particles stored in this particle system.
-	 *  @param i List index (the ith attraction in the collection). While the particles are stored in a fixed 
-	 *  insert-order, this is a non-repeating set, and future reliance on set order is not encouraged.
+	 *  @param i List index (the ith attraction in the collection). The particles are stored in 
+	 *  insert-order, except that removing one moves the last into its position. Access by position takes constant time.
 	 *  @return The particle requested or null if position out of bounds
 	 */
 	public final Particle getParticle(int i) 
 	{ 
-		int counter = 0;
-		Particle p = null;
-		Iterator<Particle> it = particles.iterator();
-		while (it.hasNext())
-		{
-			p = it.next();
-			if (counter == i)
-			{
-				break;
-			}
-			counter++;
-		}
-		return p;
+		return particles.get(i);
 	}
 		
 	/** Removes the given particle from the collection of particles stored in this particle system if it exists.
+	 *  Any springs or attractions attached to the particle are also removed. This takes time proportional to
+	 *  the number of springs and attractions attached to the particle.
 	 *  @param p The particle to remove.
 	 *  @return The particle system updated with the removed particle.
 	 */
 	public final ParticleSystem removeParticle(Particle p)
 	{ 
 		particles.remove(p);
+		
+		IndexedSet<Spring> attachedSprings;
+		while ((attachedSprings = springsByParticle.get(p)) != null)
+		{
+			removeSpring(attachedSprings.get(attachedSprings.size()-1));
+		}
+		
+		IndexedSet<Attraction> attachedAttractions;
+		while ((attachedAttractions = attractionsByParticle.get(p)) != null)
+		{
+			removeAttraction(attachedAttractions.get(attachedAttractions.size()-1));
+		}
 		return this; 
 	}
 
@@ -669,36 +1048,56 @@ public class ParticleSystem
 	 */
 	protected final void applyForces()
 	{
-		if (!gravity.isZero())
+		applyForces(true);
+	}
+	
+	/** Applies the forces contained in this particle system to those particles subject to them,
+	 *  optionally leaving out the springs. This allows an integrator to treat springs as constraints
+	 *  on the positions of the particles rather than as forces.
+	 *  @param isSpringsApplied Whether springs are to be applied along with the other forces.
+	 */
+	final void applyForces(boolean isSpringsApplied)
+	{
+		Collection<Spring> appliedSprings = isSpringsApplied ? getSprings() : Collections.<Spring>emptyList();
+		if (metrics == null)
 		{
-			for (final Particle p : getParticles())
+			applyGravityAndDrag();
+			if ((parallelForces != null) || (batchedForces != null))
 			{
-				p.addForce(gravity).addForce(Vector3D.multiplyBy(p.velocity(), -drag));
+				applyTwoBodyForces(isSpringsApplied);
 			}
-		} 
-		else 
-		{
-			for (final Particle p : getParticles()) 
+			else
 			{
-				p.addForce(Vector3D.multiplyBy(p.velocity(), -drag));
+				applySprings(appliedSprings);
+				applyAttractions();
 			}
-		}
-				
-		for (final Spring f : getSprings())
-		{
-			f.apply();
+			applyCustomForces();
+			return;
 		}
 		
-		for (final Attraction f : getAttractions())
+		// Time each category of force for the tick listeners.
+		long start = System.nanoTime();
+		applyGravityAndDrag();
+		long dragEnd = System.nanoTime();
+		long springEnd, attractionEnd;
+		if ((parallelForces != null) || (batchedForces != null))
 		{
-			f.apply();
+			applyTwoBodyForces(isSpringsApplied);
+			springEnd = -1;
+			attractionEnd = System.nanoTime();
 		}
-		
-		for (final AbstractForce f : getCustomForces()) 
+		else
 		{
-			f.apply();
+			applySprings(appliedSprings);
+			springEnd = System.nanoTime();
+			applyAttractions();
+			attractionEnd = System.nanoTime();
 		}
-	
+		applyCustomForces();
+		long end = System.nanoTime();
+		
+		metrics.addStage(dragEnd-start, (springEnd < 0) ? -1 : springEnd-dragEnd, (springEnd < 0) ? -1 : attractionEnd-springEnd,
+		                 attractionEnd-dragEnd, end-attractionEnd);
 	}
 
 	/** Removes all forces from this particle system. Unlike <code>clearAllForces()</code>, this
@@ -722,9 +1121,325 @@ public class ParticleSystem
 		attractions.clear();
 		customForces.clear();
 	}
+
+	/** Records the current state of the particles as the state reached at the end of the last tick.
+	 *  This is used when a system is restored from an archive so that the next tick continues as it
+	 *  would have done in the archived system: particles are only woken if they are subsequently moved,
+	 *  and an integrator that carries the forces of one step into the next uses the forces currently
+	 *  acting on each particle unless the archived system would have evaluated them afresh.
+	 *  @param isForceCacheValid True if the forces acting on each particle can be carried into the next tick.
+	 */
+	final void restoreTickState(boolean isForceCacheValid)
+	{
+		restStore.load(particles);
+		if (isForceCacheValid && (integrator instanceof VelocityVerletIntegrator))
+		{
+			((VelocityVerletIntegrator)integrator).storeForces();
+		}
+	}
+	
+	/** Reports whether the forces carried from one tick into the next by this system's integrator are
+	 *  still those that act on the particles. This is the case unless the system has been changed since
+	 *  the last tick or its integrator does not carry forces between ticks.
+	 *  @return True if the integrator can use the forces from the last tick at the start of the next.
+	 */
+	final boolean isForceCacheValid()
+	{
+		return (integrator instanceof VelocityVerletIntegrator) && ((VelocityVerletIntegrator)integrator).isCacheValid();
+	}
+	
+	/** Reports the number of changes made to the forces in this system, including changes to the
+	 *  properties of individual springs, attractions and custom forces, and the number of times sleeping
+	 *  particles have been woken by the system. This can be used to detect changes that invalidate
+	 *  calculations carried from one tick to the next.
+	 *  @return Modification count that changes whenever the forces or sleeping particles are changed.
+	 */
+	final int getModCount()
+	{
+		int count = modCount;
+		for (int i=0; i<springs.size(); i++)
+		{
+			count += springs.get(i).getModCount();
+		}
+		for (int i=0; i<attractions.size(); i++)
+		{
+			count += attractions.get(i).getModCount();
+		}
+		for (int i=0; i<customForces.size(); i++)
+		{
+			count += customForces.get(i).getModCount();
+		}
+		return count;
+	}
 	
 	// -------------------------------- Private methods -----------------------------------
 	
+	/** Applies gravity and drag to every particle.
+	 */
+	private void applyGravityAndDrag()
+	{
+		if (!gravity.isZero())
+		{
+			for (final Particle p : getParticles())
+			{
+				Vector3D v = p.velocity();
+				p.addForce(gravity).addForce(-drag*v.x(), -drag*v.y(), -drag*v.z());
+			}
+		} 
+		else 
+		{
+			for (final Particle p : getParticles()) 
+			{
+				Vector3D v = p.velocity();
+				p.addForce(-drag*v.x(), -drag*v.y(), -drag*v.z());
+			}
+		}
+	}
+	
+	/** Applies the springs and all attractions together, either in parallel or in batches.
+	 *  @param isSpringsApplied Whether springs are to be applied along with the attractions.
+	 */
+	private void applyTwoBodyForces(boolean isSpringsApplied)
+	{
+		if (parallelForces != null)
+		{
+			parallelForces.apply(getParticles(), isSpringsApplied ? springs : null, attractions);
+		}
+		else
+		{
+			batchedForces.apply(getParticles(), isSpringsApplied ? getSprings() : Collections.<Spring>emptyList(), getAttractions());
+		}
+	}
+	
+	/** Applies each of the given springs individually.
+	 *  @param appliedSprings Springs to apply.
+	 */
+	private void applySprings(Collection<Spring> appliedSprings)
+	{
+		for (final Spring f : appliedSprings)
+		{
+			f.apply();
+		}
+	}
+	
+	/** Applies each attraction individually.
+	 */
+	private void applyAttractions()
+	{
+		for (final Attraction f : getAttractions())
+		{
+			f.apply();
+		}
+	}
+	
+	/** Applies each custom force.
+	 */
+	private void applyCustomForces()
+	{
+		for (final AbstractForce f : getCustomForces()) 
+		{
+			f.apply();
+		}
+	}
+	
+	/** Records the given force against each of the particles at its ends.
+	 *  @param index Map of each particle to the forces attached to it.
+	 *  @param force Force to add to the index.
+	 */
+	private static <F extends TwoBodyForce> void connect(Map<Particle,IndexedSet<F>> index, F force)
+	{
+		connect(index, force.getOneEnd(), force);
+		connect(index, force.getTheOtherEnd(), force);
+	}
+	
+	/** Records the given force against the given particle.
+	 *  @param index Map of each particle to the forces attached to it.
+	 *  @param p Particle to which the force is attached.
+	 *  @param force Force to add to the index.
+	 */
+	private static <F extends TwoBodyForce> void connect(Map<Particle,IndexedSet<F>> index, Particle p, F force)
+	{
+		IndexedSet<F> forces = index.get(p);
+		if (forces == null)
+		{
+			forces = new IndexedSet<F>();
+			index.put(p, forces);
+		}
+		forces.add(force);
+	}
+	
+	/** Removes the given force from the record of forces attached to each of the particles at its ends.
+	 *  @param index Map of each particle to the forces attached to it.
+	 *  @param force Force to remove from the index.
+	 */
+	private static <F extends TwoBodyForce> void disconnect(Map<Particle,IndexedSet<F>> index, F force)
+	{
+		disconnect(index, force.getOneEnd(), force);
+		disconnect(index, force.getTheOtherEnd(), force);
+	}
+	
+	/** Removes the given force from the record of forces attached to the given particle.
+	 *  @param index Map of each particle to the forces attached to it.
+	 *  @param p Particle to which the force was attached.
+	 *  @param force Force to remove from the index.
+	 */
+	private static <F extends TwoBodyForce> void disconnect(Map<Particle,IndexedSet<F>> index, Particle p, F force)
+	{
+		IndexedSet<F> forces = index.get(p);
+		if (forces != null)
+		{
+			forces.remove(force);
+			if (forces.isEmpty())
+			{
+				index.remove(p);
+			}
+		}
+	}
+	
+	/** Provides the forces recorded against the given particle.
+	 *  @param index Map of each particle to the forces attached to it.
+	 *  @param p Particle whose forces are to be retrieved.
+	 *  @return Unmodifiable collection of forces attached to the particle, which may be empty.
+	 */
+	private static <F extends TwoBodyForce> Collection<F> incident(Map<Particle,IndexedSet<F>> index, Particle p)
+	{
+		IndexedSet<F> forces = index.get(p);
+		if (forces == null)
+		{
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableCollection(forces);
+	}
+	
+	/** Wakes any particles that have been moved since the last tick, along with any sleeping particles
+	 *  connected to particles that are moving. Fixed particles are considered to be moving only if their
+	 *  position has been changed since the last tick.
+	 */
+	private void wakeDisturbedParticles()
+	{
+		for (int slot=0; slot<restStore.size(); slot++)
+		{
+			Particle p = restStore.particles[slot];
+			if (p.isFixed() || p.isAsleep())
+			{
+				Vector3D pos = p.position();
+				boolean isMoved = (pos.x() != restStore.x[slot]) || (pos.y() != restStore.y[slot]) || (pos.z() != restStore.z[slot]);
+				if (isMoved)
+				{
+					if (p.isAsleep())
+					{
+						modCount++;
+					}
+					p.wake();
+				}
+				else if (p.isFixed())
+				{
+					p.restingTicks = sleepAge;
+				}
+			}
+		}
+		wakeNeighbours(springs);
+		wakeNeighbours(attractions);
+	}
+	
+	/** Updates the number of ticks each free particle has been at rest and puts to sleep those that have
+	 *  been at rest for long enough. Any sleeping particles connected to particles still moving are woken.
+	 *  @param t Time step over which the particles have just been advanced.
+	 */
+	private void updateSleepingParticles(float t)
+	{
+		float maxVSq = 2*sleepEnergy;
+		for (int slot=0; slot<restStore.size(); slot++)
+		{
+			Particle p = restStore.particles[slot];
+			if (restStore.fixed[slot] || !p.isFree())
+			{
+				continue;
+			}
+			
+			// Net force is estimated from the change in velocity over the tick.
+			Vector3D v = p.velocity();
+			float m = p.mass();
+			float dvx = v.x()-restStore.vx[slot];
+			float dvy = v.y()-restStore.vy[slot];
+			float dvz = v.z()-restStore.vz[slot];
+			float forceSq = m*m*(dvx*dvx + dvy*dvy + dvz*dvz)/(t*t);
+			
+			if ((m*v.lengthSquared() <= maxVSq) && (forceSq <= sleepForce*sleepForce))
+			{
+				p.restingTicks++;
+				if (p.restingTicks >= sleepAge)
+				{
+					p.sleep();
+				}
+			}
+			else
+			{
+				p.restingTicks = 0;
+			}
+		}
+		
+		wakeNeighbours(springs);
+		wakeNeighbours(attractions);
+		
+		// Store the final positions so that any subsequent movement by the user can be detected.
+		restStore.load(particles);
+	}
+	
+	/** Wakes any sleeping particle that is connected by one of the given forces to a moving particle.
+	 *  Woken particles are not themselves treated as moving, so waking spreads by one connection per tick.
+	 *  @param forces Forces connecting pairs of particles.
+	 */
+	private void wakeNeighbours(Collection<? extends TwoBodyForce> forces)
+	{
+		for (TwoBodyForce f : forces)
+		{
+			if (f.isOn())
+			{
+				Particle a = f.getOneEnd();
+				Particle b = f.getTheOtherEnd();
+				if (a.isAsleep() && isMoving(b))
+				{
+					a.wake().restingTicks = 1;
+					modCount++;
+				}
+				else if (b.isAsleep() && isMoving(a))
+				{
+					b.wake().restingTicks = 1;
+					modCount++;
+				}
+			}
+		}
+	}
+	
+	/** Reports whether the given particle moved during the last tick.
+	 *  @param p Particle to test.
+	 *  @return True if the particle is awake and has not been at rest.
+	 */
+	private static boolean isMoving(Particle p)
+	{
+		return (!p.isAsleep()) && (p.restingTicks == 0);
+	}
+	
+	/** Records the removal of a force from this system. The force's own modification count is added
+	 *  to that of the system so that the combined count reported by {@link #getModCount()} never
+	 *  returns to an earlier value.
+	 *  @param force Force that has been removed.
+	 */
+	private void forceRemoved(AbstractForce force)
+	{
+		modCount += force.getModCount()+1;
+	}
+	
+	/** Wakes both ends of the given two-body force.
+	 *  @param f Force whose ends are to be woken.
+	 */
+	private static void wakeEnds(TwoBodyForce f)
+	{
+		f.getOneEnd().wake();
+		f.getTheOtherEnd().wake();
+	}
+	
 	/** Convenience method for throwing NullPointerExceptions.
 	 * @param o the object to test for null
 	 * @param message the message to use, if o is null
@@ -0,0 +1,443 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+// *****************************************************************************************
+/** Saves and restores the state of a particle system in a compact binary form. The archive holds
+ *  the position, velocity, net force, mass, age and fixed and sleeping state of every particle along
+ *  with the number of ticks it has been at rest, every spring and attraction, and the system's time
+ *  step, gravity, drag, integration method, sleep thresholds and force batching setting. A system
+ *  restored from an archive continues tick for tick as the saved system would have done, so a stable
+ *  layout can be reloaded rather than recalculated.
+ *  <br><br>
+ *  Particle state is stored column by column (all x coordinates, then all y coordinates and so on)
+ *  and transferred in bulk through NIO buffers, so reading and writing large systems costs little more
+ *  than copying their arrays; loading is dominated by the time taken to rebuild the particle system
+ *  itself. Files may optionally be memory-mapped rather than read or written through a channel, which
+ *  avoids copying the data through an intermediate buffer.
+ *  <br><br>
+ *  Custom forces are not archived and should be added again once a system has been loaded. Particles
+ *  are restored as instances of {@link Particle}, so subclasses such as {@link ChargedParticle} lose
+ *  any additional state. An integrator supplied directly rather than by its {@link Integrator.METHOD}
+ *  is replaced by the default Runge-Kutta integrator. Integrators restored from an archive have their
+ *  default settings, and the adaptive Runge-Kutta integrator starts again from the full time step rather
+ *  than the sub-step it last used, so systems using it, or integrators whose settings have been changed,
+ *  will only follow the saved system approximately.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public final class ParticleSystemArchive
+{
+	// ------------------------------- Class variables ---------------------------------
+
+	private static final int MAGIC = 0x47435053;	// Identifies an archive ("GCPS").
+	private static final int VERSION = 1;			// Version of the archive format.
+	private static final int HEADER_BYTES = 8 + 34 + 12;	// Identifier, settings and counts.
+	private static final int NUM_COLUMNS = 11;		// Position, velocity, force, mass and age.
+	private static final int PARTICLE_BYTES = NUM_COLUMNS*4 + 4 + 1;	// Columns, resting ticks and flags.
+	private static final int SPRING_BYTES = 2*4 + 3*4 + 1;	// Ends, strength, damping, rest length and flag.
+	private static final int ATTRACTION_BYTES = 2*4 + 2*4 + 1;	// Ends, strength, minimum distance and flag.
+
+	private static final byte FIXED = 1;			// Flag indicating a fixed particle.
+	private static final byte ASLEEP = 2;			// Flag indicating a sleeping particle.
+	private static final byte ON = 1;				// Flag indicating a force that is switched on.
+	private static final byte BATCHED = 1;			// Flag indicating a system whose forces are batched.
+	private static final byte CACHED = 2;			// Flag indicating forces that are carried into the next tick.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Prevents archives from being instantiated as all methods are static.
+	 */
+	private ParticleSystemArchive()
+	{
+		// Do nothing.
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Saves the state of the given particle system to the given file, replacing any existing content.
+	 *  @param physics Particle system to save.
+	 *  @param file File to write.
+	 *  @throws IOException if the file cannot be written.
+	 */
+	public static void save(ParticleSystem physics, File file) throws IOException
+	{
+		save(physics, file, false);
+	}
+
+	/** Saves the state of the given particle system to the given file, replacing any existing content.
+	 *  The system should not be modified while it is being saved.
+	 *  @param physics Particle system to save.
+	 *  @param file File to write.
+	 *  @param isMapped Whether the file is written by mapping it into memory rather than through a channel.
+	 *  @throws IOException if the file cannot be written.
+	 */
+	public static void save(ParticleSystem physics, File file, boolean isMapped) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			if (isMapped)
+			{
+				long size = getSize(physics);
+				raf.setLength(size);
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				write(physics, buffer.order(ByteOrder.LITTLE_ENDIAN));
+			}
+			else
+			{
+				raf.setLength(0);
+				save(physics, channel);
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/** Saves the state of the given particle system to the given channel. The channel is not closed.
+	 *  The system should not be modified while it is being saved.
+	 *  @param physics Particle system to save.
+	 *  @param channel Channel to receive the archive.
+	 *  @throws IOException if the archive cannot be written.
+	 */
+	public static void save(ParticleSystem physics, WritableByteChannel channel) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate((int)getSize(physics)).order(ByteOrder.LITTLE_ENDIAN);
+		write(physics, buffer);
+		buffer.flip();
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+	}
+
+	/** Creates a particle system from the archive in the given file.
+	 *  @param file File containing the archive.
+	 *  @return New particle system with the archived state.
+	 *  @throws IOException if the file cannot be read or is not a valid archive.
+	 */
+	public static ParticleSystem load(File file) throws IOException
+	{
+		return load(file, false);
+	}
+
+	/** Creates a particle system from the archive in the given file.
+	 *  @param file File containing the archive.
+	 *  @param isMapped Whether the file is read by mapping it into memory rather than through a channel.
+	 *  @return New particle system with the archived state.
+	 *  @throws IOException if the file cannot be read or is not a valid archive.
+	 */
+	public static ParticleSystem load(File file, boolean isMapped) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			if (isMapped)
+			{
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return read(buffer.order(ByteOrder.LITTLE_ENDIAN));
+			}
+			return load(channel);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/** Creates a particle system from an archive read from the given channel. Only the bytes of the
+	 *  archive are consumed and the channel is not closed.
+	 *  @param channel Channel supplying the archive.
+	 *  @return New particle system with the archived state.
+	 *  @throws IOException if the channel cannot be read or does not supply a valid archive.
+	 */
+	public static ParticleSystem load(ReadableByteChannel channel) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, header);
+		header.flip();
+		int[] counts = readCounts(header);
+
+		long bodySize = getSize(counts[0], counts[1], counts[2])-HEADER_BYTES;
+		if (bodySize > Integer.MAX_VALUE)
+		{
+			throw new IOException("Archive of "+bodySize+" bytes is too large to read through a channel.");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES+(int)bodySize).order(ByteOrder.LITTLE_ENDIAN);
+		header.rewind();
+		buffer.put(header);
+		readFully(channel, buffer);
+		buffer.flip();
+		return read(buffer);
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Reports the number of bytes needed to archive the given particle system.
+	 *  @param physics Particle system to be archived.
+	 *  @return Size of the archive in bytes.
+	 */
+	private static long getSize(ParticleSystem physics)
+	{
+		return getSize(physics.getNumParticles(), physics.getNumSprings(), physics.getNumAttractions());
+	}
+
+	/** Reports the number of bytes needed to archive the given numbers of particles and forces.
+	 *  @param numParticles Number of particles.
+	 *  @param numSprings Number of springs.
+	 *  @param numAttractions Number of attractions.
+	 *  @return Size of the archive in bytes.
+	 */
+	private static long getSize(int numParticles, int numSprings, int numAttractions)
+	{
+		return HEADER_BYTES + (long)numParticles*PARTICLE_BYTES + (long)numSprings*SPRING_BYTES +
+		       (long)numAttractions*ATTRACTION_BYTES;
+	}
+
+	/** Writes the archive of the given particle system into the given buffer.
+	 *  @param physics Particle system to archive.
+	 *  @param buffer Buffer with enough space remaining for the archive.
+	 */
+	private static void write(ParticleSystem physics, ByteBuffer buffer)
+	{
+		// Identifier and settings.
+		buffer.putInt(MAGIC).putInt(VERSION);
+		Vector3D gravity = physics.getGravity();
+		Integrator.METHOD method = physics.getIntegratorMethod();
+		buffer.putFloat(physics.getDeltaT());
+		buffer.putFloat(gravity.x()).putFloat(gravity.y()).putFloat(gravity.z());
+		buffer.putFloat(physics.getDrag());
+		buffer.putFloat(physics.getSleepEnergy()).putFloat(physics.getSleepForce()).putInt(physics.getSleepAge());
+		buffer.put((byte)(method == null ? -1 : method.ordinal()));
+		buffer.put((byte)((physics.isBatchedForces() ? BATCHED : 0) | (physics.isForceCacheValid() ? CACHED : 0)));
+
+		ParticleStore store = physics.getParticleStore();
+		int n = store.size();
+		buffer.putInt(n).putInt(physics.getNumSprings()).putInt(physics.getNumAttractions());
+
+		// Particles, one column at a time.
+		putFloats(buffer, store.getX(), n);
+		putFloats(buffer, store.getY(), n);
+		putFloats(buffer, store.getZ(), n);
+		putFloats(buffer, store.getVX(), n);
+		putFloats(buffer, store.getVY(), n);
+		putFloats(buffer, store.getVZ(), n);
+		putFloats(buffer, store.getFX(), n);
+		putFloats(buffer, store.getFY(), n);
+		putFloats(buffer, store.getFZ(), n);
+		putFloats(buffer, store.getMass(), n);
+		putFloats(buffer, store.getAge(), n);
+		for (int slot=0; slot<n; slot++)
+		{
+			buffer.putInt(store.getParticle(slot).restingTicks);
+		}
+		for (int slot=0; slot<n; slot++)
+		{
+			Particle p = store.getParticle(slot);
+			buffer.put((byte)((p.isFixed() ? FIXED : 0) | (p.isAsleep() ? ASLEEP : 0)));
+		}
+
+		// Springs and attractions, identifying their ends by particle slot.
+		for (Spring spring : physics.getSprings())
+		{
+			buffer.putInt(store.getSlot(spring.getOneEnd())).putInt(store.getSlot(spring.getTheOtherEnd()));
+			buffer.putFloat(spring.strength()).putFloat(spring.damping()).putFloat(spring.restLength());
+			buffer.put(spring.isOn() ? ON : 0);
+		}
+		for (Attraction attraction : physics.getAttractions())
+		{
+			buffer.putInt(store.getSlot(attraction.getOneEnd())).putInt(store.getSlot(attraction.getTheOtherEnd()));
+			buffer.putFloat(attraction.getStrength()).putFloat(attraction.getMinimumDistance());
+			buffer.put(attraction.isOn() ? ON : 0);
+		}
+	}
+
+	/** Creates a particle system from the archive in the given buffer.
+	 *  @param buffer Buffer positioned at the start of an archive.
+	 *  @return New particle system.
+	 *  @throws IOException if the buffer does not hold a valid archive.
+	 */
+	private static ParticleSystem read(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.remaining() < HEADER_BYTES)
+		{
+			throw new EOFException("Particle system archive is truncated.");
+		}
+		int start = buffer.position();
+		int[] counts = readCounts(buffer);
+		int n = counts[0];
+		if (buffer.remaining() < getSize(n, counts[1], counts[2])-HEADER_BYTES)
+		{
+			throw new EOFException("Particle system archive is truncated.");
+		}
+
+		// Settings lie between the identifier and the counts.
+		buffer.position(start+8);
+		ParticleSystem physics = new ParticleSystem();
+		physics.setDeltaT(buffer.getFloat());
+		physics.setGravity(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+		physics.setDrag(buffer.getFloat());
+		float sleepEnergy = buffer.getFloat();
+		float sleepForce = buffer.getFloat();
+		physics.setSleepThresholds(sleepEnergy, sleepForce, buffer.getInt());
+		int method = buffer.get();
+		if ((method >= 0) && (method < Integrator.METHOD.values().length))
+		{
+			physics.setIntegrator(Integrator.METHOD.values()[method]);
+		}
+		byte systemFlags = buffer.get();
+		physics.setBatchedForces((systemFlags & BATCHED) != 0);
+		buffer.position(start+HEADER_BYTES);
+
+		// Particles.
+		float[][] columns = new float[NUM_COLUMNS][n];
+		for (float[] column : columns)
+		{
+			buffer.asFloatBuffer().get(column);
+			buffer.position(buffer.position()+4*n);
+		}
+		int[] restingTicks = new int[n];
+		buffer.asIntBuffer().get(restingTicks);
+		buffer.position(buffer.position()+4*n);
+		byte[] flags = new byte[n];
+		Particle[] particles = new Particle[n];
+		for (int i=0; i<n; i++)
+		{
+			Particle p = physics.makeParticle(columns[9][i], columns[0][i], columns[1][i], columns[2][i]);
+			p.velocity().set(columns[3][i], columns[4][i], columns[5][i]);
+			p.getForce().set(columns[6][i], columns[7][i], columns[8][i]);
+			p.age = columns[10][i];
+			flags[i] = buffer.get();
+			p.setFixed((flags[i] & FIXED) != 0);
+			particles[i] = p;
+		}
+
+		// Springs and attractions.
+		for (int i=0; i<counts[1]; i++)
+		{
+			Particle oneEnd = getParticle(particles, buffer.getInt());
+			Particle theOtherEnd = getParticle(particles, buffer.getInt());
+			float strength = buffer.getFloat();
+			float damping = buffer.getFloat();
+			float restLength = buffer.getFloat();
+			physics.makeSpring(oneEnd, theOtherEnd, strength, damping, restLength).turnOn(buffer.get() == ON);
+		}
+		for (int i=0; i<counts[2]; i++)
+		{
+			Particle oneEnd = getParticle(particles, buffer.getInt());
+			Particle theOtherEnd = getParticle(particles, buffer.getInt());
+			float strength = buffer.getFloat();
+			float minDistance = buffer.getFloat();
+			physics.makeAttraction(oneEnd, theOtherEnd, strength, minDistance).turnOn(buffer.get() == ON);
+		}
+
+		// Making forces wakes the particles they connect, so rest states are restored last.
+		for (int i=0; i<n; i++)
+		{
+			if ((flags[i] & ASLEEP) != 0)
+			{
+				particles[i].sleep();
+			}
+			particles[i].restingTicks = restingTicks[i];
+		}
+		physics.restoreTickState((systemFlags & CACHED) != 0);
+		return physics;
+	}
+
+	/** Checks the identifier and version at the start of an archive and reads its counts of particles
+	 *  and forces. On return the buffer is positioned at the end of the header.
+	 *  @param buffer Buffer positioned at the start of an archive.
+	 *  @return Numbers of particles, springs and attractions.
+	 *  @throws IOException if the buffer does not start with a valid header.
+	 */
+	private static int[] readCounts(ByteBuffer buffer) throws IOException
+	{
+		int start = buffer.position();
+		if (buffer.getInt(start) != MAGIC)
+		{
+			throw new IOException("Data is not a particle system archive.");
+		}
+		int version = buffer.getInt(start+4);
+		if (version != VERSION)
+		{
+			throw new IOException("Particle system archive version "+version+" is not supported.");
+		}
+		buffer.position(start+HEADER_BYTES-12);
+		int[] counts = new int[] {buffer.getInt(), buffer.getInt(), buffer.getInt()};
+		if ((counts[0] < 0) || (counts[1] < 0) || (counts[2] < 0))
+		{
+			throw new IOException("Particle system archive is corrupt.");
+		}
+		return counts;
+	}
+
+	/** Reports the particle with the given slot in an archive.
+	 *  @param particles Particles read from the archive.
+	 *  @param slot Slot of the particle.
+	 *  @return Particle in the slot.
+	 *  @throws IOException if the slot is out of range.
+	 */
+	private static Particle getParticle(Particle[] particles, int slot) throws IOException
+	{
+		if ((slot < 0) || (slot >= particles.length))
+		{
+			throw new IOException("Particle system archive refers to particle "+slot+" of "+particles.length+".");
+		}
+		return particles[slot];
+	}
+
+	/** Writes the first n elements of the given array to the buffer in a single bulk transfer.
+	 *  @param buffer Buffer to receive the values.
+	 *  @param values Values to write.
+	 *  @param n Number of values to write.
+	 */
+	private static void putFloats(ByteBuffer buffer, float[] values, int n)
+	{
+		buffer.asFloatBuffer().put(values, 0, n);
+		buffer.position(buffer.position()+4*n);
+	}
+
+	/** Fills the remaining space in the given buffer from the given channel.
+	 *  @param channel Channel to read.
+	 *  @param buffer Buffer to fill.
+	 *  @throws IOException if the channel cannot be read or ends before the buffer is full.
+	 */
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) < 0)
+			{
+				throw new EOFException("Particle system archive is truncated.");
+			}
+		}
+	}
+}
@@ -0,0 +1,484 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// *****************************************************************************************
+/** Divides a particle system into its connected components and simulates each as an independent
+ *  sub-system. Two particles are in the same component if they are joined by a chain of springs
+ *  or attractions. Because no spring or attraction acts between components, each can be ticked
+ *  separately, in parallel when more than one thread is used. A component that has settled (see
+ *  {@link ParticleSystem#isSettled()}) costs almost nothing to tick, so a layout with many small
+ *  components that settle at different times converges much faster than as a single system.
+ *  <br><br>
+ *  Each component is a {@link ParticleSystem} holding the same particles, springs and attractions
+ *  as the original system, with the same time step, gravity, drag, integration method and sleep
+ *  thresholds. Custom forces are not copied since they typically act across the whole system, but
+ *  they can be added to individual components. After structural changes to the original system,
+ *  such as adding a spring, {@link #update()} should be called to recalculate the components.
+ *  <br><br>
+ *  Since components do not interact, they may drift into one another. {@link #pack(float)} arranges
+ *  their bounding rectangles into rows without overlap.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class PartitionedSystem
+{
+	// ------------------------------- Object variables --------------------------------
+
+	private final ParticleSystem physics;			// The system being partitioned.
+	private final List<ParticleSystem> components;	// Sub-system for each connected component.
+	private final Map<Particle,Integer> componentOf;// Index of the component containing each particle.
+	private ForkJoinPool pool;						// Threads for ticking components, or null if sequential.
+	private int numThreads;							// Number of threads used to tick components.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Partitions the given particle system into its connected components. Components are ticked
+	 *  sequentially until {@link #setNumThreads(int)} is called.
+	 *  @param physics Particle system to partition.
+	 *  @throws NullPointerException if the particle system is null.
+	 */
+	public PartitionedSystem(ParticleSystem physics) throws NullPointerException
+	{
+		if (physics == null)
+		{
+			throw new NullPointerException("Cannot partition a null particle system.");
+		}
+		this.physics = physics;
+		components = new ArrayList<ParticleSystem>();
+		componentOf = new IdentityHashMap<Particle,Integer>();
+		numThreads = 1;
+		pool = null;
+		update();
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Finds the connected components of the given particle system. Two particles are in the same
+	 *  component if they are joined by a chain of springs or attractions. Particles with no springs or
+	 *  attractions each form a component of their own.
+	 *  @param physics Particle system whose components are to be found.
+	 *  @return List of components, each a list of particles, in descending order of size.
+	 */
+	public static List<List<Particle>> findComponents(ParticleSystem physics)
+	{
+		// Label each particle with its position in the system for a union-find forest.
+		Map<Particle,Integer> indices = new IdentityHashMap<Particle,Integer>();
+		List<Particle> particles = new ArrayList<Particle>(physics.getParticles());
+		int[] parent = new int[particles.size()];
+		int[] rank = new int[particles.size()];
+		for (int i=0; i<parent.length; i++)
+		{
+			indices.put(particles.get(i), Integer.valueOf(i));
+			parent[i] = i;
+		}
+
+		for (Spring spring : physics.getSprings())
+		{
+			union(parent, rank, indices.get(spring.getOneEnd()), indices.get(spring.getTheOtherEnd()));
+		}
+		for (Attraction attraction : physics.getAttractions())
+		{
+			union(parent, rank, indices.get(attraction.getOneEnd()), indices.get(attraction.getTheOtherEnd()));
+		}
+
+		// Gather the particles sharing each root.
+		List<List<Particle>> found = new ArrayList<List<Particle>>();
+		int[] componentOfRoot = new int[parent.length];
+		Arrays.fill(componentOfRoot, -1);
+		for (int i=0; i<parent.length; i++)
+		{
+			int root = find(parent, i);
+			if (componentOfRoot[root] < 0)
+			{
+				componentOfRoot[root] = found.size();
+				found.add(new ArrayList<Particle>());
+			}
+			found.get(componentOfRoot[root]).add(particles.get(i));
+		}
+
+		Collections.sort(found, new Comparator<List<Particle>>()
+		{
+			public int compare(List<Particle> c1, List<Particle> c2)
+			{
+				return c2.size()-c1.size();
+			}
+		});
+		return found;
+	}
+
+	/** Recalculates the connected components of the original particle system. This should be called
+	 *  after any particles, springs or attractions are added to or removed from the original system.
+	 *  Any custom forces added to the previous components are discarded.
+	 *  @return This partitioned system.
+	 */
+	public PartitionedSystem update()
+	{
+		components.clear();
+		componentOf.clear();
+
+		List<List<Particle>> found = findComponents(physics);
+		for (int c=0; c<found.size(); c++)
+		{
+			ParticleSystem component = new ParticleSystem().copySettings(physics);
+			Integer index = Integer.valueOf(c);
+			for (Particle p : found.get(c))
+			{
+				component.getParticles().add(p);
+				componentOf.put(p, index);
+			}
+			components.add(component);
+		}
+
+		// Each force belongs to the component of its ends.
+		for (Spring spring : physics.getSprings())
+		{
+			componentContaining(spring).getSprings().add(spring);
+		}
+		for (Attraction attraction : physics.getAttractions())
+		{
+			componentContaining(attraction).getAttractions().add(attraction);
+		}
+		return this;
+	}
+
+	/** Reports the number of connected components.
+	 *  @return Number of components.
+	 */
+	public int getNumComponents()
+	{
+		return components.size();
+	}
+
+	/** Provides the particle system simulating the given component. Components are numbered in
+	 *  descending order of size.
+	 *  @param i Index of the component, between 0 and <code>getNumComponents()-1</code>.
+	 *  @return Particle system containing the component's particles, springs and attractions.
+	 *  @throws IndexOutOfBoundsException if there is no component with the given index.
+	 */
+	public ParticleSystem getComponent(int i) throws IndexOutOfBoundsException
+	{
+		return components.get(i);
+	}
+
+	/** Reports the index of the component containing the given particle.
+	 *  @param p Particle to search for.
+	 *  @return Index of the component containing the particle, or -1 if it was not in the system when
+	 *          the components were last calculated.
+	 */
+	public int getComponentIndex(Particle p)
+	{
+		Integer index = componentOf.get(p);
+		return (index == null) ? -1 : index.intValue();
+	}
+
+	/** Sets the number of threads used to tick the components. By default components are ticked
+	 *  sequentially in the calling thread.
+	 *  @param numThreads Number of threads to use. A value of 1 ticks components sequentially.
+	 *  @return This partitioned system.
+	 *  @throws IllegalArgumentException if the number of threads is less than 1.
+	 */
+	public PartitionedSystem setNumThreads(int numThreads) throws IllegalArgumentException
+	{
+		if (numThreads < 1)
+		{
+			throw new IllegalArgumentException("Number of threads is "+numThreads+"; must be at least 1.");
+		}
+		if (numThreads != this.numThreads)
+		{
+			shutdown();
+			this.numThreads = numThreads;
+			pool = (numThreads == 1) ? null : new ForkJoinPool(numThreads);
+		}
+		return this;
+	}
+
+	/** Reports the number of threads used to tick the components.
+	 *  @return Number of threads, which will be 1 if components are ticked sequentially.
+	 */
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/** Releases any threads used to tick components. Components will be ticked sequentially until the
+	 *  number of threads is set again.
+	 */
+	public void shutdown()
+	{
+		if (pool != null)
+		{
+			pool.shutdown();
+			pool = null;
+		}
+		numThreads = 1;
+	}
+
+	/** Advances every component by the given time step. Settled components are ticked in the calling
+	 *  thread, which does little more than check whether any of their particles have been disturbed.
+	 *  The remaining components are ticked in parallel if more than one thread is in use.
+	 *  @param t Time step by which to advance each component.
+	 *  @return This partitioned system.
+	 *  @throws IllegalArgumentException if t&lt;=0
+	 */
+	public PartitionedSystem tick(float t) throws IllegalArgumentException
+	{
+		if (t<=0)
+		{
+			throw new IllegalArgumentException("Argument t is "+t+"; t must be >=0.");
+		}
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (final ParticleSystem component : components)
+		{
+			if ((pool == null) || component.isSettled())
+			{
+				component.tick(t);
+			}
+			else
+			{
+				final float timeStep = t;
+				tasks.add(new Callable<Object>()
+				{
+					public Object call()
+					{
+						component.tick(timeStep);
+						return null;
+					}
+				});
+			}
+		}
+
+		if (!tasks.isEmpty())
+		{
+			try
+			{
+				for (Future<Object> future : pool.invokeAll(tasks))
+				{
+					future.get();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while ticking components in parallel.", e);
+			}
+			catch (ExecutionException e)
+			{
+				throw new RuntimeException("Problem ticking components in parallel: "+e.getCause(), e.getCause());
+			}
+		}
+		return this;
+	}
+
+	/** Reports whether every component has settled.
+	 *  @return True if no particle in any component is free to move.
+	 */
+	public boolean isSettled()
+	{
+		for (ParticleSystem component : components)
+		{
+			if (!component.isSettled())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Moves the components so that their bounding rectangles in the (x,y) plane do not overlap. The
+	 *  rectangles are placed in rows, tallest first, with the width of each row chosen so that the packed
+	 *  layout is roughly square. The packed layout is centred on the centre of the original layout.
+	 *  Particles keep their positions relative to the other particles in their component.
+	 *  @param padding Minimum gap between the bounding rectangles of neighbouring components.
+	 *  @return This partitioned system.
+	 *  @throws IllegalArgumentException if the padding is negative.
+	 */
+	public PartitionedSystem pack(float padding) throws IllegalArgumentException
+	{
+		if (padding < 0)
+		{
+			throw new IllegalArgumentException("Padding is "+padding+"; must not be negative.");
+		}
+		int n = components.size();
+		if (n == 0)
+		{
+			return this;
+		}
+
+		// Find the bounding rectangle of each component and of the whole layout.
+		final float[] minX = new float[n];
+		final float[] minY = new float[n];
+		final float[] width = new float[n];
+		final float[] height = new float[n];
+		float layoutMinX = Float.MAX_VALUE, layoutMinY = Float.MAX_VALUE;
+		float layoutMaxX = -Float.MAX_VALUE, layoutMaxY = -Float.MAX_VALUE;
+		double area = 0;
+		float maxWidth = 0;
+		List<Integer> order = new ArrayList<Integer>(n);
+
+		for (int c=0; c<n; c++)
+		{
+			float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+			for (Particle p : components.get(c).getParticles())
+			{
+				x0 = Math.min(x0, p.position().x());
+				y0 = Math.min(y0, p.position().y());
+				x1 = Math.max(x1, p.position().x());
+				y1 = Math.max(y1, p.position().y());
+			}
+			minX[c] = x0;
+			minY[c] = y0;
+			width[c] = x1-x0;
+			height[c] = y1-y0;
+			layoutMinX = Math.min(layoutMinX, x0);
+			layoutMinY = Math.min(layoutMinY, y0);
+			layoutMaxX = Math.max(layoutMaxX, x1);
+			layoutMaxY = Math.max(layoutMaxY, y1);
+			area += (double)(width[c]+padding)*(height[c]+padding);
+			maxWidth = Math.max(maxWidth, width[c]);
+			order.add(Integer.valueOf(c));
+		}
+
+		Collections.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer c1, Integer c2)
+			{
+				return Float.compare(height[c2.intValue()], height[c1.intValue()]);
+			}
+		});
+
+		// Place the rectangles in shelves, starting a new shelf when the current one is full.
+		float rowWidth = Math.max(maxWidth, (float)Math.sqrt(area));
+		float[] offsetX = new float[n];
+		float[] offsetY = new float[n];
+		float x = 0, y = 0, shelfHeight = 0, packedWidth = 0;
+		for (Integer index : order)
+		{
+			int c = index.intValue();
+			if ((x > 0) && (x + width[c] > rowWidth))
+			{
+				x = 0;
+				y += shelfHeight + padding;
+				shelfHeight = 0;
+			}
+			offsetX[c] = x - minX[c];
+			offsetY[c] = y - minY[c];
+			x += width[c] + padding;
+			shelfHeight = Math.max(shelfHeight, height[c]);
+			packedWidth = Math.max(packedWidth, x - padding);
+		}
+		float packedHeight = y + shelfHeight;
+
+		// Centre the packed layout on the original layout.
+		float shiftX = (layoutMinX+layoutMaxX)/2 - packedWidth/2;
+		float shiftY = (layoutMinY+layoutMaxY)/2 - packedHeight/2;
+		for (int c=0; c<n; c++)
+		{
+			float dx = offsetX[c] + shiftX;
+			float dy = offsetY[c] + shiftY;
+			for (Particle p : components.get(c).getParticles())
+			{
+				p.position().add(dx, dy, 0);
+			}
+		}
+		return this;
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Provides the component containing the ends of the given force.
+	 *  @param force Force whose component is required.
+	 *  @return Component containing the force, or the original system if neither end is in a component.
+	 */
+	private ParticleSystem componentContaining(TwoBodyForce force)
+	{
+		Integer index = componentOf.get(force.getOneEnd());
+		if (index == null)
+		{
+			index = componentOf.get(force.getTheOtherEnd());
+		}
+		return (index == null) ? physics : components.get(index.intValue());
+	}
+
+	/** Finds the root of the tree containing the given element of a union-find forest, compressing the
+	 *  path to the root as it goes.
+	 *  @param parent Parent of each element in the forest.
+	 *  @param i Element whose root is required.
+	 *  @return Root of the element's tree.
+	 */
+	private static int find(int[] parent, int i)
+	{
+		int root = i;
+		while (parent[root] != root)
+		{
+			root = parent[root];
+		}
+		while (parent[i] != root)
+		{
+			int next = parent[i];
+			parent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	/** Merges the trees containing the two given elements of a union-find forest.
+	 *  @param parent Parent of each element in the forest.
+	 *  @param rank Upper bound on the height of the tree below each element.
+	 *  @param i One element, or null if the element is not in the forest.
+	 *  @param j The other element, or null if the element is not in the forest.
+	 */
+	private static void union(int[] parent, int[] rank, Integer i, Integer j)
+	{
+		if ((i == null) || (j == null))
+		{
+			return;
+		}
+		int rootI = find(parent, i.intValue());
+		int rootJ = find(parent, j.intValue());
+		if (rootI == rootJ)
+		{
+			return;
+		}
+		if (rank[rootI] < rank[rootJ])
+		{
+			parent[rootI] = rootJ;
+		}
+		else if (rank[rootI] > rank[rootJ])
+		{
+			parent[rootJ] = rootI;
+		}
+		else
+		{
+			parent[rootJ] = rootI;
+			rank[rootI]++;
+		}
+	}
+}
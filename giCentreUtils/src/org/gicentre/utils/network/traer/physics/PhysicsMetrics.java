@@ -0,0 +1,246 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// *****************************************************************************************
+/** Accumulates the measurements of each tick of a particle system so that they can be queried at
+ *  any time, from any thread, or published as a JMX management bean. Add the metrics to a particle
+ *  system with {@link ParticleSystem#addTickListener(TickListener)} and, optionally, call
+ *  {@link #register(String)} to make them visible to JMX monitoring tools.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class PhysicsMetrics implements TickListener, PhysicsMetricsMBean
+{
+	// ------------------------------- Class variables ---------------------------------
+
+	private static final double NANOS_PER_MILLI = 1e6;
+
+	// ------------------------------- Object variables --------------------------------
+
+	private long numTicks;				// Number of ticks measured.
+	private long lastTickNanos;			// Duration of the most recent tick.
+	private long totalTickNanos;		// Total duration of all ticks.
+	private long maxTickNanos;			// Longest tick duration.
+	private long totalDragNanos;		// Total time applying gravity and drag.
+	private long totalTwoBodyNanos;		// Total time applying springs and attractions.
+	private long totalCustomNanos;		// Total time applying custom forces.
+	private long totalAllocatedBytes;	// Total bytes allocated, or -1 if unknown.
+	private float kineticEnergy;		// Kinetic energy after the most recent tick.
+	private float maxSpeed;				// Maximum particle speed after the most recent tick.
+	private float maxDisplacement;		// Maximum displacement in the most recent tick.
+	private ObjectName name;			// Name with which the metrics are registered, or null if not registered.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates an empty set of accumulated metrics.
+	 */
+	public PhysicsMetrics()
+	{
+		reset();
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Adds the measurements of a completed tick to those accumulated.
+	 *  @param metrics Measurements of the tick.
+	 */
+	public synchronized void tickCompleted(TickMetrics metrics)
+	{
+		numTicks++;
+		lastTickNanos = metrics.getTickNanos();
+		totalTickNanos += lastTickNanos;
+		maxTickNanos = Math.max(maxTickNanos, lastTickNanos);
+		totalDragNanos += metrics.getDragNanos();
+		totalTwoBodyNanos += metrics.getTwoBodyNanos();
+		totalCustomNanos += metrics.getCustomNanos();
+		if ((totalAllocatedBytes >= 0) && (metrics.getAllocatedBytes() >= 0))
+		{
+			totalAllocatedBytes += metrics.getAllocatedBytes();
+		}
+		else
+		{
+			totalAllocatedBytes = -1;
+		}
+		kineticEnergy = metrics.getKineticEnergy();
+		maxSpeed = metrics.getMaxSpeed();
+		maxDisplacement = metrics.getMaxDisplacement();
+	}
+
+	/** Publishes these metrics with the platform's JMX server under the domain
+	 *  <code>org.gicentre.physics</code> with the given name.
+	 *  @param systemName Name identifying the particle system being measured.
+	 *  @throws JMException if the metrics cannot be registered, for example because the name is already in use.
+	 */
+	public synchronized void register(String systemName) throws JMException
+	{
+		unregister();
+		ObjectName objectName = new ObjectName("org.gicentre.physics:type=ParticleSystem,name="+ObjectName.quote(systemName));
+		getServer().registerMBean(this, objectName);
+		name = objectName;
+	}
+
+	/** Removes these metrics from the platform's JMX server. Has no effect if they are not registered.
+	 *  @throws JMException if the metrics cannot be removed.
+	 */
+	public synchronized void unregister() throws JMException
+	{
+		if (name != null)
+		{
+			getServer().unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	/** Reports the number of ticks measured since the metrics were created or reset.
+	 *  @return Number of ticks.
+	 */
+	public synchronized long getNumTicks()
+	{
+		return numTicks;
+	}
+
+	/** Reports the duration of the most recent tick.
+	 *  @return Tick duration in milliseconds.
+	 */
+	public synchronized double getLastTickMillis()
+	{
+		return lastTickNanos/NANOS_PER_MILLI;
+	}
+
+	/** Reports the mean duration of the ticks measured.
+	 *  @return Mean tick duration in milliseconds.
+	 */
+	public synchronized double getMeanTickMillis()
+	{
+		return mean(totalTickNanos)/NANOS_PER_MILLI;
+	}
+
+	/** Reports the longest duration of the ticks measured.
+	 *  @return Maximum tick duration in milliseconds.
+	 */
+	public synchronized double getMaxTickMillis()
+	{
+		return maxTickNanos/NANOS_PER_MILLI;
+	}
+
+	/** Reports the mean time per tick spent applying gravity and drag.
+	 *  @return Mean gravity and drag time in milliseconds.
+	 */
+	public synchronized double getMeanDragMillis()
+	{
+		return mean(totalDragNanos)/NANOS_PER_MILLI;
+	}
+
+	/** Reports the mean time per tick spent applying springs and attractions.
+	 *  @return Mean spring and attraction time in milliseconds.
+	 */
+	public synchronized double getMeanTwoBodyMillis()
+	{
+		return mean(totalTwoBodyNanos)/NANOS_PER_MILLI;
+	}
+
+	/** Reports the mean time per tick spent applying custom forces.
+	 *  @return Mean custom force time in milliseconds.
+	 */
+	public synchronized double getMeanCustomMillis()
+	{
+		return mean(totalCustomNanos)/NANOS_PER_MILLI;
+	}
+
+	/** Reports the mean time per tick spent other than applying forces.
+	 *  @return Mean integration time in milliseconds.
+	 */
+	public synchronized double getMeanIntegrationMillis()
+	{
+		return mean(totalTickNanos-totalDragNanos-totalTwoBodyNanos-totalCustomNanos)/NANOS_PER_MILLI;
+	}
+
+	/** Reports the kinetic energy of the system at the end of the most recent tick.
+	 *  @return Kinetic energy.
+	 */
+	public synchronized float getKineticEnergy()
+	{
+		return kineticEnergy;
+	}
+
+	/** Reports the speed of the fastest particle at the end of the most recent tick.
+	 *  @return Maximum particle speed.
+	 */
+	public synchronized float getMaxSpeed()
+	{
+		return maxSpeed;
+	}
+
+	/** Reports the furthest distance moved by a particle in the most recent tick.
+	 *  @return Maximum displacement.
+	 */
+	public synchronized float getMaxDisplacement()
+	{
+		return maxDisplacement;
+	}
+
+	/** Reports the mean number of bytes allocated per tick by the ticking thread.
+	 *  @return Mean bytes allocated per tick, or -1 if allocations cannot be measured.
+	 */
+	public synchronized double getMeanAllocatedBytes()
+	{
+		return (totalAllocatedBytes < 0) ? -1 : mean(totalAllocatedBytes);
+	}
+
+	/** Discards all measurements made so far.
+	 */
+	public synchronized void reset()
+	{
+		numTicks = 0;
+		lastTickNanos = 0;
+		totalTickNanos = 0;
+		maxTickNanos = 0;
+		totalDragNanos = 0;
+		totalTwoBodyNanos = 0;
+		totalCustomNanos = 0;
+		totalAllocatedBytes = 0;
+		kineticEnergy = 0;
+		maxSpeed = 0;
+		maxDisplacement = 0;
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Reports the mean per tick of the given total.
+	 *  @param total Total over all ticks.
+	 *  @return Mean per tick, or 0 if no ticks have been measured.
+	 */
+	private double mean(long total)
+	{
+		return (numTicks == 0) ? 0 : total/(double)numTicks;
+	}
+
+	/** Provides the platform's JMX server.
+	 *  @return Management bean server.
+	 */
+	private static MBeanServer getServer()
+	{
+		return ManagementFactory.getPlatformMBeanServer();
+	}
+}
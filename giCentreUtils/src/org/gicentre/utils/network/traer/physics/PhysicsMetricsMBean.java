@@ -0,0 +1,90 @@
+package org.gicentre.utils.network.traer.physics;
+
+// *****************************************************************************************
+/** Management interface through which {@link PhysicsMetrics} are published with JMX, so that the
+ *  performance of a running particle system can be monitored with tools such as JConsole.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public interface PhysicsMetricsMBean
+{
+	/** Should report the number of ticks measured since the metrics were created or reset.
+	 *  @return Number of ticks.
+	 */
+	public abstract long getNumTicks();
+
+	/** Should report the duration of the most recent tick.
+	 *  @return Tick duration in milliseconds.
+	 */
+	public abstract double getLastTickMillis();
+
+	/** Should report the mean duration of the ticks measured.
+	 *  @return Mean tick duration in milliseconds.
+	 */
+	public abstract double getMeanTickMillis();
+
+	/** Should report the longest duration of the ticks measured.
+	 *  @return Maximum tick duration in milliseconds.
+	 */
+	public abstract double getMaxTickMillis();
+
+	/** Should report the mean time per tick spent applying gravity and drag.
+	 *  @return Mean gravity and drag time in milliseconds.
+	 */
+	public abstract double getMeanDragMillis();
+
+	/** Should report the mean time per tick spent applying springs and attractions.
+	 *  @return Mean spring and attraction time in milliseconds.
+	 */
+	public abstract double getMeanTwoBodyMillis();
+
+	/** Should report the mean time per tick spent applying custom forces.
+	 *  @return Mean custom force time in milliseconds.
+	 */
+	public abstract double getMeanCustomMillis();
+
+	/** Should report the mean time per tick spent other than applying forces.
+	 *  @return Mean integration time in milliseconds.
+	 */
+	public abstract double getMeanIntegrationMillis();
+
+	/** Should report the kinetic energy of the system at the end of the most recent tick.
+	 *  @return Kinetic energy.
+	 */
+	public abstract float getKineticEnergy();
+
+	/** Should report the speed of the fastest particle at the end of the most recent tick.
+	 *  @return Maximum particle speed.
+	 */
+	public abstract float getMaxSpeed();
+
+	/** Should report the furthest distance moved by a particle in the most recent tick.
+	 *  @return Maximum displacement.
+	 */
+	public abstract float getMaxDisplacement();
+
+	/** Should report the mean number of bytes allocated per tick by the ticking thread.
+	 *  @return Mean bytes allocated per tick, or -1 if allocations cannot be measured.
+	 */
+	public abstract double getMeanAllocatedBytes();
+
+	/** Should discard all measurements made so far.
+	 */
+	public abstract void reset();
+}
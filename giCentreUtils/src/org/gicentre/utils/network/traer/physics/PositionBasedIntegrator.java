@@ -0,0 +1,382 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// *****************************************************************************************
+/** Position-based integrator that treats springs as constraints on the distance between particles
+ *  rather than as forces. Stiff springs integrated as forces need very small time steps to remain
+ *  stable. Here each step first moves the particles under the remaining forces (gravity, drag,
+ *  attractions and custom forces) and then repeatedly projects the predicted positions so as to
+ *  satisfy each distance constraint in turn, with velocities derived from the corrected positions.
+ *  This remains stable at large time steps whatever the stiffness, so rigid structures such as
+ *  cloth or boxes can be simulated with far fewer force evaluations.
+ *  <br><br>
+ *  Constraints follow the extended position-based dynamics (XPBD) formulation, in which each
+ *  constraint has a compliance, the inverse of its stiffness. A spring of strength <i>k</i> becomes
+ *  a constraint of compliance <i>1/k</i>, so under load it stretches by about as much as the spring
+ *  would, independently of the time step and number of iterations. Springs may instead
+ *  be made rigid, with zero compliance. Further distance constraints can be added that are not
+ *  represented by springs, as can pins that hold a particle at a fixed location. Fixed particles
+ *  are never moved by the constraints.
+ *  <br><br>
+ *  Spring damping is not used by this integrator; motion is damped by the drag of the particle system.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class PositionBasedIntegrator extends Integrator
+{
+	// ------------------------------- Class variables ---------------------------------
+
+	/** Default number of constraint projection iterations per step. */
+	public static final int DEFAULT_ITERATIONS = 10;
+
+	private static final float MIN_LENGTH = 1e-6f;	// Distance below which a constraint has no direction.
+
+	// ------------------------------- Object variables --------------------------------
+
+	private int numIterations;					// Number of projection iterations per step.
+	private boolean isRigidSprings;				// Whether springs have zero compliance.
+	private List<DistanceConstraint> constraints;	// Constraints in addition to the springs.
+	private float[] lambdas;					// Accumulated multiplier of each constraint in the current step.
+	private float[] startPositions;				// Position of each particle at the start of the step.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Sets up the integrator to be used by the given particle system.
+	 *  @param s Particle system upon which to perform the integration.
+	 */
+	public PositionBasedIntegrator(ParticleSystem s)
+	{
+		super(s);
+		numIterations = DEFAULT_ITERATIONS;
+		isRigidSprings = false;
+		constraints = new ArrayList<DistanceConstraint>();
+		lambdas = new float[0];
+		startPositions = new float[0];
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Sets the number of times the constraints are projected in each step. More iterations bring
+	 *  chains of constraints closer to being satisfied at the cost of a longer step.
+	 *  @param numIterations Number of iterations per step.
+	 *  @return This integrator.
+	 *  @throws IllegalArgumentException if the number of iterations is less than 1.
+	 */
+	public PositionBasedIntegrator setIterations(int numIterations) throws IllegalArgumentException
+	{
+		if (numIterations < 1)
+		{
+			throw new IllegalArgumentException("Number of iterations is "+numIterations+"; must be at least 1.");
+		}
+		this.numIterations = numIterations;
+		return this;
+	}
+
+	/** Reports the number of times the constraints are projected in each step.
+	 *  @return Number of iterations per step.
+	 */
+	public int getIterations()
+	{
+		return numIterations;
+	}
+
+	/** Determines whether springs are treated as rigid links of fixed length or as compliant
+	 *  constraints whose stiffness is given by the spring strength.
+	 *  @param isRigid True if springs are to be rigid.
+	 *  @return This integrator.
+	 */
+	public PositionBasedIntegrator setRigidSprings(boolean isRigid)
+	{
+		isRigidSprings = isRigid;
+		return this;
+	}
+
+	/** Reports whether springs are treated as rigid links.
+	 *  @return True if springs are rigid.
+	 */
+	public boolean isRigidSprings()
+	{
+		return isRigidSprings;
+	}
+
+	/** Adds a constraint on the distance between two particles that is not represented by a spring.
+	 *  @param oneEnd Particle at one end of the constraint.
+	 *  @param theOtherEnd Particle at the other end of the constraint.
+	 *  @param restLength Distance to be maintained between the particles.
+	 *  @param compliance Inverse stiffness of the constraint, where 0 is rigid.
+	 *  @return The new constraint.
+	 *  @throws NullPointerException if either particle is null.
+	 *  @throws IllegalArgumentException if the rest length or compliance is negative.
+	 */
+	public DistanceConstraint addDistanceConstraint(Particle oneEnd, Particle theOtherEnd, float restLength, float compliance)
+			throws NullPointerException, IllegalArgumentException
+	{
+		DistanceConstraint constraint = new DistanceConstraint(oneEnd, theOtherEnd, restLength, compliance);
+		constraints.add(constraint);
+		return constraint;
+	}
+
+	/** Pins the given particle to the given location. Unlike a fixed particle, a pinned particle is held
+	 *  in place by a constraint, so other constraints may pull it away from the pin if the pin is compliant.
+	 *  @param p Particle to pin.
+	 *  @param x x coordinate of the pin.
+	 *  @param y y coordinate of the pin.
+	 *  @param z z coordinate of the pin.
+	 *  @param compliance Inverse stiffness of the pin, where 0 is rigid.
+	 *  @return The constraint holding the particle to the pin. Its other end is a fixed particle at the
+	 *          pin location that is not part of the particle system, and may be moved to move the pin.
+	 *  @throws NullPointerException if the particle is null.
+	 *  @throws IllegalArgumentException if the compliance is negative.
+	 */
+	public DistanceConstraint addPin(Particle p, float x, float y, float z, float compliance)
+			throws NullPointerException, IllegalArgumentException
+	{
+		Particle pin = new Particle().makeFixed();
+		pin.position().set(x, y, z);
+		return addDistanceConstraint(p, pin, 0, compliance);
+	}
+
+	/** Removes the given distance constraint or pin.
+	 *  @param constraint Constraint to remove.
+	 *  @return True if the constraint was removed, false if it was not part of this integrator.
+	 */
+	public boolean removeConstraint(DistanceConstraint constraint)
+	{
+		return constraints.remove(constraint);
+	}
+
+	/** Provides the distance constraints and pins added to this integrator. Springs are not included.
+	 *  @return List of constraints.
+	 */
+	public List<DistanceConstraint> getConstraints()
+	{
+		return constraints;
+	}
+
+	/** Advances the integrator by one step.
+	 *  @param deltaT the magnitude of the time step to advance.
+	 *  @return The integrator that updates the system.
+	 */
+	public PositionBasedIntegrator step(float deltaT)
+	{
+		s.clearForces();
+		s.applyForces(false);
+
+		// Predict new positions from the forces other than springs.
+		int n = s.getNumParticles();
+		if (startPositions.length < 3*n)
+		{
+			startPositions = new float[3*n];
+		}
+		int i = 0;
+		for (Particle p : s.getParticles())
+		{
+			Vector3D pos = p.position();
+			startPositions[i++] = pos.x();
+			startPositions[i++] = pos.y();
+			startPositions[i++] = pos.z();
+			if (p.isFree())
+			{
+				Vector3D force = p.getForce();
+				Vector3D vel = p.velocity();
+				float scale = deltaT/p.mass();
+				vel.add(force.x()*scale, force.y()*scale, force.z()*scale);
+				pos.add(vel.x()*deltaT, vel.y()*deltaT, vel.z()*deltaT);
+			}
+		}
+
+		// Project the predicted positions onto the constraints.
+		int numConstraints = s.getNumSprings()+constraints.size();
+		if (lambdas.length < numConstraints)
+		{
+			lambdas = new float[numConstraints];
+		}
+		for (int c=0; c<numConstraints; c++)
+		{
+			lambdas[c] = 0;
+		}
+		float invDeltaTSq = 1/(deltaT*deltaT);
+		for (int iteration=0; iteration<numIterations; iteration++)
+		{
+			int c = 0;
+			for (Spring spring : s.getSprings())
+			{
+				if (spring.isOn() && (spring.strength() > 0))
+				{
+					float compliance = isRigidSprings ? 0 : 1/spring.strength();
+					project(spring.getOneEnd(), spring.getTheOtherEnd(), spring.restLength(), compliance*invDeltaTSq, c);
+				}
+				c++;
+			}
+			for (DistanceConstraint constraint : constraints)
+			{
+				project(constraint.oneEnd, constraint.theOtherEnd, constraint.restLength, constraint.compliance*invDeltaTSq, c);
+				c++;
+			}
+		}
+
+		// Derive velocities from the corrected movement of each particle.
+		i = 0;
+		for (Particle p : s.getParticles())
+		{
+			if (p.isFree())
+			{
+				Vector3D pos = p.position();
+				p.velocity().set((pos.x()-startPositions[i])/deltaT, (pos.y()-startPositions[i+1])/deltaT,
+				                 (pos.z()-startPositions[i+2])/deltaT);
+				p.age += deltaT;
+			}
+			i += 3;
+		}
+		return this;
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Moves the given particles towards satisfying a distance constraint between them.
+	 *  @param p1 Particle at one end of the constraint.
+	 *  @param p2 Particle at the other end of the constraint.
+	 *  @param restLength Distance to be maintained between the particles.
+	 *  @param scaledCompliance Compliance of the constraint divided by the square of the time step.
+	 *  @param c Index of the constraint's multiplier.
+	 */
+	private void project(Particle p1, Particle p2, float restLength, float scaledCompliance, int c)
+	{
+		float w1 = p1.isFree() ? 1/p1.mass() : 0;
+		float w2 = p2.isFree() ? 1/p2.mass() : 0;
+		float denominator = w1 + w2 + scaledCompliance;
+		if (denominator == 0)
+		{
+			return;
+		}
+		Vector3D pos1 = p1.position();
+		Vector3D pos2 = p2.position();
+		float dx = pos2.x()-pos1.x();
+		float dy = pos2.y()-pos1.y();
+		float dz = pos2.z()-pos1.z();
+		float length = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (length < MIN_LENGTH)
+		{
+			return;
+		}
+
+		float deltaLambda = (restLength - length - scaledCompliance*lambdas[c])/denominator;
+		lambdas[c] += deltaLambda;
+		float scale = deltaLambda/length;
+		pos1.add(-w1*scale*dx, -w1*scale*dy, -w1*scale*dz);
+		pos2.add(w2*scale*dx, w2*scale*dy, w2*scale*dz);
+	}
+
+	// -------------------------------- Nested classes ---------------------------------
+
+	/** Constraint on the distance between two particles that is not represented by a spring.
+	 */
+	public static class DistanceConstraint
+	{
+		final Particle oneEnd;			// Particle at one end of the constraint.
+		final Particle theOtherEnd;		// Particle at the other end of the constraint.
+		float restLength;				// Distance to be maintained.
+		float compliance;				// Inverse stiffness of the constraint.
+
+		/** Creates a distance constraint between the given particles.
+		 *  @param oneEnd Particle at one end of the constraint.
+		 *  @param theOtherEnd Particle at the other end of the constraint.
+		 *  @param restLength Distance to be maintained between the particles.
+		 *  @param compliance Inverse stiffness of the constraint, where 0 is rigid.
+		 *  @throws NullPointerException if either particle is null.
+		 *  @throws IllegalArgumentException if the rest length or compliance is negative.
+		 */
+		DistanceConstraint(Particle oneEnd, Particle theOtherEnd, float restLength, float compliance)
+				throws NullPointerException, IllegalArgumentException
+		{
+			if ((oneEnd == null) || (theOtherEnd == null))
+			{
+				throw new NullPointerException("Cannot create a distance constraint with a null particle.");
+			}
+			this.oneEnd = oneEnd;
+			this.theOtherEnd = theOtherEnd;
+			setRestLength(restLength);
+			setCompliance(compliance);
+		}
+
+		/** Reports the particle at one end of the constraint.
+		 *  @return First particle.
+		 */
+		public Particle getOneEnd()
+		{
+			return oneEnd;
+		}
+
+		/** Reports the particle at the other end of the constraint.
+		 *  @return Second particle.
+		 */
+		public Particle getTheOtherEnd()
+		{
+			return theOtherEnd;
+		}
+
+		/** Reports the distance maintained between the particles.
+		 *  @return Rest length of the constraint.
+		 */
+		public float getRestLength()
+		{
+			return restLength;
+		}
+
+		/** Sets the distance to be maintained between the particles.
+		 *  @param restLength New rest length.
+		 *  @return This constraint.
+		 *  @throws IllegalArgumentException if the rest length is negative.
+		 */
+		public DistanceConstraint setRestLength(float restLength) throws IllegalArgumentException
+		{
+			if (!(restLength >= 0))
+			{
+				throw new IllegalArgumentException("Rest length is "+restLength+"; must not be negative.");
+			}
+			this.restLength = restLength;
+			return this;
+		}
+
+		/** Reports the inverse stiffness of the constraint.
+		 *  @return Compliance, where 0 is rigid.
+		 */
+		public float getCompliance()
+		{
+			return compliance;
+		}
+
+		/** Sets the inverse stiffness of the constraint.
+		 *  @param compliance New compliance, where 0 is rigid.
+		 *  @return This constraint.
+		 *  @throws IllegalArgumentException if the compliance is negative.
+		 */
+		public DistanceConstraint setCompliance(float compliance) throws IllegalArgumentException
+		{
+			if (!(compliance >= 0))
+			{
+				throw new IllegalArgumentException("Compliance is "+compliance+"; must not be negative.");
+			}
+			this.compliance = compliance;
+			return this;
+		}
+	}
+}
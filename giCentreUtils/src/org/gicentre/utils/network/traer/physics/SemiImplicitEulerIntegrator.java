@@ -0,0 +1,66 @@
+package org.gicentre.utils.network.traer.physics;
+
+// *****************************************************************************************
+/** Semi-implicit (symplectic) Euler integrator. Each particle's velocity is updated from the
+ *  forces acting on it before its position is updated from the new velocity. This requires only
+ *  one evaluation of the forces per time step, a quarter of that needed by the Runge-Kutta
+ *  integrators, and unlike the forward Euler integrator it does not gain energy over time, so
+ *  remains stable for networks of springs at moderate time steps. Particle states are updated
+ *  in place without allocating any new objects.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class SemiImplicitEulerIntegrator extends Integrator
+{
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Sets up the integrator to be used by the given particle system.
+	 *  @param s Particle system upon which to perform the integration.
+	 */
+	public SemiImplicitEulerIntegrator(ParticleSystem s)
+	{
+		super(s);
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Advances the integrator by one step.
+	 *  @param deltaT the magnitude of the time step to advance.
+	 *  @return The integrator that updates the system.
+	 */
+	public SemiImplicitEulerIntegrator step(float deltaT)
+	{
+		s.clearForces();
+		s.applyForces();
+
+		for (Particle p : s.getParticles())
+		{
+			if (p.isFree())
+			{
+				Vector3D force = p.getForce();
+				Vector3D vel = p.velocity();
+				float scale = deltaT/p.mass();
+				vel.add(force.x()*scale, force.y()*scale, force.z()*scale);
+				p.position().add(vel.x()*deltaT, vel.y()*deltaT, vel.z()*deltaT);
+				p.age += deltaT;
+			}
+		}
+		return this;
+	}
+}
@@ -77,6 +77,7 @@ public class Spring extends TwoBodyForce
 			throw new IllegalArgumentException("Rest length l is negative; spring ideal length must be positive.");
 		}
 		this.l = Math.max(Float.MIN_VALUE, l);
+		modified();
 		return this;
 	}
 
@@ -101,6 +102,7 @@ public class Spring extends TwoBodyForce
 			throw new IllegalArgumentException("Spring strength ks is negative; spring strength must be positive.");
 		}
 		this.ks = Math.max(Float.MIN_VALUE,ks); 
+		modified();
 		return this;
 	}
 	
@@ -123,7 +125,9 @@ public class Spring extends TwoBodyForce
 		{
 			throw new IllegalArgumentException("Spring damping is < 0; damping constant must be positive.");
 		}
-		this.d = d; return this;
+		this.d = d;
+		modified();
+		return this;
 	}
 
 	/** Calculates the spring forces on each of the particles at either end of the spring.
@@ -132,20 +136,54 @@ public class Spring extends TwoBodyForce
 	@Override 
 	public ForcePair forcePair() 
 	{        
-		// First, set the spring force equal to the distance between the particles.
-		Vector3D springForce = Vector3D.subtract(getOneEnd().position(), getTheOtherEnd().position()); 
+		return equalAndOpposite(springForce(new Vector3D())); 	   // Apply the springForce to oneEnd, and -springForce to theOtherEnd.
+	}
+
+	/** Calculates the spring forces on each of the particles at either end of the spring without
+	 *  creating any new objects.
+	 *  @param forceOnOneEnd Vector to hold the force on the particle at one end of the spring.
+	 *  @param forceOnTheOtherEnd Vector to hold the equal and opposite force on the particle at the other end.
+	 */
+	@Override
+	protected void calculateForces(Vector3D forceOnOneEnd, Vector3D forceOnTheOtherEnd)
+	{
+		springForce(forceOnOneEnd);
+		forceOnTheOtherEnd.set(-forceOnOneEnd.x(), -forceOnOneEnd.y(), -forceOnOneEnd.z());
+	}
+
+	// -------------------------------- Private methods -----------------------------------
+
+	/** Calculates the combined spring and damping force on the particle at one end of the spring.
+	 *  @param target Vector to hold the force.
+	 *  @return The target vector containing the force.
+	 */
+	private Vector3D springForce(Vector3D target)
+	{
+		Vector3D p1 = getOneEnd().position();
+		Vector3D p2 = getTheOtherEnd().position();
+		float dx = p1.x()-p2.x();
+		float dy = p1.y()-p2.y();
+		float dz = p1.z()-p2.z();
+		float length = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (length == 0)
+		{
+			// No direction in which to apply the force.
+			return target.set(0,0,0);
+		}
 		
-		// Set the spring force equal to the negative difference between the distance and the ideal length scaling by the spring constant ks.
-		springForce.length(-(springForce.length()-l)).multiplyBy(ks);  
+		// Unit vector from the other end towards one end.
+		dx /= length;
+		dy /= length;
+		dz /= length;
 		
-		// Set the damping force equal to the difference between the velocities.
-		Vector3D dampingForce = Vector3D.subtract(getOneEnd().velocity(), getTheOtherEnd().velocity())  
-		.projectOnto(springForce)                  // project that force in the direction of the spring, i.e. - the velocity along the spring
-		.multiplyBy(-d);                           // scale to the damping factor.
-
-		// Combine the spring and damping forces.
-		springForce.add(dampingForce);
+		// The spring force is the negative difference between the distance and the ideal length scaled by the spring constant ks.
+		float f = -(length-l)*ks;
+		
+		// The damping force is the difference between the velocities along the spring, scaled by the damping factor.
+		Vector3D v1 = getOneEnd().velocity();
+		Vector3D v2 = getTheOtherEnd().velocity();
+		f -= d*(dx*(v1.x()-v2.x()) + dy*(v1.y()-v2.y()) + dz*(v1.z()-v2.z()));
 		
-		return equalAndOpposite(springForce); 	   // Apply the springForce to oneEnd, and -springForce to theOtherEnd.
+		return target.set(dx*f, dy*f, dz*f);
 	}
 }
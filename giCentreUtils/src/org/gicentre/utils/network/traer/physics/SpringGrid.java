@@ -0,0 +1,421 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// *****************************************************************************************
+/** Hierarchy of uniform grids used to find the springs that pass close to a rectangular area, such
+ *  as the visible part of a network, without testing every spring. Each spring is represented by the
+ *  bounding rectangle of its two ends. Since springs vary greatly in length, they are placed in one of
+ *  a series of grids whose cells double in size from one level to the next, choosing the level whose
+ *  cells are at least as large as the spring's bounding rectangle. Each spring is then stored once,
+ *  in the cell containing the minimum corner of its bounding rectangle, and a query only needs to
+ *  search the cells of each level that overlap the query area extended by the size of that level's
+ *  largest spring.
+ *  <br><br>
+ *  As with {@link ParticleGrid}, the grid is rebuilt in one pass by counting the springs in each cell
+ *  and sorting them by cell, with the cells of all levels folded into a single table of roughly twice
+ *  the number of springs. Building the grid therefore takes time proportional to the number of springs
+ *  and makes no allocations once the grid has grown to accommodate them. The z coordinate is ignored.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class SpringGrid
+{
+	// ------------------------------- Class variables ---------------------------------
+
+	private static final int MAX_LEVELS = 32;	// Maximum number of levels in the hierarchy.
+
+	// ------------------------------- Object variables --------------------------------
+
+	private float cellSize;				// Width and height of each cell in the finest level.
+	private int size;					// Number of springs in the grid.
+	private Spring[] springs;			// Springs in the order they were binned.
+	private float[] minX, minY;			// Minimum corner of the bounding rectangle of each spring.
+	private float[] maxX, maxY;			// Maximum corner of the bounding rectangle of each spring.
+	private int[] levelOf;				// Level of the grid in which each spring is placed.
+	private int[] colOf, rowOf;			// Column and row of the cell containing each spring.
+	private float originX, originY;		// Minimum corner of the area covered by the grid.
+	private float extentX, extentY;		// Maximum corner of the area covered by the grid.
+	private final float[] levelReach;	// Largest width or height of a spring in each level.
+	private final int[] levelCount;		// Number of springs in each level.
+	private int numCells;				// Number of cells in the table shared by all levels.
+	private int[] cellStart;			// Position in sorted of the first spring in each cell, plus an end marker.
+	private int[] sorted;				// Spring positions ordered by cell.
+	private int[] cellOfSpring;			// Table entry of the cell containing each spring.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates an empty grid with the given cell size. The grid must be built with
+	 *  {@link #build(Collection)} before it can be queried.
+	 *  @param cellSize Width and height of each cell in the finest level of the grid. Queries are most
+	 *                  efficient when this is close to the typical length of a spring.
+	 *  @throws IllegalArgumentException if the cell size is not positive.
+	 */
+	public SpringGrid(float cellSize) throws IllegalArgumentException
+	{
+		setCellSize(cellSize);
+		size = 0;
+		springs = new Spring[0];
+		minX = new float[0];
+		minY = new float[0];
+		maxX = new float[0];
+		maxY = new float[0];
+		levelOf = new int[0];
+		colOf = new int[0];
+		rowOf = new int[0];
+		levelReach = new float[MAX_LEVELS];
+		levelCount = new int[MAX_LEVELS];
+		numCells = 0;
+		cellStart = new int[1];
+		sorted = new int[0];
+		cellOfSpring = new int[0];
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Sets the width and height of each cell in the finest level of the grid. This takes effect the
+	 *  next time the grid is built.
+	 *  @param cellSize New cell size.
+	 *  @return This grid.
+	 *  @throws IllegalArgumentException if the cell size is not positive.
+	 */
+	public SpringGrid setCellSize(float cellSize) throws IllegalArgumentException
+	{
+		if (!(cellSize > 0))
+		{
+			throw new IllegalArgumentException("Cell size is "+cellSize+"; must be greater than 0.");
+		}
+		this.cellSize = cellSize;
+		return this;
+	}
+
+	/** Reports the width and height of each cell in the finest level of the grid.
+	 *  @return Cell size.
+	 */
+	public float getCellSize()
+	{
+		return cellSize;
+	}
+
+	/** Reports the number of springs in the grid when it was last built.
+	 *  @return Number of springs in the grid.
+	 */
+	public int getNumSprings()
+	{
+		return size;
+	}
+
+	/** Bins the given springs into the grid using the current positions of their ends. Any springs
+	 *  previously in the grid are discarded.
+	 *  @param springs Springs to place in the grid.
+	 *  @return This grid.
+	 */
+	public SpringGrid build(Collection<Spring> springs)
+	{
+		return build(springs, null);
+	}
+
+	/** Bins the given springs into the grid using the positions of their ends in the given snapshot
+	 *  rather than their current positions. This allows a grid to match what has been drawn from a
+	 *  snapshot while a {@link ParticleSimulator} continues to move the particles. Springs with an end
+	 *  that is not in the snapshot are left out and any springs previously in the grid are discarded.
+	 *  @param springs Springs to place in the grid.
+	 *  @param snapshot Snapshot holding the positions of the spring ends, or null to use their current positions.
+	 *  @return This grid.
+	 */
+	public SpringGrid build(Collection<Spring> springs, ParticleSnapshot snapshot)
+	{
+		ensureCapacity(springs.size());
+		size = 0;
+		for (Spring spring : springs)
+		{
+			float x1, y1, x2, y2;
+			if (snapshot == null)
+			{
+				Vector3D p1 = spring.getOneEnd().position();
+				Vector3D p2 = spring.getTheOtherEnd().position();
+				x1 = p1.x();
+				y1 = p1.y();
+				x2 = p2.x();
+				y2 = p2.y();
+			}
+			else
+			{
+				int i1 = snapshot.indexOf(spring.getOneEnd());
+				int i2 = snapshot.indexOf(spring.getTheOtherEnd());
+				if ((i1 < 0) || (i2 < 0))
+				{
+					continue;
+				}
+				x1 = snapshot.getX(i1);
+				y1 = snapshot.getY(i1);
+				x2 = snapshot.getX(i2);
+				y2 = snapshot.getY(i2);
+			}
+			this.springs[size] = spring;
+			minX[size] = Math.min(x1, x2);
+			minY[size] = Math.min(y1, y2);
+			maxX[size] = Math.max(x1, x2);
+			maxY[size] = Math.max(y1, y2);
+			size++;
+		}
+		for (int i=size; i<this.springs.length; i++)
+		{
+			this.springs[i] = null;
+		}
+		return bin();
+	}
+
+	/** Provides the springs in the grid whose bounding rectangle overlaps the given rectangle. A spring
+	 *  that is found need not itself cross the rectangle, but every spring that does is found.
+	 *  @param x1 x coordinate of one corner of the rectangle.
+	 *  @param y1 y coordinate of one corner of the rectangle.
+	 *  @param x2 x coordinate of the opposite corner of the rectangle.
+	 *  @param y2 y coordinate of the opposite corner of the rectangle.
+	 *  @return List of springs whose bounding rectangle overlaps or touches the given rectangle, which may be empty.
+	 */
+	public List<Spring> getSpringsInRectangle(float x1, float y1, float x2, float y2)
+	{
+		List<Spring> found = new ArrayList<Spring>();
+		float qMinX = Math.min(x1, x2);
+		float qMinY = Math.min(y1, y2);
+		float qMaxX = Math.max(x1, x2);
+		float qMaxY = Math.max(y1, y2);
+		if ((size == 0) || (qMaxX < originX) || (qMaxY < originY) || (qMinX > extentX) || (qMinY > extentY))
+		{
+			return found;
+		}
+
+		// Searching more cells than there are springs would be slower than testing every spring.
+		double numSearched = 0;
+		for (int level=0; level<MAX_LEVELS; level++)
+		{
+			if (levelCount[level] > 0)
+			{
+				float reach = levelReach[level];
+				numSearched += (double)(colAt(qMaxX, level)-colAt(qMinX-reach, level)+1)*(rowAt(qMaxY, level)-rowAt(qMinY-reach, level)+1);
+			}
+		}
+		if (numSearched > size)
+		{
+			for (int i=0; i<size; i++)
+			{
+				if (isOverlapping(i, qMinX, qMinY, qMaxX, qMaxY))
+				{
+					found.add(springs[i]);
+				}
+			}
+			return found;
+		}
+
+		// A spring overlaps the query only if its minimum corner lies within its level's reach of the query.
+		for (int level=0; level<MAX_LEVELS; level++)
+		{
+			if (levelCount[level] == 0)
+			{
+				continue;
+			}
+			float reach = levelReach[level];
+			int colMin = colAt(qMinX-reach, level);
+			int colMax = colAt(qMaxX, level);
+			int rowMin = rowAt(qMinY-reach, level);
+			int rowMax = rowAt(qMaxY, level);
+			for (int r=rowMin; r<=rowMax; r++)
+			{
+				for (int c=colMin; c<=colMax; c++)
+				{
+					int cell = cellId(level, c, r);
+					for (int k=cellStart[cell]; k<cellStart[cell+1]; k++)
+					{
+						int i = sorted[k];
+						// Only report springs from their own cell as other cells may share this table entry.
+						if ((levelOf[i] == level) && (colOf[i] == c) && (rowOf[i] == r) && isOverlapping(i, qMinX, qMinY, qMaxX, qMaxY))
+						{
+							found.add(springs[i]);
+						}
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Bins the springs whose bounding rectangles have been found into the levels and cells of the grid.
+	 *  @return This grid.
+	 */
+	private SpringGrid bin()
+	{
+		originX = Float.MAX_VALUE;
+		originY = Float.MAX_VALUE;
+		extentX = -Float.MAX_VALUE;
+		extentY = -Float.MAX_VALUE;
+		for (int i=0; i<size; i++)
+		{
+			originX = Math.min(originX, minX[i]);
+			originY = Math.min(originY, minY[i]);
+			extentX = Math.max(extentX, maxX[i]);
+			extentY = Math.max(extentY, maxY[i]);
+		}
+		if (size == 0)
+		{
+			originX = originY = extentX = extentY = 0;
+		}
+
+		// Place each spring in the finest level whose cells are at least as large as the spring.
+		for (int level=0; level<MAX_LEVELS; level++)
+		{
+			levelReach[level] = 0;
+			levelCount[level] = 0;
+		}
+		for (int i=0; i<size; i++)
+		{
+			float extent = Math.max(maxX[i]-minX[i], maxY[i]-minY[i]);
+			int level = 0;
+			float levelSize = cellSize;
+			while ((levelSize < extent) && (level < MAX_LEVELS-1))
+			{
+				levelSize *= 2;
+				level++;
+			}
+			levelOf[i] = level;
+			colOf[i] = colAt(minX[i], level);
+			rowOf[i] = rowAt(minY[i], level);
+			levelReach[level] = Math.max(levelReach[level], extent);
+			levelCount[level]++;
+		}
+
+		numCells = Math.max(16, 2*size);
+		if (cellStart.length < numCells+1)
+		{
+			cellStart = new int[Math.max(numCells+1, cellStart.length*2)];
+		}
+
+		// Count the springs in each cell, then convert counts into start positions.
+		for (int c=0; c<=numCells; c++)
+		{
+			cellStart[c] = 0;
+		}
+		for (int i=0; i<size; i++)
+		{
+			int cell = cellId(levelOf[i], colOf[i], rowOf[i]);
+			cellOfSpring[i] = cell;
+			cellStart[cell+1]++;
+		}
+		for (int c=0; c<numCells; c++)
+		{
+			cellStart[c+1] += cellStart[c];
+		}
+
+		// Place each spring in its cell using the start of each cell as a cursor, then restore the starts.
+		for (int i=0; i<size; i++)
+		{
+			sorted[cellStart[cellOfSpring[i]]++] = i;
+		}
+		for (int c=numCells; c>0; c--)
+		{
+			cellStart[c] = cellStart[c-1];
+		}
+		cellStart[0] = 0;
+		return this;
+	}
+
+	/** Ensures that the arrays holding each spring can hold at least the given number of springs.
+	 *  @param n Number of springs to be held.
+	 */
+	private void ensureCapacity(int n)
+	{
+		if (springs.length < n)
+		{
+			int capacity = Math.max(n, springs.length*2);
+			springs = new Spring[capacity];
+			minX = new float[capacity];
+			minY = new float[capacity];
+			maxX = new float[capacity];
+			maxY = new float[capacity];
+			levelOf = new int[capacity];
+			colOf = new int[capacity];
+			rowOf = new int[capacity];
+			sorted = new int[capacity];
+			cellOfSpring = new int[capacity];
+		}
+	}
+
+	/** Reports the column of the given level containing the given x coordinate.
+	 *  @param x x coordinate.
+	 *  @param level Level of the grid.
+	 *  @return Column, limited to the area covered by the grid.
+	 */
+	private int colAt(float x, int level)
+	{
+		return cellAt(x, originX, extentX, level);
+	}
+
+	/** Reports the row of the given level containing the given y coordinate.
+	 *  @param y y coordinate.
+	 *  @param level Level of the grid.
+	 *  @return Row, limited to the area covered by the grid.
+	 */
+	private int rowAt(float y, int level)
+	{
+		return cellAt(y, originY, extentY, level);
+	}
+
+	/** Reports the column or row of the given level containing the given coordinate.
+	 *  @param v Coordinate.
+	 *  @param origin Minimum coordinate covered by the grid.
+	 *  @param extent Maximum coordinate covered by the grid.
+	 *  @param level Level of the grid.
+	 *  @return Column or row, limited to the area covered by the grid.
+	 */
+	private int cellAt(float v, float origin, float extent, int level)
+	{
+		double levelSize = Math.scalb((double)cellSize, level);
+		double last = Math.min(Math.floor((extent-origin)/levelSize), Integer.MAX_VALUE);
+		return (int)Math.max(0, Math.min(last, Math.floor((v-origin)/levelSize)));
+	}
+
+	/** Reports the table entry of the cell at the given level, column and row.
+	 *  @param level Level of the grid.
+	 *  @param col Column of the cell.
+	 *  @param row Row of the cell.
+	 *  @return Cell identifier.
+	 */
+	private int cellId(int level, int col, int row)
+	{
+		long hash = ((long)level*0x9E3779B97F4A7C15L) ^ ((long)row*0xC2B2AE3D27D4EB4FL) ^ ((long)col*0x165667B19E3779F9L);
+		return (int)(((hash ^ (hash >>> 29)) & Long.MAX_VALUE) % numCells);
+	}
+
+	/** Reports whether the bounding rectangle of the spring at the given position overlaps the given rectangle.
+	 *  @param i Position of the spring.
+	 *  @param qMinX Minimum x coordinate of the rectangle.
+	 *  @param qMinY Minimum y coordinate of the rectangle.
+	 *  @param qMaxX Maximum x coordinate of the rectangle.
+	 *  @param qMaxY Maximum y coordinate of the rectangle.
+	 *  @return True if the rectangles overlap or touch.
+	 */
+	private boolean isOverlapping(int i, float qMinX, float qMinY, float qMaxX, float qMaxY)
+	{
+		return (minX[i] <= qMaxX) && (maxX[i] >= qMinX) && (minY[i] <= qMaxY) && (maxY[i] >= qMinY);
+	}
+}
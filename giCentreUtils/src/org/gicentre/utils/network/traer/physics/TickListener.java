@@ -0,0 +1,32 @@
+package org.gicentre.utils.network.traer.physics;
+
+// *****************************************************************************************
+/** Interface for any class that wishes to be informed of the time taken by, and the effect of,
+ *  each tick of a particle system.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public interface TickListener
+{
+	/** Should respond to the completion of a tick of the particle system. The metrics object is reused
+	 *  for each tick, so any values needed later should be copied before this method returns.
+	 *  @param metrics Measurements of the tick that has just completed.
+	 */
+	public abstract void tickCompleted(TickMetrics metrics);
+}
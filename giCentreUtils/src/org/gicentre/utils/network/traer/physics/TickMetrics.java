@@ -0,0 +1,348 @@
+package org.gicentre.utils.network.traer.physics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
+
+// *****************************************************************************************
+/** Measurements of a single tick of a particle system, passed to each {@link TickListener} added
+ *  to the system. The time taken by the tick is divided between the application of forces and
+ *  the remainder of the integration. Force time is further divided by category of force and by
+ *  integrator stage, as integrators such as Runge-Kutta apply the forces several times per tick.
+ *  The kinetic energy of the system, the fastest particle speed and the furthest distance moved
+ *  by any particle show whether a layout is settling or becoming unstable.
+ *  <br><br>
+ *  Measurements are only taken while a particle system has at least one tick listener, so there is
+ *  no cost to a system that is not being monitored. The same object is updated on every tick to
+ *  avoid affecting the allocation counts it reports.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class TickMetrics
+{
+	// ------------------------------- Object variables --------------------------------
+
+	private long tick;					// Number of ticks measured before this one.
+	private long startNanos;			// Time at which the tick started.
+	private long tickNanos;				// Duration of the tick.
+	private long[] stageNanos;			// Time spent applying forces in each stage of the tick.
+	private int numStages;				// Number of times forces were applied during the tick.
+	private long dragNanos;				// Time spent applying gravity and drag.
+	private long springNanos;			// Time spent applying springs, or -1 if combined with attractions.
+	private long attractionNanos;		// Time spent applying attractions, or -1 if combined with springs.
+	private long twoBodyNanos;			// Time spent applying springs and attractions.
+	private long customNanos;			// Time spent applying custom forces.
+	private float kineticEnergy;		// Total kinetic energy at the end of the tick.
+	private float maxSpeed;				// Speed of the fastest particle at the end of the tick.
+	private float maxDisplacement;		// Furthest distance moved by a particle during the tick.
+	private long startAllocated;		// Bytes allocated by the ticking thread before the tick.
+	private long allocatedBytes;		// Bytes allocated by the ticking thread during the tick, or -1 if unknown.
+	private float[] startPositions;		// Position of each particle at the start of the tick.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Creates an empty set of measurements.
+	 */
+	TickMetrics()
+	{
+		tick = -1;
+		stageNanos = new long[4];
+		startPositions = new float[0];
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Reports the number of the measured tick. Ticks are numbered from 0, starting with the first
+	 *  tick measured by the particle system.
+	 *  @return Tick number.
+	 */
+	public long getTick()
+	{
+		return tick;
+	}
+
+	/** Reports the total time taken by the tick.
+	 *  @return Duration of the tick in nanoseconds.
+	 */
+	public long getTickNanos()
+	{
+		return tickNanos;
+	}
+
+	/** Reports the time spent applying forces to the particles over all stages of the tick.
+	 *  @return Force application time in nanoseconds.
+	 */
+	public long getForceNanos()
+	{
+		return dragNanos + twoBodyNanos + customNanos;
+	}
+
+	/** Reports the time spent in the tick other than applying forces. This includes updating the
+	 *  positions and velocities of the particles and any record keeping by the integrator.
+	 *  @return Integration time in nanoseconds.
+	 */
+	public long getIntegrationNanos()
+	{
+		return tickNanos - getForceNanos();
+	}
+
+	/** Reports the number of times forces were applied during the tick. This is 1 for Euler
+	 *  integration and 4 for Runge-Kutta, for example, or 0 if the tick was skipped because the
+	 *  system had settled.
+	 *  @return Number of integrator stages.
+	 */
+	public int getNumStages()
+	{
+		return numStages;
+	}
+
+	/** Reports the time spent applying forces in the given stage of the tick.
+	 *  @param stage Stage number, between 0 and <code>getNumStages()-1</code>.
+	 *  @return Force application time of the stage in nanoseconds.
+	 *  @throws IndexOutOfBoundsException if the stage is out of range.
+	 */
+	public long getStageNanos(int stage) throws IndexOutOfBoundsException
+	{
+		if ((stage < 0) || (stage >= numStages))
+		{
+			throw new IndexOutOfBoundsException("Stage "+stage+" is outside the range of the tick (0-"+(numStages-1)+").");
+		}
+		return stageNanos[stage];
+	}
+
+	/** Reports the time spent applying gravity and drag over all stages of the tick.
+	 *  @return Gravity and drag time in nanoseconds.
+	 */
+	public long getDragNanos()
+	{
+		return dragNanos;
+	}
+
+	/** Reports the time spent applying springs over all stages of the tick. When springs and attractions
+	 *  are applied together, in batches or in parallel, only their combined time is known.
+	 *  @return Spring time in nanoseconds, or -1 if only the combined time is known.
+	 *  @see #getTwoBodyNanos()
+	 */
+	public long getSpringNanos()
+	{
+		return springNanos;
+	}
+
+	/** Reports the time spent applying attractions over all stages of the tick. When springs and
+	 *  attractions are applied together, in batches or in parallel, only their combined time is known.
+	 *  @return Attraction time in nanoseconds, or -1 if only the combined time is known.
+	 *  @see #getTwoBodyNanos()
+	 */
+	public long getAttractionNanos()
+	{
+		return attractionNanos;
+	}
+
+	/** Reports the combined time spent applying springs and attractions over all stages of the tick.
+	 *  @return Spring and attraction time in nanoseconds.
+	 */
+	public long getTwoBodyNanos()
+	{
+		return twoBodyNanos;
+	}
+
+	/** Reports the time spent applying custom forces over all stages of the tick.
+	 *  @return Custom force time in nanoseconds.
+	 */
+	public long getCustomNanos()
+	{
+		return customNanos;
+	}
+
+	/** Reports the total kinetic energy (<code>mv&sup2;/2</code>) of the particles at the end of the tick.
+	 *  @return Kinetic energy of the system.
+	 */
+	public float getKineticEnergy()
+	{
+		return kineticEnergy;
+	}
+
+	/** Reports the speed of the fastest moving particle at the end of the tick.
+	 *  @return Maximum particle speed.
+	 */
+	public float getMaxSpeed()
+	{
+		return maxSpeed;
+	}
+
+	/** Reports the furthest distance moved by any particle during the tick.
+	 *  @return Maximum displacement.
+	 */
+	public float getMaxDisplacement()
+	{
+		return maxDisplacement;
+	}
+
+	/** Reports the number of bytes allocated on the heap by the thread that called <code>tick()</code>
+	 *  during the tick. Allocations made by any threads used to apply forces in parallel are not included.
+	 *  @return Number of bytes allocated, or -1 if the Java virtual machine cannot measure allocations.
+	 */
+	public long getAllocatedBytes()
+	{
+		return allocatedBytes;
+	}
+
+	// ------------------------------- Package methods ---------------------------------
+
+	/** Resets the measurements at the start of a tick and records the initial particle positions.
+	 *  @param particles Particles in the system being ticked.
+	 */
+	void startTick(Collection<Particle> particles)
+	{
+		tick++;
+		numStages = 0;
+		dragNanos = 0;
+		springNanos = 0;
+		attractionNanos = 0;
+		twoBodyNanos = 0;
+		customNanos = 0;
+
+		if (startPositions.length < 3*particles.size())
+		{
+			startPositions = new float[3*particles.size()];
+		}
+		int i = 0;
+		for (Particle p : particles)
+		{
+			startPositions[i++] = p.position().x();
+			startPositions[i++] = p.position().y();
+			startPositions[i++] = p.position().z();
+		}
+		startAllocated = getThreadAllocatedBytes();
+		startNanos = System.nanoTime();
+	}
+
+	/** Records the time spent applying each category of force in one stage of the tick.
+	 *  @param drag Time spent applying gravity and drag in nanoseconds.
+	 *  @param springs Time spent applying springs, or -1 if combined with attractions.
+	 *  @param attractions Time spent applying attractions, or -1 if combined with springs.
+	 *  @param twoBody Time spent applying springs and attractions.
+	 *  @param custom Time spent applying custom forces.
+	 */
+	void addStage(long drag, long springs, long attractions, long twoBody, long custom)
+	{
+		if (numStages == stageNanos.length)
+		{
+			long[] newStages = new long[numStages*2];
+			System.arraycopy(stageNanos, 0, newStages, 0, numStages);
+			stageNanos = newStages;
+		}
+		stageNanos[numStages++] = drag + twoBody + custom;
+		dragNanos += drag;
+		springNanos = ((springs < 0) || (springNanos < 0)) ? -1 : springNanos+springs;
+		attractionNanos = ((attractions < 0) || (attractionNanos < 0)) ? -1 : attractionNanos+attractions;
+		twoBodyNanos += twoBody;
+		customNanos += custom;
+	}
+
+	/** Completes the measurements at the end of a tick.
+	 *  @param particles Particles in the system that has been ticked.
+	 */
+	void endTick(Collection<Particle> particles)
+	{
+		tickNanos = System.nanoTime()-startNanos;
+		long endAllocated = getThreadAllocatedBytes();
+		allocatedBytes = ((startAllocated < 0) || (endAllocated < 0)) ? -1 : endAllocated-startAllocated;
+
+		kineticEnergy = 0;
+		float maxSpeedSq = 0;
+		float maxDistSq = 0;
+		int i = 0;
+		int numStarted = startPositions.length/3;
+		for (Particle p : particles)
+		{
+			Vector3D v = p.velocity();
+			float speedSq = v.x()*v.x() + v.y()*v.y() + v.z()*v.z();
+			kineticEnergy += 0.5f*p.mass()*speedSq;
+			maxSpeedSq = Math.max(maxSpeedSq, speedSq);
+			if (i < numStarted)
+			{
+				float dx = p.position().x()-startPositions[3*i];
+				float dy = p.position().y()-startPositions[3*i+1];
+				float dz = p.position().z()-startPositions[3*i+2];
+				maxDistSq = Math.max(maxDistSq, dx*dx + dy*dy + dz*dz);
+			}
+			i++;
+		}
+		maxSpeed = (float)Math.sqrt(maxSpeedSq);
+		maxDisplacement = (float)Math.sqrt(maxDistSq);
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Reports the number of bytes allocated by the current thread since it started.
+	 *  @return Number of bytes allocated, or -1 if allocations cannot be measured.
+	 */
+	private static long getThreadAllocatedBytes()
+	{
+		try
+		{
+			return AllocationCounter.getAllocatedBytes();
+		}
+		catch (LinkageError e)
+		{
+			return -1;
+		}
+	}
+
+	// -------------------------------- Nested classes ---------------------------------
+
+	/** Measures heap allocation by the current thread where the Java virtual machine supports it.
+	 *  Kept separate so that a virtual machine without the extended thread bean fails only when this
+	 *  class is loaded rather than when the metrics are created.
+	 */
+	private static class AllocationCounter
+	{
+		private static final com.sun.management.ThreadMXBean BEAN = findBean();
+
+		/** Reports the number of bytes allocated by the current thread since it started.
+		 *  @return Number of bytes allocated, or -1 if allocations cannot be measured.
+		 */
+		static long getAllocatedBytes()
+		{
+			if (BEAN == null)
+			{
+				return -1;
+			}
+			return BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		/** Finds the thread bean able to measure allocations.
+		 *  @return Thread bean, or null if allocations cannot be measured.
+		 */
+		private static com.sun.management.ThreadMXBean findBean()
+		{
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean)
+			{
+				com.sun.management.ThreadMXBean extendedBean = (com.sun.management.ThreadMXBean)bean;
+				if (extendedBean.isThreadAllocatedMemorySupported() && extendedBean.isThreadAllocatedMemoryEnabled())
+				{
+					return extendedBean;
+				}
+			}
+			return null;
+		}
+	}
+}
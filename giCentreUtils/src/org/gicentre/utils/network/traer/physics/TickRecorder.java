@@ -0,0 +1,557 @@
+package org.gicentre.utils.network.traer.physics;
+
+// *****************************************************************************************
+/** Records the state of a particle system after each tick so that recent ticks can be replayed
+ *  without re-running the simulation. This allows a layout that has misbehaved to be examined tick
+ *  by tick after the event, and allows an animation to be scrubbed backwards and forwards smoothly.
+ *  Recording is enabled by passing a recorder to {@link ParticleSystem#setTickRecorder(TickRecorder)},
+ *  or by calling {@link #record()} directly whenever the state should be captured.
+ *  <br><br>
+ *  The position and velocity of every particle is recorded exactly. Every few ticks a keyframe holding
+ *  the complete state is stored. Other ticks store only the difference from the previous tick: the bits
+ *  of each value are combined with those of the previous value using exclusive-or, leaving mostly zero
+ *  bits for values that have changed little, and the result is written with a variable number of bytes.
+ *  Particles that have not moved, such as those that are fixed or asleep, take a single byte per value.
+ *  <br><br>
+ *  Frames are held in a ring buffer of fixed size. Once it is full, the oldest frames are discarded to
+ *  make room for new ones, so the recorder always holds the most recent ticks that fit. To replay a
+ *  tick, {@link #seek(long)} decodes it from the nearest earlier keyframe, after which its positions
+ *  and velocities can be read or restored to the particle system. Particles are identified by their
+ *  order in the system, so a keyframe is recorded whenever particles are added or removed.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class TickRecorder
+{
+	// ------------------------------- Class variables ---------------------------------
+
+	/** Default number of ticks between keyframes. */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 50;
+
+	private static final int VALUES = 6;		// Values recorded per particle: position and velocity.
+
+	// ------------------------------- Object variables --------------------------------
+
+	private final ParticleSystem physics;		// System whose ticks are recorded.
+	private final int keyframeInterval;			// Maximum number of ticks between keyframes.
+	private byte[] ring;						// Encoded frames, oldest first, wrapping around the end.
+	private int head;							// Position in the ring of the oldest frame.
+	private int used;							// Number of bytes of the ring holding frames.
+	private Frame[] frames;						// Description of each frame, oldest first, wrapping around the end.
+	private int firstFrame;						// Position in frames of the oldest frame.
+	private int numFrames;						// Number of frames held.
+	private long firstTick;						// Tick number of the oldest frame.
+	private int ticksSinceKeyframe;				// Number of frames recorded since the last keyframe.
+
+	private Particle[] particles;				// Particles in the order they were last recorded.
+	private int numParticles;					// Number of particles last recorded.
+	private int[] previous;						// Bits of each value when last recorded.
+	private int[] current;						// Bits of each value being recorded.
+	private byte[] encoded;						// Frame being encoded or decoded.
+
+	private int[] decoded;						// Bits of each value in the most recently decoded frame.
+	private int numDecoded;						// Number of particles in the most recently decoded frame.
+	private long decodedTick;					// Tick of the most recently decoded frame, or -1 if none.
+
+	// --------------------------------- Constructors ----------------------------------
+
+	/** Creates a recorder for the given particle system with the default keyframe interval. Recording
+	 *  starts once the recorder is passed to {@link ParticleSystem#setTickRecorder(TickRecorder)}.
+	 *  @param physics Particle system to record.
+	 *  @param capacity Size of the ring buffer in bytes. No more than this number of frames are held.
+	 *  @throws NullPointerException if the particle system is null.
+	 *  @throws IllegalArgumentException if the capacity is not positive.
+	 */
+	public TickRecorder(ParticleSystem physics, int capacity) throws NullPointerException, IllegalArgumentException
+	{
+		this(physics, capacity, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/** Creates a recorder for the given particle system. Recording starts once the recorder is passed to
+	 *  {@link ParticleSystem#setTickRecorder(TickRecorder)}. Frequent keyframes make seeking quicker but
+	 *  take more space, so fewer ticks can be held.
+	 *  @param physics Particle system to record.
+	 *  @param capacity Size of the ring buffer in bytes. This is increased if necessary to hold a single keyframe.
+	 *                  No more than this number of frames are held, which limits the history of a system
+	 *                  with no particles, whose frames take no space.
+	 *  @param keyframeInterval Maximum number of ticks between keyframes.
+	 *  @throws NullPointerException if the particle system is null.
+	 *  @throws IllegalArgumentException if the capacity or keyframe interval is not positive.
+	 */
+	public TickRecorder(ParticleSystem physics, int capacity, int keyframeInterval) throws NullPointerException, IllegalArgumentException
+	{
+		if (physics == null)
+		{
+			throw new NullPointerException("Cannot record ticks of a null particle system.");
+		}
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Recorder capacity is "+capacity+" bytes; must be at least 1.");
+		}
+		if (keyframeInterval < 1)
+		{
+			throw new IllegalArgumentException("Keyframe interval is "+keyframeInterval+"; must be at least 1.");
+		}
+		this.physics = physics;
+		this.keyframeInterval = keyframeInterval;
+		ring = new byte[capacity];
+		frames = new Frame[16];
+		particles = new Particle[0];
+		previous = new int[0];
+		current = new int[0];
+		encoded = new byte[0];
+		decoded = new int[0];
+		clear();
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Reports the particle system recorded by this recorder.
+	 *  @return Particle system being recorded.
+	 */
+	public ParticleSystem getParticleSystem()
+	{
+		return physics;
+	}
+
+	/** Discards all recorded frames. The next frame to be recorded will be tick 0.
+	 */
+	public void clear()
+	{
+		head = 0;
+		used = 0;
+		firstFrame = 0;
+		numFrames = 0;
+		firstTick = 0;
+		ticksSinceKeyframe = 0;
+		numParticles = 0;
+		numDecoded = 0;
+		decodedTick = -1;
+	}
+
+	/** Records the current position and velocity of every particle in the system as the next tick.
+	 *  This is called automatically at the end of each tick once the recorder has been passed to
+	 *  {@link ParticleSystem#setTickRecorder(TickRecorder)}.
+	 */
+	public void record()
+	{
+		// Capture the current state, noting whether the particles have changed since the last frame.
+		int n = physics.getNumParticles();
+		boolean isKeyframe = (numFrames == 0) || (n != numParticles) || (ticksSinceKeyframe+1 >= keyframeInterval);
+		if (particles.length < n)
+		{
+			particles = grow(particles, n);
+			previous = new int[VALUES*particles.length];
+			current = new int[VALUES*particles.length];
+			isKeyframe = true;
+		}
+		int i = 0;
+		for (Particle p : physics.getParticles())
+		{
+			if (particles[i] != p)
+			{
+				particles[i] = p;
+				isKeyframe = true;
+			}
+			Vector3D pos = p.position();
+			Vector3D vel = p.velocity();
+			int k = VALUES*i;
+			current[k]   = Float.floatToRawIntBits(pos.x());
+			current[k+1] = Float.floatToRawIntBits(pos.y());
+			current[k+2] = Float.floatToRawIntBits(pos.z());
+			current[k+3] = Float.floatToRawIntBits(vel.x());
+			current[k+4] = Float.floatToRawIntBits(vel.y());
+			current[k+5] = Float.floatToRawIntBits(vel.z());
+			i++;
+		}
+		numParticles = n;
+
+		// Make room for the new frame, discarding any deltas whose keyframe has been discarded.
+		int length = encode(isKeyframe);
+		while ((numFrames > 0) && ((used+length > ring.length) || (numFrames >= ring.length)))
+		{
+			removeOldestFrame();
+			while ((numFrames > 0) && !frameAt(0).isKeyframe)
+			{
+				removeOldestFrame();
+			}
+		}
+		if ((numFrames == 0) && !isKeyframe)
+		{
+			isKeyframe = true;
+			length = encode(true);
+		}
+		if (numFrames == 0)
+		{
+			head = 0;
+			if (length > ring.length)
+			{
+				ring = new byte[length];
+			}
+		}
+
+		// Copy the frame into the ring, wrapping around its end if necessary.
+		int tail = (head+used) % ring.length;
+		int firstPart = Math.min(length, ring.length-tail);
+		System.arraycopy(encoded, 0, ring, tail, firstPart);
+		System.arraycopy(encoded, firstPart, ring, 0, length-firstPart);
+		used += length;
+		addFrame(tail, length, isKeyframe, n);
+		ticksSinceKeyframe = isKeyframe ? 0 : ticksSinceKeyframe+1;
+
+		int[] swap = previous;
+		previous = current;
+		current = swap;
+	}
+
+	/** Reports the tick number of the oldest frame held by the recorder.
+	 *  @return Oldest tick that can be replayed, or -1 if nothing has been recorded.
+	 */
+	public long getFirstTick()
+	{
+		return (numFrames == 0) ? -1 : firstTick;
+	}
+
+	/** Reports the tick number of the most recently recorded frame.
+	 *  @return Newest tick that can be replayed, or -1 if nothing has been recorded.
+	 */
+	public long getLastTick()
+	{
+		return (numFrames == 0) ? -1 : firstTick+numFrames-1;
+	}
+
+	/** Reports the number of ticks held by the recorder.
+	 *  @return Number of frames that can be replayed.
+	 */
+	public int getNumFrames()
+	{
+		return numFrames;
+	}
+
+	/** Reports the number of bytes of the ring buffer occupied by recorded frames.
+	 *  @return Size of the recorded frames in bytes.
+	 */
+	public int getSizeInBytes()
+	{
+		return used;
+	}
+
+	/** Reports the size of the ring buffer in which frames are recorded.
+	 *  @return Capacity in bytes.
+	 */
+	public int getCapacity()
+	{
+		return ring.length;
+	}
+
+	/** Decodes the state of the particles at the given tick so that it can be read or restored. Seeking
+	 *  forwards from the previous seek reuses the frames already decoded, so stepping through consecutive
+	 *  ticks decodes each frame only once.
+	 *  @param tick Tick to decode.
+	 *  @return True if the tick was decoded, false if it is not held by the recorder.
+	 */
+	public boolean seek(long tick)
+	{
+		if ((tick < firstTick) || (tick >= firstTick+numFrames))
+		{
+			return false;
+		}
+		int target = (int)(tick-firstTick);
+		int start = target;
+		while (!frameAt(start).isKeyframe)
+		{
+			start--;
+		}
+
+		// Continue from the last decoded frame if it lies between the keyframe and the target.
+		int decodedIndex = (int)(decodedTick-firstTick);
+		if ((decodedTick >= firstTick) && (decodedIndex >= start) && (decodedIndex <= target))
+		{
+			start = decodedIndex+1;
+		}
+		for (int f=start; f<=target; f++)
+		{
+			decode(frameAt(f));
+		}
+		decodedTick = tick;
+		return true;
+	}
+
+	/** Reports the tick most recently decoded by {@link #seek(long)}.
+	 *  @return Decoded tick, or -1 if no tick has been decoded.
+	 */
+	public long getTick()
+	{
+		return decodedTick;
+	}
+
+	/** Reports the number of particles in the tick most recently decoded by {@link #seek(long)}.
+	 *  @return Number of particles.
+	 */
+	public int getNumParticles()
+	{
+		return numDecoded;
+	}
+
+	/** Copies the positions of the particles in the tick most recently decoded by {@link #seek(long)}
+	 *  into the given array as consecutive x, y and z coordinates.
+	 *  @param xyz Array of at least <code>3*getNumParticles()</code> elements to receive the positions.
+	 *  @return The given array.
+	 *  @throws IllegalArgumentException if the array is too small.
+	 */
+	public float[] getPositions(float[] xyz) throws IllegalArgumentException
+	{
+		return copyValues(xyz, 0);
+	}
+
+	/** Copies the velocities of the particles in the tick most recently decoded by {@link #seek(long)}
+	 *  into the given array as consecutive x, y and z components.
+	 *  @param xyz Array of at least <code>3*getNumParticles()</code> elements to receive the velocities.
+	 *  @return The given array.
+	 *  @throws IllegalArgumentException if the array is too small.
+	 */
+	public float[] getVelocities(float[] xyz) throws IllegalArgumentException
+	{
+		return copyValues(xyz, 3);
+	}
+
+	/** Sets the position and velocity of each particle in the system to those in the tick most recently
+	 *  decoded by {@link #seek(long)}. Particles are matched by their order in the system. Restored
+	 *  particles are woken so that the simulation can continue from the restored state.
+	 *  @throws IllegalStateException if no tick has been decoded or the number of particles in the system
+	 *                                differs from the number in the decoded tick.
+	 */
+	public void restore() throws IllegalStateException
+	{
+		if (decodedTick < 0)
+		{
+			throw new IllegalStateException("No tick has been decoded to restore.");
+		}
+		if (physics.getNumParticles() != numDecoded)
+		{
+			throw new IllegalStateException("Tick "+decodedTick+" has "+numDecoded+" particles but the system has "+physics.getNumParticles()+".");
+		}
+		int i = 0;
+		for (Particle p : physics.getParticles())
+		{
+			int k = VALUES*i;
+			p.position().set(Float.intBitsToFloat(decoded[k]), Float.intBitsToFloat(decoded[k+1]), Float.intBitsToFloat(decoded[k+2]));
+			p.velocity().set(Float.intBitsToFloat(decoded[k+3]), Float.intBitsToFloat(decoded[k+4]), Float.intBitsToFloat(decoded[k+5]));
+			p.wake();
+			i++;
+		}
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Encodes the values being recorded into the frame buffer.
+	 *  @param isKeyframe Whether to encode the values in full rather than as differences from the previous frame.
+	 *  @return Number of bytes in the encoded frame.
+	 */
+	private int encode(boolean isKeyframe)
+	{
+		int numValues = VALUES*numParticles;
+		if (encoded.length < 5*numValues)
+		{
+			encoded = new byte[5*numValues];
+		}
+		int pos = 0;
+		if (isKeyframe)
+		{
+			for (int k=0; k<numValues; k++)
+			{
+				int bits = current[k];
+				encoded[pos++] = (byte)bits;
+				encoded[pos++] = (byte)(bits >>> 8);
+				encoded[pos++] = (byte)(bits >>> 16);
+				encoded[pos++] = (byte)(bits >>> 24);
+			}
+		}
+		else
+		{
+			for (int k=0; k<numValues; k++)
+			{
+				int bits = current[k] ^ previous[k];
+				while ((bits & ~0x7f) != 0)
+				{
+					encoded[pos++] = (byte)((bits & 0x7f) | 0x80);
+					bits >>>= 7;
+				}
+				encoded[pos++] = (byte)bits;
+			}
+		}
+		return pos;
+	}
+
+	/** Decodes the given frame, updating the decoded values from the previous frame if it is a delta.
+	 *  @param frame Frame to decode.
+	 */
+	private void decode(Frame frame)
+	{
+		int numValues = VALUES*frame.numParticles;
+		if (decoded.length < numValues)
+		{
+			decoded = new int[numValues];
+		}
+		if (encoded.length < frame.length)
+		{
+			encoded = new byte[frame.length];
+		}
+		int firstPart = Math.min(frame.length, ring.length-frame.offset);
+		System.arraycopy(ring, frame.offset, encoded, 0, firstPart);
+		System.arraycopy(ring, 0, encoded, firstPart, frame.length-firstPart);
+
+		int pos = 0;
+		if (frame.isKeyframe)
+		{
+			for (int k=0; k<numValues; k++)
+			{
+				decoded[k] = (encoded[pos] & 0xff) | ((encoded[pos+1] & 0xff) << 8) |
+				             ((encoded[pos+2] & 0xff) << 16) | ((encoded[pos+3] & 0xff) << 24);
+				pos += 4;
+			}
+		}
+		else
+		{
+			for (int k=0; k<numValues; k++)
+			{
+				int bits = 0;
+				int shift = 0;
+				byte b;
+				do
+				{
+					b = encoded[pos++];
+					bits |= (b & 0x7f) << shift;
+					shift += 7;
+				}
+				while (b < 0);
+				decoded[k] ^= bits;
+			}
+		}
+		numDecoded = frame.numParticles;
+	}
+
+	/** Copies position or velocity components of the decoded tick into the given array.
+	 *  @param xyz Array to receive the components.
+	 *  @param first Index of the first of the three components within each particle's values.
+	 *  @return The given array.
+	 *  @throws IllegalArgumentException if the array is too small.
+	 */
+	private float[] copyValues(float[] xyz, int first) throws IllegalArgumentException
+	{
+		if (xyz.length < 3*numDecoded)
+		{
+			throw new IllegalArgumentException("Array has "+xyz.length+" elements; needs at least "+3*numDecoded+".");
+		}
+		for (int i=0; i<numDecoded; i++)
+		{
+			for (int c=0; c<3; c++)
+			{
+				xyz[3*i+c] = Float.intBitsToFloat(decoded[VALUES*i+first+c]);
+			}
+		}
+		return xyz;
+	}
+
+	/** Reports the frame at the given position from the oldest frame held.
+	 *  @param i Position of the frame, where 0 is the oldest.
+	 *  @return Frame at the given position.
+	 */
+	private Frame frameAt(int i)
+	{
+		return frames[(firstFrame+i) % frames.length];
+	}
+
+	/** Adds a description of a newly recorded frame.
+	 *  @param offset Position of the frame in the ring.
+	 *  @param length Number of bytes in the frame.
+	 *  @param isKeyframe Whether the frame is a keyframe.
+	 *  @param n Number of particles in the frame.
+	 */
+	private void addFrame(int offset, int length, boolean isKeyframe, int n)
+	{
+		if (numFrames == frames.length)
+		{
+			Frame[] newFrames = new Frame[frames.length*2];
+			for (int i=0; i<numFrames; i++)
+			{
+				newFrames[i] = frameAt(i);
+			}
+			frames = newFrames;
+			firstFrame = 0;
+		}
+		int slot = (firstFrame+numFrames) % frames.length;
+		if (frames[slot] == null)
+		{
+			frames[slot] = new Frame();
+		}
+		frames[slot].offset = offset;
+		frames[slot].length = length;
+		frames[slot].isKeyframe = isKeyframe;
+		frames[slot].numParticles = n;
+		numFrames++;
+	}
+
+	/** Discards the oldest frame, freeing its space in the ring.
+	 */
+	private void removeOldestFrame()
+	{
+		Frame oldest = frameAt(0);
+		head = (head+oldest.length) % ring.length;
+		used -= oldest.length;
+		firstFrame = (firstFrame+1) % frames.length;
+		numFrames--;
+		firstTick++;
+		if (decodedTick < firstTick)
+		{
+			decodedTick = -1;
+		}
+	}
+
+	/** Provides a copy of the given array with at least the given length.
+	 *  @param array Array to copy.
+	 *  @param length Minimum length of the new array.
+	 *  @return Larger copy of the array.
+	 */
+	private static Particle[] grow(Particle[] array, int length)
+	{
+		Particle[] newArray = new Particle[Math.max(length, array.length*2)];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	// -------------------------------- Nested classes ---------------------------------
+
+	/** Location and type of a frame within the ring buffer.
+	 */
+	private static class Frame
+	{
+		int offset;				// Position of the first byte of the frame in the ring.
+		int length;				// Number of bytes in the frame.
+		boolean isKeyframe;		// Whether the frame holds complete values rather than differences.
+		int numParticles;		// Number of particles in the frame.
+
+		/** Creates an empty frame description.
+		 */
+		Frame()
+		{
+			// Fields are set when the frame is added.
+		}
+	}
+}
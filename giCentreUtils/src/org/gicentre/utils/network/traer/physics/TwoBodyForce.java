@@ -21,6 +21,16 @@ public abstract class TwoBodyForce extends TargetedForce
 {
 	// -------------------------------- Object variables ----------------------------------
 	
+	/** Reusable pair of force vectors for each thread applying forces. */
+	private static final ThreadLocal<Vector3D[]> SCRATCH = new ThreadLocal<Vector3D[]>()
+	{
+		@Override
+		protected Vector3D[] initialValue()
+		{
+			return new Vector3D[] {new Vector3D(), new Vector3D()};
+		}
+	};
+	
 	private Particle oneEnd;		// One particle in the intertwined pair; classes extending this one should use getOneEnd() to access it.
 	private Particle theOtherEnd;	// The Other {@link Particle} in the intertwined pair.
 	
@@ -65,27 +75,28 @@ public abstract class TwoBodyForce extends TargetedForce
 	 *  {@link Particle#force} values.
 	 *  Users extending this class to create custom Forces need only implement {@link #forcePair()}, 
 	 *  taking advantage of the static packaging method {@link #equalAndOpposite(Vector3D)} or 
-	 *  {@link #specifyBoth(Vector3D, Vector3D)} to create the {@link ForcePair}.
+	 *  {@link #specifyBoth(Vector3D, Vector3D)} to create the {@link ForcePair}. Forces that also
+	 *  override {@link #calculateForces(Vector3D, Vector3D)} are applied without creating any new objects.
 	 *  @return This two body force.
 	 */
 	public TwoBodyForce apply() 
 	{
 		if (isOn() && (oneEnd.isFree() || theOtherEnd.isFree())) 
 		{
-			ForcePair fp = forcePair();
+			Vector3D[] forces = SCRATCH.get();
+			calculateForces(forces[0], forces[1]);
 			if (oneEnd.isFree())
 			{
-				oneEnd.addForce(fp.forceOnOneEnd());
+				oneEnd.addForce(forces[0]);
 			}
 			if (theOtherEnd.isFree())
 			{
-				theOtherEnd.addForce(fp.forceOnTheOtherEnd());
+				theOtherEnd.addForce(forces[1]);
 			}
 		}
 		return this;
 	}
 	
-
 	/** Turns this force off.
 	 *  @return this TwoBodyForce
 	 */
@@ -172,6 +183,30 @@ public abstract class TwoBodyForce extends TargetedForce
 	 */
 	protected abstract ForcePair forcePair();
 	
+	/** Calculates the forces to apply to each end of this force and writes them into the two given
+	 *  vectors, so that the caller can reuse the same vectors for every force it applies. The default
+	 *  implementation copies the forces from a new {@link #forcePair()}. Classes that override this 
+	 *  method to set the components of the given vectors directly allow this force to be applied 
+	 *  without creating any new objects; they should still implement {@link #forcePair()} for 
+	 *  compatibility with code that calls it.
+	 *  @param forceOnOneEnd Vector to hold the force on {@link #oneEnd}. Its initial value is undefined.
+	 *  @param forceOnTheOtherEnd Vector to hold the force on {@link #theOtherEnd}. Its initial value is undefined.
+	 */
+	protected void calculateForces(Vector3D forceOnOneEnd, Vector3D forceOnTheOtherEnd)
+	{
+		ForcePair fp = forcePair();
+		Vector3D force = fp.forceOnOneEnd();
+		forceOnOneEnd.set(force);
+		if (fp.equalAndOpposite)
+		{
+			forceOnTheOtherEnd.set(-force.x(), -force.y(), -force.z());
+		}
+		else
+		{
+			forceOnTheOtherEnd.set(fp.forceOnTheOtherEnd());
+		}
+	}
+	
 	
 	// -------------------------------- Private methods -----------------------------------
 
@@ -184,6 +219,7 @@ public abstract class TwoBodyForce extends TargetedForce
 	private TwoBodyForce directSetOneEnd(final Particle p) 
 	{ 
 		oneEnd = p; 
+		modified();
 		return this; 
 	}
 
@@ -196,6 +232,7 @@ public abstract class TwoBodyForce extends TargetedForce
 	private TwoBodyForce directSetTheOtherEnd(final Particle p) 
 	{ 
 		theOtherEnd = p; 
+		modified();
 		return this; 
 	}
 	
@@ -0,0 +1,221 @@
+package org.gicentre.utils.network.traer.physics;
+
+// *****************************************************************************************
+/** Velocity Verlet integrator. Positions are advanced using the current velocity and acceleration
+ *  of each particle, forces are evaluated once at the new positions, and velocities are then
+ *  advanced using the average of the old and new accelerations. The scheme is symplectic and second
+ *  order accurate, so conserves energy well and remains stable for networks of springs, yet needs
+ *  only one evaluation of the forces per time step compared with the four of the Runge-Kutta
+ *  integrators.
+ *  <br><br>
+ *  The acceleration of each particle at the end of a step is retained for use at the start of
+ *  the next. An extra force evaluation is made to refresh these accelerations if the system has
+ *  changed since the previous step: if particles have been added or removed, moved, fixed, freed
+ *  or woken, had their mass or velocity changed, or if forces have been added, removed or had
+ *  their properties changed. Custom forces need to call {@link AbstractForce#modified()} when
+ *  their properties change for such changes to be detected. Velocity dependent forces such as drag
+ *  and spring damping are evaluated using the velocity at the start of the step.
+ *  @author Jo Wood, giCentre, City University London.
+ *  @version 3.4, 16th October, 2026.
+ */
+// *****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * source code (see COPYING.LESSER included with this source code). If not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+public class VelocityVerletIntegrator extends Integrator
+{
+	// ------------------------------- Object variables --------------------------------
+
+	private ParticleStore store;				// Particle state at the start of the step.
+	private Particle[] cachedParticles;			// Particles whose accelerations are cached.
+	private int numCached;						// Number of particles with cached accelerations.
+	private float[] accelerations;				// Acceleration of each particle (x,y,z triples).
+	private float[] cachedState;				// Position, velocity and mass of each particle when cached.
+	private boolean[] cachedFree;				// Whether each particle was free to move when cached.
+	private int cachedModCount;					// Modification count of the system when cached.
+
+	// --------------------------------- Constructor -----------------------------------
+
+	/** Sets up the integrator to be used by the given particle system.
+	 *  @param s Particle system upon which to perform the integration.
+	 */
+	public VelocityVerletIntegrator(ParticleSystem s)
+	{
+		super(s);
+		store = new ParticleStore();
+		cachedParticles = new Particle[0];
+		numCached = 0;
+		accelerations = new float[0];
+		cachedState = new float[0];
+		cachedFree = new boolean[0];
+	}
+
+	// ----------------------------------- Methods -------------------------------------
+
+	/** Advances the integrator by one step.
+	 *  @param deltaT the magnitude of the time step to advance.
+	 *  @return The integrator that updates the system.
+	 */
+	public VelocityVerletIntegrator step(float deltaT)
+	{
+		int numParticles = store.load(s.getParticles());
+		if (!isCacheValid(numParticles))
+		{
+			s.clearForces();
+			s.applyForces();
+			storeAccelerations(numParticles);
+		}
+
+		// Advance positions using the current velocities and accelerations.
+		float halfTT = 0.5f*deltaT*deltaT;
+		for (int slot=0; slot<numParticles; slot++)
+		{
+			if (!store.fixed[slot])
+			{
+				int i = slot*3;
+				store.particles[slot].position().set(store.x[slot] + store.vx[slot]*deltaT + accelerations[i]  *halfTT,
+													 store.y[slot] + store.vy[slot]*deltaT + accelerations[i+1]*halfTT,
+													 store.z[slot] + store.vz[slot]*deltaT + accelerations[i+2]*halfTT);
+			}
+		}
+
+		s.clearForces();
+		s.applyForces();
+
+		// Advance velocities using the average of the old and new accelerations.
+		float halfT = 0.5f*deltaT;
+		for (int slot=0; slot<numParticles; slot++)
+		{
+			Particle p = store.particles[slot];
+			Vector3D force = p.getForce();
+			float scale = 1/p.mass();
+			float ax = force.x()*scale;
+			float ay = force.y()*scale;
+			float az = force.z()*scale;
+			int i = slot*3;
+
+			if (!store.fixed[slot])
+			{
+				p.velocity().set(store.vx[slot] + (accelerations[i]  +ax)*halfT,
+								 store.vy[slot] + (accelerations[i+1]+ay)*halfT,
+								 store.vz[slot] + (accelerations[i+2]+az)*halfT);
+				p.age += deltaT;
+			}
+			accelerations[i]   = ax;
+			accelerations[i+1] = ay;
+			accelerations[i+2] = az;
+			cacheState(slot, p);
+		}
+		cachedModCount = s.getModCount();
+		return this;
+	}
+
+	/** Caches the accelerations resulting from the forces currently acting on each particle, so that
+	 *  the next step uses them in place of evaluating the forces at the start of the step.
+	 */
+	void storeForces()
+	{
+		storeAccelerations(store.load(s.getParticles()));
+	}
+	
+	/** Reports whether the cached accelerations can be used at the start of the next step. This is the
+	 *  case if neither the particles nor the forces in the system have changed since they were cached.
+	 *  @return True if the next step can use the cached accelerations.
+	 */
+	boolean isCacheValid()
+	{
+		return isCacheValid(store.load(s.getParticles()));
+	}
+
+	// -------------------------------- Private methods --------------------------------
+
+	/** Reports whether the cached accelerations belong to the particles currently loaded in the store
+	 *  and are still those that would result from evaluating the forces on them.
+	 *  @param numParticles Number of particles in the store.
+	 *  @return True if there is an up to date cached acceleration for the particle in each slot.
+	 */
+	private boolean isCacheValid(int numParticles)
+	{
+		if ((numParticles != numCached) || (s.getModCount() != cachedModCount))
+		{
+			return false;
+		}
+		for (int slot=0; slot<numParticles; slot++)
+		{
+			int i = slot*7;
+			if ((cachedParticles[slot] != store.particles[slot]) || (cachedFree[slot] == store.fixed[slot]) ||
+				(store.x[slot]  != cachedState[i])   || (store.y[slot]  != cachedState[i+1]) || (store.z[slot]  != cachedState[i+2]) ||
+				(store.vx[slot] != cachedState[i+3]) || (store.vy[slot] != cachedState[i+4]) || (store.vz[slot] != cachedState[i+5]) ||
+				(store.mass[slot] != cachedState[i+6]))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Stores the acceleration of each particle resulting from the forces currently acting on it.
+	 *  @param numParticles Number of particles in the store.
+	 */
+	private void storeAccelerations(int numParticles)
+	{
+		if (cachedParticles.length < numParticles)
+		{
+			int capacity = Math.max(numParticles, cachedParticles.length*2);
+			cachedParticles = new Particle[capacity];
+			accelerations = new float[capacity*3];
+			cachedState = new float[capacity*7];
+			cachedFree = new boolean[capacity];
+		}
+
+		for (int slot=0; slot<numParticles; slot++)
+		{
+			Particle p = store.particles[slot];
+			Vector3D force = p.getForce();
+			float scale = 1/p.mass();
+			int i = slot*3;
+			accelerations[i]   = force.x()*scale;
+			accelerations[i+1] = force.y()*scale;
+			accelerations[i+2] = force.z()*scale;
+			cachedParticles[slot] = p;
+			cacheState(slot, p);
+		}
+		for (int slot=numParticles; slot<numCached; slot++)
+		{
+			cachedParticles[slot] = null;
+		}
+		numCached = numParticles;
+		cachedModCount = s.getModCount();
+	}
+	
+	/** Records the state of the given particle at the time its acceleration is cached.
+	 *  @param slot Slot of the particle in the store.
+	 *  @param p Particle whose state is to be recorded.
+	 */
+	private void cacheState(int slot, Particle p)
+	{
+		Vector3D position = p.position();
+		Vector3D velocity = p.velocity();
+		int i = slot*7;
+		cachedState[i]   = position.x();
+		cachedState[i+1] = position.y();
+		cachedState[i+2] = position.z();
+		cachedState[i+3] = velocity.x();
+		cachedState[i+4] = velocity.y();
+		cachedState[i+5] = velocity.z();
+		cachedState[i+6] = p.mass();
+		cachedFree[slot] = p.isFree();
+	}
+}